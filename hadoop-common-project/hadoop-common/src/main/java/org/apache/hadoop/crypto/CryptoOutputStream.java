@@ -21,6 +21,7 @@
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.security.GeneralSecurityException;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -47,7 +48,7 @@
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 public class CryptoOutputStream extends FilterOutputStream implements 
-    Syncable, CanSetDropBehind {
+    Syncable, CanSetDropBehind, WritableByteChannel {
   private final byte[] oneByteBuf = new byte[1];
   private final CryptoCodec codec;
   private final Encryptor encryptor;
@@ -151,6 +152,36 @@ public synchronized void write(byte[] b, int off, int len) throws IOException {
     }
   }
   
+  /**
+   * Same as {@link #write(byte[], int, int)} for the remaining bytes of
+   * {@code src}. A direct buffer is copied to {@link #inBuffer} without
+   * going through the Java heap.
+   * @param src the data.
+   * @return the number of bytes written, i.e. all remaining bytes of src.
+   * @throws IOException
+   */
+  @Override
+  public synchronized int write(ByteBuffer src) throws IOException {
+    checkStream();
+    final int written = src.remaining();
+    while (src.hasRemaining()) {
+      final int len = Math.min(src.remaining(), inBuffer.remaining());
+      final ByteBuffer slice = src.duplicate();
+      slice.limit(slice.position() + len);
+      inBuffer.put(slice);
+      src.position(src.position() + len);
+      if (!inBuffer.hasRemaining()) {
+        encrypt();
+      }
+    }
+    return written;
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return !closed;
+  }
+
   /**
    * Do the encryption, input is {@link #inBuffer} and output is 
    * {@link #outBuffer}.
@@ -176,13 +207,17 @@ private void encrypt() throws IOException {
     }
     final int len = outBuffer.remaining();
     
-    /*
-     * If underlying stream supports {@link ByteBuffer} write in future, needs
-     * refine here. 
-     */
-    final byte[] tmp = getTmpBuf();
-    outBuffer.get(tmp, 0, len);
-    out.write(tmp, 0, len);
+    if (out instanceof WritableByteChannel) {
+      // e.g. a SocketOutputStream, write the direct buffer as it is.
+      final WritableByteChannel channel = (WritableByteChannel) out;
+      while (outBuffer.hasRemaining()) {
+        channel.write(outBuffer);
+      }
+    } else {
+      final byte[] tmp = getTmpBuf();
+      outBuffer.get(tmp, 0, len);
+      out.write(tmp, 0, len);
+    }
     
     streamOffset += len;
     if (encryptor.isContextReset()) {
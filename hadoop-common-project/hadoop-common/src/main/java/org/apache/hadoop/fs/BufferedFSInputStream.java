@@ -21,6 +21,7 @@
 import java.io.EOFException;
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -33,7 +34,7 @@
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
 public class BufferedFSInputStream extends BufferedInputStream
-implements Seekable, PositionedReadable, HasFileDescriptor {
+implements Seekable, PositionedReadable, HasFileDescriptor, VectoredReadable {
   /**
    * Creates a <code>BufferedFSInputStream</code>
    * with the specified buffer size,
@@ -118,6 +119,12 @@ public void readFully(long position, byte[] buffer) throws IOException {
     ((FSInputStream)in).readFully(position, buffer);
   }
 
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    ((FSInputStream)in).readVectored(ranges);
+  }
+
   @Override
   public FileDescriptor getFileDescriptor() throws IOException {
     if (in instanceof HasFileDescriptor) {
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A range of a file covering one or more nearby {@link FileRange}s, which
+ * is read with a single request and then sliced into the ranges it covers.
+ */
+@InterfaceAudience.Private
+public class CombinedFileRange {
+  private final long offset;
+  private long end;
+  private final List<FileRange> underlying = new ArrayList<FileRange>();
+
+  public CombinedFileRange(FileRange first) {
+    this.offset = first.getOffset();
+    this.end = first.getOffset() + first.getLength();
+    underlying.add(first);
+  }
+
+  /**
+   * Try to extend this range to cover the given range, which must not start
+   * before any of the ranges already covered.
+   *
+   * @param minSeek the largest gap between the ranges that is read through
+   *                rather than split into two requests.
+   * @param maxReadSize the largest combined range.
+   * @return true if the range was merged.
+   */
+  boolean merge(FileRange other, int minSeek, int maxReadSize) {
+    final long otherEnd = other.getOffset() + other.getLength();
+    if (other.getOffset() - end > minSeek ||
+        Math.max(end, otherEnd) - offset > maxReadSize) {
+      return false;
+    }
+    end = Math.max(end, otherEnd);
+    underlying.add(other);
+    return true;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return (int) (end - offset);
+  }
+
+  /** @return the ranges covered by this range, in offset order. */
+  public List<FileRange> getUnderlying() {
+    return Collections.unmodifiableList(underlying);
+  }
+
+  /**
+   * Set the data of every covered range to its slice of the given buffer,
+   * which holds the bytes of this whole range starting at its position.
+   */
+  public void setData(ByteBuffer data) {
+    for (FileRange range : underlying) {
+      ByteBuffer slice = data.duplicate();
+      int start = data.position() + (int) (range.getOffset() - offset);
+      slice.position(start);
+      slice.limit(start + range.getLength());
+      range.setData(slice.slice());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "combined[" + offset + "," + end + ") of " + underlying.size() +
+        " range(s)";
+  }
+}
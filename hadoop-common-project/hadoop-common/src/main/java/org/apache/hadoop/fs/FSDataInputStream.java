@@ -21,6 +21,7 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -35,7 +36,7 @@
 public class FSDataInputStream extends DataInputStream
     implements Seekable, PositionedReadable, 
       ByteBufferReadable, HasFileDescriptor, CanSetDropBehind, CanSetReadahead,
-      HasEnhancedByteBufferAccess, CanUnbuffer {
+      HasEnhancedByteBufferAccess, CanUnbuffer, VectoredReadable {
   /**
    * Map ByteBuffers that we have handed out to readers to ByteBufferPool 
    * objects
@@ -146,6 +147,18 @@ public int read(ByteBuffer buf) throws IOException {
     throw new UnsupportedOperationException("Byte-buffer read unsupported by input stream");
   }
 
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    if (in instanceof VectoredReadable) {
+      ((VectoredReadable) in).readVectored(ranges);
+    } else {
+      VectoredReadUtils.readVectored(this, ranges,
+          VectoredReadUtils.DEFAULT_MIN_SEEK,
+          VectoredReadUtils.DEFAULT_MAX_READ_SIZE);
+    }
+  }
+
   @Override
   public FileDescriptor getFileDescriptor() throws IOException {
     if (in instanceof HasFileDescriptor) {
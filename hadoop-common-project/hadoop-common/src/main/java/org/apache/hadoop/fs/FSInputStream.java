@@ -19,6 +19,7 @@
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -32,7 +33,7 @@
 @InterfaceAudience.LimitedPrivate({"HDFS"})
 @InterfaceStability.Unstable
 public abstract class FSInputStream extends InputStream
-    implements Seekable, PositionedReadable {
+    implements Seekable, PositionedReadable, VectoredReadable {
   /**
    * Seek to the given offset from the start of the file.
    * The next read() will be from that location.  Can't
@@ -88,4 +89,29 @@ public void readFully(long position, byte[] buffer)
     throws IOException {
     readFully(position, buffer, 0, buffer.length);
   }
+
+  /**
+   * Read the ranges with one positional read per group of nearby ranges.
+   * Subclasses with a cheaper way of reading several ranges override this;
+   * those with costly seeks can instead widen the grouping.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    VectoredReadUtils.readVectored(this, ranges, minSeekForVectorReads(),
+        maxReadSizeForVectorReads());
+  }
+
+  /**
+   * @return the largest gap between two ranges of a vectored read that is
+   *         read through rather than seeked over.
+   */
+  protected int minSeekForVectorReads() {
+    return VectoredReadUtils.DEFAULT_MIN_SEEK;
+  }
+
+  /** @return the largest range that a vectored read combines ranges into. */
+  protected int maxReadSizeForVectorReads() {
+    return VectoredReadUtils.DEFAULT_MAX_READ_SIZE;
+  }
 }
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A range of bytes of a file to be read by
+ * {@link VectoredReadable#readVectored(java.util.List)}. Once the read
+ * returns, {@link #getData()} holds the bytes of the range.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class FileRange {
+  private final long offset;
+  private final int length;
+  private ByteBuffer data;
+
+  public FileRange(long offset, int length) {
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /** @return the offset in the file where the range starts. */
+  public long getOffset() {
+    return offset;
+  }
+
+  /** @return the number of bytes in the range. */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return the bytes of the range, positioned at the first byte, or null if
+   *         the range has not been read.
+   */
+  public ByteBuffer getData() {
+    return data;
+  }
+
+  public void setData(ByteBuffer data) {
+    this.data = data;
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + "," + (offset + length) + ")";
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Helpers for implementing {@link VectoredReadable}.
+ */
+@InterfaceAudience.Private
+public final class VectoredReadUtils {
+  /** Default largest gap between two ranges that is read through. */
+  public static final int DEFAULT_MIN_SEEK = 4 * 1024;
+  /** Default largest range that ranges are combined into. */
+  public static final int DEFAULT_MAX_READ_SIZE = 1024 * 1024;
+
+  private static final Comparator<FileRange> BY_OFFSET =
+      new Comparator<FileRange>() {
+        @Override
+        public int compare(FileRange a, FileRange b) {
+          return a.getOffset() < b.getOffset() ? -1 :
+              a.getOffset() == b.getOffset() ? 0 : 1;
+        }
+      };
+
+  private VectoredReadUtils() {
+  }
+
+  /**
+   * Check the given ranges and return them sorted by offset.
+   *
+   * @param fileLength the length of the file, or a negative value if it is
+   *                   not known, in which case reading past the end of the
+   *                   file is left to the read itself to detect.
+   * @throws EOFException if a range extends past the end of the file.
+   * @throws IllegalArgumentException if a range has a negative offset or
+   *         length, or if two ranges overlap.
+   */
+  public static List<FileRange> validateAndSortRanges(
+      List<? extends FileRange> ranges, long fileLength) throws EOFException {
+    Preconditions.checkNotNull(ranges, "Null ranges");
+    List<FileRange> sorted = new ArrayList<FileRange>(ranges.size());
+    for (FileRange range : ranges) {
+      Preconditions.checkArgument(range.getOffset() >= 0 &&
+          range.getLength() >= 0, "Invalid range %s", range);
+      if (fileLength >= 0 &&
+          range.getOffset() + range.getLength() > fileLength) {
+        throw new EOFException(range + " extends past the end of the file " +
+            "of length " + fileLength);
+      }
+      sorted.add(range);
+    }
+    Collections.sort(sorted, BY_OFFSET);
+    for (int i = 1; i < sorted.size(); i++) {
+      FileRange prev = sorted.get(i - 1);
+      Preconditions.checkArgument(
+          prev.getOffset() + prev.getLength() <= sorted.get(i).getOffset(),
+          "Overlapping ranges %s and %s", prev, sorted.get(i));
+    }
+    return sorted;
+  }
+
+  /**
+   * Combine ranges that are sorted by offset and do not overlap, so that
+   * ranges separated by at most minSeek bytes are read with one request.
+   *
+   * @param minSeek the largest gap that is read through.
+   * @param maxReadSize the largest combined range; a single range larger
+   *                    than this is never split.
+   */
+  public static List<CombinedFileRange> mergeSortedRanges(
+      List<? extends FileRange> sortedRanges, int minSeek, int maxReadSize) {
+    List<CombinedFileRange> result = new ArrayList<CombinedFileRange>();
+    CombinedFileRange current = null;
+    for (FileRange range : sortedRanges) {
+      if (current == null || !current.merge(range, minSeek, maxReadSize)) {
+        current = new CombinedFileRange(range);
+        result.add(current);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read the given ranges from a stream one combined range at a time with
+   * positional reads. This is the implementation for streams without a
+   * better way of reading several ranges.
+   */
+  public static void readVectored(PositionedReadable stream,
+      List<? extends FileRange> ranges, int minSeek, int maxReadSize)
+      throws IOException {
+    List<FileRange> sorted = validateAndSortRanges(ranges, -1);
+    for (CombinedFileRange combined :
+        mergeSortedRanges(sorted, minSeek, maxReadSize)) {
+      byte[] buf = new byte[combined.getLength()];
+      stream.readFully(combined.getOffset(), buf, 0, buf.length);
+      combined.setData(ByteBuffer.wrap(buf));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Streams that can read a batch of byte ranges in a single call implement
+ * this interface. An implementation is free to coalesce nearby ranges and to
+ * read the ranges in any order or in parallel.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface VectoredReadable {
+  /**
+   * Read every given range fully, setting its data. The ranges must not
+   * overlap. The read position of the stream is not changed.
+   *
+   * @param ranges the byte ranges to read.
+   * @throws java.io.EOFException if a range extends past the end of the file.
+   * @throws IllegalArgumentException if a range has a negative offset or
+   *         length, or if two ranges overlap.
+   */
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException;
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Aligns the state of RPC clients with the state of the servers they talk
+ * to. Every response carries the state id of the server, which the client
+ * remembers and sends with its next request, so that a server whose state
+ * lags behind the client can hold a call back until it has caught up.
+ *
+ * Clients and servers each implement their half of the interface; the other
+ * half is left as a no-op.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * Server side: add the current state of the server to a response.
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state of the server from a response.
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * Client side: add the last state seen by the client to a request.
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Server side: the state the client requires the server to have reached
+   * before the request may be processed.
+   */
+  long receiveRequestState(RpcRequestHeaderProto header);
+
+  /**
+   * @return the last state id seen, i.e. the current state of a server or
+   *         the newest server state a client has learnt about
+   */
+  long getLastSeenStateId();
+
+  /**
+   * Server side: whether calls to the given method must wait for the state of
+   * the server to catch up with the client.
+   */
+  boolean isCoordinatedCall(String protocolName, String methodName);
+
+  /**
+   * Server side: how long, in milliseconds, a coordinated call may wait for
+   * the server to catch up before it is rejected with a
+   * {@link RetriableException}.
+   */
+  long getMaxStateWaitMs();
+}
@@ -93,14 +93,26 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
       AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
+
+  /** Construct a client-side proxy object whose calls are aligned with the
+   * state of the server through the given {@link AlignmentContext}. */
+  @SuppressWarnings("unchecked")
+  public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+      InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+      SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
 
     final Invoker invoker = new Invoker(protocol, addr, ticket, conf, factory,
-        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth,
+        alignmentContext);
     return new ProtocolProxy<T>(protocol, (T) Proxy.newProxyInstance(
         protocol.getClassLoader(), new Class[]{protocol}, invoker), false);
   }
@@ -125,15 +137,18 @@ private static class Invoker implements RpcInvocationHandler {
     private final long clientProtocolVersion;
     private final String protocolName;
     private AtomicBoolean fallbackToSimpleAuth;
+    private AlignmentContext alignmentContext;
 
     private Invoker(Class<?> protocol, InetSocketAddress addr,
         UserGroupInformation ticket, Configuration conf, SocketFactory factory,
         int rpcTimeout, RetryPolicy connectionRetryPolicy,
-        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+        AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+        throws IOException {
       this(protocol, Client.ConnectionId.getConnectionId(
           addr, protocol, ticket, rpcTimeout, connectionRetryPolicy, conf),
           conf, factory);
       this.fallbackToSimpleAuth = fallbackToSimpleAuth;
+      this.alignmentContext = alignmentContext;
     }
     
     /**
@@ -228,7 +243,8 @@ public Object invoke(Object proxy, Method method, Object[] args)
       try {
         val = (RpcResponseWrapper) client.call(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
             new RpcRequestWrapper(rpcRequestHeader, theRequest), remoteId,
-            fallbackToSimpleAuth);
+            RPC.RPC_SERVICE_CLASS_DEFAULT, fallbackToSimpleAuth,
+            alignmentContext);
 
       } catch (Throwable e) {
         if (LOG.isTraceEnabled()) {
@@ -376,6 +392,17 @@ public int getLength() {
     }
   }
   
+  /**
+   * @return the header of a protobuf request read by the server, or null if
+   *         the request is not a protobuf request
+   */
+  static RequestHeaderProto getRequestHeader(Writable rpcRequest) {
+    if (rpcRequest instanceof RpcRequestWrapper) {
+      return ((RpcRequestWrapper) rpcRequest).getMessageHeader();
+    }
+    return null;
+  }
+
   private static class RpcRequestWrapper
   extends RpcMessageWithHeader<RequestHeaderProto> {
     @SuppressWarnings("unused")
@@ -633,6 +660,11 @@ public Writable call(RPC.Server server, String protocol,
           String detailedMetricsName = (exception == null) ?
               methodName :
               exception.getClass().getSimpleName();
+          Server.Call call = Server.getCurCall().get();
+          if (call != null) {
+            // the response may still be postponed by the implementation
+            call.setDetailedMetricsName(detailedMetricsName);
+          }
           server.rpcMetrics.addRpcQueueTime(qTime);
           server.rpcMetrics.addRpcProcessingTime(processingTime);
           server.rpcDetailedMetrics.addProcessingTime(detailedMetricsName,
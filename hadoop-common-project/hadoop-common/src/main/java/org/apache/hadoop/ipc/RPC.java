@@ -573,12 +573,51 @@ public static <T> ProtocolProxy<T> getProtocolProxy(Class<T> protocol,
                                 RetryPolicy connectionRetryPolicy,
                                 AtomicBoolean fallbackToSimpleAuth)
        throws IOException {
+    return getProtocolProxy(protocol, clientVersion, addr, ticket, conf,
+        factory, rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
+
+  /**
+   * Get a protocol proxy that contains a proxy connection to a remote server
+   * and a set of methods that are supported by the server
+   *
+   * @param protocol protocol
+   * @param clientVersion client's version
+   * @param addr server address
+   * @param ticket security ticket
+   * @param conf configuration
+   * @param factory socket factory
+   * @param rpcTimeout max time for each rpc; 0 means no timeout
+   * @param connectionRetryPolicy retry policy
+   * @param fallbackToSimpleAuth set to true or false during calls to indicate if
+   *   a secure client falls back to simple auth
+   * @param alignmentContext state alignment context, or null
+   * @return the proxy
+   * @throws IOException if any error occurs
+   */
+  public static <T> ProtocolProxy<T> getProtocolProxy(Class<T> protocol,
+                                long clientVersion,
+                                InetSocketAddress addr,
+                                UserGroupInformation ticket,
+                                Configuration conf,
+                                SocketFactory factory,
+                                int rpcTimeout,
+                                RetryPolicy connectionRetryPolicy,
+                                AtomicBoolean fallbackToSimpleAuth,
+                                AlignmentContext alignmentContext)
+       throws IOException {
     if (UserGroupInformation.isSecurityEnabled()) {
       SaslRpcServer.init(conf);
     }
-    return getProtocolEngine(protocol, conf).getProxy(protocol, clientVersion,
-        addr, ticket, conf, factory, rpcTimeout, connectionRetryPolicy,
-        fallbackToSimpleAuth);
+    final RpcEngine engine = getProtocolEngine(protocol, conf);
+    if (alignmentContext != null && engine instanceof ProtobufRpcEngine) {
+      return ((ProtobufRpcEngine) engine).getProxy(protocol, clientVersion,
+          addr, ticket, conf, factory, rpcTimeout, connectionRetryPolicy,
+          fallbackToSimpleAuth, alignmentContext);
+    }
+    // other engines do not support state alignment
+    return engine.getProxy(protocol, clientVersion, addr, ticket, conf,
+        factory, rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
   }
 
    /**
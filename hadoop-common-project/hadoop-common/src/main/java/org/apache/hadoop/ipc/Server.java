@@ -50,6 +50,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -58,11 +59,13 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
+import java.util.TreeSet;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
@@ -72,6 +75,7 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configuration.IntegerRanges;
@@ -88,6 +92,7 @@
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
+import org.apache.hadoop.ipc.protobuf.ProtobufRpcEngineProtos.RequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
@@ -133,11 +138,25 @@ public abstract class Server {
   private List<AuthMethod> enabledAuthMethods;
   private RpcSaslProto negotiateResponse;
   private ExceptionsHandler exceptionsHandler = new ExceptionsHandler();
+  private volatile AlignmentContext alignmentContext;
+  private volatile StateAligner stateAligner;
   
   public void addTerseExceptions(Class<?>... exceptionClass) {
     exceptionsHandler.addTerseExceptions(exceptionClass);
   }
 
+  /**
+   * Align the calls of this server with the state the clients have seen.
+   * Coordinated calls from clients which have seen a newer state than this
+   * server are held back until the server has caught up. Must be set before
+   * the server is started.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS"})
+  @InterfaceStability.Unstable
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
   /**
    * ExceptionsHandler manages Exception groups for special handling
    * e.g., terse exception group for concise logging messages
@@ -191,6 +210,12 @@ boolean isTerse(Class<?> t) {
    * Initial and max size of response buffer
    */
   static int INITIAL_RESP_BUF_SIZE = 10240;
+
+  /**
+   * How often, in milliseconds, calls held back for the server state to catch
+   * up are checked again.
+   */
+  private static final long STATE_RECHECK_INTERVAL_MS = 5;
   
   static class RpcKindMapValue {
     final Class<? extends Writable> rpcRequestWrapperClass;
@@ -306,6 +331,16 @@ public static int getCallRetryCount() {
     return call != null ? call.retryCount : RpcConstants.INVALID_RETRY_COUNT;
   }
 
+  /**
+   * @return The server state the client of the current active RPC call has
+   *         seen, or -1 if the call is not coordinated through an
+   *         {@link AlignmentContext}.
+   */
+  public static long getClientStateId() {
+    Call call = CurCall.get();
+    return call != null ? call.clientStateId : -1;
+  }
+
   /** Returns the remote side ip address when invoked inside an RPC 
    *  Returns null incase of an error.
    */
@@ -355,6 +390,7 @@ public static boolean isRpcInvocation() {
   private Class<? extends Writable> rpcRequestClass;   // class used for deserializing the rpc request
   final protected RpcMetrics rpcMetrics;
   final protected RpcDetailedMetrics rpcDetailedMetrics;
+  private final AtomicInteger numActiveHandlers = new AtomicInteger();
   
   private Configuration conf;
   private String portRangeConfig = null;
@@ -561,6 +597,24 @@ public static class Call implements Schedulable {
     private final byte[] clientId;
     private final Span traceSpan; // the tracing span on the server side
 
+    // the handler and every postponement must release the response
+    // before it is sent; whoever releases it last sends it.
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    // the error of the first abort, which replaces the outcome of the call
+    private final AtomicReference<Throwable> abortCause =
+        new AtomicReference<Throwable>();
+    // the outcome of the call, kept until the response may be sent
+    private Writable responseValue;
+    private RpcStatusProto responseStatus;
+    private RpcErrorCodeProto responseErrorCode;
+    private String responseErrorClass;
+    private String responseError;
+    private String detailedMetricsName;
+    // set by the handler before it releases the response
+    private volatile long handlerReturnTime;
+    // the server state the client has seen; -1 if the call is not coordinated
+    private long clientStateId = -1;
+
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
       this(id, retryCount, param, connection, RPC.RpcKind.RPC_BUILTIN,
@@ -595,6 +649,63 @@ public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
 
+    /**
+     * Name under which deferred processing time of this call is recorded
+     * in the detailed RPC metrics.
+     */
+    public void setDetailedMetricsName(String name) {
+      this.detailedMetricsName = name;
+    }
+
+    private void setResponseFields(Writable value, RpcStatusProto status,
+        RpcErrorCodeProto errorCode, String errorClass, String error) {
+      this.responseValue = value;
+      this.responseStatus = status;
+      this.responseErrorCode = errorCode;
+      this.responseErrorClass = errorClass;
+      this.responseError = error;
+    }
+
+    /**
+     * Allow the response of this call to be postponed rather than sent as
+     * soon as the handler returns, so that the handler thread is freed up
+     * while an expensive precondition of the response, such as an edit log
+     * sync, completes in another thread. May only be called by the handler
+     * processing this call. Every postponement must be matched by a call to
+     * {@link #sendResponse()} or {@link #abortResponse(Throwable)}.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void postponeResponse() {
+      responseWaitCount.incrementAndGet();
+    }
+
+    /**
+     * Release one postponement of the response. The response is sent once
+     * the handler has returned and all postponements are released.
+     * @throws IOException if the response could not be queued
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void sendResponse() throws IOException {
+      if (responseWaitCount.decrementAndGet() == 0) {
+        connection.sendResponse(this);
+      }
+    }
+
+    /**
+     * Release one postponement of the response like {@link #sendResponse()},
+     * but fail the call with the given error instead of the outcome of the
+     * handler. Only the error of the first abort is sent.
+     * @throws IOException if the response could not be queued
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void abortResponse(Throwable t) throws IOException {
+      abortCause.compareAndSet(null, t);
+      sendResponse();
+    }
+
     // For Schedulable
     @Override
     public UserGroupInformation getUserGroupInformation() {
@@ -1200,6 +1311,11 @@ public class Connection {
     UserGroupInformation user = null;
     public UserGroupInformation attemptingUser = null; // user name before auth
 
+    /** Send the response of a call which was deferred by its handler. */
+    private void sendResponse(Call call) throws IOException {
+      Server.this.sendDeferredResponse(call);
+    }
+
     // Fake 'call' for failed authorization response
     private final Call authFailedCall = new Call(AUTHORIZATION_FAILED_CALL_ID,
         RpcConstants.INVALID_RETRY_COUNT, null, this);
@@ -1922,6 +2038,17 @@ private void processRpcRequest(RpcRequestHeaderProto header,
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceSpan);
 
+      final AlignmentContext alignment = alignmentContext;
+      if (alignment != null && header.hasStateId()) {
+        RequestHeaderProto requestHeader =
+            ProtobufRpcEngine.getRequestHeader(rpcRequest);
+        if (requestHeader != null && alignment.isCoordinatedCall(
+            requestHeader.getDeclaringClassProtocolName(),
+            requestHeader.getMethodName())) {
+          call.clientStateId = alignment.receiveRequestState(header);
+        }
+      }
+
       callQueue.put(call);              // queue the call; maybe blocked here
       incRpcCount();  // Increment the rpc count
     }
@@ -2057,6 +2184,125 @@ private synchronized void close() {
     }
   }
 
+  /**
+   * Holds back the coordinated calls of clients which have seen a newer
+   * state than this server, without occupying a handler. A call is put back
+   * on the call queue once the server has caught up with it, or once it has
+   * waited for the maximum time, in which case the handler rejects it.
+   */
+  private class StateAligner extends Thread {
+    /** The parked calls, the lowest client state first. */
+    private final TreeSet<ParkedCall> byState = new TreeSet<ParkedCall>(
+        new Comparator<ParkedCall>() {
+          @Override
+          public int compare(ParkedCall a, ParkedCall b) {
+            return compareParked(a.call.clientStateId, b.call.clientStateId,
+                a, b);
+          }
+        });
+    /**
+     * The same calls, the oldest first, so that the calls which waited for
+     * too long are found without scanning all of them.
+     */
+    private final TreeSet<ParkedCall> byArrival = new TreeSet<ParkedCall>(
+        new Comparator<ParkedCall>() {
+          @Override
+          public int compare(ParkedCall a, ParkedCall b) {
+            return compareParked(a.call.timestamp, b.call.timestamp, a, b);
+          }
+        });
+    /** Number of calls parked so far, to tell apart equal parked calls. */
+    private long numParked = 0;
+
+    StateAligner() {
+      this.setDaemon(true);
+      this.setName("IPC Server state aligner on " + port);
+    }
+
+    /**
+     * Park a call until the server has caught up with its client.
+     * @return false if too many calls are parked already
+     */
+    synchronized boolean park(Call call) {
+      if (byState.size() >= maxQueueSize) {
+        return false;
+      }
+      final ParkedCall parked = new ParkedCall(call, numParked++);
+      byState.add(parked);
+      byArrival.add(parked);
+      notify();
+      return true;
+    }
+
+    /** @return the calls which may be handled now. */
+    private synchronized List<Call> takeReady(AlignmentContext alignment) {
+      final List<Call> ready = new ArrayList<Call>();
+      final long state = alignment.getLastSeenStateId();
+      while (!byState.isEmpty()
+          && byState.first().call.clientStateId <= state) {
+        final ParkedCall parked = byState.pollFirst();
+        byArrival.remove(parked);
+        ready.add(parked.call);
+      }
+      final long expired = Time.now() - alignment.getMaxStateWaitMs();
+      while (!byArrival.isEmpty()
+          && byArrival.first().call.timestamp <= expired) {
+        final ParkedCall parked = byArrival.pollFirst();
+        byState.remove(parked);
+        ready.add(parked.call);
+      }
+      return ready;
+    }
+
+    @Override
+    public void run() {
+      LOG.debug(Thread.currentThread().getName() + ": starting");
+      while (running) {
+        try {
+          synchronized (this) {
+            while (running && byState.isEmpty()) {
+              wait();
+            }
+          }
+          for (Call call : takeReady(alignmentContext)) {
+            callQueue.put(call);
+          }
+          synchronized (this) {
+            if (!byState.isEmpty()) {
+              wait(STATE_RECHECK_INTERVAL_MS);
+            }
+          }
+        } catch (InterruptedException e) {
+          if (running) {
+            LOG.info(Thread.currentThread().getName()
+                + " unexpectedly interrupted", e);
+          }
+        }
+      }
+      LOG.debug(Thread.currentThread().getName() + ": exiting");
+    }
+  }
+
+  /** A call held back by the {@link StateAligner}. */
+  private static class ParkedCall {
+    private final Call call;
+    /** Orders calls which are parked with the same key. */
+    private final long seq;
+
+    ParkedCall(Call call, long seq) {
+      this.call = call;
+      this.seq = seq;
+    }
+  }
+
+  private static int compareParked(long keyA, long keyB, ParkedCall a,
+      ParkedCall b) {
+    if (keyA != keyB) {
+      return keyA < keyB ? -1 : 1;
+    }
+    return a.seq < b.seq ? -1 : a.seq == b.seq ? 0 : 1;
+  }
+
   /** Handles queued calls . */
   private class Handler extends Thread {
     public Handler(int instanceNumber) {
@@ -2081,6 +2327,17 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
+          final AlignmentContext alignment = alignmentContext;
+          final boolean stateBehind = call.clientStateId >= 0
+              && alignment != null
+              && call.clientStateId > alignment.getLastSeenStateId();
+          if (stateBehind
+              && Time.now() - call.timestamp < alignment.getMaxStateWaitMs()
+              && stateAligner != null && stateAligner.park(call)) {
+            // The client has seen a newer state than this server has reached;
+            // park the call rather than block the handler while catching up.
+            continue;
+          }
           String errorClass = null;
           String error = null;
           RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
@@ -2088,11 +2345,17 @@ public void run() {
           Writable value = null;
 
           CurCall.set(call);
+          numActiveHandlers.incrementAndGet();
           if (call.traceSpan != null) {
             traceScope = Trace.continueSpan(call.traceSpan);
           }
 
           try {
+            if (stateBehind) {
+              throw new RetriableException("Server state "
+                  + alignment.getLastSeenStateId()
+                  + " is behind the client state " + call.clientStateId);
+            }
             // Make the call as the user via Subject.doAs, thus associating
             // the call with the Subject
             if (call.connection.user == null) {
@@ -2145,22 +2408,23 @@ public Writable run() throws Exception {
             }
           }
           CurCall.set(null);
-          synchronized (call.connection.responseQueue) {
-            // setupResponse() needs to be sync'ed together with 
-            // responder.doResponse() since setupResponse may use
-            // SASL to encrypt response data and SASL enforces
-            // its own message ordering.
-            setupResponse(buf, call, returnStatus, detailedErr, 
-                value, errorClass, error);
-            
-            // Discard the large buf and reset it back to smaller size 
-            // to free up heap
-            if (buf.size() > maxRespSize) {
-              LOG.warn("Large response size " + buf.size() + " for call "
-                  + call.toString());
-              buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
-            }
-            responder.doRespond(call);
+          numActiveHandlers.decrementAndGet();
+          call.setResponseFields(value, returnStatus, detailedErr,
+              errorClass, error);
+          call.handlerReturnTime = Time.monotonicNow();
+          if (call.responseWaitCount.decrementAndGet() != 0) {
+            // the response is sent by whoever releases the postponement
+            rpcMetrics.incrDeferredCalls();
+            continue;
+          }
+          sendResponse(buf, call);
+
+          // Discard the large buf and reset it back to smaller size 
+          // to free up heap
+          if (buf.size() > maxRespSize) {
+            LOG.warn("Large response size " + buf.size() + " for call "
+                + call.toString());
+            buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
           }
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -2372,6 +2636,10 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    final AlignmentContext alignment = alignmentContext;
+    if (alignment != null) {
+      alignment.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2423,6 +2691,53 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     call.setResponse(ByteBuffer.wrap(responseBuf.toByteArray()));
   }
   
+  /**
+   * Build the response of a call from its outcome and queue it for the
+   * responder.
+   */
+  private void sendResponse(ByteArrayOutputStream responseBuf, Call call)
+      throws IOException {
+    final Throwable abortCause = call.abortCause.get();
+    if (abortCause != null) {
+      call.setResponseFields(null, RpcStatusProto.ERROR,
+          RpcErrorCodeProto.ERROR_APPLICATION,
+          abortCause.getClass().getName(),
+          StringUtils.stringifyException(abortCause));
+    }
+    synchronized (call.connection.responseQueue) {
+      // setupResponse() needs to be sync'ed together with 
+      // responder.doResponse() since setupResponse may use
+      // SASL to encrypt response data and SASL enforces
+      // its own message ordering.
+      setupResponse(responseBuf, call, call.responseStatus,
+          call.responseErrorCode, call.responseValue,
+          call.responseErrorClass, call.responseError);
+      responder.doRespond(call);
+    }
+  }
+
+  /**
+   * Send the response of a call once its postponement has been released.
+   */
+  private void sendDeferredResponse(Call call) throws IOException {
+    // the handler has released the response before the last postponement
+    final long handlerReturnTime = call.handlerReturnTime;
+    if (handlerReturnTime > 0) {
+      long deferredTime = Time.monotonicNow() - handlerReturnTime;
+      rpcMetrics.addDeferredRpcProcessingTime(deferredTime);
+      if (call.detailedMetricsName != null) {
+        rpcDetailedMetrics.addDeferredProcessingTime(
+            call.detailedMetricsName, deferredTime);
+      }
+    }
+    if (!call.connection.channel.isOpen()) {
+      LOG.info("Dropping deferred response of " + call
+          + " on a closed connection");
+      return;
+    }
+    sendResponse(new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE), call);
+  }
+
   /**
    * Setup response for the IPC Call on Fatal Error from a 
    * client that is using old version of Hadoop.
@@ -2497,6 +2812,10 @@ Configuration getConf() {
   public synchronized void start() {
     responder.start();
     listener.start();
+    if (alignmentContext != null) {
+      stateAligner = new StateAligner();
+      stateAligner.start();
+    }
     handlers = new Handler[handlerCount];
     
     for (int i = 0; i < handlerCount; i++) {
@@ -2516,6 +2835,9 @@ public synchronized void stop() {
         }
       }
     }
+    if (stateAligner != null) {
+      stateAligner.interrupt();
+    }
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
@@ -2599,6 +2921,22 @@ public int getNumOpenConnections() {
     return connectionManager.size();
   }
   
+  /**
+   * The number of handlers currently processing a call.
+   * @return the number of busy handler threads
+   */
+  public int getNumActiveHandlers() {
+    return numActiveHandlers.get();
+  }
+
+  /**
+   * The number of handler threads of this server.
+   * @return the number of handler threads
+   */
+  public int getHandlerCount() {
+    return handlerCount;
+  }
+
   /**
    * The number of rpc calls in the queue.
    * @return The number of rpc calls in the queue.
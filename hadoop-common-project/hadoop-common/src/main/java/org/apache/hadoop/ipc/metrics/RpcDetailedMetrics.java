@@ -72,6 +72,17 @@ public void addProcessingTime(String name, int processingTime) {
     rates.add(name, processingTime);
   }
 
+  /**
+   * Add a deferred RPC processing time sample, which is recorded under the
+   * name of the RPC call prefixed with "Deferred".
+   * @param name  of the RPC call
+   * @param processingTime  time the response waited after the handler
+   *                        returned
+   */
+  public void addDeferredProcessingTime(String name, long processingTime) {
+    rates.add("Deferred" + name, processingTime);
+  }
+
   /**
    * Shutdown the instrumentation for the process
    */
@@ -99,6 +99,10 @@ public static RpcMetrics create(Server server, Configuration conf) {
   MutableCounterLong rpcClientBackoff;
   @Metric("Number of Slow RPC calls")
   MutableCounterLong rpcSlowCalls;
+  @Metric("Number of calls whose response was deferred by the handler")
+  MutableCounterLong rpcDeferredCalls;
+  @Metric("Time from handler return to sending a deferred response")
+  MutableRate deferredRpcProcessingTime;
 
   @Metric("Number of open connections") public int numOpenConnections() {
     return server.getNumOpenConnections();
@@ -108,6 +112,11 @@ public static RpcMetrics create(Server server, Configuration conf) {
     return server.getCallQueueLen();
   }
 
+  @Metric("Number of handlers processing a call")
+  public int numActiveHandlers() {
+    return server.getNumActiveHandlers();
+  }
+
   // Public instrumentation methods that could be extracted to an
   // abstract class if we decide to do custom instrumentation classes a la
   // JobTrackerInstrumentation. The methods with //@Override comment are
@@ -205,6 +214,23 @@ public void incrClientBackoff() {
     rpcClientBackoff.incr();
   }
 
+  /**
+   * One call whose response was deferred
+   */
+  //@Override
+  public void incrDeferredCalls() {
+    rpcDeferredCalls.incr();
+  }
+
+  /**
+   * Add a deferred response time sample
+   * @param deferredTime time the response waited after the handler returned
+   */
+  //@Override
+  public void addDeferredRpcProcessingTime(long deferredTime) {
+    deferredRpcProcessingTime.add(deferredTime);
+  }
+
   /**
    * Increments the Slow RPC counter.
    */
@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
 import java.util.EnumSet;
 import java.util.Random;
 
@@ -166,6 +167,34 @@ private void writeCheck(int bufferSize) throws Exception {
     }
   }
 
+  /** Test crypto writing from a direct ByteBuffer. */
+  @Test(timeout=120000)
+  public void testByteBufferWrite() throws Exception {
+    OutputStream out = getOutputStream(smallBufferSize);
+    if (!(out instanceof WritableByteChannel)) {
+      out.close();
+      return;
+    }
+    final ByteBuffer src = ByteBuffer.allocateDirect(dataLen);
+    src.put(data, 0, dataLen);
+    src.flip();
+    // Write pieces that are not aligned with the buffer or the cipher block.
+    final int pieceLen = smallBufferSize + 7;
+    while (src.hasRemaining()) {
+      final ByteBuffer piece = src.duplicate();
+      piece.limit(Math.min(src.limit(), src.position() + pieceLen));
+      final int expected = piece.remaining();
+      Assert.assertEquals(expected, ((WritableByteChannel) out).write(piece));
+      Assert.assertFalse(piece.hasRemaining());
+      src.position(piece.position());
+    }
+    out.close();
+
+    InputStream in = getInputStream(defaultBufferSize);
+    readCheck(in);
+    in.close();
+  }
+
   /** Test crypto with different IV. */
   @Test(timeout=120000)
   public void testCryptoIV() throws Exception {
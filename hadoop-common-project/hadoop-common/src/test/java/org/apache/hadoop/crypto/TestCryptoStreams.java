@@ -23,6 +23,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.EnumSet;
 
 import org.apache.hadoop.conf.Configuration;
@@ -89,7 +90,7 @@ protected InputStream getInputStream(int bufferSize, byte[] key, byte[] iv)
   }
   
   private class FakeOutputStream extends OutputStream 
-      implements Syncable, CanSetDropBehind{
+      implements Syncable, CanSetDropBehind, WritableByteChannel {
     private final byte[] oneByteBuf = new byte[1];
     private final DataOutputBuffer out;
     private boolean closed;
@@ -135,6 +136,21 @@ public void write(int b) throws IOException {
       write(oneByteBuf, 0, oneByteBuf.length);
     }
 
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      checkStream();
+      final int len = src.remaining();
+      final byte[] b = new byte[len];
+      src.get(b);
+      out.write(b, 0, len);
+      return len;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
     @Override
     public void setDropBehind(Boolean dropCache) throws IOException,
         UnsupportedOperationException {
@@ -0,0 +1,101 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestVectoredReadUtils {
+
+  @Test
+  public void testValidateAndSortRanges() throws Exception {
+    FileRange a = new FileRange(100, 10);
+    FileRange b = new FileRange(0, 100);
+    FileRange c = new FileRange(110, 0);
+    List<FileRange> sorted =
+        VectoredReadUtils.validateAndSortRanges(Arrays.asList(a, b, c), 110);
+    assertEquals(Arrays.asList(b, a, c), sorted);
+
+    try {
+      VectoredReadUtils.validateAndSortRanges(Arrays.asList(a), 109);
+      fail("Range past the end of the file was accepted");
+    } catch (EOFException e) {
+      // expected
+    }
+    try {
+      VectoredReadUtils.validateAndSortRanges(
+          Arrays.asList(a, new FileRange(105, 1)), -1);
+      fail("Overlapping ranges were accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      VectoredReadUtils.validateAndSortRanges(
+          Arrays.asList(new FileRange(-1, 1)), -1);
+      fail("Negative offset was accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMergeSortedRanges() {
+    List<FileRange> ranges = Arrays.asList(
+        new FileRange(0, 10),
+        new FileRange(20, 10),   // gap of 10: merged
+        new FileRange(100, 10),  // gap of 70: not merged
+        new FileRange(110, 10),  // adjacent: merged
+        new FileRange(125, 100)); // would exceed the max read size
+    List<CombinedFileRange> combined =
+        VectoredReadUtils.mergeSortedRanges(ranges, 10, 100);
+    assertEquals(3, combined.size());
+    assertEquals(0, combined.get(0).getOffset());
+    assertEquals(30, combined.get(0).getLength());
+    assertEquals(2, combined.get(0).getUnderlying().size());
+    assertEquals(100, combined.get(1).getOffset());
+    assertEquals(20, combined.get(1).getLength());
+    // A single range larger than the max read size is kept whole.
+    assertEquals(100, combined.get(2).getLength());
+    assertSame(ranges.get(4), combined.get(2).getUnderlying().get(0));
+  }
+
+  @Test
+  public void testCombinedRangeSlices() {
+    FileRange a = new FileRange(10, 4);
+    FileRange b = new FileRange(16, 2);
+    CombinedFileRange combined =
+        VectoredReadUtils.mergeSortedRanges(Arrays.asList(a, b), 8, 100)
+            .get(0);
+    byte[] data = new byte[combined.getLength()];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (10 + i);
+    }
+    combined.setData(ByteBuffer.wrap(data));
+    assertEquals(ByteBuffer.wrap(new byte[] {10, 11, 12, 13}), a.getData());
+    assertEquals(ByteBuffer.wrap(new byte[] {16, 17}), b.getData());
+    assertEquals(0, a.getData().position());
+  }
+}
@@ -1017,6 +1017,124 @@ public void testRpcMetrics() throws Exception {
     }
   }
 
+  /**
+   *  Verify responses postponed by the handler are sent, or failed, by
+   *  another thread once the postponement is released.
+   */
+  @Test (timeout=30000)
+  public void testDeferredResponse() throws Exception {
+    final ExecutorService executorService =
+        Executors.newSingleThreadExecutor();
+    final TestImpl impl = new TestImpl() {
+      @Override
+      public void ping() {
+        final Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        executorService.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException, InterruptedException {
+            Thread.sleep(100); // let the handler return first
+            call.sendResponse();
+            return null;
+          }
+        });
+      }
+
+      @Override
+      public int error() {
+        final Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        executorService.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException, InterruptedException {
+            Thread.sleep(100);
+            call.abortResponse(new IOException("deferred failure"));
+            return null;
+          }
+        });
+        return 0;
+      }
+    };
+    final Server server = new RPC.Builder(conf)
+        .setProtocol(TestProtocol.class).setInstance(impl)
+        .setBindAddress(ADDRESS).setPort(0).setNumHandlers(1)
+        .setVerbose(true).build();
+    server.start();
+    final TestProtocol proxy = RPC.getProxy(TestProtocol.class,
+        TestProtocol.versionID, server.getListenerAddress(), conf);
+    try {
+      proxy.ping();
+      proxy.ping();
+      try {
+        proxy.error();
+        fail("Deferred response should have been aborted");
+      } catch (IOException e) {
+        assertTrue("Unexpected exception: " + e,
+            e.getMessage().contains("deferred failure"));
+      }
+      assertEquals(0, server.getNumActiveHandlers());
+      MetricsRecordBuilder rb = getMetrics(server.getRpcMetrics().name());
+      assertCounter("RpcDeferredCalls", 3L, rb);
+      assertCounter("DeferredRpcProcessingTimeNumOps", 3L, rb);
+    } finally {
+      RPC.stopProxy(proxy);
+      server.stop();
+      executorService.shutdown();
+    }
+  }
+
+  /**
+   *  Verify a response aborted before the handler returns fails the call
+   *  once the handler returns, and is not counted as deferred.
+   */
+  @Test (timeout=30000)
+  public void testDeferredResponseAbortedBeforeReturn() throws Exception {
+    final ExecutorService executorService =
+        Executors.newSingleThreadExecutor();
+    final TestImpl impl = new TestImpl() {
+      @Override
+      public String echo(String value) throws IOException {
+        final Server.Call call = Server.getCurCall().get();
+        call.postponeResponse();
+        try {
+          executorService.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              call.abortResponse(new IOException("early failure"));
+              return null;
+            }
+          }).get();
+        } catch (Exception e) {
+          throw new IOException(e);
+        }
+        return value;
+      }
+    };
+    final Server server = new RPC.Builder(conf)
+        .setProtocol(TestProtocol.class).setInstance(impl)
+        .setBindAddress(ADDRESS).setPort(0).setNumHandlers(1)
+        .setVerbose(true).build();
+    server.start();
+    final TestProtocol proxy = RPC.getProxy(TestProtocol.class,
+        TestProtocol.versionID, server.getListenerAddress(), conf);
+    try {
+      try {
+        proxy.echo("foo");
+        fail("Response should have been aborted");
+      } catch (IOException e) {
+        assertTrue("Unexpected exception: " + e,
+            e.getMessage().contains("early failure"));
+      }
+      MetricsRecordBuilder rb = getMetrics(server.getRpcMetrics().name());
+      assertCounter("RpcDeferredCalls", 0L, rb);
+      assertCounter("DeferredRpcProcessingTimeNumOps", 0L, rb);
+    } finally {
+      RPC.stopProxy(proxy);
+      server.stop();
+      executorService.shutdown();
+    }
+  }
+
   /**
    *  Verify the RPC server can shutdown properly when callQueue is full.
    */
@@ -25,6 +25,9 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang.mutable.MutableBoolean;
 import org.apache.commons.logging.Log;
@@ -36,9 +39,11 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.datatransfer.InvalidEncryptionKeyException;
 import org.apache.hadoop.hdfs.protocol.datatransfer.Sender;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.security.token.block.InvalidBlockTokenException;
@@ -183,6 +188,13 @@ public boolean getSupportsReceiptVerification() {
    */
   private int remainingCacheTries;
 
+  /**
+   * Blocks on the same DataNode whose short-circuit file descriptors should
+   * be requested along with those of our block, and added to the cache.
+   */
+  private List<LocatedBlock> batchedShortCircuitBlocks =
+      Collections.emptyList();
+
   public BlockReaderFactory(DFSClient.Conf conf) {
     this.conf = conf;
     this.failureInjector = conf.brfFailureInjector;
@@ -276,6 +288,12 @@ public BlockReaderFactory setConfiguration(
     return this;
   }
 
+  public BlockReaderFactory setBatchedShortCircuitBlocks(
+      List<LocatedBlock> batchedShortCircuitBlocks) {
+    this.batchedShortCircuitBlocks = batchedShortCircuitBlocks;
+    return this;
+  }
+
   /**
    * Build a BlockReader with the given options.
    *
@@ -473,6 +491,8 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
       DomainPeer peer = (DomainPeer)curPeer.peer;
       Slot slot = null;
       ShortCircuitCache cache = clientContext.getShortCircuitCache();
+      List<LocatedBlock> batchBlocks = new ArrayList<LocatedBlock>();
+      List<Slot> batchSlots = new ArrayList<Slot>();
       try {
         MutableBoolean usedPeer = new MutableBoolean(false);
         slot = cache.allocShmSlot(datanode, peer, usedPeer,
@@ -487,13 +507,50 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
           if (curPeer == null) break;
           peer = (DomainPeer)curPeer.peer;
         }
-        ShortCircuitReplicaInfo info = requestFileDescriptors(peer, slot);
+        if (slot != null) {
+          // Batching needs a slot for every block.  Stop at the first block
+          // we cannot get one for, or which would need another socket.
+          for (LocatedBlock lb : batchedShortCircuitBlocks) {
+            ExtendedBlockId key = new ExtendedBlockId(
+                lb.getBlock().getBlockId(), lb.getBlock().getBlockPoolId());
+            if (cache.containsReplica(key)) {
+              continue;
+            }
+            usedPeer.setValue(false);
+            Slot batchSlot = cache.allocShmSlot(datanode, peer, usedPeer,
+                key, clientName);
+            if (batchSlot == null) {
+              break;
+            }
+            batchBlocks.add(lb);
+            batchSlots.add(batchSlot);
+            if (usedPeer.booleanValue()) {
+              curPeer = nextDomainPeer();
+              if (curPeer == null) break;
+              peer = (DomainPeer)curPeer.peer;
+            }
+          }
+          if (curPeer == null) break;
+        }
+        ShortCircuitReplicaInfo info =
+            requestFileDescriptors(peer, slot, batchBlocks, batchSlots);
         clientContext.getPeerCache().put(datanode, peer);
         return info;
       } catch (IOException e) {
         if (slot != null) {
           cache.freeSlot(slot);
         }
+        if (!batchBlocks.isEmpty()) {
+          // The DataNode may not understand batched requests, in which case
+          // it closes the socket.  Ask for our block alone on a new socket.
+          if (LOG.isDebugEnabled()) {
+            LOG.debug(this + ": batched file descriptor request failed.  " +
+                "Retrying without batching.", e);
+          }
+          IOUtils.cleanup(LOG, peer);
+          batchedShortCircuitBlocks = Collections.emptyList();
+          continue;
+        }
         if (curPeer.fromCache) {
           // Handle an I/O error we got when using a cached socket.
           // These are considered less serious, because the socket may be stale.
@@ -512,6 +569,13 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
               .disableDomainSocketPath(pathInfo.getPath());
           return null;
         }
+      } finally {
+        // Free the slots of the batched blocks we did not get a replica for.
+        for (Slot batchSlot : batchSlots) {
+          if (batchSlot != null) {
+            cache.freeSlot(batchSlot);
+          }
+        }
       }
     }
     return null;
@@ -523,6 +587,10 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
    * @param peer   The peer to use for communication.
    * @param slot   If non-null, the shared memory slot to associate with the 
    *               new ShortCircuitReplica.
+   * @param batchBlocks  Further blocks to request file descriptors for.
+   *               Their replicas are added to the cache.
+   * @param batchSlots   The shared memory slots of the further blocks.  The
+   *               slots which were handed to a new replica are set to null.
    * 
    * @return  A ShortCircuitReplica object if we could communicate with the
    *          datanode; null, otherwise. 
@@ -530,13 +598,31 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
    *          with the datanode.
    */
   private ShortCircuitReplicaInfo requestFileDescriptors(DomainPeer peer,
-          Slot slot) throws IOException {
+          Slot slot, List<LocatedBlock> batchBlocks, List<Slot> batchSlots)
+          throws IOException {
     ShortCircuitCache cache = clientContext.getShortCircuitCache();
     final DataOutputStream out =
         new DataOutputStream(new BufferedOutputStream(peer.getOutputStream()));
     SlotId slotId = slot == null ? null : slot.getSlotId();
-    new Sender(out).requestShortCircuitFds(block, token, slotId, 1,
-        failureInjector.getSupportsReceiptVerification());
+    if (batchBlocks.isEmpty()) {
+      new Sender(out).requestShortCircuitFds(block, token, slotId, 1,
+          failureInjector.getSupportsReceiptVerification());
+    } else {
+      List<ExtendedBlock> blks = new ArrayList<ExtendedBlock>();
+      List<Token<BlockTokenIdentifier>> tokens =
+          new ArrayList<Token<BlockTokenIdentifier>>();
+      List<SlotId> slotIds = new ArrayList<SlotId>();
+      blks.add(block);
+      tokens.add(token);
+      slotIds.add(slotId);
+      for (int i = 0; i < batchBlocks.size(); i++) {
+        blks.add(batchBlocks.get(i).getBlock());
+        tokens.add(batchBlocks.get(i).getBlockToken());
+        slotIds.add(batchSlots.get(i).getSlotId());
+      }
+      new Sender(out).requestShortCircuitFdsBatch(blks, tokens, slotIds, 1,
+          failureInjector.getSupportsReceiptVerification());
+    }
     DataInputStream in = new DataInputStream(peer.getInputStream());
     BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
         PBHelper.vintPrefixed(in));
@@ -547,6 +633,17 @@ private ShortCircuitReplicaInfo requestFileDescriptors(DomainPeer peer,
       byte buf[] = new byte[1];
       FileInputStream fis[] = new FileInputStream[2];
       sock.recvFileInputStreams(fis, buf, 0, buf.length);
+      if (!batchBlocks.isEmpty()) {
+        boolean received = false;
+        try {
+          receiveBatchedReplicas(in, sock, batchBlocks, batchSlots);
+          received = true;
+        } finally {
+          if (!received) {
+            IOUtils.cleanup(DFSClient.LOG, fis[0], fis[1]);
+          }
+        }
+      }
       ShortCircuitReplica replica = null;
       try {
         ExtendedBlockId key =
@@ -599,6 +696,56 @@ private ShortCircuitReplicaInfo requestFileDescriptors(DomainPeer peer,
     }
   }
 
+  /**
+   * Receive the file descriptors of the further blocks of a batched request,
+   * and add a replica for each of them to the cache.  The DataNode only
+   * answers for these blocks if it could serve the first one.
+   *
+   * @throws  IOException If we encountered an I/O exception while communicating
+   *          with the datanode.
+   */
+  private void receiveBatchedReplicas(DataInputStream in, DomainSocket sock,
+      List<LocatedBlock> batchBlocks, List<Slot> batchSlots)
+      throws IOException {
+    ShortCircuitCache cache = clientContext.getShortCircuitCache();
+    for (int i = 0; i < batchBlocks.size(); i++) {
+      ExtendedBlock blk = batchBlocks.get(i).getBlock();
+      BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+          PBHelper.vintPrefixed(in));
+      if (resp.getStatus() != Status.SUCCESS) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(this + ": not caching batched block " + blk +
+              " because of response " + resp.getStatus() + ": " +
+              resp.getMessage());
+        }
+        continue;
+      }
+      byte buf[] = new byte[1];
+      FileInputStream fis[] = new FileInputStream[2];
+      sock.recvFileInputStreams(fis, buf, 0, buf.length);
+      if (buf[0] == USE_RECEIPT_VERIFICATION.getNumber()) {
+        sock.getOutputStream().write(0);
+      }
+      ShortCircuitReplica replica = null;
+      try {
+        replica = new ShortCircuitReplica(
+            new ExtendedBlockId(blk.getBlockId(), blk.getBlockPoolId()),
+            fis[0], fis[1], cache, Time.monotonicNow(), batchSlots.get(i));
+        batchSlots.set(i, null);
+      } catch (IOException e) {
+        LOG.warn(this + ": error creating ShortCircuitReplica for batched " +
+            "block " + blk, e);
+      } finally {
+        if (replica == null) {
+          IOUtils.cleanup(DFSClient.LOG, fis[0], fis[1]);
+        }
+      }
+      if (replica != null) {
+        cache.addBatchedReplica(replica);
+      }
+    }
+  }
+
   /**
    * Get a RemoteBlockReader that communicates over a UNIX domain socket.
    *
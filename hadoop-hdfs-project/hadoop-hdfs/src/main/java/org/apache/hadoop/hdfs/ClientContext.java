@@ -109,7 +109,8 @@ private ClientContext(String name, Conf conf) {
         conf.shortCircuitMmapCacheExpiryMs,
         conf.shortCircuitMmapCacheRetryTimeout,
         conf.shortCircuitCacheStaleThresholdMs,
-        conf.shortCircuitSharedMemoryWatcherInterruptCheckMs);
+        conf.shortCircuitSharedMemoryWatcherInterruptCheckMs,
+        conf.shortCircuitStreamsCacheFrequencyAdmission);
     this.peerCache =
           new PeerCache(conf.socketCacheCapacity, conf.socketCacheExpiry);
     this.keyProviderCache = new KeyProviderCache(conf.keyProviderCacheExpiryMs);
@@ -125,6 +126,8 @@ public static String confAsString(Conf conf) {
       append(conf.shortCircuitStreamsCacheSize).
       append(", shortCircuitStreamsCacheExpiryMs = ").
       append(conf.shortCircuitStreamsCacheExpiryMs).
+      append(", shortCircuitStreamsCacheFrequencyAdmission = ").
+      append(conf.shortCircuitStreamsCacheFrequencyAdmission).
       append(", shortCircuitMmapCacheSize = ").
       append(conf.shortCircuitMmapCacheSize).
       append(", shortCircuitMmapCacheExpiryMs = ").
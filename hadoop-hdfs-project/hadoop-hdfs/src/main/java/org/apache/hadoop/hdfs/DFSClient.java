@@ -143,6 +143,8 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -197,6 +199,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
+import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitCacheMetrics;
 import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.EnumSetWritable;
@@ -275,10 +278,14 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
   private final CachingStrategy defaultReadCachingStrategy;
   private final CachingStrategy defaultWriteCachingStrategy;
   private final ClientContext clientContext;
+  /** Read latency statistics of the DataNodes, as seen by this client. */
+  private final DatanodeLatencyTracker datanodeLatencyTracker;
   private volatile long hedgedReadThresholdMillis;
   private static final DFSHedgedReadMetrics HEDGED_READ_METRIC =
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private static ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
+  private static ThreadPoolExecutor PREFETCH_THREAD_POOL;
   private final Sampler<?> traceSampler;
 
   /**
@@ -330,6 +337,8 @@ public static class Conf {
     final boolean domainSocketDataTraffic;
     final int shortCircuitStreamsCacheSize;
     final long shortCircuitStreamsCacheExpiryMs; 
+    final boolean shortCircuitStreamsCacheFrequencyAdmission;
+    final int shortCircuitFdsBatchSize;
     final int shortCircuitSharedMemoryWatcherInterruptCheckMs;
     
     final boolean shortCircuitMmapEnabled;
@@ -339,6 +348,16 @@ public static class Conf {
     final long shortCircuitCacheStaleThresholdMs;
 
     final long keyProviderCacheExpiryMs;
+
+    final int vectoredReadMinSeek;
+    final int vectoredReadMaxReadSize;
+
+    final long datanodeLatencyHalfLifeMs;
+    final double hedgedReadThresholdPercentile;
+    final boolean rankReplicasByLatency;
+
+    final boolean sequentialPrefetchEnabled;
+    final int sequentialPrefetchSize;
     public BlockReaderFactory.FailureInjector brfFailureInjector =
       new BlockReaderFactory.FailureInjector();
 
@@ -480,6 +499,12 @@ public Conf(Configuration conf) {
       shortCircuitStreamsCacheExpiryMs = conf.getLong(
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY,
           DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT);
+      shortCircuitStreamsCacheFrequencyAdmission = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_DEFAULT);
+      shortCircuitFdsBatchSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_DEFAULT);
       shortCircuitMmapEnabled = conf.getBoolean(
           DFSConfigKeys.DFS_CLIENT_MMAP_ENABLED,
           DFSConfigKeys.DFS_CLIENT_MMAP_ENABLED_DEFAULT);
@@ -509,6 +534,30 @@ public Conf(Configuration conf) {
       keyProviderCacheExpiryMs = conf.getLong(
           DFSConfigKeys.DFS_CLIENT_KEY_PROVIDER_CACHE_EXPIRY_MS,
           DFSConfigKeys.DFS_CLIENT_KEY_PROVIDER_CACHE_EXPIRY_DEFAULT);
+
+      vectoredReadMinSeek = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MIN_SEEK_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MIN_SEEK_DEFAULT);
+      vectoredReadMaxReadSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_READ_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_READ_SIZE_DEFAULT);
+
+      datanodeLatencyHalfLifeMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_DATANODE_LATENCY_HALF_LIFE_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_DATANODE_LATENCY_HALF_LIFE_MS_DEFAULT);
+      hedgedReadThresholdPercentile = conf.getDouble(
+          DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE,
+          DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE);
+      rankReplicasByLatency = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_RANK_BY_LATENCY_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_RANK_BY_LATENCY_DEFAULT);
+
+      sequentialPrefetchEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_DEFAULT);
+      sequentialPrefetchSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_DEFAULT);
     }
 
     public boolean isUseLegacyBlockReaderLocal() {
@@ -703,6 +752,8 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     this.clientContext = ClientContext.get(
         conf.get(DFS_CLIENT_CONTEXT, DFS_CLIENT_CONTEXT_DEFAULT),
         dfsClientConf);
+    this.datanodeLatencyTracker =
+        new DatanodeLatencyTracker(dfsClientConf.datanodeLatencyHalfLifeMs);
     this.hedgedReadThresholdMillis = conf.getLong(
         DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
         DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS);
@@ -712,6 +763,14 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     if (numThreads > 0) {
       this.initThreadsNumForHedgedReads(numThreads);
     }
+    initThreadsNumForVectoredReads(conf.getInt(
+        DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_KEY,
+        DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_DEFAULT));
+    if (dfsClientConf.sequentialPrefetchEnabled) {
+      initThreadsNumForPrefetch(conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_THREADPOOL_SIZE_DEFAULT));
+    }
     this.saslClient = new SaslDataTransferClient(
       conf, DataTransferSaslUtil.getSaslPropertiesResolver(conf),
       TrustedChannelResolver.getInstance(conf), nnFallbackToSimpleAuth);
@@ -3013,6 +3072,94 @@ public boolean primitiveMkdir(String src, FsPermission absPermission,
       scope.close();
     }
   }
+
+  /**
+   * Apply a batch of namespace operations with a single RPC. The permissions
+   * of MKDIRS and CREATE operations are masked with the client umask, and
+   * default as for {@link #mkdirs(String, FsPermission, boolean)} and
+   * {@link #create(String, FsPermission, EnumSet, boolean, short, long,
+   * Progressable, int, ChecksumOpt)}.
+   * <p>
+   * An output stream is opened for every file the batch created. It is
+   * returned by {@link BatchedNamespaceOpResult#getOutputStream()} and must
+   * be closed by the caller like any stream returned by create.
+   *
+   * @param ops the operations to apply, in order
+   * @param statistics file system statistics; null is acceptable.
+   * @return one result per operation, in the order of <code>ops</code>
+   *
+   * @see ClientProtocol#batchNamespaceOps(String, List)
+   */
+  public List<BatchedNamespaceOpResult> batchNamespaceOps(
+      List<BatchedNamespaceOp> ops, FileSystem.Statistics statistics)
+      throws IOException {
+    checkOpen();
+    final List<BatchedNamespaceOp> maskedOps =
+        new ArrayList<BatchedNamespaceOp>(ops.size());
+    for (BatchedNamespaceOp op : ops) {
+      FsPermission permission = op.getPermission();
+      if (permission == null) {
+        permission = op.getType() == BatchedNamespaceOp.Type.CREATE ?
+            FsPermission.getFileDefault() : FsPermission.getDefault();
+      }
+      maskedOps.add(op.withPermission(
+          permission.applyUMask(dfsClientConf.uMask)));
+    }
+    final List<BatchedNamespaceOpResult> results;
+    TraceScope scope = Trace.startSpan("batchNamespaceOps", traceSampler);
+    try {
+      results = namenode.batchNamespaceOps(clientName, maskedOps);
+    } catch (RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     SafeModeException.class);
+    } finally {
+      scope.close();
+    }
+    final List<DFSOutputStream> opened = new ArrayList<DFSOutputStream>();
+    boolean success = false;
+    try {
+      for (int i = 0; i < maskedOps.size(); i++) {
+        final BatchedNamespaceOp op = maskedOps.get(i);
+        final BatchedNamespaceOpResult result = results.get(i);
+        if (op.getType() != BatchedNamespaceOp.Type.CREATE
+            || !result.isSuccess()) {
+          continue;
+        }
+        final EnumSet<CreateFlag> flag = op.isOverwrite() ?
+            EnumSet.of(CreateFlag.CREATE, CreateFlag.OVERWRITE) :
+            EnumSet.of(CreateFlag.CREATE);
+        final DFSOutputStream out = DFSOutputStream.newStreamForBatchedCreate(
+            this, op.getSrc(), result.getFileStatus(), flag,
+            dfsClientConf.createChecksum(null));
+        opened.add(out);
+        beginFileLease(out.getFileId(), out);
+        result.setOutputStream(createWrappedOutputStream(out, statistics));
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        // The caller never gets the streams opened so far, so close them
+        // here rather than leave their files under construction.
+        for (DFSOutputStream out : opened) {
+          closeBatchedCreateStream(out);
+        }
+      }
+    }
+    return results;
+  }
+
+  private void closeBatchedCreateStream(DFSOutputStream out) {
+    try {
+      out.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close " + out + ", aborting it", e);
+      try {
+        out.abort();
+      } catch (IOException ioe) {
+        LOG.warn("Failed to abort " + out, ioe);
+      }
+    }
+  }
   
   /**
    * Get {@link ContentSummary} rooted at the specified directory.
@@ -3487,6 +3634,64 @@ public void rejectedExecution(Runnable runnable,
     }
   }
 
+  /**
+   * Create the vectored reads thread pool, VECTORED_READ_THREAD_POOL, if it
+   * does not already exist. The ranges a busy pool cannot take are read by
+   * the thread doing the vectored read.
+   * @param num Number of threads for the pool. If zero, skip its creation.
+   */
+  private static synchronized void initThreadsNumForVectoredReads(int num) {
+    if (num <= 0 || VECTORED_READ_THREAD_POOL != null) return;
+    VECTORED_READ_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("vectoredRead-" + threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    VECTORED_READ_THREAD_POOL.allowCoreThreadTimeOut(true);
+  }
+
+  /** @return the vectored reads thread pool, or null if there is none. */
+  ThreadPoolExecutor getVectoredReadsThreadPool() {
+    return VECTORED_READ_THREAD_POOL;
+  }
+
+  /**
+   * Create the block prefetch thread pool, PREFETCH_THREAD_POOL, if it does
+   * not already exist. A busy pool rejects further prefetches, since a
+   * prefetch run by the reading thread would gain nothing.
+   * @param num Number of threads for the pool. If zero, skip its creation.
+   */
+  private static synchronized void initThreadsNumForPrefetch(int num) {
+    if (num <= 0 || PREFETCH_THREAD_POOL != null) return;
+    PREFETCH_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("blockPrefetch-" + threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+    PREFETCH_THREAD_POOL.allowCoreThreadTimeOut(true);
+  }
+
+  /** @return the block prefetch thread pool, or null if there is none. */
+  ThreadPoolExecutor getPrefetchThreadPool() {
+    return PREFETCH_THREAD_POOL;
+  }
+
   long getHedgedReadTimeout() {
     return this.hedgedReadThresholdMillis;
   }
@@ -3509,6 +3714,22 @@ DFSHedgedReadMetrics getHedgedReadMetrics() {
     return HEDGED_READ_METRIC;
   }
 
+  /**
+   * @return the recent read latencies of the DataNodes, from which the
+   *         hedged read delay and the replica order of this client derive.
+   */
+  public DatanodeLatencyTracker getDatanodeLatencyTracker() {
+    return datanodeLatencyTracker;
+  }
+
+  /**
+   * @return the hit, miss and eviction counters of the short-circuit cache
+   *         shared by the clients of this client's context.
+   */
+  public ShortCircuitCacheMetrics getShortCircuitCacheMetrics() {
+    return clientContext.getShortCircuitCache().getMetrics();
+  }
+
   public KeyProvider getKeyProvider() {
     return clientContext.getKeyProviderCache().get(conf);
   }
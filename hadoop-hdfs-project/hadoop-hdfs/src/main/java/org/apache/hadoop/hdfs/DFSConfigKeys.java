@@ -155,6 +155,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_MAX_LOCKED_MEMORY_DEFAULT = 0;
   public static final String  DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_KEY = "dfs.datanode.fsdatasetcache.max.threads.per.volume";
   public static final int     DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_DEFAULT = 4;
+  public static final String  DFS_DATANODE_FSDATASET_LOCK_STRIPES_KEY = "dfs.datanode.fsdataset.lock.stripes";
+  public static final int     DFS_DATANODE_FSDATASET_LOCK_STRIPES_DEFAULT = 1024;
   public static final String  DFS_DATANODE_LAZY_WRITER_INTERVAL_SEC = "dfs.datanode.lazywriter.interval.sec";
   public static final int     DFS_DATANODE_LAZY_WRITER_INTERVAL_DEFAULT_SEC = 60;
   public static final String  DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_KEY = "dfs.datanode.ram.disk.replica.tracker";
@@ -283,6 +285,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING = "dfs.namenode.edits.asynclogging";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE = "dfs.namenode.edits.asynclogging.pending.queue.size";
+  public static final int     DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE_DEFAULT = 4096;
   
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
@@ -290,6 +296,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_CONTENT_SUMMARY_QUOTA_USAGE_ENABLED_KEY = "dfs.content-summary.quota-usage.enabled";
+  public static final boolean DFS_CONTENT_SUMMARY_QUOTA_USAGE_ENABLED_DEFAULT = false;
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -352,6 +360,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY =
+      "dfs.namenode.replication.work.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 4;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -372,6 +383,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT = 1024*1024;
   public static final String  DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY = "dfs.namenode.fs-limits.max-blocks-per-file";
   public static final long    DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT = 1024*1024;
+  public static final String  DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_KEY = "dfs.namenode.fs-limits.max-batch-namespace-ops";
+  public static final int     DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_MAX_XATTRS_PER_INODE_KEY = "dfs.namenode.fs-limits.max-xattrs-per-inode";
   public static final int     DFS_NAMENODE_MAX_XATTRS_PER_INODE_DEFAULT = 32;
   public static final String  DFS_NAMENODE_MAX_XATTR_SIZE_KEY = "dfs.namenode.fs-limits.max-xattr-size";
@@ -410,6 +423,18 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_KEY = "dfs.namenode.audit.log.dispatcher.enabled";
+  public static final boolean DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_KEY = "dfs.namenode.audit.log.dispatcher.buffer.size";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_DEFAULT = 16384;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_KEY = "dfs.namenode.audit.log.dispatcher.overflow.policy";
+  public static final String  DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_DEFAULT = "BLOCK";
+  public static final String  DFS_NAMENODE_FSLOCK_FAIR_KEY = "dfs.namenode.fslock.fair";
+  public static final boolean DFS_NAMENODE_FSLOCK_FAIR_DEFAULT = true;
+  public static final String  DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY = "dfs.namenode.lock.detailed-metrics.enabled";
+  public static final boolean DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT = false;
+  public static final String  DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY = "dfs.namenode.optimistic-read.enabled";
+  public static final boolean DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_DEFAULT = false;
 
   // Much code in hdfs is not yet updated to use these keys.
   public static final String  DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_KEY = "dfs.client.block.write.locateFollowingBlock.retries";
@@ -449,6 +474,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY = "dfs.datanode.directoryscan.incremental";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_INTERVAL_KEY = "dfs.datanode.directoryscan.full-scan.interval";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_INTERVAL_DEFAULT = 4;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY = "dfs.datanode.directoryscan.throttle.iops";
+  public static final long    DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_DEFAULT = 0;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -462,12 +493,24 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_TRANSFER_SELECTOR_ENABLED_KEY = "dfs.datanode.transfer.selector.enabled";
+  public static final boolean DFS_DATANODE_TRANSFER_SELECTOR_ENABLED_DEFAULT = true;
+  public static final String  DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY = "dfs.datanode.transfer.queue.size";
+  public static final int     DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT = 256;
+  public static final String  DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_ENABLED_KEY = "dfs.datanode.write.byte-array-manager.enabled";
+  public static final boolean DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_ENABLED_DEFAULT = true;
+  public static final String  DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_THRESHOLD_KEY = "dfs.datanode.write.byte-array-manager.count-threshold";
+  public static final int     DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_THRESHOLD_DEFAULT = 32;
+  public static final String  DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_RESET_TIME_PERIOD_MS_KEY = "dfs.datanode.write.byte-array-manager.count-reset-time-period-ms";
+  public static final long    DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_RESET_TIME_PERIOD_MS_DEFAULT = 10L * 1000;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
   public static final long    DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT = 1048576L;
   public static final String  DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
+  public static final String  DFS_DATANODE_SEND_DIRECT_BUFFERS_ALLOWED_KEY = "dfs.datanode.send.directBuffers.allowed";
+  public static final boolean DFS_DATANODE_SEND_DIRECT_BUFFERS_ALLOWED_DEFAULT = true;
   public static final String  DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
   public static final long    DFS_HEARTBEAT_INTERVAL_DEFAULT = 3;
   public static final String  DFS_HEARTBEAT_EXPIRE_INTERVAL_KEY = "dfs.heartbeat.expire.interval";
@@ -525,6 +568,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
   public static final String  DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY = "dfs.blockreport.split.threshold";
   public static final long    DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT = 1000 * 1000;
+  public static final String  DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_KEY = "dfs.blockreport.incremental.intervalMsec";
+  public static final long    DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_DEFAULT = 0;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -534,6 +579,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   /* Maximum number of blocks to process for initializing replication queues */
   public static final String  DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT = "dfs.block.misreplication.processing.limit";
   public static final int     DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT = 10000;
+  public static final String  DFS_NAMENODE_BLOCKREPORT_LOOKUP_THREADS_KEY = "dfs.namenode.blockreport.lookup.threads";
+  public static final int     DFS_NAMENODE_BLOCKREPORT_LOOKUP_THREADS_DEFAULT = 4;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_KEY = "dfs.client.read.shortcircuit";
   public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_DEFAULT = false;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY = "dfs.client.read.shortcircuit.skip.checksum";
@@ -544,6 +591,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_SIZE_DEFAULT = 256;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY = "dfs.client.read.shortcircuit.streams.cache.expiry.ms";
   public static final long DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_DEFAULT = 5 * 60 * 1000;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_KEY = "dfs.client.read.shortcircuit.streams.cache.frequency-admission";
+  public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_DEFAULT = false;
+  public static final String DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_KEY = "dfs.client.read.shortcircuit.fds.batch-size";
+  public static final int DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_DEFAULT = 1;
   public static final String DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC = "dfs.client.domain.socket.data.traffic";
   public static final boolean DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC_DEFAULT = false;
   public static final String DFS_CLIENT_MMAP_ENABLED= "dfs.client.mmap.enabled";
@@ -565,6 +616,23 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // parallel fsimage loading and saving
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_SAVE_KEY =
+      "dfs.image.parallel.save";
+  public static final boolean DFS_IMAGE_PARALLEL_SAVE_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -654,8 +722,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY = "dfs.ha.tail-edits.qjm.rpc.max-txns";
+  public static final int DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT = 5000;
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
+  public static final String DFS_HA_OBSERVER_READS_ENABLED_KEY = "dfs.ha.observer.reads.enabled";
+  public static final boolean DFS_HA_OBSERVER_READS_ENABLED_DEFAULT = false;
+  public static final String DFS_HA_OBSERVER_READS_MAX_WAIT_MS_KEY = "dfs.ha.observer.reads.max-wait-ms";
+  public static final long DFS_HA_OBSERVER_READS_MAX_WAIT_MS_DEFAULT = 1000;
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
   public static final String DFS_HA_AUTO_FAILOVER_ENABLED_KEY = "dfs.ha.automatic-failover.enabled";
   public static final boolean DFS_HA_AUTO_FAILOVER_ENABLED_DEFAULT = false;
@@ -694,6 +770,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_JOURNALNODE_KEYTAB_FILE_KEY = "dfs.journalnode.keytab.file";
   public static final String  DFS_JOURNALNODE_KERBEROS_PRINCIPAL_KEY = "dfs.journalnode.kerberos.principal";
   public static final String  DFS_JOURNALNODE_KERBEROS_INTERNAL_SPNEGO_PRINCIPAL_KEY = "dfs.journalnode.kerberos.internal.spnego.principal";
+  public static final String  DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY = "dfs.journalnode.edit-cache-size.bytes";
+  public static final long    DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT = 1024 * 1024;
 
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
@@ -768,6 +846,41 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE =
       "dfs.client.hedged.read.threadpool.size";
   public static final int     DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE = 0;
+  public static final String DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE =
+      "dfs.client.hedged.read.threshold.percentile";
+  public static final double DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE =
+      0;
+
+  // DataNode latency tracking properties
+  public static final String  DFS_CLIENT_DATANODE_LATENCY_HALF_LIFE_MS_KEY =
+      "dfs.client.datanode.latency.half-life.ms";
+  public static final long    DFS_CLIENT_DATANODE_LATENCY_HALF_LIFE_MS_DEFAULT =
+      60 * 1000;
+  public static final String  DFS_CLIENT_READ_RANK_BY_LATENCY_KEY =
+      "dfs.client.read.rank-by-latency";
+  public static final boolean DFS_CLIENT_READ_RANK_BY_LATENCY_DEFAULT = false;
+
+  // vectored read properties
+  public static final String  DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_KEY =
+      "dfs.client.read.vectored.threadpool.size";
+  public static final int     DFS_CLIENT_READ_VECTORED_THREADPOOL_SIZE_DEFAULT = 16;
+  public static final String  DFS_CLIENT_READ_VECTORED_MIN_SEEK_KEY =
+      "dfs.client.read.vectored.min-seek";
+  public static final int     DFS_CLIENT_READ_VECTORED_MIN_SEEK_DEFAULT = 4 * 1024;
+  public static final String  DFS_CLIENT_READ_VECTORED_MAX_READ_SIZE_KEY =
+      "dfs.client.read.vectored.max-read-size";
+  public static final int     DFS_CLIENT_READ_VECTORED_MAX_READ_SIZE_DEFAULT = 1024 * 1024;
+
+  // sequential read prefetch properties
+  public static final String  DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_KEY =
+      "dfs.client.read.sequential-prefetch.enabled";
+  public static final boolean DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_DEFAULT = false;
+  public static final String  DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_KEY =
+      "dfs.client.read.sequential-prefetch.size";
+  public static final int     DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_DEFAULT = 1024 * 1024;
+  public static final String  DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_THREADPOOL_SIZE_KEY =
+      "dfs.client.read.sequential-prefetch.threadpool.size";
+  public static final int     DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_THREADPOOL_SIZE_DEFAULT = 16;
 
   // Slow io warning log threshold settings for dfsclient and datanode.
   public static final String DFS_CLIENT_SLOW_IO_WARNING_THRESHOLD_KEY =
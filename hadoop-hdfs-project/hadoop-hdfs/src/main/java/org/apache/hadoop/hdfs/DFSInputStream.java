@@ -19,12 +19,14 @@
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,8 +43,12 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -53,11 +59,14 @@
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.CanUnbuffer;
 import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.CombinedFileRange;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
@@ -96,6 +105,8 @@ public class DFSInputStream extends FSInputStream
   @VisibleForTesting
   public static boolean tcpReadsDisabledForTesting = false;
   private long hedgedReadOpsLoopNumForTesting = 0;
+  private long prefetchedBlocksForTesting = 0;
+  private final AtomicInteger prefetchBuffersForTesting = new AtomicInteger();
   private final DFSClient dfsClient;
   private AtomicBoolean closed = new AtomicBoolean(false);
   private final String src;
@@ -109,8 +120,15 @@ public class DFSInputStream extends FSInputStream
   private long pos = 0;
   private long blockEnd = -1;
   private BlockReader blockReader = null;
+  // where the current block reader was opened
+  private long blockReaderStart = -1;
+  private BlockPrefetch prefetch = null;
   ////
 
+  // a buffer of a consumed prefetch, for the next prefetch to reuse
+  private final AtomicReference<byte[]> sparePrefetchBuffer =
+      new AtomicReference<byte[]>();
+
   // state shared by stateful and positional read:
   // (protected by lock on infoLock)
   ////
@@ -239,9 +257,10 @@ void clear() {
    *
    * Specifically this counts the number of times the client has gone
    * back to the namenode to get a new list of block locations, and is
-   * capped at maxBlockAcquireFailures
+   * capped at maxBlockAcquireFailures. The block range readers of a vectored
+   * read update it concurrently.
    */
-  private int failures = 0;
+  private final AtomicInteger failures = new AtomicInteger();
 
   /* XXX Use of CocurrentHashMap is temp fix. Need to fix 
    * parallel accesses to DFSInputStream (through ptreads) properly */
@@ -616,6 +635,13 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
     // Will be getting a new BlockReader.
     closeCurrentBlockReader();
 
+    if (prefetch != null) {
+      DatanodeInfo prefetchedNode = takePrefetchedBlock(target);
+      if (prefetchedNode != null) {
+        return prefetchedNode;
+      }
+    }
+
     //
     // Connect to best DataNode for desired Block, with potential offset
     //
@@ -636,47 +662,24 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
       this.blockEnd = targetBlock.getStartOffset() +
             targetBlock.getBlockSize() - 1;
       this.currentLocatedBlock = targetBlock;
+      this.blockReaderStart = target;
 
       assert (target==pos) : "Wrong postion " + pos + " expect " + target;
       long offsetIntoBlock = target - targetBlock.getStartOffset();
 
-      DNAddrPair retval = chooseDataNode(targetBlock, null);
+      DNAddrPair retval = chooseDataNode(targetBlock, null,
+          targetBlock.getBlockSize() - offsetIntoBlock);
       chosenNode = retval.info;
       InetSocketAddress targetAddr = retval.addr;
-      StorageType storageType = retval.storageType;
 
       try {
         ExtendedBlock blk = targetBlock.getBlock();
-        Token<BlockTokenIdentifier> accessToken = targetBlock.getBlockToken();
-        CachingStrategy curCachingStrategy;
-        boolean shortCircuitForbidden;
-        synchronized(infoLock) {
-          curCachingStrategy = cachingStrategy;
-          shortCircuitForbidden = shortCircuitForbidden();
-        }
         if (DFSClient.LOG.isInfoEnabled()) {
           DFSClient.LOG.info("Try connecting " + targetAddr + " for "
               + src + " " + target + " at " + blk);
         }
 
-        blockReader = new BlockReaderFactory(dfsClient.getConf()).
-            setInetSocketAddress(targetAddr).
-            setRemotePeerFactory(dfsClient).
-            setDatanodeInfo(chosenNode).
-            setStorageType(storageType).
-            setFileName(src).
-            setBlock(blk).
-            setBlockToken(accessToken).
-            setStartOffset(offsetIntoBlock).
-            setVerifyChecksum(verifyChecksum).
-            setClientName(dfsClient.clientName).
-            setLength(blk.getNumBytes() - offsetIntoBlock).
-            setCachingStrategy(curCachingStrategy).
-            setAllowShortCircuitLocalReads(!shortCircuitForbidden).
-            setClientCacheContext(dfsClient.getClientContext()).
-            setUserGroupInformation(dfsClient.ugi).
-            setConfiguration(dfsClient.getConfiguration()).
-            build();
+        blockReader = newBlockReader(targetBlock, offsetIntoBlock, retval);
         if(connectFailedOnce) {
           DFSClient.LOG.info("Successfully connected to " + targetAddr +
                              " for " + blk);
@@ -704,6 +707,281 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
     }
   }
 
+  /**
+   * Open a BlockReader for the given block, from the given offset in the
+   * block to its end.
+   */
+  private BlockReader newBlockReader(LocatedBlock targetBlock,
+      long offsetIntoBlock, DNAddrPair node) throws IOException {
+    ExtendedBlock blk = targetBlock.getBlock();
+    CachingStrategy curCachingStrategy;
+    boolean shortCircuitForbidden;
+    List<LocatedBlock> batchedBlocks;
+    synchronized(infoLock) {
+      curCachingStrategy = cachingStrategy;
+      shortCircuitForbidden = shortCircuitForbidden();
+      batchedBlocks = getFollowingBlocksOn(targetBlock, node.info,
+          dfsClient.getConf().shortCircuitFdsBatchSize - 1);
+    }
+    return new BlockReaderFactory(dfsClient.getConf()).
+        setInetSocketAddress(node.addr).
+        setRemotePeerFactory(dfsClient).
+        setDatanodeInfo(node.info).
+        setStorageType(node.storageType).
+        setFileName(src).
+        setBlock(blk).
+        setBlockToken(targetBlock.getBlockToken()).
+        setStartOffset(offsetIntoBlock).
+        setVerifyChecksum(verifyChecksum).
+        setClientName(dfsClient.clientName).
+        setLength(blk.getNumBytes() - offsetIntoBlock).
+        setCachingStrategy(curCachingStrategy).
+        setAllowShortCircuitLocalReads(!shortCircuitForbidden).
+        setClientCacheContext(dfsClient.getClientContext()).
+        setUserGroupInformation(dfsClient.ugi).
+        setConfiguration(dfsClient.getConfiguration()).
+        setBatchedShortCircuitBlocks(batchedBlocks).
+        build();
+  }
+
+  /**
+   * Get the complete blocks which follow the given one in the file and have
+   * a replica on the given DataNode, so that their short-circuit file
+   * descriptors can be fetched together with those of the given block.
+   *
+   * Must be called with infoLock held.
+   *
+   * @param max   The largest number of blocks to return.
+   */
+  private List<LocatedBlock> getFollowingBlocksOn(LocatedBlock targetBlock,
+      DatanodeInfo dn, int max) {
+    if (max <= 0 || locatedBlocks == null) {
+      return Collections.emptyList();
+    }
+    List<LocatedBlock> blocks = locatedBlocks.getLocatedBlocks();
+    int idx = locatedBlocks.findBlock(targetBlock.getStartOffset());
+    if (idx < 0) {
+      return Collections.emptyList();
+    }
+    LocatedBlock last = locatedBlocks.isLastBlockComplete() ?
+        null : locatedBlocks.getLastLocatedBlock();
+    List<LocatedBlock> following = new ArrayList<LocatedBlock>(max);
+    for (int i = idx + 1; i < blocks.size() && following.size() < max; i++) {
+      LocatedBlock lb = blocks.get(i);
+      if (last != null && lb.getBlock().equals(last.getBlock())) {
+        break;
+      }
+      if (Arrays.asList(lb.getLocations()).contains(dn)) {
+        following.add(lb);
+      }
+    }
+    return following;
+  }
+
+  /**
+   * Opens a block and reads its first bytes in the background, while a
+   * sequential read is consuming the block before it.
+   */
+  private class BlockPrefetch implements Runnable {
+    /** Start of the block to prefetch. */
+    private final long offset;
+    /** Start of the block being read when the prefetch was started. */
+    private final long previousBlockStart;
+    private final int size;
+
+    // set once the prefetch is done (protected by lock on this)
+    private boolean done = false;
+    private boolean abandoned = false;
+    private LocatedBlock block;
+    private DNAddrPair node;
+    private BlockReader reader;
+
+    BlockPrefetch(long offset, long previousBlockStart, int size) {
+      this.offset = offset;
+      this.previousBlockStart = previousBlockStart;
+      this.size = size;
+    }
+
+    @Override
+    public void run() {
+      LocatedBlock blk = null;
+      DNAddrPair dn = null;
+      BlockReader br = null;
+      byte[] buf = null;
+      try {
+        // This also fetches the block locations from the NameNode when
+        // they are not cached yet.
+        blk = getBlockAt(offset);
+        boolean complete;
+        synchronized(infoLock) {
+          complete = blk.getStartOffset() + blk.getBlockSize()
+              <= locatedBlocks.getFileLength();
+        }
+        // A block being written keeps growing; leave it to blockSeekTo.
+        if (blk.getStartOffset() == offset && complete) {
+          int len = (int) Math.min(size, blk.getBlockSize());
+          dn = getBestNodeDNAddrPair(blk, null, len);
+          br = newBlockReader(blk, 0, dn);
+          buf = sparePrefetchBuffer.getAndSet(null);
+          if (buf == null || buf.length < len) {
+            buf = new byte[size];
+            prefetchBuffersForTesting.incrementAndGet();
+          }
+          int nread = br.readAll(buf, 0, len);
+          if (nread != len) {
+            throw new IOException("truncated return from reader.read(): "
+                + "excpected " + len + ", got " + nread);
+          }
+          br = new PrefetchedBlockReader(br, buf, nread, sparePrefetchBuffer);
+          buf = null;
+        }
+      } catch (IOException e) {
+        if (DFSClient.LOG.isDebugEnabled()) {
+          DFSClient.LOG.debug("Failed to prefetch the block at " + offset
+              + " of " + src + " from " + (dn == null ? null : dn.info), e);
+        }
+        closeBlockReader(br);
+        br = null;
+        if (buf != null) {
+          sparePrefetchBuffer.set(buf);
+        }
+      } finally {
+        synchronized(this) {
+          done = true;
+          if (abandoned) {
+            closeBlockReader(br);
+          } else {
+            block = blk;
+            node = dn;
+            reader = br;
+          }
+          notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Wait for the prefetch to finish.
+     * @return the reader of the prefetched block, or null if it failed.
+     */
+    synchronized BlockReader take() throws InterruptedIOException {
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          abandon();
+          throw new InterruptedIOException(
+              "Interrupted while waiting for the block at " + offset
+              + " of " + src + " to be prefetched");
+        }
+      }
+      return reader;
+    }
+
+    /** Give up on the prefetch, closing its reader once it is done. */
+    synchronized void abandon() {
+      abandoned = true;
+      if (done) {
+        closeBlockReader(reader);
+        reader = null;
+      }
+    }
+  }
+
+  /**
+   * Start prefetching the block after the current one, once the current
+   * block has been read sequentially for as many bytes as are prefetched,
+   * or for half of it if it is smaller.
+   */
+  private synchronized void maybePrefetchNextBlock() {
+    final DFSClient.Conf conf = dfsClient.getConf();
+    if (!conf.sequentialPrefetchEnabled || prefetch != null
+        || blockEnd + 1 >= getFileLength()) {
+      return;
+    }
+    long blockSize = currentLocatedBlock.getBlockSize();
+    if (pos - blockReaderStart
+        < Math.min(conf.sequentialPrefetchSize, blockSize / 2)) {
+      return;
+    }
+    ThreadPoolExecutor pool = dfsClient.getPrefetchThreadPool();
+    if (pool == null) {
+      return;
+    }
+    BlockPrefetch p = new BlockPrefetch(blockEnd + 1,
+        currentLocatedBlock.getStartOffset(), conf.sequentialPrefetchSize);
+    try {
+      pool.execute(p);
+      prefetch = p;
+    } catch (RejectedExecutionException e) {
+      if (DFSClient.LOG.isDebugEnabled()) {
+        DFSClient.LOG.debug("Not prefetching the block at " + (blockEnd + 1)
+            + " of " + src + ": all prefetch threads are busy");
+      }
+    }
+  }
+
+  /**
+   * Switch to the prefetched block if it starts at the given position.
+   * The prefetch is kept for a position in the block before it, and given
+   * up on for any other position.
+   * @return the DataNode of the prefetched block, or null if it is not used.
+   */
+  private synchronized DatanodeInfo takePrefetchedBlock(long target)
+      throws IOException {
+    final BlockPrefetch p = prefetch;
+    if (target != p.offset) {
+      if (target < p.previousBlockStart || target > p.offset) {
+        abandonPrefetch();
+      }
+      return null;
+    }
+    prefetch = null;
+    BlockReader reader = p.take();
+    if (reader == null) {
+      return null;
+    }
+    blockReader = reader;
+    pos = target;
+    blockEnd = p.block.getStartOffset() + p.block.getBlockSize() - 1;
+    currentLocatedBlock = p.block;
+    blockReaderStart = target;
+    prefetchedBlocksForTesting++;
+    if (DFSClient.LOG.isDebugEnabled()) {
+      DFSClient.LOG.debug("Using the prefetched block " + p.block.getBlock()
+          + " of " + src + " from " + p.node.info);
+    }
+    return p.node.info;
+  }
+
+  private synchronized void abandonPrefetch() {
+    if (prefetch != null) {
+      prefetch.abandon();
+      prefetch = null;
+    }
+  }
+
+  @VisibleForTesting
+  synchronized long getPrefetchedBlocksForTesting() {
+    return prefetchedBlocksForTesting;
+  }
+
+  @VisibleForTesting
+  int getPrefetchBuffersForTesting() {
+    return prefetchBuffersForTesting.get();
+  }
+
+  private static void closeBlockReader(BlockReader reader) {
+    if (reader == null) {
+      return;
+    }
+    try {
+      reader.close();
+    } catch (IOException e) {
+      DFSClient.LOG.error("error closing blockReader", e);
+    }
+  }
+
   /**
    * Close it down!
    */
@@ -730,6 +1008,7 @@ public void accept(ByteBuffer k, Object v) {
           "Please release " + builder.toString() + ".");
     }
     closeCurrentBlockReader();
+    abandonPrefetch();
     super.close();
   }
 
@@ -877,7 +1156,7 @@ private synchronized int readWithStrategy(ReaderStrategy strategy, int off, int
     }
     Map<ExtendedBlock,Set<DatanodeInfo>> corruptedBlockMap 
       = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
-    failures = 0;
+    failures.set(0);
     if (pos < getFileLength()) {
       int retries = 2;
       while (retries > 0) {
@@ -898,6 +1177,7 @@ private synchronized int readWithStrategy(ReaderStrategy strategy, int off, int
           
           if (result >= 0) {
             pos += result;
+            maybePrefetchNextBlock();
           } else {
             // got a EOS from reader though we expect more data on it.
             throw new IOException("Unexpected EOS from the reader");
@@ -974,15 +1254,16 @@ private void addIntoCorruptedBlockMap(ExtendedBlock blk, DatanodeInfo node,
   }
 
   private DNAddrPair chooseDataNode(LocatedBlock block,
-      Collection<DatanodeInfo> ignoredNodes) throws IOException {
+      Collection<DatanodeInfo> ignoredNodes, long len) throws IOException {
     while (true) {
       try {
-        return getBestNodeDNAddrPair(block, ignoredNodes);
+        return getBestNodeDNAddrPair(block, ignoredNodes, len);
       } catch (IOException ie) {
         String errMsg = getBestNodeDNAddrPairErrorString(block.getLocations(),
           deadNodes, ignoredNodes);
         String blockInfo = block.getBlock() + " file=" + src;
-        if (failures >= dfsClient.getMaxBlockAcquireFailures()) {
+        final int numFailures = failures.get();
+        if (numFailures >= dfsClient.getMaxBlockAcquireFailures()) {
           String description = "Could not obtain block: " + blockInfo;
           DFSClient.LOG.warn(description + errMsg
               + ". Throwing a BlockMissingException");
@@ -1008,16 +1289,16 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
           // will wait 6000ms grace period before retry and the waiting window is
           // expanded to 9000ms. 
           final int timeWindow = dfsClient.getConf().timeWindow;
-          double waitTime = timeWindow * failures +       // grace period for the last round of attempt
-            timeWindow * (failures + 1) * DFSUtil.getRandom().nextDouble(); // expanding time window for each failure
-          DFSClient.LOG.warn("DFS chooseDataNode: got # " + (failures + 1) + " IOException, will wait for " + waitTime + " msec.");
+          double waitTime = timeWindow * numFailures +       // grace period for the last round of attempt
+            timeWindow * (numFailures + 1) * DFSUtil.getRandom().nextDouble(); // expanding time window for each failure
+          DFSClient.LOG.warn("DFS chooseDataNode: got # " + (numFailures + 1) + " IOException, will wait for " + waitTime + " msec.");
           Thread.sleep((long)waitTime);
         } catch (InterruptedException iex) {
         }
         deadNodes.clear(); //2nd option is to remove only nodes[blockId]
         openInfo();
         block = getBlockAt(block.getStartOffset());
-        failures++;
+        failures.incrementAndGet();
         continue;
       }
     }
@@ -1027,25 +1308,46 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
    * Get the best node from which to stream the data.
    * @param block LocatedBlock, containing nodes in priority order.
    * @param ignoredNodes Do not choose nodes in this array (may be null)
+   * @param len the number of bytes to be read, by which the recent
+   *            latencies of the nodes are compared
    * @return The DNAddrPair of the best node.
    * @throws IOException
    */
   private DNAddrPair getBestNodeDNAddrPair(LocatedBlock block,
-      Collection<DatanodeInfo> ignoredNodes) throws IOException {
+      Collection<DatanodeInfo> ignoredNodes, long len) throws IOException {
     DatanodeInfo[] nodes = block.getLocations();
     StorageType[] storageTypes = block.getStorageTypes();
     DatanodeInfo chosenNode = null;
     StorageType storageType = null;
     if (nodes != null) {
+      final boolean rankByLatency = dfsClient.getConf().rankReplicasByLatency;
+      long chosenLatency = -1;
       for (int i = 0; i < nodes.length; i++) {
-        if (!deadNodes.containsKey(nodes[i])
-            && (ignoredNodes == null || !ignoredNodes.contains(nodes[i]))) {
-          chosenNode = nodes[i];
-          // Storage types are ordered to correspond with nodes, so use the same
-          // index to get storage type.
-          if (storageTypes != null && i < storageTypes.length) {
-            storageType = storageTypes[i];
+        if (deadNodes.containsKey(nodes[i])
+            || (ignoredNodes != null && ignoredNodes.contains(nodes[i]))) {
+          continue;
+        }
+        if (chosenNode != null) {
+          // Only leave the NameNode's order for a replica that has been
+          // clearly faster than the one chosen so far.
+          long latency =
+              getLatencyTracker().getPercentileMicros(nodes[i], len, 50);
+          if (latency < 0 || latency * 2 >= chosenLatency) {
+            continue;
           }
+          chosenLatency = latency;
+        } else if (rankByLatency) {
+          chosenLatency =
+              getLatencyTracker().getPercentileMicros(nodes[i], len, 50);
+        }
+        chosenNode = nodes[i];
+        // Storage types are ordered to correspond with nodes, so use the same
+        // index to get storage type.
+        storageType = storageTypes != null && i < storageTypes.length ?
+            storageTypes[i] : null;
+        if (chosenLatency < 0) {
+          // Without statistics for the chosen replica there is nothing to
+          // compare the remaining replicas against.
           break;
         }
       }
@@ -1095,7 +1397,7 @@ private void fetchBlockByteRange(LocatedBlock block, long start, long end,
       throws IOException {
     block = getBlockAt(block.getStartOffset());
     while (true) {
-      DNAddrPair addressPair = chooseDataNode(block, null);
+      DNAddrPair addressPair = chooseDataNode(block, null, end - start + 1);
       try {
         actualGetFromOneDataNode(addressPair, block, start, end, buf, offset,
             corruptedBlockMap);
@@ -1154,6 +1456,7 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
       InetSocketAddress targetAddr = datanode.addr;
       StorageType storageType = datanode.storageType;
       BlockReader reader = null;
+      final long startNanos = System.nanoTime();
 
       try {
         DFSClientFaultInjector.get().fetchFromDatanodeException();
@@ -1185,6 +1488,8 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
                                 "excpected " + len + ", got " + nread);
         }
         DFSClientFaultInjector.get().readFromDatanodeDelay();
+        getLatencyTracker().addLatency(chosenNode, len,
+            (System.nanoTime() - startNanos) / 1000);
         return;
       } catch (ChecksumException e) {
         String msg = "fetchBlockByteRange(). Got a checksum exception for "
@@ -1245,6 +1550,8 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
     ByteBuffer bb = null;
     int len = (int) (end - start + 1);
     int hedgedReadId = 0;
+    DatanodeInfo firstNode = null;
+    long firstStartNanos = 0;
     block = getBlockAt(block.getStartOffset());
     while (true) {
       // see HDFS-6591, this metric is used to verify/catch unnecessary loops
@@ -1254,24 +1561,28 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
       if (futures.isEmpty()) {
         // chooseDataNode is a commitment. If no node, we go to
         // the NN to reget block locations. Only go here on first read.
-        chosenNode = chooseDataNode(block, ignored);
+        chosenNode = chooseDataNode(block, ignored, len);
         bb = ByteBuffer.wrap(buf, offset, len);
         Callable<ByteBuffer> getFromDataNodeCallable = getFromOneDataNode(
             chosenNode, block, start, end, bb, corruptedBlockMap,
             hedgedReadId++);
+        firstNode = chosenNode.info;
+        firstStartNanos = System.nanoTime();
         Future<ByteBuffer> firstRequest = hedgedService
             .submit(getFromDataNodeCallable);
         futures.add(firstRequest);
+        final long delayMicros =
+            getHedgedReadDelayMicros(chosenNode.info, len);
         try {
           Future<ByteBuffer> future = hedgedService.poll(
-              dfsClient.getHedgedReadTimeout(), TimeUnit.MILLISECONDS);
+              delayMicros, TimeUnit.MICROSECONDS);
           if (future != null) {
             future.get();
             return;
           }
           if (DFSClient.LOG.isDebugEnabled()) {
-            DFSClient.LOG.debug("Waited " + dfsClient.getHedgedReadTimeout()
-                + "ms to read from " + chosenNode.info
+            DFSClient.LOG.debug("Waited " + delayMicros
+                + "us to read from " + chosenNode.info
                 + "; spawning hedged read");
           }
           // Ignore this node on next go around.
@@ -1289,9 +1600,9 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
         // If no nodes to do hedged reads against, pass.
         try {
           try {
-            chosenNode = getBestNodeDNAddrPair(block, ignored);
+            chosenNode = getBestNodeDNAddrPair(block, ignored, len);
           } catch (IOException ioe) {
-            chosenNode = chooseDataNode(block, ignored);
+            chosenNode = chooseDataNode(block, ignored, len);
           }
           bb = ByteBuffer.allocate(len);
           Callable<ByteBuffer> getFromDataNodeCallable = getFromOneDataNode(
@@ -1314,6 +1625,10 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
           cancelAll(futures);
           if (result.array() != buf) { // compare the array pointers
             dfsClient.getHedgedReadMetrics().incHedgedReadWins();
+            // The first read has not completed, so its latency is at least
+            // the time waited for it.
+            getLatencyTracker().addLatency(firstNode, len,
+                (System.nanoTime() - firstStartNanos) / 1000);
             System.arraycopy(result.array(), result.position(), buf, offset,
                 len);
           } else {
@@ -1332,6 +1647,29 @@ private void hedgedFetchBlockByteRange(LocatedBlock block, long start,
     }
   }
 
+  private DatanodeLatencyTracker getLatencyTracker() {
+    return dfsClient.getDatanodeLatencyTracker();
+  }
+
+  /**
+   * @return how long to wait for a read of len bytes from the given
+   *         DataNode before starting a hedged read: the configured
+   *         percentile of its recent latency for reads of that size, but no
+   *         more than the configured threshold.
+   */
+  private long getHedgedReadDelayMicros(DatanodeInfo node, long len) {
+    final long thresholdMicros =
+        TimeUnit.MILLISECONDS.toMicros(dfsClient.getHedgedReadTimeout());
+    final double percentile =
+        dfsClient.getConf().hedgedReadThresholdPercentile;
+    if (percentile <= 0) {
+      return thresholdMicros;
+    }
+    long micros =
+        getLatencyTracker().getPercentileMicros(node, len, percentile);
+    return micros < 0 ? thresholdMicros : Math.min(micros, thresholdMicros);
+  }
+
   @VisibleForTesting
   public long getHedgedReadOpsLoopNumForTesting() {
     return hedgedReadOpsLoopNumForTesting;
@@ -1428,7 +1766,7 @@ private int pread(long position, byte[] buffer, int offset, int length)
     if (closed.get()) {
       throw new IOException("Stream closed");
     }
-    failures = 0;
+    failures.set(0);
     long filelen = getFileLength();
     if ((position < 0) || (position >= filelen)) {
       return -1;
@@ -1473,6 +1811,152 @@ private int pread(long position, byte[] buffer, int offset, int length)
     return realLen;
   }
   
+  /**
+   * Read a batch of ranges of the file. Nearby ranges are combined, every
+   * combined range is split at block boundaries, and the resulting block
+   * ranges are fetched in parallel on the vectored reads thread pool, each
+   * with its own block reader, as a positional read would fetch them.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    TraceScope scope =
+        dfsClient.getPathTraceScope("DFSInputStream#readVectored", src);
+    try {
+      vectoredRead(ranges);
+    } finally {
+      scope.close();
+    }
+  }
+
+  private void vectoredRead(List<? extends FileRange> ranges)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed.get()) {
+      throw new IOException("Stream closed");
+    }
+    failures.set(0);
+    List<FileRange> sorted =
+        VectoredReadUtils.validateAndSortRanges(ranges, getFileLength());
+    List<CombinedFileRange> combinedRanges =
+        VectoredReadUtils.mergeSortedRanges(sorted,
+            dfsClient.getConf().vectoredReadMinSeek,
+            dfsClient.getConf().vectoredReadMaxReadSize);
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    List<byte[]> buffers = new ArrayList<byte[]>(combinedRanges.size());
+    long totalBytes = 0;
+    for (CombinedFileRange combined : combinedRanges) {
+      byte[] buf = new byte[combined.getLength()];
+      buffers.add(buf);
+      if (buf.length == 0) {
+        continue;
+      }
+      long position = combined.getOffset();
+      int offset = 0;
+      for (LocatedBlock blk : getBlockRange(position, buf.length)) {
+        long targetStart = position - blk.getStartOffset();
+        int bytesToRead = (int) Math.min(buf.length - offset,
+            blk.getBlockSize() - targetStart);
+        tasks.add(getBlockRangeReader(blk, targetStart,
+            targetStart + bytesToRead - 1, buf, offset));
+        position += bytesToRead;
+        offset += bytesToRead;
+      }
+      totalBytes += buf.length;
+    }
+
+    runBlockRangeReaders(tasks);
+    for (int i = 0; i < combinedRanges.size(); i++) {
+      combinedRanges.get(i).setData(ByteBuffer.wrap(buffers.get(i)));
+    }
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(totalBytes);
+    }
+  }
+
+  /**
+   * @return a task reading the given byte range of a block into buf, the
+   *         way {@link #pread(long, byte[], int, int)} reads each block.
+   */
+  private Callable<Void> getBlockRangeReader(final LocatedBlock blk,
+      final long start, final long end, final byte[] buf, final int offset) {
+    final Span parentSpan = Trace.currentSpan();
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap =
+            new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+        TraceScope scope = Trace.startSpan("vectoredRead", parentSpan);
+        try {
+          if (dfsClient.isHedgedReadsEnabled()) {
+            hedgedFetchBlockByteRange(blk, start, end, buf, offset,
+                corruptedBlockMap);
+          } else {
+            fetchBlockByteRange(blk, start, end, buf, offset,
+                corruptedBlockMap);
+          }
+        } finally {
+          reportCheckSumFailure(corruptedBlockMap,
+              blk.getLocations().length);
+          scope.close();
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Run the block range readers, handing all but the first to the vectored
+   * reads thread pool and running the first in this thread.
+   */
+  private void runBlockRangeReaders(List<Callable<Void>> tasks)
+      throws IOException {
+    ThreadPoolExecutor pool = dfsClient.getVectoredReadsThreadPool();
+    if (pool == null || tasks.size() <= 1) {
+      for (Callable<Void> task : tasks) {
+        callBlockRangeReader(task);
+      }
+      return;
+    }
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+    try {
+      for (Callable<Void> task : tasks.subList(1, tasks.size())) {
+        futures.add(pool.submit(task));
+      }
+      callBlockRangeReader(tasks.get(0));
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted during vectored read");
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException("Vectored read failed", cause);
+        }
+      }
+    } finally {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private static void callBlockRangeReader(Callable<Void> task)
+      throws IOException {
+    try {
+      task.call();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Vectored read failed", e);
+    }
+  }
+
   /**
    * DFSInputStream reports checksum failure.
    * Case I : client has tried multiple data nodes and at least one of the
@@ -1549,6 +2033,10 @@ public synchronized void seek(long targetPos) throws IOException {
         try {
           pos += blockReader.skip(diff);
           if (pos == targetPos) {
+            if (diff > 0) {
+              // The skipped bytes were not read sequentially.
+              blockReaderStart = targetPos;
+            }
             done = true;
           } else {
             // The range was already checked. If the block reader returns
@@ -1871,5 +2359,6 @@ public synchronized void releaseBuffer(ByteBuffer buffer) {
   @Override
   public synchronized void unbuffer() {
     closeCurrentBlockReader();
+    abandonPrefetch();
   }
 }
@@ -1685,6 +1685,19 @@ static DFSOutputStream newStreamForCreate(DFSClient dfsClient, String src,
     }
   }
 
+  /**
+   * Construct and start an output stream for a file which has already been
+   * created by {@link ClientProtocol#batchNamespaceOps}.
+   */
+  static DFSOutputStream newStreamForBatchedCreate(DFSClient dfsClient,
+      String src, HdfsFileStatus stat, EnumSet<CreateFlag> flag,
+      DataChecksum checksum) throws IOException {
+    final DFSOutputStream out = new DFSOutputStream(dfsClient, src, stat,
+        flag, null, checksum, null);
+    out.start();
+    return out;
+  }
+
   /** Construct a new output stream for append. */
   private DFSOutputStream(DFSClient dfsClient, String src,
       EnumSet<CreateFlag> flags, Progressable progress, LocatedBlock lastBlock,
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps a histogram of the latency of the reads from each DataNode, in
+ * which older samples weigh exponentially less than recent ones. Since the
+ * latency of a read grows with its length, reads are told apart by size
+ * class, each four times as large as the previous one, and only compared
+ * with reads of the same class. Each DFSClient has its own tracker.
+ */
+@InterfaceAudience.Private
+public class DatanodeLatencyTracker {
+  /**
+   * The weight of samples below which a histogram is considered too thin
+   * to estimate percentiles from.
+   */
+  static final double MIN_SAMPLES = 16;
+
+  /** Smallest latency told apart; bucket 0 holds everything below it. */
+  private static final long MIN_LATENCY_MICROS = 10;
+  /** Buckets per doubling of latency, i.e. a relative error under 19%. */
+  private static final int BUCKETS_PER_OCTAVE = 4;
+  /** Enough buckets to cover latencies up to about three minutes. */
+  private static final int NUM_BUCKETS = 24 * BUCKETS_PER_OCTAVE;
+
+  /** Upper bound of the smallest size class of reads. */
+  private static final long MIN_SIZE_CLASS_BYTES = 4096;
+  /** The largest size class holds every read above 16 MB. */
+  private static final int NUM_SIZE_CLASSES = 8;
+
+  private final long halfLifeMs;
+  /** Keyed by DataNode transfer address and size class. */
+  private final ConcurrentMap<String, LatencyHistogram> histograms =
+      new ConcurrentHashMap<String, LatencyHistogram>();
+
+  public DatanodeLatencyTracker(long halfLifeMs) {
+    Preconditions.checkArgument(halfLifeMs > 0,
+        "Invalid half-life " + halfLifeMs);
+    this.halfLifeMs = halfLifeMs;
+  }
+
+  /** Record the latency of a read of the given length from a DataNode. */
+  public void addLatency(DatanodeID node, long bytes, long micros) {
+    final int sizeClass = getSizeClass(bytes);
+    String key = getKey(node.getXferAddr(), sizeClass);
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      LatencyHistogram created = new LatencyHistogram(node.getXferAddr(),
+          sizeClass, Time.monotonicNow());
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    histogram.add(micros, Time.monotonicNow());
+  }
+
+  /**
+   * @param bytes the length of the read.
+   * @param percentile between 0 and 100.
+   * @return the estimated latency percentile of reads of about the given
+   *         length from the DataNode in microseconds, or -1 if too few such
+   *         reads were seen recently.
+   */
+  public long getPercentileMicros(DatanodeID node, long bytes,
+      double percentile) {
+    LatencyHistogram histogram =
+        histograms.get(getKey(node.getXferAddr(), getSizeClass(bytes)));
+    return histogram == null ? -1 :
+        histogram.getPercentile(percentile, Time.monotonicNow());
+  }
+
+  /**
+   * @return the estimated latency percentile in microseconds of reads of
+   *         about the given length, for every DataNode with enough such
+   *         recent reads, keyed by transfer address.
+   */
+  public Map<String, Long> getPercentilesMicros(long bytes,
+      double percentile) {
+    final int sizeClass = getSizeClass(bytes);
+    Map<String, Long> result = new TreeMap<String, Long>();
+    long now = Time.monotonicNow();
+    for (LatencyHistogram histogram : histograms.values()) {
+      if (histogram.sizeClass != sizeClass) {
+        continue;
+      }
+      long micros = histogram.getPercentile(percentile, now);
+      if (micros >= 0) {
+        result.put(histogram.xferAddr, micros);
+      }
+    }
+    return result;
+  }
+
+  private static String getKey(String xferAddr, int sizeClass) {
+    return xferAddr + "/" + sizeClass;
+  }
+
+  @VisibleForTesting
+  static int getSizeClass(long bytes) {
+    int sizeClass = 0;
+    for (long bound = MIN_SIZE_CLASS_BYTES;
+         bytes > bound && sizeClass < NUM_SIZE_CLASSES - 1; bound <<= 2) {
+      sizeClass++;
+    }
+    return sizeClass;
+  }
+
+  @VisibleForTesting
+  static int getBucket(long micros) {
+    if (micros < MIN_LATENCY_MICROS) {
+      return 0;
+    }
+    double octaves = Math.log((double) micros / MIN_LATENCY_MICROS) /
+        Math.log(2);
+    return (int) Math.min(NUM_BUCKETS - 1,
+        1 + Math.floor(octaves * BUCKETS_PER_OCTAVE));
+  }
+
+  /** @return the upper bound of the latencies in the given bucket. */
+  @VisibleForTesting
+  static long getBucketUpperBound(int bucket) {
+    return (long) Math.ceil(MIN_LATENCY_MICROS *
+        Math.pow(2, (double) bucket / BUCKETS_PER_OCTAVE));
+  }
+
+  /** A latency histogram with exponentially decaying weights. */
+  private class LatencyHistogram {
+    final String xferAddr;
+    final int sizeClass;
+    private final double[] counts = new double[NUM_BUCKETS];
+    private double total = 0;
+    private long lastDecayMs;
+
+    LatencyHistogram(String xferAddr, int sizeClass, long now) {
+      this.xferAddr = xferAddr;
+      this.sizeClass = sizeClass;
+      this.lastDecayMs = now;
+    }
+
+    synchronized void add(long micros, long now) {
+      decay(now);
+      counts[getBucket(micros)]++;
+      total++;
+    }
+
+    synchronized long getPercentile(double percentile, long now) {
+      decay(now);
+      if (total < MIN_SAMPLES) {
+        return -1;
+      }
+      double target = total * percentile / 100;
+      double seen = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= target) {
+          return getBucketUpperBound(i);
+        }
+      }
+      return getBucketUpperBound(NUM_BUCKETS - 1);
+    }
+
+    /**
+     * Scale the weights down by the time elapsed since the last decay. The
+     * scaling is batched so that a busy histogram is not rescaled on every
+     * read.
+     */
+    private void decay(long now) {
+      long elapsed = now - lastDecayMs;
+      if (elapsed < halfLifeMs / 16) {
+        return;
+      }
+      double factor = Math.pow(0.5, (double) elapsed / halfLifeMs);
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        counts[i] *= factor;
+      }
+      total *= factor;
+      lastDecayMs = now;
+    }
+  }
+}
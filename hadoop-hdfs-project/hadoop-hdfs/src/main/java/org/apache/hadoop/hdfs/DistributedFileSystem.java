@@ -63,6 +63,8 @@
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -1069,6 +1071,25 @@ protected boolean primitiveMkdir(Path f, FsPermission absolutePermission)
     return dfs.primitiveMkdir(getPathName(f), absolutePermission);
   }
 
+  /**
+   * Apply a batch of mkdirs, create, delete and rename operations with a
+   * single call to the NameNode, which applies them under one lock and one
+   * edit log sync. The paths of the operations must be absolute paths of
+   * this file system; symlinks are not resolved.
+   *
+   * @param ops the operations to apply, in order
+   * @return one result per operation, in the order of <code>ops</code>. The
+   *         result of a successful create carries the output stream of the
+   *         new file.
+   * @throws IOException
+   * @see DFSClient#batchNamespaceOps(List, FileSystem.Statistics)
+   */
+  public List<BatchedNamespaceOpResult> batchNamespaceOps(
+      List<BatchedNamespaceOp> ops) throws IOException {
+    statistics.incrementWriteOps(ops.size());
+    return dfs.batchNamespaceOps(ops, statistics);
+  }
+
  
   @Override
   public void close() throws IOException {
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.shortcircuit.ClientMmap;
+
+/**
+ * A BlockReader whose first bytes were read ahead of time, while the
+ * previous block of a sequential read was being consumed. The prefetched
+ * bytes are served first; the rest of the block comes from the underlying
+ * reader, which is positioned right after them. Once they have been
+ * consumed, or the reader is closed, their buffer is handed back for the
+ * next prefetch to reuse.
+ */
+class PrefetchedBlockReader implements BlockReader {
+  private final BlockReader reader;
+  private final AtomicReference<byte[]> spareBuffer;
+  private final int limit;
+  private byte[] buf;
+  private int pos = 0;
+
+  PrefetchedBlockReader(BlockReader reader, byte[] buf, int limit,
+      AtomicReference<byte[]> spareBuffer) {
+    this.reader = reader;
+    this.buf = buf;
+    this.limit = limit;
+    this.spareBuffer = spareBuffer;
+  }
+
+  /** Hand the buffer back once the prefetched bytes are all consumed. */
+  private void releaseBufferIfConsumed() {
+    if (buf != null && pos >= limit) {
+      spareBuffer.set(buf);
+      buf = null;
+    }
+  }
+
+  @Override
+  public synchronized int read(byte[] b, int off, int len)
+      throws IOException {
+    if (pos < limit) {
+      int n = Math.min(len, limit - pos);
+      System.arraycopy(buf, pos, b, off, n);
+      pos += n;
+      releaseBufferIfConsumed();
+      return n;
+    }
+    return reader.read(b, off, len);
+  }
+
+  @Override
+  public synchronized int read(ByteBuffer b) throws IOException {
+    if (pos < limit) {
+      int n = Math.min(b.remaining(), limit - pos);
+      b.put(buf, pos, n);
+      pos += n;
+      releaseBufferIfConsumed();
+      return n;
+    }
+    return reader.read(b);
+  }
+
+  @Override
+  public synchronized long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    long skipped = Math.min(n, limit - pos);
+    pos += skipped;
+    releaseBufferIfConsumed();
+    if (skipped < n) {
+      skipped += reader.skip(n - skipped);
+    }
+    return skipped;
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    return (limit - pos) + reader.available();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    pos = limit;
+    releaseBufferIfConsumed();
+    reader.close();
+  }
+
+  @Override
+  public void readFully(byte[] b, int readOffset, int amtToRead)
+      throws IOException {
+    BlockReaderUtil.readFully(this, b, readOffset, amtToRead);
+  }
+
+  @Override
+  public int readAll(byte[] b, int offset, int len) throws IOException {
+    return BlockReaderUtil.readAll(this, b, offset, len);
+  }
+
+  @Override
+  public boolean isLocal() {
+    return reader.isLocal();
+  }
+
+  @Override
+  public boolean isShortCircuit() {
+    return reader.isShortCircuit();
+  }
+
+  @Override
+  public ClientMmap getClientMmap(EnumSet<ReadOption> opts) {
+    // Zero-copy reads of a prefetched block fall back to copying reads.
+    return null;
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.permission.FsPermission;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A namespace mutation which is applied as part of a batch by
+ * {@link ClientProtocol#batchNamespaceOps(String, java.util.List)}.
+ * Instances are created with the static factory methods, one for each
+ * supported {@link Type}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class BatchedNamespaceOp {
+
+  /** The supported operations. */
+  public enum Type {
+    /** Same as {@link ClientProtocol#mkdirs}. */
+    MKDIRS,
+    /**
+     * Same as {@link ClientProtocol#create}. The new file is open for write
+     * by the client which submitted the batch.
+     */
+    CREATE,
+    /** Same as {@link ClientProtocol#delete}. */
+    DELETE,
+    /** Same as {@link ClientProtocol#rename2}. */
+    RENAME
+  }
+
+  private final Type type;
+  private final String src;
+  private final String dst;
+  private final FsPermission permission;
+  private final boolean createParent;
+  private final boolean overwrite;
+  private final boolean recursive;
+  private final short replication;
+  private final long blockSize;
+
+  private BatchedNamespaceOp(Type type, String src, String dst,
+      FsPermission permission, boolean createParent, boolean overwrite,
+      boolean recursive, short replication, long blockSize) {
+    this.type = Preconditions.checkNotNull(type);
+    this.src = Preconditions.checkNotNull(src);
+    this.dst = dst;
+    this.permission = permission;
+    this.createParent = createParent;
+    this.overwrite = overwrite;
+    this.recursive = recursive;
+    this.replication = replication;
+    this.blockSize = blockSize;
+  }
+
+  /** Create a directory and, if createParent is set, its missing parents. */
+  public static BatchedNamespaceOp mkdirs(String src, FsPermission permission,
+      boolean createParent) {
+    return new BatchedNamespaceOp(Type.MKDIRS, src, null, permission,
+        createParent, false, false, (short) 0, 0L);
+  }
+
+  /** Create a new file, or overwrite an existing one if overwrite is set. */
+  public static BatchedNamespaceOp create(String src, FsPermission permission,
+      boolean createParent, boolean overwrite, short replication,
+      long blockSize) {
+    return new BatchedNamespaceOp(Type.CREATE, src, null, permission,
+        createParent, overwrite, false, replication, blockSize);
+  }
+
+  /** Delete a file or a directory. */
+  public static BatchedNamespaceOp delete(String src, boolean recursive) {
+    return new BatchedNamespaceOp(Type.DELETE, src, null, null, false, false,
+        recursive, (short) 0, 0L);
+  }
+
+  /** Rename src to dst, replacing dst if overwrite is set. */
+  public static BatchedNamespaceOp rename(String src, String dst,
+      boolean overwrite) {
+    return new BatchedNamespaceOp(Type.RENAME, src,
+        Preconditions.checkNotNull(dst), null, false, overwrite, false,
+        (short) 0, 0L);
+  }
+
+  /**
+   * @return a copy of this operation with the permission replaced, or this
+   *         operation itself if it does not carry a permission.
+   */
+  public BatchedNamespaceOp withPermission(FsPermission newPermission) {
+    if (type != Type.MKDIRS && type != Type.CREATE) {
+      return this;
+    }
+    return new BatchedNamespaceOp(type, src, dst, newPermission, createParent,
+        overwrite, recursive, replication, blockSize);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getSrc() {
+    return src;
+  }
+
+  /** @return the rename destination, or null for other operations. */
+  public String getDst() {
+    return dst;
+  }
+
+  public FsPermission getPermission() {
+    return permission;
+  }
+
+  public boolean isCreateParent() {
+    return createParent;
+  }
+
+  public boolean isOverwrite() {
+    return overwrite;
+  }
+
+  public boolean isRecursive() {
+    return recursive;
+  }
+
+  public short getReplication() {
+    return replication;
+  }
+
+  public long getBlockSize() {
+    return blockSize;
+  }
+
+  @Override
+  public String toString() {
+    return type + " " + src + (dst != null ? " " + dst : "");
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+
+/**
+ * The outcome of one {@link BatchedNamespaceOp}. An operation either
+ * returned a result, which is the boolean the corresponding single operation
+ * RPC would have returned, or failed with the exception that RPC would have
+ * thrown.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class BatchedNamespaceOpResult {
+
+  private final boolean result;
+  private final HdfsFileStatus fileStatus;
+  private final IOException exception;
+  /** The stream opened by the client for a created file; never sent. */
+  private HdfsDataOutputStream outputStream;
+
+  public BatchedNamespaceOpResult(boolean result, HdfsFileStatus fileStatus,
+      IOException exception) {
+    this.result = result;
+    this.fileStatus = fileStatus;
+    this.exception = exception;
+  }
+
+  public static BatchedNamespaceOpResult success(boolean result,
+      HdfsFileStatus fileStatus) {
+    return new BatchedNamespaceOpResult(result, fileStatus, null);
+  }
+
+  public static BatchedNamespaceOpResult failure(IOException exception) {
+    return new BatchedNamespaceOpResult(false, null, exception);
+  }
+
+  /** @return true if the operation did not throw. */
+  public boolean isSuccess() {
+    return exception == null;
+  }
+
+  /** @return the boolean result of the operation; false if it failed. */
+  public boolean getResult() {
+    return result;
+  }
+
+  /** @return the status of the file created by a CREATE, otherwise null. */
+  public HdfsFileStatus getFileStatus() {
+    return fileStatus;
+  }
+
+  /** @return the exception the operation failed with, or null. */
+  public IOException getException() {
+    return exception;
+  }
+
+  /**
+   * @return the output stream for the file created by a successful CREATE
+   *         submitted through the DFSClient, otherwise null.
+   */
+  public HdfsDataOutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  @InterfaceAudience.Private
+  public void setOutputStream(HdfsDataOutputStream outputStream) {
+    this.outputStream = outputStream;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess() ? "result=" + result : "exception=" + exception;
+  }
+}
@@ -51,6 +51,7 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSelector;
 import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
 import org.apache.hadoop.hdfs.server.namenode.SafeModeException;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
@@ -126,6 +127,7 @@ public interface ClientProtocol {
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public LocatedBlocks getBlockLocations(String src,
                                          long offset,
                                          long length) 
@@ -138,6 +140,7 @@ public LocatedBlocks getBlockLocations(String src,
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public FsServerDefaults getServerDefaults() throws IOException;
 
   /**
@@ -266,6 +269,7 @@ public boolean setReplication(String src, short replication)
    * @return All the in-use block storage policies currently.
    */
   @Idempotent
+  @ReadOnly
   public BlockStoragePolicy[] getStoragePolicies() throws IOException;
 
   /**
@@ -609,6 +613,33 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
       ParentNotDirectoryException, SafeModeException, UnresolvedLinkException,
       SnapshotAccessControlException, IOException;
 
+  /**
+   * Apply a batch of namespace mutations in one call. The operations are
+   * applied in order under a single acquisition of the namesystem lock and
+   * their edits are synced to the edit log once for the whole batch, which
+   * makes a batch much cheaper than the same operations issued one by one.
+   * <p>
+   * The operations are independent: one failing does not stop the others
+   * from being applied, and there is no rollback. Each operation behaves as
+   * the corresponding single RPC and reports its own result or exception.
+   * Files created by the batch are open for write by <code>clientName</code>
+   * exactly as with {@link #create}, except that a batched create is not
+   * supported inside an encryption zone.
+   *
+   * @param clientName name of the current client, the lease holder of the
+   *          files created by the batch
+   * @param ops the operations to apply, in order
+   *
+   * @return one result per operation, in the order of <code>ops</code>
+   *
+   * @throws SafeModeException the batch is not allowed in safemode
+   * @throws IOException If the batch is larger than the configured maximum
+   *           or an I/O error occurred
+   */
+  @AtMostOnce
+  public List<BatchedNamespaceOpResult> batchNamespaceOps(String clientName,
+      List<BatchedNamespaceOp> ops) throws SafeModeException, IOException;
+
   /**
    * Get a partial listing of the indicated directory
    *
@@ -624,6 +655,7 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public DirectoryListing getListing(String src,
                                      byte[] startAfter,
                                      boolean needLocation)
@@ -637,6 +669,7 @@ public DirectoryListing getListing(String src,
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public SnapshottableDirectoryStatus[] getSnapshottableDirListing()
       throws IOException;
 
@@ -731,6 +764,7 @@ public DatanodeStorageReport[] getDatanodeStorageReport(
    * @throws UnresolvedLinkException if the path contains a symlink. 
    */
   @Idempotent
+  @ReadOnly
   public long getPreferredBlockSize(String filename) 
       throws IOException, UnresolvedLinkException;
 
@@ -900,6 +934,7 @@ public CorruptFileBlocks listCorruptFileBlocks(String path, String cookie)
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -914,6 +949,7 @@ public HdfsFileStatus getFileInfo(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred     
    */
   @Idempotent
+  @ReadOnly
   public boolean isFileClosed(String src) throws AccessControlException,
       FileNotFoundException, UnresolvedLinkException, IOException;
   
@@ -930,6 +966,7 @@ public boolean isFileClosed(String src) throws AccessControlException,
    * @throws IOException If an I/O error occurred        
    */
   @Idempotent
+  @ReadOnly
   public HdfsFileStatus getFileLinkInfo(String src)
       throws AccessControlException, UnresolvedLinkException, IOException;
   
@@ -943,6 +980,7 @@ public HdfsFileStatus getFileLinkInfo(String src)
    * @throws IOException If an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public ContentSummary getContentSummary(String path)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
@@ -1060,6 +1098,7 @@ public void createSymlink(String target, String link, FsPermission dirPerm,
    *           or an I/O error occurred
    */
   @Idempotent
+  @ReadOnly
   public String getLinkTarget(String path) throws AccessControlException,
       FileNotFoundException, IOException; 
   
@@ -1199,6 +1238,7 @@ public void disallowSnapshot(String snapshotRoot)
    * @throws IOException on error
    */
   @Idempotent
+  @ReadOnly
   public SnapshotDiffReport getSnapshotDiffReport(String snapshotRoot,
       String fromSnapshot, String toSnapshot) throws IOException;
 
@@ -1244,6 +1284,7 @@ public void modifyCacheDirective(CacheDirectiveInfo directive,
    * @return A batch of CacheDirectiveEntry objects.
    */
   @Idempotent
+  @ReadOnly
   public BatchedEntries<CacheDirectiveEntry> listCacheDirectives(
       long prevId, CacheDirectiveInfo filter) throws IOException;
 
@@ -1285,6 +1326,7 @@ public BatchedEntries<CacheDirectiveEntry> listCacheDirectives(
    * @return A batch of CachePoolEntry objects.
    */
   @Idempotent
+  @ReadOnly
   public BatchedEntries<CachePoolEntry> listCachePools(String prevPool)
       throws IOException;
 
@@ -1331,6 +1373,7 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
    * Gets the ACLs of files and directories.
    */
   @Idempotent
+  @ReadOnly
   public AclStatus getAclStatus(String src) throws IOException;
   
   /**
@@ -1344,6 +1387,7 @@ public void createEncryptionZone(String src, String keyName)
    * Get the encryption zone for a path.
    */
   @Idempotent
+  @ReadOnly
   public EncryptionZone getEZForPath(String src)
     throws IOException;
 
@@ -1355,6 +1399,7 @@ public EncryptionZone getEZForPath(String src)
    * @return Batch of encryption zones.
    */
   @Idempotent
+  @ReadOnly
   public BatchedEntries<EncryptionZone> listEncryptionZones(
       long prevId) throws IOException;
 
@@ -1388,6 +1433,7 @@ public void setXAttr(String src, XAttr xAttr, EnumSet<XAttrSetFlag> flag)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs) 
       throws IOException;
 
@@ -1403,6 +1449,7 @@ public List<XAttr> getXAttrs(String src, List<XAttr> xAttrs)
    * @throws IOException
    */
   @Idempotent
+  @ReadOnly
   public List<XAttr> listXAttrs(String src)
       throws IOException;
   
@@ -1436,6 +1483,7 @@ public List<XAttr> listXAttrs(String src)
    * @throws IOException see specific implementation
    */
   @Idempotent
+  @ReadOnly
   public void checkAccess(String path, FsAction mode) throws IOException;
 
   /**
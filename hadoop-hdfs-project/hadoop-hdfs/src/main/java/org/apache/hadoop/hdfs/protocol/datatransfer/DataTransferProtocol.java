@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.protocol.datatransfer;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -146,6 +147,24 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
       SlotId slotId, int maxVersion, boolean supportsReceiptVerification)
         throws IOException;
 
+  /**
+   * Request short circuit access file descriptors for several blocks of
+   * the same DataNode in a single round trip.  The DataNode answers each
+   * block in turn as {@link #requestShortCircuitFds} would.
+   *
+   * @param blks            The blocks to get file descriptors for.
+   * @param blockTokens     Security tokens for accessing the blocks.
+   * @param slotIds         The shared memory slot ids to use, one per block.
+   * @param maxVersion      Maximum version of the block data the client 
+   *                          can understand.
+   * @param supportsReceiptVerification  True if the client supports
+   *                          receipt verification.
+   */
+  public void requestShortCircuitFdsBatch(final List<ExtendedBlock> blks,
+      final List<Token<BlockTokenIdentifier>> blockTokens,
+      List<SlotId> slotIds, int maxVersion,
+      boolean supportsReceiptVerification) throws IOException;
+
   /**
    * Release a pair of short-circuit FDs requested earlier.
    *
@@ -21,12 +21,14 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.util.DirectBufferPool;
 import org.apache.hadoop.io.IOUtils;
 
@@ -52,6 +54,15 @@ public class PacketReceiver implements Closeable {
   private static final DirectBufferPool bufferPool = new DirectBufferPool();
   private final boolean useDirectBuffers;
 
+  /**
+   * If non-null, the heap buffers are borrowed from and returned to this
+   * manager instead of being left to the garbage collector.
+   */
+  private final ByteArrayManager byteArrayManager;
+
+  /** The array backing {@link #curPacketBuf} if it came from the manager. */
+  private byte[] pooledArray = null;
+
   /**
    * The entirety of the most recently read packet.
    * The first PKT_LENGTHS_LEN bytes of this buffer are the
@@ -76,7 +87,22 @@ public class PacketReceiver implements Closeable {
   
   public PacketReceiver(boolean useDirectBuffers) {
     this.useDirectBuffers = useDirectBuffers;
-    reallocPacketBuf(PacketHeader.PKT_LENGTHS_LEN);
+    this.byteArrayManager = null;
+    curPacketBuf = useDirectBuffers ?
+        bufferPool.getBuffer(PacketHeader.PKT_LENGTHS_LEN) :
+        ByteBuffer.allocate(PacketHeader.PKT_LENGTHS_LEN);
+  }
+
+  /**
+   * Create a receiver using heap buffers borrowed from the given manager.
+   * The buffer is returned to the manager when the receiver is closed.
+   */
+  public PacketReceiver(ByteArrayManager byteArrayManager) {
+    this.useDirectBuffers = false;
+    this.byteArrayManager = Preconditions.checkNotNull(byteArrayManager);
+    // The length prefixes are tiny; the first real packet borrows the
+    // buffer that is then reused for the rest of the block.
+    curPacketBuf = ByteBuffer.allocate(PacketHeader.PKT_LENGTHS_LEN);
   }
 
   public PacketHeader getHeader() {
@@ -262,14 +288,24 @@ private static void readChannelFully(ReadableByteChannel ch, ByteBuffer buf)
     }
   }
   
-  private void reallocPacketBuf(int atLeastCapacity) {
+  private void reallocPacketBuf(int atLeastCapacity)
+      throws InterruptedIOException {
     // Realloc the buffer if this packet is longer than the previous
     // one.
     if (curPacketBuf == null ||
         curPacketBuf.capacity() < atLeastCapacity) {
       ByteBuffer newBuf;
+      byte[] newArray = null;
       if (useDirectBuffers) {
         newBuf = bufferPool.getBuffer(atLeastCapacity);
+      } else if (byteArrayManager != null) {
+        try {
+          newArray = byteArrayManager.newByteArray(atLeastCapacity);
+        } catch (InterruptedException e) {
+          throw (InterruptedIOException) new InterruptedIOException(
+              "Interrupted while waiting for a packet buffer").initCause(e);
+        }
+        newBuf = ByteBuffer.wrap(newArray);
       } else {
         newBuf = ByteBuffer.allocate(atLeastCapacity);
       }
@@ -282,13 +318,20 @@ private void reallocPacketBuf(int atLeastCapacity) {
       
       returnPacketBufToPool();
       curPacketBuf = newBuf;
+      pooledArray = newArray;
     }
   }
   
-  private void returnPacketBufToPool() {
+  private synchronized void returnPacketBufToPool() {
     if (curPacketBuf != null && curPacketBuf.isDirect()) {
       bufferPool.returnBuffer(curPacketBuf);
       curPacketBuf = null;
+    } else if (pooledArray != null) {
+      // Hand the array back at most once, even if the receiver is closed
+      // by both the receiving thread and the responder.
+      byteArrayManager.release(pooledArray);
+      pooledArray = null;
+      curPacketBuf = null;
     }
   }
 
@@ -23,23 +23,29 @@
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.CachingStrategyProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockChecksumProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpCopyBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReadBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReplaceBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessBatchProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpTransferBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpWriteBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.ReleaseShortCircuitAccessRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.ShortCircuitShmRequestProto;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
 import org.apache.hadoop.hdfs.server.datanode.CachingStrategy;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitShm.SlotId;
+import org.apache.hadoop.security.token.Token;
 import org.apache.htrace.TraceScope;
 
 /** Receiver */
@@ -94,6 +100,9 @@ protected final void processOp(Op op) throws IOException {
     case REQUEST_SHORT_CIRCUIT_SHM:
       opRequestShortCircuitShm(in);
       break;
+    case REQUEST_SHORT_CIRCUIT_FDS_BATCH:
+      opRequestShortCircuitFdsBatch(in);
+      break;
     default:
       throw new IOException("Unknown op " + op + " in data stream");
     }
@@ -193,6 +202,36 @@ private void opRequestShortCircuitFds(DataInputStream in) throws IOException {
     }
   }
 
+  /** Receive {@link Op#REQUEST_SHORT_CIRCUIT_FDS_BATCH} */
+  private void opRequestShortCircuitFdsBatch(DataInputStream in)
+      throws IOException {
+    final OpRequestShortCircuitAccessBatchProto proto =
+      OpRequestShortCircuitAccessBatchProto.parseFrom(vintPrefixed(in));
+    final int n = proto.getRequestsCount();
+    if (n == 0) {
+      throw new IOException("Empty short-circuit batch request");
+    }
+    List<ExtendedBlock> blks = new ArrayList<ExtendedBlock>(n);
+    List<Token<BlockTokenIdentifier>> tokens =
+        new ArrayList<Token<BlockTokenIdentifier>>(n);
+    List<SlotId> slotIds = new ArrayList<SlotId>(n);
+    for (OpRequestShortCircuitAccessProto request : proto.getRequestsList()) {
+      blks.add(PBHelper.convert(request.getHeader().getBlock()));
+      tokens.add(PBHelper.convert(request.getHeader().getToken()));
+      slotIds.add(request.hasSlotId() ?
+          PBHelper.convert(request.getSlotId()) : null);
+    }
+    OpRequestShortCircuitAccessProto first = proto.getRequests(0);
+    TraceScope traceScope = continueTraceSpan(first.getHeader(),
+        proto.getClass().getSimpleName());
+    try {
+      requestShortCircuitFdsBatch(blks, tokens, slotIds,
+          first.getMaxVersion(), first.getSupportsReceiptVerification());
+    } finally {
+      if (traceScope != null) traceScope.close();
+    }
+  }
+
   /** Receive {@link Op#RELEASE_SHORT_CIRCUIT_FDS} */
   private void opReleaseShortCircuitFds(DataInputStream in)
       throws IOException {
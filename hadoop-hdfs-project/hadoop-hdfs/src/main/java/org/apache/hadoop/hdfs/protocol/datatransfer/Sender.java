@@ -22,6 +22,7 @@
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpCopyBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReadBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReplaceBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessBatchProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpRequestShortCircuitAccessProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpTransferBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpWriteBlockProto;
@@ -194,6 +196,27 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
     OpRequestShortCircuitAccessProto proto = builder.build();
     send(out, Op.REQUEST_SHORT_CIRCUIT_FDS, proto);
   }
+
+  @Override
+  public void requestShortCircuitFdsBatch(final List<ExtendedBlock> blks,
+      final List<Token<BlockTokenIdentifier>> blockTokens,
+      List<SlotId> slotIds, int maxVersion,
+      boolean supportsReceiptVerification) throws IOException {
+    OpRequestShortCircuitAccessBatchProto.Builder batch =
+        OpRequestShortCircuitAccessBatchProto.newBuilder();
+    for (int i = 0; i < blks.size(); i++) {
+      OpRequestShortCircuitAccessProto.Builder builder =
+          OpRequestShortCircuitAccessProto.newBuilder()
+            .setHeader(DataTransferProtoUtil.buildBaseHeader(
+              blks.get(i), blockTokens.get(i))).setMaxVersion(maxVersion);
+      if (slotIds.get(i) != null) {
+        builder.setSlotId(PBHelper.convert(slotIds.get(i)));
+      }
+      builder.setSupportsReceiptVerification(supportsReceiptVerification);
+      batch.addRequests(builder);
+    }
+    send(out, Op.REQUEST_SHORT_CIRCUIT_FDS_BATCH, batch.build());
+  }
   
   @Override
   public void releaseShortCircuitFds(SlotId slotId) throws IOException {
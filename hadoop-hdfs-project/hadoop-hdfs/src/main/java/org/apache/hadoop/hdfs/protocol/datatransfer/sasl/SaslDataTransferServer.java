@@ -89,6 +89,20 @@ public SaslDataTransferServer(DNConf dnConf,
     this.dnConf = dnConf;
   }
 
+  /**
+   * Checks if {@link #receive} negotiates the streams of a connection with a
+   * handshake, rather than using the underlying streams as is.
+   *
+   * @param xferPort data transfer port of DataNode accepting connection
+   * @return true if the client must complete a handshake first
+   */
+  public boolean isHandshakeRequired(int xferPort) {
+    return dnConf.getEncryptDataTransfer()
+        || (UserGroupInformation.isSecurityEnabled()
+            && !SecurityUtil.isPrivilegedPort(xferPort)
+            && dnConf.getSaslPropsResolver() != null);
+  }
+
   /**
    * Receives SASL negotiation from a peer on behalf of a server.
    *
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.protocolPB;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 
@@ -28,6 +29,8 @@
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.Options.Rename;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -67,6 +70,9 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AllowSnapshotResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AppendRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AppendResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchNamespaceOpsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchNamespaceOpsResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedNamespaceOpProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CheckAccessRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CheckAccessResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CompleteRequestProto;
@@ -627,6 +633,29 @@ public MkdirsResponseProto mkdirs(RpcController controller,
     }
   }
 
+  @Override
+  public BatchNamespaceOpsResponseProto batchNamespaceOps(
+      RpcController controller, BatchNamespaceOpsRequestProto req)
+      throws ServiceException {
+    try {
+      List<BatchedNamespaceOp> ops =
+          new ArrayList<BatchedNamespaceOp>(req.getOpsCount());
+      for (BatchedNamespaceOpProto op : req.getOpsList()) {
+        ops.add(PBHelper.convert(op));
+      }
+      List<BatchedNamespaceOpResult> results =
+          server.batchNamespaceOps(req.getClientName(), ops);
+      BatchNamespaceOpsResponseProto.Builder builder =
+          BatchNamespaceOpsResponseProto.newBuilder();
+      for (BatchedNamespaceOpResult result : results) {
+        builder.addResults(PBHelper.convert(result));
+      }
+      return builder.build();
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+  }
+
   @Override
   public GetListingResponseProto getListing(RpcController controller,
       GetListingRequestProto req) throws ServiceException {
@@ -47,6 +47,8 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -84,6 +86,9 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AllowSnapshotRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AppendRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.AppendResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchNamespaceOpsRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchNamespaceOpsResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedNamespaceOpResultProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CheckAccessRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CompleteRequestProto;
@@ -561,6 +566,28 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
     }
   }
 
+  @Override
+  public List<BatchedNamespaceOpResult> batchNamespaceOps(String clientName,
+      List<BatchedNamespaceOp> ops) throws SafeModeException, IOException {
+    BatchNamespaceOpsRequestProto.Builder builder =
+        BatchNamespaceOpsRequestProto.newBuilder().setClientName(clientName);
+    for (BatchedNamespaceOp op : ops) {
+      builder.addOps(PBHelper.convert(op));
+    }
+    try {
+      BatchNamespaceOpsResponseProto response =
+          rpcProxy.batchNamespaceOps(null, builder.build());
+      List<BatchedNamespaceOpResult> results =
+          Lists.newArrayListWithCapacity(response.getResultsCount());
+      for (BatchedNamespaceOpResultProto result : response.getResultsList()) {
+        results.add(PBHelper.convert(result));
+      }
+      return results;
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public DirectoryListing getListing(String src, byte[] startAfter,
       boolean needLocation) throws AccessControlException,
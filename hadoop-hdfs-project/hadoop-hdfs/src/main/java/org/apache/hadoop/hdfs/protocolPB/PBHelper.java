@@ -48,6 +48,8 @@
 import org.apache.hadoop.ha.HAServiceProtocol.HAServiceState;
 import org.apache.hadoop.ha.proto.HAServiceProtocolProtos;
 import org.apache.hadoop.hdfs.inotify.EventBatch;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.inotify.Event;
@@ -93,6 +95,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.AclStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.AclProtos.GetAclStatusResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedNamespaceOpProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.BatchedNamespaceOpResultProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveEntryProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoExpirationProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
@@ -226,6 +230,7 @@
 import org.apache.hadoop.hdfs.util.ExactSizeInputStream;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -1364,6 +1369,87 @@ public static FsPermissionProto convert(FsPermission p) {
   public static FsPermission convert(FsPermissionProto p) {
     return new FsPermissionExtension((short)p.getPerm());
   }
+
+  public static BatchedNamespaceOpProto convert(BatchedNamespaceOp op) {
+    BatchedNamespaceOpProto.Builder builder = BatchedNamespaceOpProto
+        .newBuilder()
+        .setType(BatchedNamespaceOpProto.OpType.valueOf(op.getType().name()))
+        .setSrc(op.getSrc());
+    switch (op.getType()) {
+    case MKDIRS:
+      builder.setMasked(convert(op.getPermission()))
+          .setCreateParent(op.isCreateParent());
+      break;
+    case CREATE:
+      builder.setMasked(convert(op.getPermission()))
+          .setCreateParent(op.isCreateParent())
+          .setOverwrite(op.isOverwrite())
+          .setReplication(op.getReplication())
+          .setBlockSize(op.getBlockSize());
+      break;
+    case DELETE:
+      builder.setRecursive(op.isRecursive());
+      break;
+    case RENAME:
+      builder.setDst(op.getDst())
+          .setOverwrite(op.isOverwrite());
+      break;
+    default:
+      throw new IllegalArgumentException("Unexpected op " + op);
+    }
+    return builder.build();
+  }
+
+  public static BatchedNamespaceOp convert(BatchedNamespaceOpProto proto) {
+    switch (proto.getType()) {
+    case MKDIRS:
+      return BatchedNamespaceOp.mkdirs(proto.getSrc(),
+          convert(proto.getMasked()), proto.getCreateParent());
+    case CREATE:
+      return BatchedNamespaceOp.create(proto.getSrc(),
+          convert(proto.getMasked()), proto.getCreateParent(),
+          proto.getOverwrite(), (short) proto.getReplication(),
+          proto.getBlockSize());
+    case DELETE:
+      return BatchedNamespaceOp.delete(proto.getSrc(), proto.getRecursive());
+    case RENAME:
+      return BatchedNamespaceOp.rename(proto.getSrc(), proto.getDst(),
+          proto.getOverwrite());
+    default:
+      throw new IllegalArgumentException("Unexpected op type "
+          + proto.getType());
+    }
+  }
+
+  public static BatchedNamespaceOpResultProto convert(
+      BatchedNamespaceOpResult result) {
+    BatchedNamespaceOpResultProto.Builder builder =
+        BatchedNamespaceOpResultProto.newBuilder()
+        .setResult(result.getResult());
+    if (result.getFileStatus() != null) {
+      builder.setFs(convert(result.getFileStatus()));
+    }
+    final IOException e = result.getException();
+    if (e != null) {
+      builder.setExceptionClassName(e.getClass().getName());
+      if (e.getMessage() != null) {
+        builder.setExceptionMessage(e.getMessage());
+      }
+    }
+    return builder.build();
+  }
+
+  public static BatchedNamespaceOpResult convert(
+      BatchedNamespaceOpResultProto proto) {
+    if (proto.hasExceptionClassName()) {
+      final RemoteException re = new RemoteException(
+          proto.getExceptionClassName(),
+          proto.hasExceptionMessage() ? proto.getExceptionMessage() : null);
+      return BatchedNamespaceOpResult.failure(re.unwrapRemoteException());
+    }
+    return BatchedNamespaceOpResult.success(proto.getResult(),
+        proto.hasFs() ? convert(proto.getFs()) : null);
+  }
   
   
   // The creatFlag field in PB is a bitmask whose values are the same a the 
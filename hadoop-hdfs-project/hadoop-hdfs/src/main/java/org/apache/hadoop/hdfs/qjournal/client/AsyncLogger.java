@@ -22,6 +22,7 @@
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -113,6 +114,12 @@ public ListenableFuture<Void> finalizeLogSegment(
   public ListenableFuture<RemoteEditLogManifest> getEditLogManifest(
       long fromTxnId, boolean inProgressOk);
 
+  /**
+   * Fetch recently journaled edits from the remote node's in-memory cache.
+   */
+  public ListenableFuture<GetJournaledEditsResponseProto> getJournaledEdits(
+      long fromTxnId, int maxTxns);
+
   /**
    * Prepare recovery. See the HDFS-3077 design document for details.
    */
@@ -21,6 +21,7 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -36,6 +37,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -77,6 +79,11 @@ public class QuorumJournalManager implements JournalManager {
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
 
+  // Whether in-progress edits are read over RPC from the JournalNodes'
+  // in-memory caches, and how many transactions to ask for at a time.
+  private final boolean inProgressTailingEnabled;
+  private final int maxTxnsPerRpc;
+
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
   // configurable.
@@ -142,6 +149,15 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.inProgressTailingEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
+    this.maxTxnsPerRpc = conf.getInt(
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_DEFAULT);
+    Preconditions.checkArgument(maxTxnsPerRpc > 0,
+        "%s must be positive",
+        DFSConfigKeys.DFS_HA_TAILEDITS_QJM_RPC_MAX_TXNS_KEY);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -465,7 +481,86 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    if (inProgressOk && inProgressTailingEnabled) {
+      try {
+        Collection<EditLogInputStream> rpcStreams =
+            new ArrayList<EditLogInputStream>();
+        selectRpcInputStreams(rpcStreams, fromTxnId);
+        streams.addAll(rpcStreams);
+        return;
+      } catch (IOException ioe) {
+        LOG.warn("Failed to read edits from txid " + fromTxnId + " over RPC," +
+            " falling back to finalized segments: " + ioe);
+      }
+      // The in-progress segment as seen over HTTP may contain transactions
+      // which are not yet durable, so only read finalized segments here.
+      inProgressOk = false;
+    }
+    selectStreamingInputStreams(streams, fromTxnId, inProgressOk);
+  }
 
+  /**
+   * Fetch edits starting at fromTxnId from the JournalNodes' in-memory caches.
+   * Only the transactions which a quorum of JournalNodes has returned are
+   * read, since only those are known to be durable.
+   *
+   * @throws IOException if a quorum of JournalNodes could not return the
+   *         edits, e.g. because they are no longer cached
+   */
+  private void selectRpcInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, maxTxnsPerRpc);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> responseMap =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectRpcInputStreams");
+
+    List<Integer> responseCounts = new ArrayList<Integer>();
+    for (GetJournaledEditsResponseProto resp : responseMap.values()) {
+      responseCounts.add(resp.getTxnCount());
+    }
+    Collections.sort(responseCounts);
+    // The highest count which at least a majority of the loggers reached
+    int maxAllowedTxns = responseCounts.get(
+        responseCounts.size() - loggers.getMajoritySize());
+    if (maxAllowedTxns == 0) {
+      LOG.debug("No new edits available in logger caches from txid " +
+          fromTxnId);
+      return;
+    }
+
+    GetJournaledEditsResponseProto chosen = null;
+    for (GetJournaledEditsResponseProto resp : responseMap.values()) {
+      if (resp.getTxnCount() >= maxAllowedTxns) {
+        chosen = resp;
+        break;
+      }
+    }
+    Preconditions.checkState(chosen != null && chosen.hasEditLog(),
+        "No response containing %s txns from %s", maxAllowedTxns, fromTxnId);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Selected " + maxAllowedTxns + " txns from txid " + fromTxnId +
+          " out of logger cache responses " + responseCounts);
+    }
+
+    // Edits beyond the quorum-durable count are cut off by the stream's
+    // lastTxId; any before fromTxnId are skipped by the redundant stream.
+    PriorityQueue<EditLogInputStream> allStreams =
+        new PriorityQueue<EditLogInputStream>(1,
+            JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+    allStreams.add(EditLogFileInputStream.fromByteString(
+        chosen.getEditLog(), fromTxnId, fromTxnId + maxAllowedTxns - 1,
+        true));
+    JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
+  }
+
+  /**
+   * Select streams reading whole edit log segments over HTTP from the
+   * JournalNodes.
+   */
+  private void selectStreamingInputStreams(
+      Collection<EditLogInputStream> streams, long fromTxnId,
+      boolean inProgressOk) throws IOException {
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
     Map<AsyncLogger, RemoteEditLogManifest> resps =
@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.client.QuorumJournalManager;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetEditLogManifestResponseProto;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -133,6 +134,23 @@ public void purgeLogsOlderThan(RequestInfo requestInfo, long minTxIdToKeep)
   public GetEditLogManifestResponseProto getEditLogManifest(String jid,
       long sinceTxId, boolean inProgressOk)
       throws IOException;
+
+  /**
+   * Fetch edits from the in-memory cache of recently journaled transactions.
+   * Unlike {@link #getEditLogManifest(String, long, boolean)}, this may
+   * return transactions from the in-progress segment which are not yet
+   * known to be committed; the caller is responsible for only applying
+   * transactions which a quorum of JournalNodes has returned.
+   *
+   * @param jid the journal from which to fetch edits
+   * @param sinceTxId the first transaction to return
+   * @param maxTxns the maximum number of transactions to return
+   * @return the number of transactions and, if non-zero, the serialized
+   *         edits including the edit log header
+   * @throws IOException if sinceTxId is no longer held in the cache
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(String jid,
+      long sinceTxId, int maxTxns) throws IOException;
   
   /**
    * Begin the recovery process for a given segment. See the HDFS-3077
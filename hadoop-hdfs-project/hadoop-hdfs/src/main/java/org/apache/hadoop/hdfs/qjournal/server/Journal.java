@@ -39,6 +39,7 @@
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -68,6 +69,7 @@
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 
 /**
@@ -82,8 +84,10 @@ public class Journal implements Closeable {
   // Current writing state
   private EditLogOutputStream curSegment;
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
+  private int curSegmentLayoutVersion = 0;
   private long nextTxId = HdfsConstants.INVALID_TXID;
-  private long highestWrittenTxId = 0;
+  // Read without the Journal lock by getJournaledEdits()
+  private volatile long highestWrittenTxId = 0;
   
   private final String journalId;
   
@@ -132,6 +136,12 @@ public class Journal implements Closeable {
 
   private final JournalMetrics metrics;
 
+  /**
+   * The most recently written edits, kept in memory so that readers tailing
+   * the in-progress segment need not go to disk.
+   */
+  private final JournaledEditsCache cache;
+
   /**
    * Time threshold for sync calls, beyond which a warning should be logged to the console.
    */
@@ -148,6 +158,8 @@ public class Journal implements Closeable {
     this.fjm = storage.getJournalManager();
     
     this.metrics = JournalMetrics.create(this);
+
+    this.cache = new JournaledEditsCache(conf);
     
     EditLogFile latest = scanStorageForLatestEdits();
     if (latest != null) {
@@ -216,6 +228,7 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    cache.clear();
   }
 
   /**
@@ -314,6 +327,8 @@ private void updateLastPromisedEpoch(long newEpoch) throws IOException {
     LOG.info("Updating lastPromisedEpoch from " + lastPromisedEpoch.get() +
         " to " + newEpoch + " for client " + Server.getRemoteIp());
     lastPromisedEpoch.set(newEpoch);
+    // Edits cached from a previous writer may yet be discarded by recovery.
+    cache.clear();
     
     // Since we have a new writer, reset the IPC serial - it will start
     // counting again from 0 for this writer.
@@ -398,7 +413,8 @@ synchronized void journal(RequestInfo reqInfo,
     metrics.batchesWritten.incr(1);
     metrics.bytesWritten.incr(records.length);
     metrics.txnsWritten.incr(numTxns);
-    
+
+    cache.storeEdits(records, firstTxnId, lastTxnId, curSegmentLayoutVersion);
     highestWrittenTxId = lastTxnId;
     nextTxId = lastTxnId + 1;
   }
@@ -547,6 +563,7 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     
     curSegment = fjm.startLogSegment(txid, layoutVersion);
     curSegmentTxId = txid;
+    curSegmentLayoutVersion = layoutVersion;
     nextTxId = txid;
   }
   
@@ -663,6 +680,31 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     return new RemoteEditLogManifest(logs);
   }
 
+  /**
+   * Get edits starting at sinceTxId from the in-memory cache of recently
+   * journaled edits. This does not take the Journal lock, so that readers
+   * tailing the edits do not contend with the writer.
+   *
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   * @throws IOException if sinceTxId is no longer held in the cache
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // No need to checkRequest() here - anyone may read the edits.
+    if (sinceTxId > highestWrittenTxId) {
+      // Nothing new to return
+      return GetJournaledEditsResponseProto.newBuilder()
+          .setTxnCount(0)
+          .build();
+    }
+    ByteString.Output output = ByteString.newOutput();
+    int txnCount = cache.retrieveEdits(sinceTxId, maxTxns, output);
+    return GetJournaledEditsResponseProto.newBuilder()
+        .setTxnCount(txnCount)
+        .setEditLog(output.toByteString())
+        .build();
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
@@ -747,6 +789,7 @@ public synchronized void acceptRecovery(RequestInfo reqInfo,
     checkRequest(reqInfo);
     
     abortCurSegment();
+    cache.clear();
 
     long segmentTxId = segment.getStartTxId();
 
@@ -993,6 +1036,7 @@ private void persistPaxosData(long segmentTxId,
 
   synchronized void discardSegments(long startTxId) throws IOException {
     storage.getJournalManager().discardSegments(startTxId);
+    cache.clear();
     // we delete all the segments after the startTxId. let's reset committedTxnId 
     committedTxnId.set(startTxId - 1);
   }
@@ -1066,6 +1110,7 @@ public synchronized void doRollback() throws IOException {
     // directory will be renamed.  It will be reopened lazily on next access.
     IOUtils.cleanup(LOG, committedTxnId);
     storage.getJournalManager().doRollback();
+    cache.clear();
   }
 
   public Long getJournalCTime() throws IOException {
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * An in-memory cache of the most recently journaled edits, used to serve
+ * {@link org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol#getJournaledEdits}
+ * without going to disk.
+ *
+ * Edits are kept in the batches in which the writer sent them, keyed by the
+ * first transaction ID of each batch. The cache always holds a single
+ * contiguous range of transactions written with a single layout version;
+ * a batch which does not directly follow the previous one, or which has a
+ * different layout version, causes the cache to be cleared. Once the
+ * configured capacity is exceeded, the oldest batches are evicted.
+ */
+class JournaledEditsCache {
+  private static final Log LOG = LogFactory.getLog(JournaledEditsCache.class);
+
+  private static final int INVALID_LAYOUT_VERSION = 0;
+
+  private final long capacity;
+
+  private final ReentrantReadWriteLock lock =
+      new ReentrantReadWriteLock(true); // fair
+
+  /** Batches of serialized edits, keyed by their first transaction ID. */
+  private final TreeMap<Long, byte[]> dataMap = new TreeMap<Long, byte[]>();
+
+  /** The lowest transaction ID held by the cache. */
+  private long lowestTxnId = HdfsConstants.INVALID_TXID;
+
+  /** The highest transaction ID held, or last evicted by, the cache. */
+  private long highestTxnId = HdfsConstants.INVALID_TXID;
+
+  /** The layout version of every batch in the cache. */
+  private int layoutVersion = INVALID_LAYOUT_VERSION;
+
+  /** The serialized edit log header for {@link #layoutVersion}. */
+  private byte[] layoutHeader;
+
+  /** The total number of bytes of edits held by the cache. */
+  private long size = 0;
+
+  JournaledEditsCache(Configuration conf) {
+    this(conf.getLong(DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT));
+  }
+
+  @VisibleForTesting
+  JournaledEditsCache(long capacity) {
+    Preconditions.checkArgument(capacity > 0,
+        "Invalid capacity for the journaled edits cache: %s", capacity);
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add a batch of edits to the cache. The batch must contain complete
+   * transactions, as sent by the writer.
+   *
+   * @param data the serialized edits; retained by the cache, so the caller
+   *             must not modify it afterwards
+   * @param firstTxnId the first transaction ID in the batch
+   * @param lastTxnId the last transaction ID in the batch
+   * @param newLayoutVersion the layout version the edits were written with
+   */
+  void storeEdits(byte[] data, long firstTxnId, long lastTxnId,
+      int newLayoutVersion) throws IOException {
+    lock.writeLock().lock();
+    try {
+      if (newLayoutVersion != layoutVersion) {
+        reset();
+        layoutVersion = newLayoutVersion;
+        layoutHeader = serializeHeader(newLayoutVersion);
+      } else if (highestTxnId != HdfsConstants.INVALID_TXID &&
+          firstTxnId != highestTxnId + 1) {
+        LOG.info("Clearing the journaled edits cache: got txid " + firstTxnId +
+            " after txid " + highestTxnId);
+        reset();
+      }
+
+      highestTxnId = lastTxnId;
+      if (data.length > capacity) {
+        // Too large to keep; remember where it ended so that the next batch
+        // is still seen as contiguous.
+        reset();
+        highestTxnId = lastTxnId;
+        lowestTxnId = lastTxnId + 1;
+        return;
+      }
+      dataMap.put(firstTxnId, data);
+      size += data.length;
+      if (dataMap.size() == 1) {
+        lowestTxnId = firstTxnId;
+      }
+      while (size > capacity) {
+        Map.Entry<Long, byte[]> evicted = dataMap.pollFirstEntry();
+        size -= evicted.getValue().length;
+        lowestTxnId = dataMap.firstKey();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Write the edits starting at sinceTxnId to the given stream, preceded by
+   * an edit log header. Whole batches are returned, so the output may start
+   * with transactions before sinceTxnId, and may contain more than maxTxns
+   * transactions; the caller is expected to skip or ignore those.
+   *
+   * @param sinceTxnId the first transaction ID wanted
+   * @param maxTxns the number of transactions after which to stop adding
+   *                batches
+   * @param out the stream to write to
+   * @return the number of transactions from sinceTxnId onwards which were
+   *         written
+   * @throws CacheMissException if the cache does not hold sinceTxnId
+   */
+  int retrieveEdits(long sinceTxnId, int maxTxns, OutputStream out)
+      throws IOException {
+    lock.readLock().lock();
+    try {
+      if (dataMap.isEmpty() || sinceTxnId < lowestTxnId ||
+          sinceTxnId > highestTxnId) {
+        throw new CacheMissException(sinceTxnId, lowestTxnId, highestTxnId);
+      }
+      out.write(layoutHeader);
+      long lastTxnId = sinceTxnId - 1;
+      Long batchStart = dataMap.floorKey(sinceTxnId);
+      for (Map.Entry<Long, byte[]> e :
+          dataMap.tailMap(batchStart, true).entrySet()) {
+        if (lastTxnId - sinceTxnId + 1 >= maxTxns) {
+          break;
+        }
+        out.write(e.getValue());
+        Long next = dataMap.higherKey(e.getKey());
+        lastTxnId = next == null ? highestTxnId : next - 1;
+      }
+      return (int) (lastTxnId - sinceTxnId + 1);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Discard everything held by the cache, e.g. because the edits on disk
+   * have been changed by recovery, rollback or formatting.
+   */
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      reset();
+      layoutVersion = INVALID_LAYOUT_VERSION;
+      layoutHeader = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void reset() {
+    dataMap.clear();
+    size = 0;
+    lowestTxnId = HdfsConstants.INVALID_TXID;
+    highestTxnId = HdfsConstants.INVALID_TXID;
+  }
+
+  @VisibleForTesting
+  long getSize() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static byte[] serializeHeader(int layoutVersion)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    EditLogFileOutputStream.writeHeader(layoutVersion,
+        new DataOutputStream(baos));
+    return baos.toByteArray();
+  }
+
+  /**
+   * Thrown when the requested transactions are not (or no longer) held in
+   * the cache. The client should fall back to reading the edit log files.
+   */
+  static class CacheMissException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CacheMissException(long sinceTxnId, long lowestTxnId, long highestTxnId) {
+      super("Transaction " + sinceTxnId + " is not in the journaled edits " +
+          "cache, which holds transactions " + lowestTxnId + "-" +
+          highestTxnId);
+    }
+  }
+}
@@ -25,6 +25,7 @@
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.ArrayList;
@@ -37,10 +38,12 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -79,6 +82,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /** Dispatching block replica moves between datanodes. */
 @InterfaceAudience.Private
@@ -114,6 +118,8 @@ public class Dispatcher {
 
   private final ExecutorService moveExecutor;
   private final ExecutorService dispatchExecutor;
+  /** Fetches source block lists ahead of the dispatcher threads. */
+  private final ExecutorService blockListExecutor;
 
   /** The maximum number of concurrent blocks moves at a datanode */
   private final int maxConcurrentMovesPerNode;
@@ -318,9 +324,13 @@ private void dispatch() {
         sendRequest(out, eb, accessToken);
         receiveResponse(in);
         nnc.getBytesMoved().addAndGet(block.getNumBytes());
+        source.incMoved(block.getNumBytes());
+        target.incMoved(block.getNumBytes());
         LOG.info("Successfully moved " + this);
       } catch (IOException e) {
         LOG.warn("Failed to move " + this + ": " + e.getMessage());
+        source.incFailedMoves();
+        target.incFailedMoves();
         target.getDDatanode().setHasFailure();
         // Proxy or target may have some issues, delay before using these nodes
         // further in order to avoid a potential storm of "threads quota
@@ -403,6 +413,10 @@ public class StorageGroup {
       final StorageType storageType;
       final long maxSize2Move;
       private long scheduledSize = 0L;
+      /** Bytes and blocks moved from (source) or to (target) this group. */
+      private final AtomicLong bytesMoved = new AtomicLong();
+      private final AtomicLong blocksMoved = new AtomicLong();
+      private final AtomicLong failedMoves = new AtomicLong();
 
       private StorageGroup(StorageType storageType, long maxSize2Move) {
         this.storageType = storageType;
@@ -450,6 +464,30 @@ synchronized void resetScheduledSize() {
         scheduledSize = 0L;
       }
 
+      void incMoved(long bytes) {
+        bytesMoved.addAndGet(bytes);
+        blocksMoved.incrementAndGet();
+      }
+
+      void incFailedMoves() {
+        failedMoves.incrementAndGet();
+      }
+
+      /** @return the number of bytes successfully moved */
+      long getBytesMoved() {
+        return bytesMoved.get();
+      }
+
+      /** @return the number of blocks successfully moved */
+      long getBlocksMoved() {
+        return blocksMoved.get();
+      }
+
+      /** @return the number of failed block moves */
+      long getFailedMoves() {
+        return failedMoves.get();
+      }
+
       private PendingMove addPendingMove(DBlock block, final PendingMove pm) {
         if (getDDatanode().addPendingBlock(pm)) {
           if (pm.markMovedIfGoodBlock(block, getStorageType())) {
@@ -587,6 +625,8 @@ public class Source extends DDatanode.StorageGroup {
      * locations are changing over time.
      */
     private final List<DBlock> srcBlocks = new ArrayList<DBlock>();
+    /** Blocks being fetched in the background, not yet in srcBlocks. */
+    private Future<List<DBlock>> blockListFetch = null;
 
     private Source(StorageType storageType, long maxSize2Move, DDatanode dn) {
       dn.super(storageType, maxSize2Move);
@@ -606,23 +646,24 @@ Iterator<DBlock> getBlockIterator() {
     }
 
     /**
-     * Fetch new blocks of this source from namenode and update this source's
-     * block list & {@link Dispatcher#globalBlocks}.
+     * Fetch new blocks of this source from namenode and update
+     * {@link Dispatcher#globalBlocks}. This may run on a
+     * {@link Dispatcher#blockListExecutor} thread, so it must not touch the
+     * state owned by the dispatcher thread of this source.
      * 
-     * @return the total size of the received blocks in the number of bytes.
+     * @return the received blocks, to be added to this source's block list
+     *         by {@link #addBlocks(List)}.
      */
-    private long getBlockList() throws IOException {
-      final long size = Math.min(getBlocksSize, blocksToReceive);
+    private List<DBlock> fetchBlockList(long size) throws IOException {
       final BlocksWithLocations newBlocks = nnc.getBlocks(getDatanodeInfo(), size);
 
-      long bytesReceived = 0;
+      final List<DBlock> received = new ArrayList<DBlock>();
       for (BlockWithLocations blk : newBlocks.getBlocks()) {
         // Skip small blocks.
         if (blk.getBlock().getNumBytes() < getBlocksMinBlockSize) {
           continue;
         }
 
-        bytesReceived += blk.getBlock().getNumBytes();
         synchronized (globalBlocks) {
           final DBlock block = globalBlocks.get(blk.getBlock());
           synchronized (block) {
@@ -639,6 +680,22 @@ private long getBlockList() throws IOException {
               }
             }
           }
+          received.add(block);
+        }
+      }
+      return received;
+    }
+
+    /**
+     * Add fetched blocks to this source's block list.
+     *
+     * @return the total size of the received blocks in the number of bytes.
+     */
+    private long addBlocks(List<DBlock> received) {
+      long bytesReceived = 0;
+      for (DBlock block : received) {
+        bytesReceived += block.getNumBytes();
+        synchronized (globalBlocks) {
           if (!srcBlocks.contains(block) && isGoodBlockCandidate(block)) {
             // filter bad candidates
             srcBlocks.add(block);
@@ -648,6 +705,69 @@ private long getBlockList() throws IOException {
       return bytesReceived;
     }
 
+    /**
+     * Fetch new blocks of this source from namenode and update this source's
+     * block list & {@link Dispatcher#globalBlocks}. If a background fetch is
+     * in progress, wait for it instead.
+     * 
+     * @return the total size of the received blocks in the number of bytes.
+     */
+    private long getBlockList() throws IOException {
+      if (blockListFetch == null) {
+        return addBlocks(fetchBlockList(
+            Math.min(getBlocksSize, blocksToReceive)));
+      }
+      return collectBlockList(true);
+    }
+
+    /**
+     * Start fetching more blocks in the background while the blocks already
+     * in the list are dispatched, so that the targets do not sit idle while
+     * this source waits for the namenode.
+     */
+    private void prefetchBlockList() {
+      if (blockListExecutor == null || blockListFetch != null
+          || blocksToReceive <= 0
+          || srcBlocks.size() >= SOURCE_BLOCKS_PREFETCH_SIZE) {
+        return;
+      }
+      final long size = Math.min(getBlocksSize, blocksToReceive);
+      blockListFetch = blockListExecutor.submit(new Callable<List<DBlock>>() {
+        @Override
+        public List<DBlock> call() throws IOException {
+          return fetchBlockList(size);
+        }
+      });
+    }
+
+    /**
+     * Add the blocks of the background fetch to this source's block list.
+     *
+     * @param wait whether to wait for the fetch to finish.
+     * @return the total size of the received blocks in the number of bytes,
+     *         or 0 if there is no finished fetch.
+     */
+    private long collectBlockList(boolean wait) throws IOException {
+      if (blockListFetch == null || (!wait && !blockListFetch.isDone())) {
+        return 0;
+      }
+      try {
+        return addBlocks(blockListFetch.get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while getting block list");
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Failed to get block list", cause);
+      } finally {
+        blockListFetch = null;
+      }
+    }
+
     /** Decide if the given block is a good candidate to move or not */
     private boolean isGoodBlockCandidate(DBlock block) {
       // source and target must have the same storage type
@@ -709,6 +829,9 @@ private void removeMovedBlocks() {
     }
 
     private static final int SOURCE_BLOCKS_MIN_SIZE = 5;
+    /** Fetch more blocks in the background below this many source blocks. */
+    private static final int SOURCE_BLOCKS_PREFETCH_SIZE =
+        4 * SOURCE_BLOCKS_MIN_SIZE;
 
     /** @return if should fetch more blocks from namenode */
     private boolean shouldFetchMoreBlocks() {
@@ -724,14 +847,35 @@ private boolean shouldFetchMoreBlocks() {
      * namenode for more blocks. It terminates when it has dispatch enough block
      * move tasks or it has received enough blocks from the namenode, or the
      * elapsed time of the iteration has exceeded the max time limit.
+     * The next block list is fetched in the background while the current
+     * one is being dispatched.
      */
     private void dispatchBlocks() {
+      try {
+        doDispatchBlocks();
+      } finally {
+        if (blockListFetch != null) {
+          blockListFetch.cancel(true);
+          blockListFetch = null;
+        }
+      }
+    }
+
+    private void doDispatchBlocks() {
       final long startTime = Time.monotonicNow();
       this.blocksToReceive = 2 * getScheduledSize();
       boolean isTimeUp = false;
       int noPendingMoveIteration = 0;
       while (!isTimeUp && getScheduledSize() > 0
           && (!srcBlocks.isEmpty() || blocksToReceive > 0)) {
+        try {
+          blocksToReceive -= collectBlockList(false);
+        } catch (IOException e) {
+          LOG.warn("Exception while getting block list", e);
+          return;
+        }
+        prefetchBlockList();
+
         final PendingMove p = chooseNextMove();
         if (p != null) {
           // Reset no pending move counter
@@ -814,6 +958,11 @@ public Dispatcher(NameNodeConnector nnc, Set<String> includedNodes,
     this.moveExecutor = Executors.newFixedThreadPool(moverThreads);
     this.dispatchExecutor = dispatcherThreads == 0? null
         : Executors.newFixedThreadPool(dispatcherThreads);
+    // At most as many getBlocks calls in flight as without prefetching.
+    this.blockListExecutor = dispatcherThreads == 0? null
+        : Executors.newFixedThreadPool(dispatcherThreads,
+            new ThreadFactoryBuilder()
+                .setNameFormat("Balancer block list fetcher #%d").build());
     this.maxConcurrentMovesPerNode = maxConcurrentMovesPerNode;
     this.getBlocksSize = getBlocksSize;
     this.getBlocksMinBlockSize = getBlocksMinBlockSize;
@@ -923,6 +1072,7 @@ public boolean dispatchAndCheckContinue() throws InterruptedException {
    */
   private long dispatchBlockMoves() throws InterruptedException {
     final long bytesLastMoved = getBytesMoved();
+    final long startTime = Time.monotonicNow();
     final Future<?>[] futures = new Future<?>[sources.size()];
 
     final Iterator<Source> i = sources.iterator();
@@ -948,9 +1098,28 @@ public void run() {
     // wait for all block moving to be done
     waitForMoveCompletion(targets);
 
+    logThroughput(sources, "from", Time.monotonicNow() - startTime);
+    logThroughput(targets, "to", Time.monotonicNow() - startTime);
     return getBytesMoved() - bytesLastMoved;
   }
 
+  /** Log how much each storage group has moved in this iteration. */
+  private static void logThroughput(
+      Collection<? extends StorageGroup> groups, String direction,
+      long elapsedMs) {
+    final long elapsed = Math.max(elapsedMs, 1L);
+    for (StorageGroup g : groups) {
+      if (g.getBlocksMoved() == 0 && g.getFailedMoves() == 0) {
+        continue;
+      }
+      LOG.info("Moved " + StringUtils.byteDesc(g.getBytesMoved()) + " in "
+          + g.getBlocksMoved() + " block(s) " + direction + " "
+          + g.getDisplayName() + " at "
+          + StringUtils.byteDesc(g.getBytesMoved() * 1000 / elapsed)
+          + "/s, " + g.getFailedMoves() + " failed move(s)");
+    }
+  }
+
   /**
    * Wait for all block move confirmations.
    * @return true if there is failed move execution
@@ -1092,6 +1261,9 @@ public void shutdownNow() {
     if (dispatchExecutor != null) {
       dispatchExecutor.shutdownNow();
     }
+    if (blockListExecutor != null) {
+      blockListExecutor.shutdownNow();
+    }
     moveExecutor.shutdownNow();
   }
 
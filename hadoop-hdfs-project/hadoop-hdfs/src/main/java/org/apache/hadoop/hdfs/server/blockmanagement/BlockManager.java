@@ -38,7 +38,13 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -93,6 +99,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -181,6 +188,34 @@ public int getPendingDataNodeMessageCount() {
   private final BlockReportProcessingThread blockReportThread =
       new BlockReportProcessingThread();
 
+  /**
+   * Looks up the replicas of full block reports in the blocks map before
+   * the reports are queued for processing; null if disabled.
+   */
+  private final ExecutorService blockReportLookupExecutor;
+
+  /** Number of replicas looked up per hold of the namesystem read lock. */
+  private static final int BLOCK_REPORT_LOOKUP_BATCH_SIZE = 64 * 1024;
+
+  /**
+   * Number of replicas of a first block report added per hold of the
+   * namesystem write lock.
+   */
+  private int firstBlockReportBatchSize = BLOCK_REPORT_LOOKUP_BATCH_SIZE;
+
+  /**
+   * Chooses the targets of the replication work in parallel; null if the
+   * targets are chosen by the replication monitor.
+   */
+  private final ExecutorService replicationWorkExecutor;
+  private final int replicationWorkThreads;
+
+  /** The least number of blocks given to a target choosing thread. */
+  private static final int REPLICATION_WORK_MIN_SHARD_SIZE = 64;
+
+  /** Number of blocks scheduled for replication per hold of the lock. */
+  private static final int REPLICATION_WORK_COMMIT_BATCH_SIZE = 1000;
+
   /** Store blocks -> datanodedescriptor(s) map of corrupt replicas */
   final CorruptReplicasMap corruptReplicas = new CorruptReplicasMap();
 
@@ -360,6 +395,35 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     this.getBlocksMinBlockSize = conf.getLongBytes(
         DFSConfigKeys.DFS_BALANCER_GETBLOCKS_MIN_BLOCK_SIZE_KEY,
         DFSConfigKeys.DFS_BALANCER_GETBLOCKS_MIN_BLOCK_SIZE_DEFAULT); 
+    final int blockReportLookupThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_LOOKUP_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_LOOKUP_THREADS_DEFAULT);
+    if (blockReportLookupThreads > 0) {
+      // idle threads exit, the lookups are only busy while DNs report.
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          blockReportLookupThreads, blockReportLookupThreads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Block report lookup #%d").build());
+      executor.allowCoreThreadTimeOut(true);
+      this.blockReportLookupExecutor = executor;
+    } else {
+      this.blockReportLookupExecutor = null;
+    }
+    this.replicationWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    if (replicationWorkThreads > 0) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          replicationWorkThreads, replicationWorkThreads,
+          60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Replication target chooser #%d").build());
+      executor.allowCoreThreadTimeOut(true);
+      this.replicationWorkExecutor = executor;
+    } else {
+      this.replicationWorkExecutor = null;
+    }
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
@@ -367,6 +431,8 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("blockReportLookupThreads   = " + blockReportLookupThreads);
+    LOG.info("replicationWorkThreads     = " + replicationWorkThreads);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -475,6 +541,12 @@ public void close() {
       blockReportThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (blockReportLookupExecutor != null) {
+      blockReportLookupExecutor.shutdownNow();
+    }
+    if (replicationWorkExecutor != null) {
+      replicationWorkExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -895,7 +967,7 @@ public LocatedBlocks createLocatedBlocks(final BlockInfoContiguous[] blocks,
       final long length, final boolean needBlockToken,
       final boolean inSnapshot, FileEncryptionInfo feInfo)
       throws IOException {
-    assert namesystem.hasReadLock();
+    assert namesystem.hasReadLock() || namesystem.isReadingOptimistically();
     if (blocks == null) {
       return null;
     } else if (blocks.length == 0) {
@@ -1273,6 +1345,11 @@ public void setPostponeBlocksFromFuture(boolean postpone) {
     this.shouldPostponeBlocksFromFuture  = postpone;
   }
 
+  @VisibleForTesting
+  void setFirstBlockReportBatchSize(int batchSize) {
+    this.firstBlockReportBatchSize = batchSize;
+  }
+
 
   private void postponeBlock(Block blk) {
     if (postponedMisreplicatedBlocks.add(blk)) {
@@ -1352,7 +1429,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int additionalReplRequired;
 
     int scheduledWork = 0;
-    List<ReplicationWork> work = new LinkedList<ReplicationWork>();
+    List<ReplicationWork> work = new ArrayList<ReplicationWork>();
 
     namesystem.writeLock();
     try {
@@ -1417,24 +1494,23 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       namesystem.writeUnlock();
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+    final long chooseStart = Time.monotonicNow();
+    chooseTargets(work);
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationChooseTargets(Time.monotonicNow() - chooseStart,
+          work.size());
     }
 
     namesystem.writeLock();
     try {
+      int numCommitted = 0;
       for(ReplicationWork rw : work){
+        if (++numCommitted % REPLICATION_WORK_COMMIT_BATCH_SIZE == 0) {
+          // let other operations run in between the batches
+          namesystem.writeUnlock();
+          namesystem.writeLock();
+        }
         final DatanodeStorageInfo[] targets = rw.targets;
         if(targets == null || targets.length == 0){
           rw.targets = null;
@@ -1537,6 +1613,75 @@ public DatanodeStorageInfo[] chooseTarget4WebHDFS(String src,
         blocksize, storagePolicySuite.getDefaultPolicy());
   }
 
+  /**
+   * Choose the targets of the replication work, splitting the work among
+   * the {@link #replicationWorkExecutor} threads if there is enough of it.
+   * The block placement policy is safe for concurrent use, as the RPC
+   * handlers already choose targets concurrently.
+   */
+  private void chooseTargets(final List<ReplicationWork> work) {
+    final int numShards = replicationWorkExecutor == null ? 1 : Math.min(
+        replicationWorkThreads, work.size() / REPLICATION_WORK_MIN_SHARD_SIZE);
+    if (numShards <= 1) {
+      chooseTargets(work, 0, work.size());
+      return;
+    }
+    final List<Future<?>> futures = new ArrayList<Future<?>>(numShards);
+    for (int i = 0; i < numShards; i++) {
+      final int from = (int) ((long) work.size() * i / numShards);
+      final int to = (int) ((long) work.size() * (i + 1) / numShards);
+      try {
+        futures.add(replicationWorkExecutor.submit(new Runnable() {
+          @Override
+          public void run() {
+            chooseTargets(work, from, to);
+          }
+        }));
+      } catch (RejectedExecutionException ree) {
+        // shutting down
+        chooseTargets(work, from, to);
+      }
+    }
+    RuntimeException failure = null;
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException ie) {
+        for (Future<?> f : futures) {
+          f.cancel(true);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException ee) {
+        if (failure == null) {
+          failure = ee.getCause() instanceof RuntimeException ?
+              (RuntimeException) ee.getCause() :
+              new RuntimeException(ee.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void chooseTargets(List<ReplicationWork> work, int from, int to) {
+    final Set<Node> excludedNodes = new HashSet<Node>();
+    for (ReplicationWork rw : work.subList(from, to)) {
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.containingNodes) {
+        excludedNodes.add(dn);
+      }
+
+      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+    }
+  }
+
   /** Choose target for getting additional datanodes for an existing pipeline. */
   public DatanodeStorageInfo[] chooseTarget4AdditionalDatanode(String src,
       int numAdditionalNodes,
@@ -1795,6 +1940,162 @@ public String toString() {
     }
   }
 
+  /**
+   * The stored blocks of the replicas in one full block report, in report
+   * order, as found in the blocks map at a given modification count.
+   * @see #lookupStoredBlocks(BlockListAsLongs[])
+   */
+  public static final class BlockReportLookup {
+    private final BlockInfoContiguous[] storedBlocks;
+    private final long modificationCount;
+
+    private BlockReportLookup(BlockInfoContiguous[] storedBlocks,
+        long modificationCount) {
+      this.storedBlocks = storedBlocks;
+      this.modificationCount = modificationCount;
+    }
+  }
+
+  /**
+   * Look up the replicas of the given full block reports in the blocks map,
+   * in parallel, one report per task. The lookups only hold the namesystem
+   * read lock, so they move the bulk of the blocks map accesses out of
+   * {@link #processReport}, which runs under the write lock. A lookup is
+   * only used if the blocks map did not change in between. Outside of
+   * startup safe mode, where blocks are added and removed all the time,
+   * that is rare, so the lookups are only made in startup safe mode.
+   *
+   * @return the lookup for each report, null where none could be made.
+   * @throws IOException if interrupted while waiting for the lookups
+   */
+  public BlockReportLookup[] lookupStoredBlocks(
+      final BlockListAsLongs[] reports) throws IOException {
+    final BlockReportLookup[] lookups = new BlockReportLookup[reports.length];
+    if (blockReportLookupExecutor == null
+        || !namesystem.isInStartupSafeMode()) {
+      return lookups;
+    }
+    final List<Future<BlockReportLookup>> futures =
+        new ArrayList<Future<BlockReportLookup>>(reports.length);
+    try {
+      for (final BlockListAsLongs report : reports) {
+        if (report == null || report.getNumberOfBlocks() == 0) {
+          futures.add(null);
+          continue;
+        }
+        futures.add(blockReportLookupExecutor.submit(
+            new Callable<BlockReportLookup>() {
+              @Override
+              public BlockReportLookup call() {
+                return lookupStoredBlocks(report);
+              }
+            }));
+      }
+    } catch (RejectedExecutionException ree) {
+      // shutting down, the reports are processed without lookups.
+      LOG.debug("Block report lookup rejected", ree);
+      cancelLookups(futures);
+      return lookups;
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      final Future<BlockReportLookup> future = futures.get(i);
+      if (future == null) {
+        continue;
+      }
+      try {
+        lookups[i] = future.get();
+      } catch (ExecutionException ee) {
+        LOG.warn("Failed to look up the replicas of a block report",
+            ee.getCause());
+      } catch (InterruptedException ie) {
+        cancelLookups(futures);
+        Thread.currentThread().interrupt();
+        throw new IOException(ie);
+      }
+    }
+    return lookups;
+  }
+
+  private static void cancelLookups(List<Future<BlockReportLookup>> futures) {
+    for (Future<BlockReportLookup> future : futures) {
+      if (future != null) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private BlockReportLookup lookupStoredBlocks(
+      final BlockListAsLongs report) {
+    final long startTime = Time.monotonicNow();
+    final BlockInfoContiguous[] storedBlocks =
+        new BlockInfoContiguous[report.getNumberOfBlocks()];
+    final Iterator<BlockReportReplica> it = report.iterator();
+    long modificationCount = -1;
+    int numLookedUp = 0;
+    while (it.hasNext()) {
+      // release the lock between batches to let writers in.
+      namesystem.readLock();
+      try {
+        final long count = blocksMap.getModificationCount();
+        if (modificationCount == -1) {
+          modificationCount = count;
+        } else if (modificationCount != count) {
+          // the lookup would be discarded when the report is processed.
+          incrBlockReportLookupsDiscarded();
+          return null;
+        }
+        for (int i = 0; i < BLOCK_REPORT_LOOKUP_BATCH_SIZE && it.hasNext();
+            i++) {
+          final BlockReportReplica replica = it.next();
+          if (numLookedUp == storedBlocks.length) {
+            return null;
+          }
+          storedBlocks[numLookedUp++] = blocksMap.getStoredBlock(replica);
+        }
+      } finally {
+        namesystem.readUnlock();
+      }
+    }
+    if (numLookedUp != storedBlocks.length) {
+      return null;
+    }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addBlockReportLookup(Time.monotonicNow() - startTime);
+    }
+    return new BlockReportLookup(storedBlocks, modificationCount);
+  }
+
+  /**
+   * @return true if the lookup may be used to process the given report,
+   *         i.e. no block was added to or removed from the blocks map since.
+   */
+  private boolean isLookupCurrent(final BlockReportLookup lookup,
+      final BlockListAsLongs report) {
+    assert namesystem.hasWriteLock();
+    if (report != null
+        && lookup.storedBlocks.length == report.getNumberOfBlocks()
+        && lookup.modificationCount == blocksMap.getModificationCount()) {
+      return true;
+    }
+    incrBlockReportLookupsDiscarded();
+    return false;
+  }
+
+  private static void incrBlockReportLookupsDiscarded() {
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrBlockReportLookupsDiscarded();
+    }
+  }
+
+  /** @return the stored block of the replica at the given report index. */
+  private BlockInfoContiguous getStoredBlock(final Block block,
+      final BlockReportLookup lookup, final int index) {
+    return lookup != null ? lookup.storedBlocks[index]
+        : blocksMap.getStoredBlock(block);
+  }
+
   /**
    * The given storage is reporting all its blocks.
    * Update the (storage-->block list) and (block-->storage list) maps.
@@ -1806,6 +2107,23 @@ public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage,
       final BlockListAsLongs newReport, BlockReportContext context,
       boolean lastStorageInRpc) throws IOException {
+    return processReport(nodeID, storage, newReport, context,
+        lastStorageInRpc, null);
+  }
+
+  /**
+   * The given storage is reporting all its blocks.
+   * Update the (storage-->block list) and (block-->storage list) maps.
+   *
+   * @param lookup the stored blocks of the report looked up by
+   *        {@link #lookupStoredBlocks(BlockListAsLongs[])}, or null.
+   * @return true if all known storages of the given DN have finished reporting.
+   * @throws IOException
+   */
+  public boolean processReport(final DatanodeID nodeID,
+      final DatanodeStorage storage,
+      final BlockListAsLongs newReport, BlockReportContext context,
+      boolean lastStorageInRpc, BlockReportLookup lookup) throws IOException {
     namesystem.writeLock();
     final long startTime = Time.monotonicNow(); //after acquiring write lock
     final long endTime;
@@ -1835,12 +2153,15 @@ public boolean processReport(final DatanodeID nodeID,
         return !node.hasStaleStorages();
       }
 
+      if (lookup != null && !isLookupCurrent(lookup, newReport)) {
+        lookup = null;
+      }
       if (storageInfo.getBlockReportCount() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(storageInfo, newReport);
+        processFirstBlockReport(storageInfo, newReport, lookup);
       } else {
-        invalidatedBlocks = processReport(storageInfo, newReport);
+        invalidatedBlocks = processReport(storageInfo, newReport, lookup);
       }
       
       storageInfo.receivedBlockReport();
@@ -1993,7 +2314,8 @@ void rescanPostponedMisreplicatedBlocks() {
   
   private Collection<Block> processReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report,
+      final BlockReportLookup lookup) throws IOException {
     // Normal case:
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
@@ -2003,7 +2325,7 @@ private Collection<Block> processReport(
     Collection<Block> toInvalidate = new LinkedList<Block>();
     Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
     Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
-    reportDiff(storageInfo, report,
+    reportDiff(storageInfo, report, lookup,
         toAdd, toRemove, toInvalidate, toCorrupt, toUC);
    
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
@@ -2080,19 +2402,40 @@ public void markBlockReplicasAsCorrupt(BlockInfoContiguous block,
    * a toRemove list (since there won't be any).  It also silently discards 
    * any invalid blocks, thereby deferring their processing until 
    * the next block report.
+   *
+   * The replicas are added in batches, and the namesystem write lock is
+   * released in between, so that a large report does not hold up the
+   * namespace. Adding a replica a second time is harmless, so a report
+   * which fails half way can simply be processed again.
    * @param storageInfo - DatanodeStorageInfo that sent the report
    * @param report - the initial block report, to be processed
+   * @param lookup - the stored blocks of the report, or null
    * @throws IOException 
    */
   private void processFirstBlockReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report,
+      BlockReportLookup lookup) throws IOException {
     if (report == null) return;
     assert (namesystem.hasWriteLock());
     assert (storageInfo.getBlockReportCount() == 0);
 
+    int index = 0;
     for (BlockReportReplica iblk : report) {
+      if (index > 0 && index % firstBlockReportBatchSize == 0) {
+        final long modificationCount = blocksMap.getModificationCount();
+        namesystem.writeUnlock();
+        namesystem.writeLock();
+        checkStorageStillReporting(storageInfo);
+        if (lookup != null
+            && modificationCount != blocksMap.getModificationCount()) {
+          // blocks were added or removed while the lock was released.
+          incrBlockReportLookupsDiscarded();
+          lookup = null;
+        }
+      }
       ReplicaState reportedState = iblk.getState();
+      BlockInfoContiguous storedBlock = getStoredBlock(iblk, lookup, index++);
       
       if (shouldPostponeBlocksFromFuture &&
           namesystem.isGenStampInFuture(iblk)) {
@@ -2101,7 +2444,6 @@ private void processFirstBlockReport(
         continue;
       }
       
-      BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(iblk);
       // If block does not belong to any file, we are done.
       if (storedBlock == null) continue;
       
@@ -2144,8 +2486,25 @@ private void processFirstBlockReport(
     }
   }
 
+  /**
+   * Check that the given storage is still attached to a registered DataNode
+   * after the namesystem write lock was released while processing its
+   * first block report.
+   */
+  private void checkStorageStillReporting(
+      final DatanodeStorageInfo storageInfo) throws IOException {
+    final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+    if (!node.isRegistered()
+        || datanodeManager.getDatanode(node) != node
+        || node.getStorageInfo(storageInfo.getStorageID()) != storageInfo) {
+      throw new IOException("Storage " + storageInfo + " of " + node
+          + " was removed while processing its first block report");
+    }
+  }
+
   private void reportDiff(DatanodeStorageInfo storageInfo, 
       BlockListAsLongs newReport, 
+      BlockReportLookup lookup,             // stored blocks of the report
       Collection<BlockInfoContiguous> toAdd,              // add to DatanodeDescriptor
       Collection<Block> toRemove,           // remove from DatanodeDescriptor
       Collection<Block> toInvalidate,       // should be removed from DN
@@ -2165,10 +2524,12 @@ private void reportDiff(DatanodeStorageInfo storageInfo,
       newReport = BlockListAsLongs.EMPTY;
     }
     // scan the report and process newly reported blocks
+    int index = 0;
     for (BlockReportReplica iblk : newReport) {
       ReplicaState iState = iblk.getState();
       BlockInfoContiguous storedBlock = processReportedBlock(storageInfo,
-          iblk, iState, toAdd, toInvalidate, toCorrupt, toUC);
+          iblk, iState, getStoredBlock(iblk, lookup, index++),
+          toAdd, toInvalidate, toCorrupt, toUC);
 
       // move block to the head of the list
       if (storedBlock != null &&
@@ -2208,6 +2569,7 @@ private void reportDiff(DatanodeStorageInfo storageInfo,
    * @param storageInfo DatanodeStorageInfo that sent the report.
    * @param block reported block replica
    * @param reportedState reported replica state
+   * @param storedBlock the block in the blocks map, null if there is none
    * @param toAdd add to DatanodeDescriptor
    * @param toInvalidate missing blocks (not in the blocks map)
    *        should be removed from the data-node
@@ -2220,6 +2582,7 @@ private void reportDiff(DatanodeStorageInfo storageInfo,
   private BlockInfoContiguous processReportedBlock(
       final DatanodeStorageInfo storageInfo,
       final Block block, final ReplicaState reportedState, 
+      final BlockInfoContiguous storedBlock,
       final Collection<BlockInfoContiguous> toAdd,
       final Collection<Block> toInvalidate, 
       final Collection<BlockToMarkCorrupt> toCorrupt,
@@ -2240,8 +2603,6 @@ private BlockInfoContiguous processReportedBlock(
       return null;
     }
     
-    // find block by blockId
-    BlockInfoContiguous storedBlock = blocksMap.getStoredBlock(block);
     if(storedBlock == null) {
       // If blocksMap does not contain reported block id,
       // the replica should be removed from the data-node.
@@ -3111,7 +3472,7 @@ private void processAndHandleReportedBlock(
     final DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
 
     processReportedBlock(storageInfo, block, reportedState,
-                              toAdd, toInvalidate, toCorrupt, toUC);
+        blocksMap.getStoredBlock(block), toAdd, toInvalidate, toCorrupt, toUC);
     // the block is only in one of the to-do lists
     // if it is in none then data-node already has it
     assert toUC.size() + toAdd.size() + toInvalidate.size() + toCorrupt.size() <= 1
@@ -3148,6 +3509,16 @@ private void processAndHandleReportedBlock(
    */
   public void processIncrementalBlockReport(final DatanodeID nodeID,
       final StorageReceivedDeletedBlocks srdb) throws IOException {
+    processIncrementalBlockReport(nodeID,
+        new StorageReceivedDeletedBlocks[] { srdb });
+  }
+
+  /**
+   * The given DataNode has reported received and deleted blocks on some of
+   * its storages. The DataNode is looked up once for all of the reports.
+   */
+  public void processIncrementalBlockReport(final DatanodeID nodeID,
+      final StorageReceivedDeletedBlocks[] srdbs) throws IOException {
     assert namesystem.hasWriteLock();
     final DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
     if (node == null || !node.isRegistered()) {
@@ -3156,8 +3527,15 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
       throw new IOException(
           "Got incremental block report from unregistered or dead node");
     }
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     try {
-      processIncrementalBlockReport(node, srdb);
+      for (StorageReceivedDeletedBlocks srdb : srdbs) {
+        processIncrementalBlockReport(node, srdb);
+        if (metrics != null) {
+          metrics.incrStorageIncrementalBlockReportOps(
+              srdb.getBlocks().length);
+        }
+      }
     } catch (Exception ex) {
       node.setForceRegistration(true);
       throw ex;
@@ -3607,9 +3985,15 @@ public void run() {
         try {
           // Process replication work only when active NN is out of safe mode.
           if (namesystem.isPopulatingReplQueues()) {
+            final long start = Time.monotonicNow();
             computeDatanodeWork();
             processPendingReplications();
             rescanPostponedMisreplicatedBlocks();
+            NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+            if (metrics != null) {
+              metrics.addReplicationMonitorIteration(
+                  Time.monotonicNow() - start);
+            }
           }
           Thread.sleep(replicationRecheckInterval);
         } catch (Throwable t) {
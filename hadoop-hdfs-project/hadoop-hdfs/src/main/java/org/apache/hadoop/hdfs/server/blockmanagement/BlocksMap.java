@@ -65,6 +65,12 @@ public void remove()  {
   
   private GSet<Block, BlockInfoContiguous> blocks;
 
+  /**
+   * Number of times a block was added to, replaced in or removed from the
+   * map. Stored blocks looked up while the count is unchanged are current.
+   */
+  private long modificationCount = 0;
+
   BlocksMap(int capacity) {
     // Use 2% of total memory to size the GSet capacity
     this.capacity = capacity;
@@ -93,6 +99,7 @@ void close() {
   void clear() {
     if (blocks != null) {
       blocks.clear();
+      modificationCount++;
     }
   }
 
@@ -109,6 +116,7 @@ BlockInfoContiguous addBlockCollection(BlockInfoContiguous b, BlockCollection bc
     if (info != b) {
       info = b;
       blocks.put(info);
+      modificationCount++;
     }
     info.setBlockCollection(bc);
     return info;
@@ -123,6 +131,7 @@ void removeBlock(Block block) {
     BlockInfoContiguous blockInfo = blocks.remove(block);
     if (blockInfo == null)
       return;
+    modificationCount++;
 
     blockInfo.setBlockCollection(null);
     for(int idx = blockInfo.numNodes()-1; idx >= 0; idx--) {
@@ -195,6 +204,7 @@ boolean removeNode(Block b, DatanodeDescriptor node) {
     if (info.getDatanode(0) == null     // no datanodes left
               && info.getBlockCollection() == null) {  // does not belong to a file
       blocks.remove(b);  // remove block from the map
+      modificationCount++;
     }
     return removed;
   }
@@ -207,6 +217,11 @@ Iterable<BlockInfoContiguous> getBlocks() {
     return blocks;
   }
   
+  /** @return the number of modifications of the map so far */
+  long getModificationCount() {
+    return modificationCount;
+  }
+
   /** Get the capacity of the HashMap that stores blocks */
   int getCapacity() {
     return capacity;
@@ -234,6 +249,7 @@ BlockInfoContiguous replaceBlock(BlockInfoContiguous newBlock) {
     }
     // replace block in the map itself
     blocks.put(newBlock);
+    modificationCount++;
     return newBlock;
   }
 }
@@ -578,11 +578,12 @@ Iterator<BlockInfoContiguous> getBlockIterator(final String storageID) {
     return new BlockIterator(getStorageInfo(storageID));
   }
 
-  void incrementPendingReplicationWithoutTargets() {
+  synchronized void incrementPendingReplicationWithoutTargets() {
     PendingReplicationWithoutTargets++;
   }
 
-  void decrementPendingReplicationWithoutTargets() {
+  /** Called concurrently by the threads choosing replication targets. */
+  synchronized void decrementPendingReplicationWithoutTargets() {
     PendingReplicationWithoutTargets--;
   }
 
@@ -621,7 +622,7 @@ void addBlocksToBeInvalidated(List<Block> blocklist) {
   /**
    * The number of work items that are pending to be replicated
    */
-  int getNumberOfBlocksToBeReplicated() {
+  synchronized int getNumberOfBlocksToBeReplicated() {
     return PendingReplicationWithoutTargets + replicateBlocks.size();
   }
 
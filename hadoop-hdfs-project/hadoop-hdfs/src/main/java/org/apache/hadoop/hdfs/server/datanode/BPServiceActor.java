@@ -85,6 +85,13 @@ class BPServiceActor implements Runnable {
   
   volatile long lastDeletedReport = 0;
 
+  /**
+   * Time at which the last incremental block report was sent. Pending
+   * changes are held back until dfs.blockreport.incremental.intervalMsec
+   * has passed since then, so that they go out in one report.
+   */
+  private volatile long lastIBR;
+
   volatile long lastCacheReport = 0;
   private final Scheduler scheduler;
 
@@ -124,6 +131,7 @@ static enum RunningState {
     this.nnAddr = nnAddr;
     this.dnConf = dn.getDnConf();
     scheduler = new Scheduler(dnConf.heartBeatInterval, dnConf.blockReportInterval);
+    lastIBR = scheduler.monotonicNow() - dnConf.ibrInterval;
   }
 
   boolean isAlive() {
@@ -237,6 +245,7 @@ private void reportReceivedDeletedBlocks() throws IOException {
     // Generate a list of the pending reports for each storage under the lock
     ArrayList<StorageReceivedDeletedBlocks> reports =
         new ArrayList<StorageReceivedDeletedBlocks>(pendingIncrementalBRperStorage.size());
+    int numBlocks = 0;
     synchronized (pendingIncrementalBRperStorage) {
       for (Map.Entry<DatanodeStorage, PerStoragePendingIncrementalBR> entry :
            pendingIncrementalBRperStorage.entrySet()) {
@@ -247,6 +256,7 @@ private void reportReceivedDeletedBlocks() throws IOException {
           // Send newly-received and deleted blockids to namenode
           ReceivedDeletedBlockInfo[] rdbi = perStorageMap.dequeueBlockInfos();
           reports.add(new StorageReceivedDeletedBlocks(storage, rdbi));
+          numBlocks += rdbi.length;
         }
       }
       sendImmediateIBR = false;
@@ -260,6 +270,7 @@ private void reportReceivedDeletedBlocks() throws IOException {
     // Send incremental block reports to the Namenode outside the lock
     boolean success = false;
     final long startTime = monotonicNow();
+    lastIBR = scheduler.monotonicNow();
     try {
       bpNamenode.blockReceivedAndDeleted(bpRegistration,
           bpos.getBlockPoolId(),
@@ -267,7 +278,9 @@ private void reportReceivedDeletedBlocks() throws IOException {
       success = true;
     } finally {
       dn.getMetrics().addIncrementalBlockReport(monotonicNow() - startTime);
-      if (!success) {
+      if (success) {
+        dn.getMetrics().incrIncrementalBlockReportBlocks(numBlocks);
+      } else {
         synchronized (pendingIncrementalBRperStorage) {
           for (StorageReceivedDeletedBlocks report : reports) {
             // If we didn't succeed in sending the report, put all of the
@@ -304,7 +317,9 @@ private PerStoragePendingIncrementalBR getIncrementalBRMapForStorage(
 
   /**
    * Add a blockInfo for notification to NameNode. If another entry
-   * exists for the same block it is removed.
+   * exists for the same block it is removed, so that a replica which was
+   * e.g. received and then deleted before the next report is only reported
+   * in its latest state.
    *
    * Caller must synchronize access using pendingIncrementalBRperStorage.
    */
@@ -315,6 +330,7 @@ void addPendingReplicationBlockInfo(ReceivedDeletedBlockInfo bInfo,
     for (Map.Entry<DatanodeStorage, PerStoragePendingIncrementalBR> entry :
           pendingIncrementalBRperStorage.entrySet()) {
       if (entry.getValue().removeBlockInfo(bInfo)) {
+        dn.getMetrics().incrIncrementalBlockReportCoalesced();
         break;
       }
     }
@@ -403,6 +419,14 @@ boolean hasPendingIBR() {
     return sendImmediateIBR;
   }
 
+  /**
+   * @return true if there are changes to report and the incremental block
+   *         report batching interval has passed since the last report.
+   */
+  private boolean isIBRDue(long now) {
+    return sendImmediateIBR && now - lastIBR >= dnConf.ibrInterval;
+  }
+
   private long prevBlockReportId = 0;
 
   private long generateUniqueBlockReportId() {
@@ -679,7 +703,7 @@ private void offerService() throws Exception {
             }
           }
         }
-        if (sendImmediateIBR ||
+        if (isIBRDue(startTime) ||
             (startTime - lastDeletedReport > dnConf.deleteReportInterval)) {
           reportReceivedDeletedBlocks();
           lastDeletedReport = startTime;
@@ -697,7 +721,12 @@ private void offerService() throws Exception {
         //
         long waitTime = scheduler.getHeartbeatWaitTime();
         synchronized(pendingIncrementalBRperStorage) {
-          if (waitTime > 0 && !sendImmediateIBR) {
+          if (sendImmediateIBR) {
+            // Only wait for what is left of the batching interval.
+            waitTime = Math.min(waitTime,
+                lastIBR + dnConf.ibrInterval - scheduler.monotonicNow());
+          }
+          if (waitTime > 0) {
             try {
               pendingIncrementalBRperStorage.wait(waitTime);
             } catch (InterruptedException ie) {
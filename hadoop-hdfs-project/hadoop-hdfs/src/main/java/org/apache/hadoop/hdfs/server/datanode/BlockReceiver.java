@@ -52,6 +52,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
@@ -89,7 +90,7 @@ class BlockReceiver implements Closeable {
   private final int bytesPerChecksum;
   private final int checksumSize;
   
-  private final PacketReceiver packetReceiver = new PacketReceiver(false);
+  private final PacketReceiver packetReceiver;
   
   protected final String inAddr;
   protected final String myAddr;
@@ -155,6 +156,9 @@ class BlockReceiver implements Closeable {
       this.myAddr = myAddr;
       this.srcDataNode = srcDataNode;
       this.datanode = datanode;
+      final ByteArrayManager packetBufferPool = datanode.getPacketBufferPool();
+      this.packetReceiver = packetBufferPool != null ?
+          new PacketReceiver(packetBufferPool) : new PacketReceiver(false);
 
       this.clientname = clientname;
       this.isDatanode = clientname.length() == 0;
@@ -351,6 +355,10 @@ public void close() throws IOException {
       IOUtils.cleanup(null, replicaHandler);
       replicaHandler = null;
     }
+    if (replicaInfo instanceof ReplicaInPipeline) {
+      // This xceiver thread may go on to serve other requests.
+      ((ReplicaInPipeline) replicaInfo).releaseWriter(Thread.currentThread());
+    }
     if (measuredFlushTime) {
       datanode.metrics.addFlushNanos(flushTotalNanos);
     }
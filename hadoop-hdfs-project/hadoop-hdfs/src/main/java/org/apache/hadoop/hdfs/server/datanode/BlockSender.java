@@ -30,6 +30,7 @@
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
@@ -37,6 +38,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
@@ -46,6 +48,8 @@
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.net.SocketOutputStream;
 import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.DirectBufferPool;
+import org.apache.hadoop.util.NativeCodeLoader;
 import org.apache.htrace.Sampler;
 import org.apache.htrace.Trace;
 import org.apache.htrace.TraceScope;
@@ -106,6 +110,8 @@ class BlockSender implements java.io.Closeable {
   private static final int MIN_BUFFER_WITH_TRANSFERTO = 64*1024;
   private static final int TRANSFERTO_BUFFER_SIZE = Math.max(
       HdfsConstants.IO_FILE_BUFFER_SIZE, MIN_BUFFER_WITH_TRANSFERTO);
+  /** Packet buffers used when sending from direct buffers */
+  private static final DirectBufferPool bufferPool = new DirectBufferPool();
   
   /** the block to read from */
   private final ExtendedBlock block;
@@ -133,6 +139,10 @@ class BlockSender implements java.io.Closeable {
   private long seqno;
   /** Set to true if transferTo is allowed for sending data to the client */
   private final boolean transferToAllowed;
+  /** Set to true if data may be sent from direct buffers */
+  private final boolean directBuffersAllowed;
+  /** Checksums of a packet sent from a direct buffer */
+  private byte[] checksumBuf;
   /** Set to true once entire requested byte range has been sent to the client */
   private boolean sentEntireByteRange;
   /** When true, verify checksum while reading from checksum file */
@@ -231,7 +241,8 @@ class BlockSender implements java.io.Closeable {
       
       final Replica replica;
       final long replicaVisibleLength;
-      synchronized(datanode.data) { 
+      try (AutoCloseableLock lock = datanode.data.acquireReplicaLock(
+          block.getBlockPoolId(), block.getBlockId())) {
         replica = getReplica(block, datanode);
         replicaVisibleLength = replica.getVisibleLength();
       }
@@ -266,6 +277,7 @@ class BlockSender implements java.io.Closeable {
       // use normal transfer in those cases
       this.transferToAllowed = datanode.getDnConf().transferToAllowed &&
         (!is32Bit || length <= Integer.MAX_VALUE);
+      this.directBuffersAllowed = datanode.getDnConf().directBuffersAllowed;
 
       // Obtain a reference before reading data
       this.volumeRef = datanode.data.getVolume(block).obtainReference();
@@ -533,6 +545,7 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     // H = header and length prefixes
     // C = checksums
     // D? = data, if transferTo is false.
+    // The buffer is a direct one if pkt.hasArray() is false.
     
     int headerLen = writePacketHeader(pkt, dataLen, packetLen);
     
@@ -541,29 +554,26 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     int headerOff = pkt.position() - headerLen;
     
     int checksumOff = pkt.position();
-    byte[] buf = pkt.array();
-    
-    if (checksumSize > 0 && checksumIn != null) {
-      readChecksum(buf, checksumOff, checksumDataLen);
-
-      // write in progress that we need to use to get last checksum
-      if (lastDataPacket && lastChunkChecksum != null) {
-        int start = checksumOff + checksumDataLen - checksumSize;
-        byte[] updatedChecksum = lastChunkChecksum.getChecksum();
-        
-        if (updatedChecksum != null) {
-          System.arraycopy(updatedChecksum, 0, buf, start, checksumSize);
+    int dataOff = checksumOff + checksumDataLen;
+    byte[] buf = null;
+    if (pkt.hasArray()) {
+      buf = pkt.array();
+      if (checksumSize > 0 && checksumIn != null) {
+        readChecksum(buf, checksumOff, checksumDataLen);
+        if (lastDataPacket) {
+          updateLastChecksum(buf, checksumOff + checksumDataLen);
         }
       }
-    }
-    
-    int dataOff = checksumOff + checksumDataLen;
-    if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
 
-      if (verifyChecksum) {
-        verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+      if (!transferTo) { // normal transfer
+        IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+
+        if (verifyChecksum) {
+          verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+        }
       }
+    } else {
+      readDirect(pkt, checksumOff, checksumDataLen, dataLen, lastDataPacket);
     }
     
     try {
@@ -581,6 +591,15 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
         datanode.metrics.addSendDataPacketBlockedOnNetworkNanos(waitTime.get());
         datanode.metrics.addSendDataPacketTransferNanos(transferTime.get());
         blockInPosition += dataLen;
+      } else if (buf == null) {
+        // out is a channel, see doSendBlock
+        ByteBuffer packet = pkt.duplicate();
+        packet.limit(dataOff + dataLen);
+        packet.position(headerOff);
+        WritableByteChannel channel = (WritableByteChannel)out;
+        while (packet.hasRemaining()) {
+          channel.write(packet);
+        }
       } else {
         // normal transfer
         out.write(buf, headerOff, dataOff + dataLen - headerOff);
@@ -622,6 +641,74 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     return dataLen;
   }
   
+  /**
+   * Replace the checksum of the last chunk with the one of a replica that
+   * is being written, if any.
+   * @param buf buffer holding the checksums of the last packet
+   * @param checksumEnd offset in buf where the checksums end
+   */
+  private void updateLastChecksum(byte[] buf, int checksumEnd) {
+    if (lastChunkChecksum != null) {
+      byte[] updatedChecksum = lastChunkChecksum.getChecksum();
+      if (updatedChecksum != null) {
+        System.arraycopy(updatedChecksum, 0, buf, checksumEnd - checksumSize,
+            checksumSize);
+      }
+    }
+  }
+
+  /**
+   * Read the checksums and data of a packet into the direct buffer pkt, and
+   * verify the checksums if required. The data is read through the channel
+   * of the block file, so it is not copied to the Java heap.
+   * @param pkt direct packet buffer
+   * @param checksumOff offset at which to write the checksums into pkt
+   * @param checksumDataLen length of the checksums
+   * @param dataLen length of the data, which follows the checksums
+   * @param lastDataPacket true if this is the last packet with data
+   * @throws IOException on error
+   */
+  private void readDirect(ByteBuffer pkt, int checksumOff,
+      int checksumDataLen, int dataLen, boolean lastDataPacket)
+      throws IOException {
+    if (checksumSize > 0) {
+      if (checksumBuf == null || checksumBuf.length < checksumDataLen) {
+        checksumBuf = new byte[checksumDataLen];
+      }
+      if (checksumIn != null) {
+        readChecksum(checksumBuf, 0, checksumDataLen);
+        if (lastDataPacket) {
+          updateLastChecksum(checksumBuf, checksumDataLen);
+        }
+      } else {
+        Arrays.fill(checksumBuf, 0, checksumDataLen, (byte) 0);
+      }
+      ByteBuffer checksums = pkt.duplicate();
+      checksums.position(checksumOff);
+      checksums.put(checksumBuf, 0, checksumDataLen);
+    }
+
+    int dataOff = checksumOff + checksumDataLen;
+    ByteBuffer data = pkt.duplicate();
+    data.limit(dataOff + dataLen);
+    data.position(dataOff);
+    FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
+    while (data.hasRemaining()) {
+      if (fileCh.read(data) < 0) {
+        throw new IOException("Premature EOF from inputStream");
+      }
+    }
+
+    if (verifyChecksum) {
+      data.position(dataOff);
+      ByteBuffer checksums = pkt.duplicate();
+      checksums.limit(dataOff);
+      checksums.position(checksumOff);
+      checksum.verifyChunkedSums(data, checksums, block.getBlockName(),
+          offset);
+    }
+  }
+
   /**
    * Read checksum into given buffer
    * @param buf buffer to read the checksum into
@@ -666,23 +753,10 @@ private void readChecksum(byte[] buf, final int checksumOffset,
   public void verifyChecksum(final byte[] buf, final int dataOffset,
       final int datalen, final int numChunks, final int checksumOffset)
       throws ChecksumException {
-    int dOff = dataOffset;
-    int cOff = checksumOffset;
-    int dLeft = datalen;
-
-    for (int i = 0; i < numChunks; i++) {
-      checksum.reset();
-      int dLen = Math.min(dLeft, chunkSize);
-      checksum.update(buf, dOff, dLen);
-      if (!checksum.compare(buf, cOff)) {
-        long failedPos = offset + datalen - dLeft;
-        throw new ChecksumException("Checksum failed at " + failedPos,
-            failedPos);
-      }
-      dLeft -= dLen;
-      dOff += dLen;
-      cOff += checksumSize;
-    }
+    // Verifies all chunks in one call, natively if possible.
+    checksum.verifyChunkedSums(ByteBuffer.wrap(buf, dataOffset, datalen),
+        ByteBuffer.wrap(buf, checksumOffset, numChunks * checksumSize),
+        block.getBlockName(), offset);
   }
   
   /**
@@ -731,12 +805,19 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
     manageOsCache();
 
     final long startTime = ClientTraceLog.isDebugEnabled() ? System.nanoTime() : 0;
+    ByteBuffer pktBuf = null;
     try {
       int maxChunksPerPacket;
       int pktBufSize = PacketHeader.PKT_MAX_HEADER_LEN;
       boolean transferTo = transferToAllowed && !verifyChecksum
           && baseStream instanceof SocketOutputStream
           && blockIn instanceof FileInputStream;
+      // Otherwise, e.g. if baseStream encrypts the data, send it from direct
+      // buffers. Without native checksums verifying them would need a copy.
+      boolean direct = !transferTo && directBuffersAllowed
+          && baseStream instanceof WritableByteChannel
+          && blockIn instanceof FileInputStream
+          && (!verifyChecksum || NativeCodeLoader.isNativeCodeLoaded());
       if (transferTo) {
         FileChannel fileChannel = ((FileInputStream)blockIn).getChannel();
         blockInPosition = fileChannel.position();
@@ -750,9 +831,13 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
             numberOfChunks(HdfsConstants.IO_FILE_BUFFER_SIZE));
         // Packet size includes both checksum and data
         pktBufSize += (chunkSize + checksumSize) * maxChunksPerPacket;
+        if (direct) {
+          streamForSendChunks = baseStream;
+        }
       }
 
-      ByteBuffer pktBuf = ByteBuffer.allocate(pktBufSize);
+      pktBuf = direct ? bufferPool.getBuffer(pktBufSize)
+          : ByteBuffer.allocate(pktBufSize);
 
       while (endOffset > offset && !Thread.currentThread().isInterrupted()) {
         manageOsCache();
@@ -782,6 +867,9 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
             initialOffset, endTime - startTime));
       }
       close();
+      if (pktBuf != null && pktBuf.isDirect()) {
+        bufferPool.returnBuffer(pktBuf);
+      }
     }
     return totalRead;
   }
@@ -158,6 +158,7 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.StorageInfo;
 import org.apache.hadoop.hdfs.server.datanode.SecureDataNodeStarter.SecureResources;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
@@ -168,6 +169,7 @@
 import org.apache.hadoop.hdfs.server.protocol.InterDatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
+import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.http.HttpConfig;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.ReadaheadPool;
@@ -295,6 +297,8 @@ public static InetSocketAddress createSocketAddr(String target) {
   Daemon localDataXceiverServer = null;
   ShortCircuitRegistry shortCircuitRegistry = null;
   ThreadGroup threadGroup = null;
+  /** Recycles the buffers of the packets received by write pipelines. */
+  private ByteArrayManager packetBufferPool;
   private DNConf dnConf;
   private volatile boolean heartbeatsDisabledForTests = false;
   private DataStorage storage = null;
@@ -885,6 +889,30 @@ private synchronized void shutdownDirectoryScanner() {
     }
   }
   
+  /**
+   * Create the pool of packet buffers for the block receivers. Every xceiver
+   * holds at most one packet buffer, so limiting each array length to the
+   * number of xceivers bounds the pool without ever blocking a receiver.
+   */
+  private static ByteArrayManager newPacketBufferPool(Configuration conf) {
+    if (!conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_ENABLED_DEFAULT)) {
+      return null;
+    }
+    final int countThreshold = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_THRESHOLD_KEY,
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_THRESHOLD_DEFAULT);
+    final int countLimit = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT);
+    final long countResetTimePeriodMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_RESET_TIME_PERIOD_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_RESET_TIME_PERIOD_MS_DEFAULT);
+    return ByteArrayManager.newInstance(new ByteArrayManager.Conf(
+        countThreshold, countLimit, countResetTimePeriodMs));
+  }
+
   private void initDataXceiver(Configuration conf) throws IOException {
     // find free port or use privileged port provided
     TcpPeerServer tcpPeerServer;
@@ -901,6 +929,7 @@ private void initDataXceiver(Configuration conf) throws IOException {
     streamingAddr = tcpPeerServer.getStreamingAddr();
     LOG.info("Opened streaming server at " + streamingAddr);
     this.threadGroup = new ThreadGroup("dataXceiverServer");
+    this.packetBufferPool = newPacketBufferPool(conf);
     xserver = new DataXceiverServer(tcpPeerServer, conf, this);
     this.dataXceiverServer = new Daemon(threadGroup, xserver);
     this.threadGroup.setDaemon(true); // auto destroy when empty
@@ -1124,6 +1153,7 @@ void startDataNode(Configuration conf,
 
     metrics = DataNodeMetrics.create(conf, getDisplayName());
     metrics.getJvmMetrics().setPauseMonitor(pauseMonitor);
+    metrics.setPacketBufferPool(packetBufferPool);
     
     blockPoolManager = new BlockPoolManager(this);
     blockPoolManager.refreshNamenodes(conf);
@@ -1389,6 +1419,14 @@ private void registerMXBean() {
     dataNodeInfoBeanName = MBeans.register("DataNode", "DataNodeInfo", this);
   }
   
+  /**
+   * @return the pool of packet buffers for block receivers, or null if
+   *         packet buffers are not pooled.
+   */
+  ByteArrayManager getPacketBufferPool() {
+    return packetBufferPool;
+  }
+
   @VisibleForTesting
   public DataXceiverServer getXferServer() {
     return xserver;  
@@ -1825,7 +1863,51 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    // Connections are counted whether or not they currently hold one of the
+    // pooled xceiver threads, and the pooled threads themselves are not.
+    int count = threadGroup.activeCount();
+    if (xserver != null) {
+      count += xserver.getNumPeers() - xserver.getNumThreads();
+    }
+    if (localDataXceiverServer != null) {
+      DataXceiverServer local =
+          (DataXceiverServer) localDataXceiverServer.getRunnable();
+      count += local.getNumPeers() - local.getNumThreads();
+    }
+    return Math.max(0, count);
+  }
+
+  /**
+   * Number of xceiver threads serving an operation. Unlike
+   * {@link #getXceiverCount()}, connections waiting for their next
+   * operation are not counted.
+   */
+  int getActiveXceiverCount() {
+    int count = 0;
+    if (xserver != null) {
+      count += xserver.getNumActiveXceivers();
+    }
+    if (localDataXceiverServer != null) {
+      count += ((DataXceiverServer) localDataXceiverServer.getRunnable())
+          .getNumActiveXceivers();
+    }
+    return count;
+  }
+
+  @Override // DataNodeMXBean
+  public int getXceiverQueueLength() {
+    int length = 0;
+    if (xserver != null) {
+      length += xserver.getXceiverQueueLength();
+    }
+    if (localDataXceiverServer != null) {
+      length += ((DataXceiverServer) localDataXceiverServer.getRunnable())
+          .getXceiverQueueLength();
+    }
+    return length;
   }
 
   @Override // DataNodeMXBean
@@ -2846,7 +2928,8 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
+    try (AutoCloseableLock lock = data.acquireReplicaLock(
+        b.getBlockPoolId(), b.getBlockId())) {
       Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
           b.getBlockId());
       if (null == storedBlock) {
@@ -46,6 +46,8 @@ public void writeBlockAfterFlush() throws IOException {}
 
   public void sendShortCircuitShmResponse() throws IOException {}
 
+  public void requestShortCircuitFdsBatch() throws IOException {}
+
   public boolean dropHeartbeatPacket() {
     return false;
   }
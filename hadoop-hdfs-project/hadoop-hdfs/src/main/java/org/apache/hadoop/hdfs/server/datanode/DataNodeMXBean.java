@@ -79,6 +79,11 @@ public interface DataNodeMXBean {
    */
   public int getXceiverCount();
 
+  /**
+   * Returns the number of operations waiting for an xceiver thread.
+   */
+  public int getXceiverQueueLength();
+
   /**
    * Gets the network error counts on a per-Datanode basis.
    */
@@ -44,7 +44,9 @@
 import java.net.SocketTimeoutException;
 import java.nio.channels.ClosedChannelException;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
@@ -118,6 +120,16 @@ class DataXceiver extends Receiver implements Runnable {
    * on the socket.
    */
   private String previousOpClientName;
+
+  /**
+   * State kept across the operations of a connection. A connection parked
+   * on the DataXceiverSelector between operations resumes on whichever
+   * xceiver thread serves its next operation.
+   */
+  private int opsProcessed = 0;
+  private boolean initialized = false;
+  /** When the next operation was handed to the xceiver pool, or -1. */
+  private long dispatchedNanos = -1;
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
@@ -171,6 +183,87 @@ private OutputStream getOutputStream() {
     return socketOut;
   }
 
+  /** Mark that the next operation is queued for an xceiver thread. */
+  void markDispatched() {
+    dispatchedNanos = System.nanoTime();
+  }
+
+  /** Close a connection that no thread is serving. */
+  void closeIdle() {
+    dataXceiverServer.closePeer(peer);
+    IOUtils.closeStream(in);
+  }
+
+  /**
+   * Turn away a connection that no thread can serve, answering its next
+   * operation with an error, and close it. The error cannot be sent if the
+   * streams of the connection still have to be negotiated.
+   */
+  void reject(String message) {
+    try {
+      if (initialized || !datanode.saslServer.isHandshakeRequired(
+          datanode.getXferAddress().getPort())) {
+        writeResponse(ERROR, message, getOutputStream());
+      }
+    } catch (IOException e) {
+      LOG.debug("Failed to reject " + this, e);
+    } finally {
+      closeIdle();
+    }
+  }
+
+  /**
+   * Whether this connection can wait for its next operation without
+   * holding a thread: nothing of that operation may have been buffered yet.
+   */
+  private boolean canPark() {
+    try {
+      return in.available() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "DataXceiver for " + remoteAddress;
+  }
+
+  /**
+   * Negotiate the data transfer protection of this connection and set up
+   * its streams.
+   *
+   * @return false if the client failed the handshake.
+   */
+  private boolean initStreams() throws IOException {
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    InputStream input = socketIn;
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      input = new BufferedInputStream(saslStreams.in,
+        HdfsConstants.SMALL_BUFFER_SIZE);
+      socketOut = saslStreams.out;
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at " + peer.getRemoteAddressString() + 
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection");
+      }
+      return false;
+    }
+    
+    super.initialize(new DataInputStream(input));
+    return true;
+  }
+
   public void sendOOB() throws IOException, InterruptedException {
     LOG.info("Sending OOB to peer: " + peer);
     if(blockReceiver!=null)
@@ -182,37 +275,23 @@ public void sendOOB() throws IOException, InterruptedException {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parked = false;
+    long queueNanos = -1;
+    if (dispatchedNanos >= 0) {
+      queueNanos = System.nanoTime() - dispatchedNanos;
+      dispatchedNanos = -1;
+    }
 
     try {
       dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-          HdfsConstants.SMALL_BUFFER_SIZE);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
+      if (!initialized) {
+        if (!initStreams()) {
+          return;
         }
-        return;
+        initialized = true;
       }
-      
-      super.initialize(new DataInputStream(input));
-      
+
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
@@ -243,6 +322,10 @@ public void run() {
           }
           break;
         }
+        if (queueNanos >= 0) {
+          datanode.metrics.addXceiverQueueNanos(op, queueNanos);
+          queueNanos = -1;
+        }
 
         // restore normal timeout
         if (opsProcessed != 0) {
@@ -252,6 +335,15 @@ public void run() {
         opStartTime = monotonicNow();
         processOp(op);
         ++opsProcessed;
+
+        // Rather than blocking this thread until the next operation arrives,
+        // let the selector watch the connection if it can.
+        if ((peer != null) && !peer.isClosed() &&
+            dnConf.socketKeepaliveTimeout > 0 && canPark() &&
+            dataXceiverServer.park(peer, this, dnConf.socketKeepaliveTimeout)) {
+          parked = true;
+          return;
+        }
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
     } catch (Throwable t) {
@@ -280,14 +372,20 @@ public void run() {
         LOG.error(s, t);
       }
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
-      }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      if (parked) {
+        // The connection may already be served by another thread.
+        Thread.currentThread().setName("DataXceiver idle");
+      } else {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName()
+              + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
     }
   }
@@ -379,6 +477,129 @@ public void requestShortCircuitFds(final ExtendedBlock blk,
     }
   }
 
+  @Override
+  public void requestShortCircuitFdsBatch(final List<ExtendedBlock> blks,
+      final List<Token<BlockTokenIdentifier>> tokens,
+      List<SlotId> slotIds, int maxVersion,
+      boolean supportsReceiptVerification) throws IOException {
+    updateCurrentThreadName("Passing file descriptors for " + blks.size() +
+        " blocks starting at " + blks.get(0));
+    DataNodeFaultInjector.get().requestShortCircuitFdsBatch();
+    // The first block is the one the client is waiting for.  If it may not
+    // be read, the whole request fails as a single request would.
+    checkAccess(getBufferedOutputStream(), true, blks.get(0), tokens.get(0),
+        Op.REQUEST_SHORT_CIRCUIT_FDS_BATCH,
+        BlockTokenSecretManager.AccessMode.READ);
+    List<SlotId> registeredSlotIds = new ArrayList<SlotId>(blks.size());
+    int numSent = 0;
+    boolean success = false;
+    try {
+      if (peer.getDomainSocket() == null) {
+        throw new IOException("You cannot pass file descriptors over " +
+            "anything but a UNIX domain socket.");
+      }
+      DomainSocket sock = peer.getDomainSocket();
+      for (int i = 0; i < blks.size(); i++) {
+        ExtendedBlock blk = blks.get(i);
+        SlotId slotId = slotIds.get(i);
+        BlockOpResponseProto.Builder bld = BlockOpResponseProto.newBuilder();
+        FileInputStream fis[] = null;
+        try {
+          try {
+            if (i > 0) {
+              checkAndWaitForBP(blk);
+              if (datanode.isBlockTokenEnabled) {
+                datanode.blockPoolTokenSecretManager.checkAccess(
+                    tokens.get(i), null, blk,
+                    BlockTokenSecretManager.AccessMode.READ);
+              }
+            }
+            if (slotId != null) {
+              boolean isCached = datanode.data.
+                  isCached(blk.getBlockPoolId(), blk.getBlockId());
+              datanode.shortCircuitRegistry.registerSlot(
+                  ExtendedBlockId.fromExtendedBlock(blk), slotId, isCached);
+              registeredSlotIds.add(slotId);
+            }
+            fis = datanode.requestShortCircuitFdsForRead(blk, tokens.get(i),
+                maxVersion);
+            Preconditions.checkState(fis != null);
+            bld.setStatus(SUCCESS);
+            bld.setShortCircuitAccessVersion(
+                DataNode.CURRENT_BLOCK_FORMAT_VERSION);
+          } catch (InvalidToken e) {
+            bld.setStatus(ERROR_ACCESS_TOKEN);
+            bld.setMessage(e.getMessage());
+          } catch (ShortCircuitFdsVersionException e) {
+            bld.setStatus(ERROR_UNSUPPORTED);
+            bld.setShortCircuitAccessVersion(
+                DataNode.CURRENT_BLOCK_FORMAT_VERSION);
+            bld.setMessage(e.getMessage());
+          } catch (ShortCircuitFdsUnsupportedException e) {
+            bld.setStatus(ERROR_UNSUPPORTED);
+            bld.setMessage(e.getMessage());
+          } catch (IOException e) {
+            bld.setStatus(ERROR);
+            bld.setMessage(e.getMessage());
+          }
+          if ((fis == null) && (slotId != null) &&
+              registeredSlotIds.remove(slotId)) {
+            datanode.shortCircuitRegistry.unregisterSlot(slotId);
+          }
+          bld.build().writeDelimitedTo(socketOut);
+          if (fis != null) {
+            FileDescriptor fds[] = new FileDescriptor[fis.length];
+            for (int j = 0; j < fds.length; j++) {
+              fds[j] = fis[j].getFD();
+            }
+            byte buf[] = new byte[1];
+            if (supportsReceiptVerification) {
+              buf[0] = (byte)USE_RECEIPT_VERIFICATION.getNumber();
+            } else {
+              buf[0] = (byte)DO_NOT_USE_RECEIPT_VERIFICATION.getNumber();
+            }
+            sock.sendFileDescriptors(fds, buf, 0, buf.length);
+            numSent++;
+          } else if (i == 0) {
+            // The client only waits for the other blocks if it got the
+            // first one.
+            break;
+          }
+        } finally {
+          if (fis != null) {
+            IOUtils.cleanup(LOG, fis);
+          }
+        }
+      }
+      if (supportsReceiptVerification) {
+        // The client acknowledges each set of descriptors as it receives it.
+        for (int i = 0; i < numSent; i++) {
+          if (sock.getInputStream().read() < 0) {
+            throw new EOFException();
+          }
+        }
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        for (SlotId slotId : registeredSlotIds) {
+          LOG.info("Unregistering " + slotId + " because the " +
+              "requestShortCircuitFdsBatch operation failed.");
+          datanode.shortCircuitRegistry.unregisterSlot(slotId);
+        }
+      }
+      if (ClientTraceLog.isInfoEnabled()) {
+        DatanodeRegistration dnR = datanode.getDNRegistrationForBP(blks.get(0)
+            .getBlockPoolId());
+        BlockSender.ClientTraceLog.info(String.format(
+            "src: 127.0.0.1, dest: 127.0.0.1, op: REQUEST_SHORT_CIRCUIT_FDS_BATCH," +
+            " blockid: %s, blocks: %d, sent: %d, srvID: %s, success: %b",
+            blks.get(0).getBlockId(), blks.size(), numSent,
+            dnR.getDatanodeUuid(), success));
+      }
+    }
+  }
+
   @Override
   public void releaseShortCircuitFds(SlotId slotId) throws IOException {
     boolean success = false;
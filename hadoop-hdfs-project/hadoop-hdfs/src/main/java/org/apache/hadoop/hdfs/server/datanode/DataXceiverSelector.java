@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.SocketInputStream;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+/**
+ * Watches idle DataTransferProtocol connections with a single selector, so
+ * that a connection only occupies an xceiver thread while one of its
+ * operations is being served.
+ *
+ * Connections are parked here before their first operation and between the
+ * operations of a kept-alive connection. Once the header of the next
+ * operation arrives, the connection is handed back to the
+ * {@link DataXceiverServer} to be served by its bounded worker pool. A
+ * connection that stays idle past its deadline is closed, exactly as the
+ * read timeout of a blocked xceiver thread would have closed it.
+ */
+class DataXceiverSelector implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  /** Upper bound on a single select, so that shutdown is noticed. */
+  private static final long MAX_SELECT_MS = 1000;
+
+  /** A connection waiting for its next operation. */
+  private static class Parked {
+    final DataXceiver xceiver;
+    final SelectableChannel channel;
+    final long deadline;
+
+    Parked(DataXceiver xceiver, SelectableChannel channel, long deadline) {
+      this.xceiver = xceiver;
+      this.channel = channel;
+      this.deadline = deadline;
+    }
+  }
+
+  private final DataXceiverServer server;
+  private final Selector selector;
+  private final Queue<Parked> pending = new ConcurrentLinkedQueue<Parked>();
+  private volatile boolean running = true;
+
+  /** Earliest deadline among the registered connections. */
+  private long nextDeadline = Long.MAX_VALUE;
+
+  DataXceiverSelector(DataXceiverServer server) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Return the channel of the given peer that can be registered with a
+   * selector, or null if the peer does not support non-blocking reads,
+   * e.g. a UNIX domain socket.
+   */
+  static SelectableChannel getSelectableChannel(Peer peer) {
+    ReadableByteChannel channel = peer.getInputStreamChannel();
+    if (channel instanceof SocketInputStream) {
+      channel = ((SocketInputStream) channel).getChannel();
+    }
+    return channel instanceof SelectableChannel ?
+        (SelectableChannel) channel : null;
+  }
+
+  /**
+   * Park a connection until its next operation arrives.
+   *
+   * @param timeoutMs how long the connection may stay idle, or 0 to wait
+   *                  indefinitely.
+   */
+  void park(DataXceiver xceiver, SelectableChannel channel, long timeoutMs) {
+    long deadline = timeoutMs > 0 ?
+        monotonicNow() + timeoutMs : Long.MAX_VALUE;
+    pending.add(new Parked(xceiver, channel, deadline));
+    selector.wakeup();
+  }
+
+  /**
+   * Wake up the selector, e.g. so that a closed connection is deregistered
+   * and its socket released promptly.
+   */
+  void wakeup() {
+    selector.wakeup();
+  }
+
+  void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (running) {
+        registerPending();
+        long now = monotonicNow();
+        long timeout = Math.min(MAX_SELECT_MS,
+            Math.max(1, nextDeadline - now));
+        selector.select(timeout);
+        dispatchReady();
+        if (monotonicNow() >= nextDeadline) {
+          expireIdle();
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      // stopped
+    } catch (Throwable t) {
+      LOG.error("DataXceiverSelector exiting due to: ", t);
+    } finally {
+      IOUtils.cleanup(LOG, selector);
+      // Connections that never made it onto the selector have no owner.
+      Parked p;
+      while ((p = pending.poll()) != null) {
+        p.xceiver.closeIdle();
+      }
+    }
+  }
+
+  private void registerPending() {
+    Parked p;
+    while ((p = pending.poll()) != null) {
+      try {
+        // A kept-alive connection reuses the key it was first registered
+        // with; its interest set is cleared while it is being served.
+        SelectionKey key = p.channel.keyFor(selector);
+        if (key == null) {
+          key = p.channel.register(selector, SelectionKey.OP_READ, p);
+        } else {
+          key.attach(p);
+          key.interestOps(SelectionKey.OP_READ);
+        }
+        nextDeadline = Math.min(nextDeadline, p.deadline);
+      } catch (ClosedChannelException e) {
+        p.xceiver.closeIdle();
+      } catch (CancelledKeyException e) {
+        p.xceiver.closeIdle();
+      }
+    }
+  }
+
+  private void dispatchReady() {
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+      Parked p = unpark(key);
+      if (p != null) {
+        server.dispatch(p.xceiver);
+      }
+    }
+  }
+
+  private void expireIdle() {
+    long now = monotonicNow();
+    nextDeadline = Long.MAX_VALUE;
+    for (SelectionKey key : selector.keys()) {
+      Parked p = (Parked) key.attachment();
+      if (p == null) {
+        continue;
+      }
+      if (p.deadline <= now) {
+        unpark(key);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing idle connection " + p.xceiver);
+        }
+        p.xceiver.closeIdle();
+      } else {
+        nextDeadline = Math.min(nextDeadline, p.deadline);
+      }
+    }
+  }
+
+  private Parked unpark(SelectionKey key) {
+    Parked p = (Parked) key.attach(null);
+    if (p == null) {
+      return null;
+    }
+    try {
+      key.interestOps(0);
+    } catch (CancelledKeyException e) {
+      // The connection was closed; serving it will report the error.
+    }
+    return p;
+  }
+}
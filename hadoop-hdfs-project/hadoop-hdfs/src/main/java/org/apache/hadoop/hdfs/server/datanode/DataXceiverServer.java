@@ -20,7 +20,18 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
@@ -38,6 +49,12 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * Operations are served by a bounded pool of xceiver threads, with a
+ * bounded queue of operations waiting for a thread. Unless disabled,
+ * connections waiting for an operation are parked on a
+ * {@link DataXceiverSelector} and hold no thread until the operation
+ * arrives.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -56,6 +73,15 @@ class DataXceiverServer implements Runnable {
   int maxXceiverCount =
     DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT;
 
+  /** How long an idle xceiver thread is kept around for reuse. */
+  private static final long XCEIVER_THREAD_KEEPALIVE_SECONDS = 60;
+
+  private final ThreadPoolExecutor xceiverPool;
+
+  /** Watches idle connections; null if each connection keeps its thread. */
+  private final DataXceiverSelector idleSelector;
+  private volatile Thread idleSelectorThread;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -107,7 +133,7 @@ synchronized void release() {
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -125,26 +151,57 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    // Threads are started up to the limit before operations are queued, and
+    // time out when idle.
+    final int queueSize = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_QUEUE_SIZE_DEFAULT);
+    final BlockingQueue<Runnable> queue = queueSize > 0 ?
+        new ArrayBlockingQueue<Runnable>(queueSize) :
+        new SynchronousQueue<Runnable>();
+    this.xceiverPool = new ThreadPoolExecutor(maxXceiverCount,
+        maxXceiverCount, XCEIVER_THREAD_KEEPALIVE_SECONDS, TimeUnit.SECONDS,
+        queue, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Daemon(datanode.threadGroup, r);
+            t.setName("DataXceiver idle");
+            return t;
+          }
+        });
+    this.xceiverPool.allowCoreThreadTimeOut(true);
+    this.idleSelector = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_SELECTOR_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_SELECTOR_ENABLED_DEFAULT) ?
+        new DataXceiverSelector(this) : null;
   }
 
   @Override
   public void run() {
+    if (idleSelector != null) {
+      Thread t = new Daemon(datanode.threadGroup, idleSelector);
+      t.setName("DataXceiverSelector for " + peerServer);
+      idleSelectorThread = t;
+      t.start();
+    }
     Peer peer = null;
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
 
         // Make sure the xceiver count is not exceeded
-        int curXceiverCount = datanode.getXceiverCount();
+        int curXceiverCount = datanode.getActiveXceiverCount();
         if (curXceiverCount > maxXceiverCount) {
           throw new IOException("Xceiver count " + curXceiverCount
               + " exceeds the limit of concurrent xcievers: "
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        DataXceiver xceiver = DataXceiver.create(peer, datanode, this);
+        if (!park(peer, xceiver, datanode.getDnConf().socketTimeout)) {
+          dispatch(xceiver);
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -201,6 +258,10 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    if (idleSelector != null) {
+      idleSelector.stop();
+    }
+    xceiverPool.shutdownNow();
   }
 
   void kill() {
@@ -228,6 +289,78 @@ synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     peersXceiver.remove(peer);
     IOUtils.cleanup(null, peer);
+    if (idleSelector != null) {
+      // Let the selector release the socket of a connection it watched.
+      idleSelector.wakeup();
+    }
+  }
+
+  /**
+   * Hand a connection that is waiting for its next operation to the idle
+   * selector, so that it holds no thread until the operation arrives.
+   *
+   * @param timeoutMs how long the connection may stay idle.
+   * @return false if the connection cannot be parked and must keep waiting
+   *         on its current thread.
+   */
+  boolean park(Peer peer, DataXceiver xceiver, long timeoutMs) {
+    if (idleSelector == null) {
+      return false;
+    }
+    SelectableChannel channel = DataXceiverSelector.getSelectableChannel(peer);
+    if (channel == null) {
+      return false;
+    }
+    synchronized (this) {
+      if (closed) {
+        return false;
+      }
+      // A parked connection has no thread to interrupt.
+      peers.put(peer, null);
+      peersXceiver.put(peer, xceiver);
+    }
+    idleSelector.park(xceiver, channel, timeoutMs);
+    return true;
+  }
+
+  /**
+   * Serve the next operation of a connection on the xceiver pool. If every
+   * xceiver thread is busy and the queue is full, the operation is rejected
+   * with an error response and the connection is closed.
+   */
+  void dispatch(DataXceiver xceiver) {
+    xceiver.markDispatched();
+    try {
+      xceiverPool.execute(xceiver);
+    } catch (RejectedExecutionException e) {
+      if (xceiverPool.isShutdown()) {
+        xceiver.closeIdle();
+        return;
+      }
+      String msg = "All " + maxXceiverCount + " xceiver threads of "
+          + datanode.getDisplayName() + " are busy and "
+          + getXceiverQueueLength() + " operations are queued";
+      LOG.warn(msg + ", rejecting " + xceiver);
+      xceiver.reject(msg);
+    }
+  }
+
+  /** @return the number of xceiver threads serving an operation. */
+  int getNumActiveXceivers() {
+    return xceiverPool.getActiveCount();
+  }
+
+  /** @return the number of operations waiting for an xceiver thread. */
+  int getXceiverQueueLength() {
+    return xceiverPool.getQueue().size();
+  }
+
+  /**
+   * @return the number of threads of this server in the datanode's thread
+   *         group, other than the thread accepting connections.
+   */
+  int getNumThreads() {
+    return xceiverPool.getPoolSize() + (idleSelectorThread != null ? 1 : 0);
   }
 
   // Sending OOB to all peers
@@ -252,9 +385,18 @@ public synchronized void sendOOBToPeers() {
   // be set true before calling this method.
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
-    for (Thread t : peers.values()) {
-      // interrupt each and every DataXceiver thread.
-      t.interrupt();
+    List<Peer> idlePeers = new ArrayList<Peer>();
+    for (Map.Entry<Peer, Thread> e : peers.entrySet()) {
+      if (e.getValue() != null) {
+        // interrupt each and every DataXceiver thread.
+        e.getValue().interrupt();
+      } else {
+        // parked connections have no operation in progress to notify.
+        idlePeers.add(e.getKey());
+      }
+    }
+    for (Peer p : idlePeers) {
+      closePeer(p);
     }
   }
 
@@ -19,13 +19,18 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -46,12 +51,25 @@
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.Time;
 
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ *
+ * The volumes are listed in parallel, and the differences found on each
+ * volume are fixed by a task of its own.  The differences are computed on a
+ * copy of the in-memory block list, without holding the dataset lock;
+ * {@link FsDatasetSpi#checkAndUpdate} checks each of them again under the
+ * replica lock.
+ *
+ * With incremental scans, the listing of a directory whose modification time
+ * did not change since the previous scan is reused instead of reading the
+ * directory again.  Since changes to the length of a block file in place do
+ * not show in the modification time of its directory, every few scans list
+ * all the directories again.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
@@ -64,6 +82,17 @@ public class DirectoryScanner implements Runnable {
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
   private final DataNode datanode;
+  private final boolean incremental;
+  private final int fullScanInterval;
+  private final long throttleIops;
+  private int scansSinceFullScan = 0;
+
+  /**
+   * The directory listings of the previous scans, per volume and directory
+   * path, reused by incremental scans.
+   */
+  private final Map<FsVolumeSpi, Map<String, DirListing>> listings =
+      new ConcurrentHashMap<FsVolumeSpi, Map<String, DirListing>>();
 
   final ScanInfoPerBlockPool diffs = new ScanInfoPerBlockPool();
   final Map<String, Stats> stats = new HashMap<String, Stats>();
@@ -309,6 +338,23 @@ public long getGenStamp() {
     }
   }
 
+  /**
+   * The blocks found in a directory by a previous scan, and its
+   * subdirectories.
+   */
+  private static class DirListing {
+    private final long modificationTime;
+    private final List<ScanInfo> scanInfos;
+    private final List<File> subdirs;
+
+    DirListing(long modificationTime, List<ScanInfo> scanInfos,
+        List<File> subdirs) {
+      this.modificationTime = modificationTime;
+      this.scanInfos = scanInfos;
+      this.subdirs = subdirs;
+    }
+  }
+
   DirectoryScanner(DataNode datanode, FsDatasetSpi<?> dataset, Configuration conf) {
     this.datanode = datanode;
     this.dataset = dataset;
@@ -319,6 +365,16 @@ public long getGenStamp() {
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
 
+    incremental = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT);
+    fullScanInterval = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_INTERVAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_INTERVAL_DEFAULT);
+    throttleIops = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_DEFAULT);
+
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
     masterThread = new ScheduledThreadPoolExecutor(1,
@@ -404,15 +460,54 @@ void shutdown() {
    */
   void reconcile() throws IOException {
     scan();
+    // Fix the differences of each volume in a batch of its own, so that a
+    // slow volume does not hold up the others.
+    Map<FsVolumeSpi, List<Entry<String, ScanInfo>>> perVolume =
+        new HashMap<FsVolumeSpi, List<Entry<String, ScanInfo>>>();
     for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
       String bpid = entry.getKey();
       LinkedList<ScanInfo> diff = entry.getValue();
       
       for (ScanInfo info : diff) {
-        dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
-            info.getMetaFile(), info.getVolume());
+        List<Entry<String, ScanInfo>> batch = perVolume.get(info.getVolume());
+        if (batch == null) {
+          batch = new ArrayList<Entry<String, ScanInfo>>();
+          perVolume.put(info.getVolume(), batch);
+        }
+        batch.add(new SimpleImmutableEntry<String, ScanInfo>(bpid, info));
       }
     }
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (final List<Entry<String, ScanInfo>> batch : perVolume.values()) {
+      results.add(reportCompileThreadPool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (Entry<String, ScanInfo> entry : batch) {
+            ScanInfo info = entry.getValue();
+            dataset.checkAndUpdate(entry.getKey(), info.getBlockId(),
+                info.getBlockFile(), info.getMetaFile(), info.getVolume());
+          }
+          return null;
+        }
+      }));
+    }
+    IOException failure = null;
+    for (Future<Void> result : results) {
+      try {
+        result.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while reconciling", e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof IOException ?
+              (IOException) e.getCause() : new IOException(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
     if (!retainDiffs) clear();
   }
 
@@ -422,89 +517,95 @@ void reconcile() throws IOException {
    */
   void scan() {
     clear();
+    if (incremental) {
+      if (++scansSinceFullScan >= fullScanInterval) {
+        listings.clear();
+        scansSinceFullScan = 0;
+      }
+      listings.keySet().retainAll(dataset.getVolumes());
+    }
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          FinalizedReplica memBlock = memReport[m];
-          ScanInfo info = blockpoolReport[d];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
-              // Block is missing in memory
-              statsRecord.missingMemoryBlocks++;
-              addDifference(diffRecord, statsRecord, info);
-            }
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
-            // volumeMap record and on-disk files don't match.
-            statsRecord.duplicateBlocks++;
+    // Compare with a copy of the block map.  Blocks which change meanwhile
+    // are checked again when the differences are reconciled.
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+      FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        FinalizedReplica memBlock = memReport[m];
+        ScanInfo info = blockpoolReport[d];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+            // Block is missing in memory
+            statsRecord.missingMemoryBlocks++;
             addDifference(diffRecord, statsRecord, info);
           }
           d++;
-
-          if (d < blockpoolReport.length) {
-            // There may be multiple on-disk records for the same block, don't increment
-            // the memory record pointer if so.
-            ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
-            if (nextInfo.getBlockId() != info.blockId) {
-              ++m;
-            }
-          } else {
-            ++m;
-          }
+          continue;
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
           addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+                        memBlock.getBlockId(), info.getVolume());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, blockpoolReport[d]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFileLength() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
+          // volumeMap record and on-disk files don't match.
+          statsRecord.duplicateBlocks++;
+          addDifference(diffRecord, statsRecord, info);
+        }
+        d++;
+
+        if (d < blockpoolReport.length) {
+          // There may be multiple on-disk records for the same block, don't increment
+          // the memory record pointer if so.
+          ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
+          if (nextInfo.getBlockId() != info.blockId) {
+            ++m;
           }
-          d++;
+        } else {
+          ++m;
+        }
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        addDifference(diffRecord, statsRecord,
+                      current.getBlockId(), current.getVolume());
+      }
+      while (d < blockpoolReport.length) {
+        if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, blockpoolReport[d]);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+      }
+      LOG.info(statsRecord.toString());
+    }
   }
 
   /**
@@ -552,8 +653,18 @@ private Map<String, ScanInfo[]> getDiskReport() {
 
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
+        Map<String, DirListing> volumeListings = null;
+        if (incremental) {
+          volumeListings = listings.get(volumes.get(i));
+          if (volumeListings == null) {
+            volumeListings = new ConcurrentHashMap<String, DirListing>();
+            listings.put(volumes.get(i), volumeListings);
+          }
+        }
         ReportCompiler reportCompiler =
-          new ReportCompiler(datanode,volumes.get(i));
+          new ReportCompiler(datanode, volumes.get(i), volumeListings,
+              throttleIops > 0 ?
+                  new DataTransferThrottler(1000, throttleIops) : null);
         Future<ScanInfoPerBlockPool> result = 
           reportCompileThreadPool.submit(reportCompiler);
         compilersInProgress.put(i, result);
@@ -571,7 +682,8 @@ private Map<String, ScanInfo[]> getDiskReport() {
       }
     }
 
-    // Compile consolidated report for all the volumes
+    // Compile consolidated report for all the volumes.  The report of each
+    // volume is already sorted, so sorting them together only merges them.
     ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
     for (int i = 0; i < volumes.size(); i++) {
       if (isValid(dataset, volumes.get(i))) {
@@ -590,12 +702,26 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
 
   private static class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
+    /**
+     * A directory modified less than this long before it was listed may
+     * change again without its modification time changing, so its listing
+     * is not reused.
+     */
+    private static final long MODIFICATION_TIME_GRANULARITY_MS = 2000;
+
     private final FsVolumeSpi volume;
     private final DataNode datanode;
+    /** Listings of the previous scans to reuse, or null. */
+    private final Map<String, DirListing> listings;
+    /** Limits the file system operations per second, or null. */
+    private final DataTransferThrottler throttler;
 
-    public ReportCompiler(DataNode datanode, FsVolumeSpi volume) {
+    public ReportCompiler(DataNode datanode, FsVolumeSpi volume,
+        Map<String, DirListing> listings, DataTransferThrottler throttler) {
       this.datanode = datanode;
       this.volume = volume;
+      this.listings = listings;
+      this.throttler = throttler;
     }
 
     @Override
@@ -605,15 +731,37 @@ public ScanInfoPerBlockPool call() throws Exception {
       for (String bpid : bpList) {
         LinkedList<ScanInfo> report = new LinkedList<ScanInfo>();
         File bpFinalizedDir = volume.getFinalizedDir(bpid);
-        result.put(bpid,
-            compileReport(volume, bpFinalizedDir, bpFinalizedDir, report));
+        compileReport(volume, bpFinalizedDir, bpFinalizedDir, report);
+        Collections.sort(report);
+        result.put(bpid, report);
       }
       return result;
     }
 
+    private void throttle(long ops) {
+      if (throttler != null) {
+        throttler.throttle(ops);
+      }
+    }
+
     /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         File bpFinalizedDir, File dir, LinkedList<ScanInfo> report) {
+      long modificationTime = 0;
+      if (listings != null) {
+        modificationTime = dir.lastModified();
+        throttle(1);
+        DirListing listing = listings.get(dir.getPath());
+        if (listing != null &&
+            listing.modificationTime == modificationTime) {
+          report.addAll(listing.scanInfos);
+          for (File subdir : listing.subdirs) {
+            compileReport(vol, bpFinalizedDir, subdir, report);
+          }
+          return report;
+        }
+      }
+      long listTime = Time.now();
       File[] files;
       try {
         files = FileUtil.listFiles(dir);
@@ -624,7 +772,12 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         // Ignore this directory and proceed.
         return report;
       }
+      // Listing the directory, and looking at each of its entries.
+      throttle(1 + files.length);
       Arrays.sort(files);
+      List<ScanInfo> found = listings == null ? report :
+          new ArrayList<ScanInfo>();
+      List<File> subdirs = new ArrayList<File>();
       /*
        * Assumption: In the sorted list of files block file appears immediately
        * before block metadata file. This is true for the current naming
@@ -633,6 +786,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
        */
       for (int i = 0; i < files.length; i++) {
         if (files[i].isDirectory()) {
+          subdirs.add(files[i]);
           compileReport(vol, bpFinalizedDir, files[i], report);
           continue;
         }
@@ -641,7 +795,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
             long blockId = Block.getBlockId(files[i].getName());
             verifyFileLocation(files[i].getParentFile(), bpFinalizedDir,
                 blockId);
-            report.add(new ScanInfo(blockId, null, files[i], vol));
+            found.add(new ScanInfo(blockId, null, files[i], vol));
           }
           continue;
         }
@@ -661,7 +815,17 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         }
         verifyFileLocation(blockFile.getParentFile(), bpFinalizedDir,
             blockId);
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        found.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+      }
+      if (listings != null) {
+        report.addAll(found);
+        if (modificationTime > 0 &&
+            modificationTime < listTime - MODIFICATION_TIME_GRANULARITY_MS) {
+          listings.put(dir.getPath(),
+              new DirListing(modificationTime, found, subdirs));
+        } else {
+          listings.remove(dir.getPath());
+        }
       }
       return report;
     }
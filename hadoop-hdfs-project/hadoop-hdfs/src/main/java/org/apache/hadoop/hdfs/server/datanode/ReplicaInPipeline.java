@@ -29,6 +29,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
 
 /** 
  * This class defines a replica in a pipeline, which
@@ -169,11 +170,25 @@ public synchronized ChunkChecksum getLastChecksumAndDataLen() {
    * Set the thread that is writing to this replica
    * @param writer a thread writing to this replica
    */
-  public void setWriter(Thread writer) {
+  public synchronized void setWriter(Thread writer) {
     this.writer = writer;
   }
+
+  /**
+   * Called by the writer once it has stopped writing to this replica.
+   * Xceiver threads are pooled, so the thread may go on to serve other
+   * requests and must no longer be interrupted or waited for on behalf of
+   * this replica.
+   * @param writer the thread that stopped writing
+   */
+  public synchronized void releaseWriter(Thread writer) {
+    if (this.writer == writer) {
+      this.writer = null;
+      notifyAll();
+    }
+  }
   
-  public void interruptThread() {
+  public synchronized void interruptThread() {
     if (writer != null && writer != Thread.currentThread() 
         && writer.isAlive()) {
       this.writer.interrupt();
@@ -186,17 +201,29 @@ public boolean equals(Object o) {
   }
   
   /**
-   * Interrupt the writing thread and wait until it dies
+   * Interrupt the writing thread and wait until it releases this replica
+   * or dies
    * @throws IOException the waiting is interrupted
    */
-  public void stopWriter(long xceiverStopTimeout) throws IOException {
-    if (writer != null && writer != Thread.currentThread() && writer.isAlive()) {
-      writer.interrupt();
+  public synchronized void stopWriter(long xceiverStopTimeout)
+      throws IOException {
+    final Thread w = writer;
+    if (w != null && w != Thread.currentThread() && w.isAlive()) {
+      w.interrupt();
       try {
-        writer.join(xceiverStopTimeout);
-        if (writer.isAlive()) {
-          final String msg = "Join on writer thread " + writer + " timed out";
-          DataNode.LOG.warn(msg + "\n" + StringUtils.getStackTrace(writer));
+        final long deadline = Time.monotonicNow() + xceiverStopTimeout;
+        while (writer == w && w.isAlive()) {
+          long remaining = deadline - Time.monotonicNow();
+          if (xceiverStopTimeout > 0 && remaining <= 0) {
+            break;
+          }
+          // A writer that dies without releasing the replica does not
+          // notify, so check on it periodically.
+          wait(xceiverStopTimeout > 0 ? Math.min(remaining, 100) : 100);
+        }
+        if (writer == w && w.isAlive()) {
+          final String msg = "Join on writer thread " + w + " timed out";
+          DataNode.LOG.warn(msg + "\n" + StringUtils.getStackTrace(w));
           throw new IOException(msg);
         }
       } catch (InterruptedException e) {
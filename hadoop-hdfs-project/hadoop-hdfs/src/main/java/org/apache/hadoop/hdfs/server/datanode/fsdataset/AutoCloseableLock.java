@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset;
+
+/**
+ * A lock held on a dataset, or on a part of it, as an AutoClosable resource.
+ * The lock is acquired when the object is obtained from the dataset and is
+ * released in {@link #close()}.
+ *
+ * <pre>
+ *  {@code
+ *    try (AutoCloseableLock lock = dataset.acquireReplicaLock(bpid, blkid)) {
+ *      // Read or change the state of the replica
+ *      ...
+ *    }
+ *  }
+ * </pre>
+ */
+public interface AutoCloseableLock extends AutoCloseable {
+  /**
+   * Release the lock.
+   */
+  @Override
+  public void close();
+}
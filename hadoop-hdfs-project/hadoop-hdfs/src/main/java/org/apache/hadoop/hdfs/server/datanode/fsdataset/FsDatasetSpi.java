@@ -551,4 +551,18 @@ public ReplicaInfo moveBlockAcrossStorage(final ExtendedBlock block,
    * Confirm whether the block is deleting
    */
   public boolean isDeletingBlock(String bpid, long blockId);
+
+  /**
+   * Acquire the lock of the whole dataset. While it is held, no replica is
+   * added, removed or changes its state, and no volume or block pool is
+   * added or removed.
+   */
+  public AutoCloseableLock acquireDatasetLock();
+
+  /**
+   * Acquire the lock of a single replica. While it is held, the replica is
+   * not added, removed or changed by any other thread. Replicas of other
+   * blocks may be changed concurrently.
+   */
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId);
 }
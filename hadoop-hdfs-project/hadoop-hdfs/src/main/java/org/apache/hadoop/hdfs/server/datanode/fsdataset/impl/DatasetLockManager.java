@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * The locks of {@link FsDatasetImpl}.
+ *
+ * Operations on the whole dataset, such as adding or removing a volume or a
+ * block pool, hold the dataset lock exclusively. Operations on a single
+ * replica hold the dataset lock shared, together with the lock of the stripe
+ * the replica belongs to. The stripe is chosen by the block pool and the
+ * block id, so operations on replicas of different stripes, and in particular
+ * on different volumes, run concurrently.
+ *
+ * Locks are always acquired in the same order: the dataset lock first, then
+ * the stripe locks by increasing stripe index. A thread holding a replica
+ * lock must therefore never acquire the dataset lock exclusively.
+ *
+ * The time spent waiting for a contended lock is recorded in the
+ * {@link DataNodeMetrics} of the DataNode.
+ */
+class DatasetLockManager {
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final ReentrantLock[] stripes;
+  private final DataNode datanode;
+
+  DatasetLockManager(DataNode datanode, int numStripes) {
+    if (numStripes <= 0) {
+      throw new HadoopIllegalArgumentException(
+          "The number of lock stripes must be positive: " + numStripes);
+    }
+    this.datanode = datanode;
+    this.stripes = new ReentrantLock[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Acquire the dataset lock exclusively.
+   */
+  AutoCloseableLock acquireDatasetLock() {
+    final Lock lock = datasetLock.writeLock();
+    lockDataset(lock);
+    return new LockHandle(lock);
+  }
+
+  /**
+   * Acquire the dataset lock shared, which excludes the operations on the
+   * whole dataset but not those on single replicas.
+   */
+  AutoCloseableLock acquireDatasetReadLock() {
+    final Lock lock = datasetLock.readLock();
+    lockDataset(lock);
+    return new LockHandle(lock);
+  }
+
+  /**
+   * Acquire the lock of a single replica.
+   */
+  AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    final Lock lock = datasetLock.readLock();
+    lockDataset(lock);
+    final ReentrantLock stripe = stripes[getStripe(bpid, blockId)];
+    lockStripe(stripe);
+    return new LockHandle(lock, stripe);
+  }
+
+  /**
+   * Acquire the locks of two replicas of the same block pool, e.g. the
+   * replica being recovered and its copy when a block is truncated on
+   * recovery.
+   */
+  AutoCloseableLock acquireReplicaLocks(String bpid, long blockId1,
+      long blockId2) {
+    final int s1 = getStripe(bpid, blockId1);
+    final int s2 = getStripe(bpid, blockId2);
+    if (s1 == s2) {
+      return acquireReplicaLock(bpid, blockId1);
+    }
+    final Lock lock = datasetLock.readLock();
+    lockDataset(lock);
+    final ReentrantLock first = stripes[Math.min(s1, s2)];
+    final ReentrantLock second = stripes[Math.max(s1, s2)];
+    lockStripe(first);
+    lockStripe(second);
+    return new LockHandle(lock, first, second);
+  }
+
+  @VisibleForTesting
+  boolean isDatasetLockedByCurrentThread() {
+    return datasetLock.isWriteLockedByCurrentThread();
+  }
+
+  @VisibleForTesting
+  boolean isReplicaLockedByCurrentThread(String bpid, long blockId) {
+    return datasetLock.isWriteLockedByCurrentThread() ||
+        stripes[getStripe(bpid, blockId)].isHeldByCurrentThread();
+  }
+
+  private int getStripe(String bpid, long blockId) {
+    int h = 31 * bpid.hashCode() + (int) (blockId ^ (blockId >>> 32));
+    return (h & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  private void lockDataset(Lock lock) {
+    // Do not let a reader barge ahead of a queued exclusive request.
+    if (!datasetLock.hasQueuedThreads() && lock.tryLock()) {
+      return;
+    }
+    final long start = System.nanoTime();
+    lock.lock();
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addDatasetLockWaitNanos(System.nanoTime() - start);
+    }
+  }
+
+  private void lockStripe(ReentrantLock stripe) {
+    if (stripe.tryLock()) {
+      return;
+    }
+    final long start = System.nanoTime();
+    stripe.lock();
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addReplicaLockWaitNanos(System.nanoTime() - start);
+    }
+  }
+
+  /** Releases the locks it holds in the reverse order of acquisition. */
+  private static class LockHandle implements AutoCloseableLock {
+    private final Lock[] locks;
+    private boolean released = false;
+
+    LockHandle(Lock... locks) {
+      this.locks = locks;
+    }
+
+    @Override
+    public void close() {
+      if (released) {
+        return;
+      }
+      released = true;
+      for (int i = locks.length - 1; i >= 0; i--) {
+        locks[i].unlock();
+      }
+    }
+  }
+}
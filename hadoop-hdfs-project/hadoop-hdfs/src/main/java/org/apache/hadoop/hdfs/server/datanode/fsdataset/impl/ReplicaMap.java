@@ -18,36 +18,23 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 /**
- * Maintains the replica map. 
+ * Maintains the replica map. The map is safe for concurrent use; serializing
+ * the changes of a replica is left to the locks of the dataset.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private final Map<String, Map<Long, ReplicaInfo>> map =
-    new HashMap<String, Map<Long, ReplicaInfo>>();
-  
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
-  
+  private final ConcurrentHashMap<String, Map<Long, ReplicaInfo>> map =
+    new ConcurrentHashMap<String, Map<Long, ReplicaInfo>>();
+
   String[] getBlockPoolList() {
-    synchronized(mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);   
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -90,10 +77,8 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.get(blockId) : null;
   }
   
   /**
@@ -107,22 +92,17 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-      return  m.put(replicaInfo.getBlockId(), replicaInfo);
-    }
+    return getOrCreateBlockPool(bpid).put(replicaInfo.getBlockId(),
+        replicaInfo);
   }
 
   /**
    * Add all entries from the given replica map into the local replica map.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    for (Map.Entry<String, Map<Long, ReplicaInfo>> e : other.map.entrySet()) {
+      getOrCreateBlockPool(e.getKey()).putAll(e.getValue());
+    }
   }
   
   /**
@@ -136,18 +116,16 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        Long key = Long.valueOf(block.getBlockId());
-        ReplicaInfo replicaInfo = m.get(key);
-        if (replicaInfo != null &&
-            block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
-          return m.remove(key);
-        } 
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      Long key = Long.valueOf(block.getBlockId());
+      ReplicaInfo replicaInfo = m.get(key);
+      if (replicaInfo != null &&
+          block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
+        return m.remove(key);
       }
     }
-    
+
     return null;
   }
   
@@ -159,11 +137,9 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        return m.remove(blockId);
-      }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      return m.remove(blockId);
     }
     return null;
   }
@@ -174,53 +150,45 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.size() : 0;
   }
   
   /**
-   * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Get a collection of the replicas for given block pool.
+   * The collection is backed by the map and its iterators are weakly
+   * consistent: they never throw ConcurrentModificationException, but may
+   * or may not reflect the changes made while iterating. Callers needing a
+   * stable view have to hold the dataset lock.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
    */
   Collection<ReplicaInfo> replicas(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    m = map.get(bpid);
+    Map<Long, ReplicaInfo> m = map.get(bpid);
     return m != null ? m.values() : null;
   }
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-    }
+    getOrCreateBlockPool(bpid);
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      map.remove(bpid);
-    }
+    map.remove(bpid);
   }
-  
-  /**
-   * Give access to mutex used for synchronizing ReplicasMap
-   * @return object used as lock
-   */
-  Object getMutext() {
-    return mutex;
+
+  private Map<Long, ReplicaInfo> getOrCreateBlockPool(String bpid) {
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      // Add an entry for block pool if it does not exist already
+      m = new ConcurrentHashMap<Long, ReplicaInfo>();
+      Map<Long, ReplicaInfo> existing = map.putIfAbsent(bpid, m);
+      if (existing != null) {
+        m = existing;
+      }
+    }
+    return m;
   }
 }
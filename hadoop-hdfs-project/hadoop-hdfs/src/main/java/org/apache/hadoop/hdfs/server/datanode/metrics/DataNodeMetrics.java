@@ -19,10 +19,15 @@
 
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Op;
+import org.apache.hadoop.hdfs.util.ByteArrayManager;
 import org.apache.hadoop.metrics2.MetricsSystem;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
@@ -32,6 +37,7 @@
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
+import org.apache.hadoop.util.StringUtils;
 
 /**
  *
@@ -108,6 +114,11 @@ public class DataNodeMetrics {
   @Metric MutableRate heartbeats;
   @Metric MutableRate blockReports;
   @Metric MutableRate incrementalBlockReports;
+  @Metric("Replicas sent in incremental block reports")
+  MutableCounterLong incrementalBlockReportBlocks;
+  @Metric("Pending incremental block report entries replaced by a newer " +
+      "state of the same replica before being sent")
+  MutableCounterLong incrementalBlockReportCoalesced;
   @Metric MutableRate cacheReports;
   @Metric MutableRate packetAckRoundTripTimeNanos;
   final MutableQuantiles[] packetAckRoundTripTimeNanosQuantiles;
@@ -123,9 +134,19 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  @Metric("Nanoseconds spent waiting for the contended dataset lock")
+  MutableRate datasetLockWaitNanos;
+  @Metric("Nanoseconds spent waiting for contended replica locks")
+  MutableRate replicaLockWaitNanos;
+
+  /** Nanoseconds each kind of operation waited for an xceiver thread. */
+  final Map<Op, MutableRate> xceiverQueueNanos =
+      new EnumMap<Op, MutableRate>(Op.class);
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
+  private volatile ByteArrayManager packetBufferPool = null;
   
   public DataNodeMetrics(String name, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
@@ -133,6 +154,13 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
     this.jvmMetrics = jvmMetrics;    
     registry.tag(SessionId, sessionId);
     
+    for (Op op : Op.values()) {
+      xceiverQueueNanos.put(op, registry.newRate(
+          "xceiverQueueNanos" + StringUtils.camelize(op.name()),
+          "Time a " + op + " operation waited for an xceiver thread in ns",
+          false));
+    }
+
     final int len = intervals.length;
     packetAckRoundTripTimeNanosQuantiles = new MutableQuantiles[len];
     flushNanosQuantiles = new MutableQuantiles[len];
@@ -193,6 +221,23 @@ public static DataNodeMetrics create(Configuration conf, String dnName) {
   public JvmMetrics getJvmMetrics() {
     return jvmMetrics;
   }
+
+  public void setPacketBufferPool(ByteArrayManager packetBufferPool) {
+    this.packetBufferPool = packetBufferPool;
+  }
+
+  @Metric(value="Packet buffers reused from the pool", type=Metric.Type.COUNTER)
+  public long getPacketBufferPoolHits() {
+    ByteArrayManager pool = packetBufferPool;
+    return pool == null ? 0 : pool.getNumHits();
+  }
+
+  @Metric(value="Packet buffers allocated outside the pool",
+      type=Metric.Type.COUNTER)
+  public long getPacketBufferPoolMisses() {
+    ByteArrayManager pool = packetBufferPool;
+    return pool == null ? 0 : pool.getNumMisses();
+  }
   
   public void addHeartbeat(long latency) {
     heartbeats.add(latency);
@@ -206,6 +251,14 @@ public void addIncrementalBlockReport(long latency) {
     incrementalBlockReports.add(latency);
   }
 
+  public void incrIncrementalBlockReportBlocks(int delta) {
+    incrementalBlockReportBlocks.incr(delta);
+  }
+
+  public void incrIncrementalBlockReportCoalesced() {
+    incrementalBlockReportCoalesced.incr();
+  }
+
   public void addCacheReport(long latency) {
     cacheReports.add(latency);
   }
@@ -355,6 +408,18 @@ public void addSendDataPacketTransferNanos(long latencyNanos) {
     }
   }
 
+  public void addDatasetLockWaitNanos(long latencyNanos) {
+    datasetLockWaitNanos.add(latencyNanos);
+  }
+
+  public void addReplicaLockWaitNanos(long latencyNanos) {
+    replicaLockWaitNanos.add(latencyNanos);
+  }
+
+  public void addXceiverQueueNanos(Op op, long latencyNanos) {
+    xceiverQueueNanos.get(op).add(latencyNanos);
+  }
+
   public void incrRamDiskBlocksWrite() {
     ramDiskBlocksWrite.incr();
   }
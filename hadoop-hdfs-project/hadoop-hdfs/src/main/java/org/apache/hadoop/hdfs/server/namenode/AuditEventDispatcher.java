@@ -0,0 +1,309 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Moves audit logging off the RPC handler threads. Handlers capture each
+ * audit event and put it in a bounded, lock-free ring buffer; a single
+ * dispatcher thread drains the buffer in batches, and hands each event to a
+ * {@link Sink} which converts it and calls the configured audit loggers.
+ * Audit loggers therefore run on the dispatcher thread, in the order the
+ * events were queued.
+ *
+ * When the buffer is full, the {@link OverflowPolicy} decides whether the
+ * handler waits for space or the event is dropped and counted.
+ */
+class AuditEventDispatcher implements Closeable {
+  static final Log LOG = LogFactory.getLog(AuditEventDispatcher.class);
+
+  /** What to do with an event when the buffer is full. */
+  enum OverflowPolicy {
+    /** Wait for the dispatcher thread to make room. */
+    BLOCK,
+    /** Drop the event and count it. */
+    DROP
+  }
+
+  /** An audit event, as captured on the RPC handler thread. */
+  static final class AuditEvent {
+    final boolean succeeded;
+    final UserGroupInformation ugi;
+    final InetAddress addr;
+    final String cmd;
+    final String src;
+    final String dst;
+    final HdfsFileStatus stat;
+    /**
+     * Whether the event comes from a WebHDFS call. This is known from a
+     * thread local of the handler, so it is captured with the event.
+     */
+    final boolean webHdfs;
+
+    AuditEvent(boolean succeeded, UserGroupInformation ugi, InetAddress addr,
+        String cmd, String src, String dst, HdfsFileStatus stat,
+        boolean webHdfs) {
+      this.succeeded = succeeded;
+      this.ugi = ugi;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.stat = stat;
+      this.webHdfs = webHdfs;
+    }
+  }
+
+  /** Receives events on the dispatcher thread. */
+  interface Sink {
+    void logAuditEvent(AuditEvent event);
+  }
+
+  /** How long the dispatcher sleeps when idle, in case a wakeup is missed. */
+  private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  /** How long a blocked handler waits before checking for space again. */
+  private static final long FULL_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final Sink sink;
+  private final OverflowPolicy overflowPolicy;
+
+  // The ring buffer. A slot at index (pos & mask) may be written by the
+  // producer which claimed position pos once its sequence equals pos, and
+  // may be read by the dispatcher once its sequence equals pos + 1.
+  private final AuditEvent[] buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  /** The next position to be claimed by a producer. */
+  private final AtomicLong tail = new AtomicLong(0);
+  /** The next position to be consumed; only written by the dispatcher. */
+  private volatile long head = 0;
+  /** The events before this position have been delivered to the sink. */
+  private volatile long delivered = 0;
+
+  private final AtomicLong dropped = new AtomicLong(0);
+  private final Thread dispatcherThread;
+  private volatile boolean running = true;
+  private volatile boolean idle = false;
+  /** Set once the dispatcher thread has exited. */
+  private volatile boolean closed = false;
+
+  /**
+   * @param capacity the size of the buffer, rounded up to a power of two
+   * @param overflowPolicy what to do when the buffer is full
+   * @param sink where events are delivered
+   */
+  AuditEventDispatcher(int capacity, OverflowPolicy overflowPolicy,
+      Sink sink) {
+    Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30,
+        "Invalid audit event buffer size: %s", capacity);
+    int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+    this.buffer = new AuditEvent[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.overflowPolicy = overflowPolicy;
+    this.sink = sink;
+    this.dispatcherThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        dispatchLoop();
+      }
+    }, "AuditEventDispatcher");
+    dispatcherThread.setDaemon(true);
+  }
+
+  void start() {
+    dispatcherThread.start();
+  }
+
+  /**
+   * Queue an event for the audit loggers. Once the dispatcher has been
+   * closed, the event is logged on the calling thread instead.
+   */
+  void dispatch(AuditEvent event) {
+    long pos = tail.get();
+    while (true) {
+      if (!running) {
+        sink.logAuditEvent(event);
+        return;
+      }
+      long diff = sequences.get((int) (pos & mask)) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        // The buffer is full.
+        if (overflowPolicy == OverflowPolicy.DROP) {
+          dropped.incrementAndGet();
+          return;
+        }
+        LockSupport.unpark(dispatcherThread);
+        LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+        pos = tail.get();
+      } else {
+        // Another producer claimed this position first.
+        pos = tail.get();
+      }
+    }
+    int index = (int) (pos & mask);
+    buffer[index] = event;
+    // The volatile write publishes the event to the dispatcher.
+    sequences.set(index, pos + 1);
+    if (idle) {
+      LockSupport.unpark(dispatcherThread);
+    }
+    if (closed) {
+      // close() may have drained the buffer before the event was published,
+      // and nobody else is left to deliver it.
+      drainClaimed();
+    }
+  }
+
+  private void dispatchLoop() {
+    while (true) {
+      if (drain() > 0) {
+        continue;
+      }
+      if (!running) {
+        // Deliver anything queued while we were stopping.
+        if (drain() == 0) {
+          return;
+        }
+        continue;
+      }
+      idle = true;
+      if (!hasNext()) {
+        LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+      }
+      idle = false;
+    }
+  }
+
+  private boolean hasNext() {
+    long pos = head;
+    return sequences.get((int) (pos & mask)) == pos + 1;
+  }
+
+  /**
+   * Deliver all published events to the sink. Must only be called by a
+   * single consumer at a time.
+   * @return the number of events delivered
+   */
+  private int drain() {
+    int count = 0;
+    long pos = head;
+    while (true) {
+      int index = (int) (pos & mask);
+      if (sequences.get(index) != pos + 1) {
+        break;
+      }
+      AuditEvent event = buffer[index];
+      buffer[index] = null;
+      // Free the slot before logging, so that producers are not held up.
+      sequences.set(index, pos + buffer.length);
+      head = ++pos;
+      try {
+        sink.logAuditEvent(event);
+      } catch (Throwable t) {
+        LOG.warn("Failed to log audit event " + event.cmd + " on " +
+            event.src, t);
+      }
+      delivered = pos;
+      count++;
+    }
+    return count;
+  }
+
+  /** @return the number of events waiting to be delivered */
+  int getQueueSize() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+
+  /** Wait until the events queued so far have been delivered. */
+  @VisibleForTesting
+  void waitForDelivery() throws InterruptedException {
+    final long queued = tail.get();
+    while (delivered < queued) {
+      LockSupport.unpark(dispatcherThread);
+      Thread.sleep(10);
+    }
+  }
+
+  /** @return the number of events dropped because the buffer was full */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  @VisibleForTesting
+  int getCapacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Stop the dispatcher thread after it has delivered the events already
+   * queued. Later events are logged on the calling thread.
+   */
+  @Override
+  public void close() {
+    running = false;
+    LockSupport.unpark(dispatcherThread);
+    try {
+      dispatcherThread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted waiting for the audit event dispatcher to stop");
+      return;
+    }
+    // A producer which publishes its event after this sees closed set and
+    // delivers the event itself.
+    closed = true;
+    drainClaimed();
+  }
+
+  /**
+   * Deliver the events of producers which claimed a slot before the
+   * dispatcher stopped, waiting for them to publish. Only called once the
+   * dispatcher thread has exited; the lock makes the callers take turns as
+   * the single consumer.
+   */
+  private synchronized void drainClaimed() {
+    while (head != tail.get()) {
+      if (drain() == 0) {
+        Thread.yield();
+      }
+    }
+  }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode;
 
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -44,7 +45,8 @@ public Builder() {
       this.quota = new QuotaCounts.Builder().nameSpace(DEFAULT_NAMESPACE_QUOTA).
           storageSpace(DEFAULT_STORAGE_SPACE_QUOTA).
           typeSpaces(DEFAULT_STORAGE_SPACE_QUOTA).build();
-      this.usage = new QuotaCounts.Builder().nameSpace(1).build();
+      this.usage = new QuotaCounts.Builder().nameSpace(1).directoryCount(1)
+          .build();
     }
 
     public Builder nameSpaceQuota(long nameSpaceQuota) {
@@ -171,26 +173,14 @@ public void addSpaceConsumed2Cache(QuotaCounts delta) {
     usage.add(delta);
   }
 
-  /** 
-   * Sets namespace and storagespace take by the directory rooted
-   * at this INode. This should be used carefully. It does not check 
-   * for quota violations.
-   * 
-   * @param namespace size of the directory to be set
-   * @param storagespace storage space take by all the nodes under this directory
-   * @param typespaces counters of storage type usage
+  /**
+   * Sets the usage of the directory rooted at this INode. This should be
+   * used carefully. It does not check for quota violations.
+   *
+   * @param c the usage of all the nodes under this directory
    */
-  void setSpaceConsumed(long namespace, long storagespace,
-      EnumCounters<StorageType> typespaces) {
-    usage.setNameSpace(namespace);
-    usage.setStorageSpace(storagespace);
-    usage.setTypeSpaces(typespaces);
-  }
-
   void setSpaceConsumed(QuotaCounts c) {
-    usage.setNameSpace(c.getNameSpace());
-    usage.setStorageSpace(c.getStorageSpace());
-    usage.setTypeSpaces(c.getTypeSpaces());
+    usage = new QuotaCounts.Builder().quotaCount(c).build();
   }
 
   /** @return the namespace and storagespace and typespace consumed. */
@@ -198,6 +188,27 @@ public QuotaCounts getSpaceConsumed() {
     return new QuotaCounts.Builder().quotaCount(usage).build();
   }
 
+  /**
+   * @return the content summary of the directory, from the usage which is
+   *         updated along with the namespace, i.e. without traversing the
+   *         subtree. The length of the files under construction includes
+   *         their last block at the preferred block size, and the files and
+   *         directories deleted but kept in snapshots are counted, as they
+   *         are for the quota.
+   */
+  ContentSummary getContentSummary() {
+    return new ContentSummary.Builder().
+        length(usage.getLength()).
+        fileCount(usage.getNameSpace() - usage.getDirectoryCount()).
+        directoryCount(usage.getDirectoryCount()).
+        quota(quota.getNameSpace()).
+        spaceConsumed(usage.getStorageSpace()).
+        spaceQuota(quota.getStorageSpace()).
+        typeConsumed(usage.getTypeSpaces().asArray()).
+        typeQuota(quota.getTypeSpaces().asArray()).
+        build();
+  }
+
   /** Verify if the namespace quota is violated after applying delta. */
   private void verifyNamespaceQuota(long delta) throws NSQuotaExceededException {
     if (Quota.isViolated(quota.getNameSpace(), usage.getNameSpace(), delta)) {
@@ -49,6 +49,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.protobuf.ByteString;
 
 /**
  * An implementation of the abstract class {@link EditLogInputStream}, which
@@ -121,6 +122,24 @@ public static EditLogInputStream fromUrl(
     return new EditLogFileInputStream(new URLLog(connectionFactory, url),
         startTxId, endTxId, inProgress);
   }
+
+  /**
+   * Create an EditLogInputStream from edits held in memory, e.g. as
+   * returned by a JournalNode's in-memory edits cache.
+   *
+   * @param bytes the serialized edits, including the edit log header
+   * @param firstTxId the first transaction to be read
+   * @param lastTxId the last transaction to be read; any edits after it
+   *                 are ignored
+   * @param inProgress whether the edits come from an in-progress segment
+   * @return a stream from which edits may be read
+   */
+  public static EditLogInputStream fromByteString(ByteString bytes,
+      long firstTxId, long lastTxId, boolean inProgress) {
+    return new EditLogFileInputStream(new ByteStringLog(bytes,
+        String.format("ByteStringEditLog[%d, %d]", firstTxId, lastTxId)),
+        firstTxId, lastTxId, inProgress);
+  }
   
   private EditLogFileInputStream(LogSource log,
       long firstTxId, long lastTxId,
@@ -436,6 +455,31 @@ public String getName() {
     }
   }
 
+  private static class ByteStringLog implements LogSource {
+    private final ByteString bytes;
+    private final String name;
+
+    public ByteStringLog(ByteString bytes, String name) {
+      this.bytes = bytes;
+      this.name = name;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return bytes.newInput();
+    }
+
+    @Override
+    public long length() {
+      return bytes.size();
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+  }
+
   private static class URLLog implements LogSource {
     private final URL url;
     private long advertisedSize = -1;
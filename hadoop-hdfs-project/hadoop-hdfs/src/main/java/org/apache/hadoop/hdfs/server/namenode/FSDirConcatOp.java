@@ -238,6 +238,8 @@ static void unprotectedConcat(FSDirectory fsd, INodesInPath targetIIP,
 
     trgInode.setModificationTime(timestamp, targetIIP.getLatestSnapshotId());
     trgParent.updateModificationTime(timestamp, targetIIP.getLatestSnapshotId());
+    // the removed source files no longer count in the namespace
+    deltas.addNameSpace(-count);
     // update quota on the parent directory with deltas
     FSDirectory.unprotectedUpdateCount(targetIIP, targetIIP.length() - 1, deltas);
   }
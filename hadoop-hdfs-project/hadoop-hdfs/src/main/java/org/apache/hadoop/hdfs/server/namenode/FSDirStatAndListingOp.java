@@ -491,6 +491,13 @@ private static ContentSummary getContentSummaryInt(FSDirectory fsd,
       if (targetNode == null) {
         throw new FileNotFoundException("File does not exist: " + iip.getPath());
       }
+      else if (fsd.isContentSummaryFromQuotaUsage() && !iip.isSnapshot()
+          && targetNode.isDirectory() && targetNode.isQuotaSet()) {
+        // the usage of a directory with quota is kept up to date along with
+        // the namespace, so the subtree need not be traversed.
+        return targetNode.asDirectory().getDirectoryWithQuotaFeature()
+            .getContentSummary();
+      }
       else {
         // Make it relinquish locks everytime contentCountLimit entries are
         // processed. 0 means disabled. I.e. blocking for the entire duration.
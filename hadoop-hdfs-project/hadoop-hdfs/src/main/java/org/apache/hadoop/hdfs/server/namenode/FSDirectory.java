@@ -136,6 +136,8 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
   private final long contentSleepMicroSec;
+  // whether directories with quota report the content summary from their usage
+  private final boolean contentSummaryFromQuotaUsage;
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
@@ -274,6 +276,9 @@ public int getWriteHoldCount() {
     this.contentSleepMicroSec = conf.getLong(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT);
+    this.contentSummaryFromQuotaUsage = conf.getBoolean(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_QUOTA_USAGE_ENABLED_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_QUOTA_USAGE_ENABLED_DEFAULT);
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -387,6 +392,10 @@ long getContentSleepMicroSec() {
     return contentSleepMicroSec;
   }
 
+  boolean isContentSummaryFromQuotaUsage() {
+    return contentSummaryFromQuotaUsage;
+  }
+
   int getInodeXAttrsLimit() {
     return inodeXAttrsLimit;
   }
@@ -699,7 +708,7 @@ void updateCount(INodesInPath iip, long nsDelta, long ssDelta, short replication
           replication, replication);;
     updateCount(iip, iip.length() - 1,
       new QuotaCounts.Builder().nameSpace(nsDelta).storageSpace(ssDelta * replication).
-          typeSpaces(typeSpaceDeltas).build(),
+          typeSpaces(typeSpaceDeltas).length(ssDelta).build(),
         checkQuota);
   }
 
@@ -1207,6 +1216,7 @@ private void verifyQuotaForTruncate(INodesInPath iip, INodeFile file,
     final long diff = file.computeQuotaDeltaForTruncate(newLength);
     final short repl = file.getBlockReplication();
     delta.addStorageSpace(diff * repl);
+    delta.addLength(diff);
     final BlockStoragePolicy policy = getBlockStoragePolicySuite()
         .getPolicy(file.getStoragePolicyID());
     List<StorageType> types = policy.chooseStorageTypes(repl);
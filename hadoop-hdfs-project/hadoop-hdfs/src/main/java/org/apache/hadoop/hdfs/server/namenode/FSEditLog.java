@@ -40,6 +40,7 @@
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolInfo;
@@ -58,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AllocateBlockIdOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AllowSnapshotOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AppendOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.BatchNamespaceOpsResultOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.CancelDelegationTokenOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.CloseOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.ConcatDeleteOp;
@@ -153,7 +155,9 @@ private enum State {
   private EditLogOutputStream editLogStream = null;
 
   // a monotonically increasing counter that represents transactionIds.
-  private long txid = 0;
+  // Volatile so that it can be read without the lock, see
+  // getLastWrittenTxIdWithoutLock().
+  private volatile long txid = 0;
 
   // stores the last synced transactionId.
   private long synctxid = 0;
@@ -186,7 +190,7 @@ private enum State {
       new ThreadLocal<OpInstanceCache>() {
     @Override
     protected OpInstanceCache initialValue() {
-      return new OpInstanceCache();
+      return newOpInstanceCache();
     }
   };
   
@@ -218,6 +222,22 @@ protected synchronized TransactionId initialValue() {
     }
   };
 
+  /**
+   * Create an edit log, which logs edits from the calling threads or, if
+   * {@link DFSConfigKeys#DFS_NAMENODE_EDITS_ASYNC_LOGGING} is set, from a
+   * dedicated thread.
+   */
+  static FSEditLog newInstance(Configuration conf, NNStorage storage,
+      List<URI> editsDirs) {
+    boolean asyncEditLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
+    LOG.info("Edit logging is async:" + asyncEditLogging);
+    return asyncEditLogging
+        ? new FSEditLogAsync(conf, storage, editsDirs)
+        : new FSEditLog(conf, storage, editsDirs);
+  }
+
   /**
    * Constructor for FSEditLog. Underlying journals are constructed, but 
    * no streams are opened until open() is called.
@@ -421,21 +441,8 @@ assert isOpenForWrite() :
       // wait if an automatic sync is scheduled
       waitIfAutoSyncScheduled();
       
-      long start = beginTransaction();
-      op.setTransactionId(txid);
-
-      try {
-        editLogStream.write(op);
-      } catch (IOException ex) {
-        // All journals failed, it is handled in logSync.
-      } finally {
-        op.reset();
-      }
-
-      endTransaction(start);
-      
       // check if it is time to schedule an automatic sync
-      if (!shouldForceSync()) {
+      if (!doEditTransaction(op)) {
         return;
       }
       isAutoSyncScheduled = true;
@@ -445,6 +452,34 @@ assert isOpenForWrite() :
     logSync();
   }
 
+  /**
+   * Assign the next transaction id to the op and write it to the current
+   * segment.
+   * @return true if the buffered edits should be synced now
+   */
+  synchronized boolean doEditTransaction(final FSEditLogOp op) {
+    long start = beginTransaction();
+    op.setTransactionId(txid);
+
+    try {
+      editLogStream.write(op);
+    } catch (IOException ex) {
+      // All journals failed, it is handled in logSync.
+    } finally {
+      op.reset();
+    }
+
+    endTransaction(start);
+    return shouldForceSync();
+  }
+
+  /**
+   * @return the cache ops are taken from when they are logged
+   */
+  OpInstanceCache newOpInstanceCache() {
+    return new OpInstanceCache();
+  }
+
   /**
    * Wait if an automatic sync is scheduled
    */
@@ -507,6 +542,14 @@ private void endTransaction(long start) {
   public synchronized long getLastWrittenTxId() {
     return txid;
   }
+
+  /**
+   * Like {@link #getLastWrittenTxId()}, but without taking the log's monitor,
+   * for hot paths which must not contend with the writers of the log.
+   */
+  long getLastWrittenTxIdWithoutLock() {
+    return txid;
+  }
   
   /**
    * @return the first transaction ID in the current log segment
@@ -539,13 +582,8 @@ synchronized void setNextTxId(long nextTxId) {
    * else more operations can start writing while this is in progress.
    */
   void logSyncAll() {
-    // Record the most recent transaction ID as our own id
-    synchronized (this) {
-      TransactionId id = myTransactionId.get();
-      id.txid = txid;
-    }
-    // Then make sure we're synced up to this point
-    logSync();
+    // Make sure we're synced up to the most recent transaction ID.
+    logSync(getLastWrittenTxId());
   }
   
   /**
@@ -577,11 +615,16 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
+    logSync(myTransactionId.get().txid);
+  }
+
+  /**
+   * Sync all modifications up to the given transaction ID.
+   * @see #logSync()
+   */
+  protected void logSync(long mytxid) {
+    long syncStart = 0;
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1157,6 +1200,28 @@ void logRemoveXAttrs(String src, List<XAttr> xAttrs, boolean toLogRpcIds) {
     logEdit(op);
   }
 
+  /**
+   * Add the results of a batchNamespaceOps call to the edit log. It is
+   * logged after the edits of the operations in the batch.
+   */
+  void logBatchNamespaceOpsResult(List<BatchedNamespaceOpResult> results,
+      boolean toLogRpcIds) {
+    final List<BatchNamespaceOpsResultOp.OpResult> opResults =
+        new ArrayList<BatchNamespaceOpsResultOp.OpResult>(results.size());
+    for (BatchedNamespaceOpResult r : results) {
+      final IOException e = r.getException();
+      opResults.add(new BatchNamespaceOpsResultOp.OpResult(r.getResult(),
+          r.getFileStatus() == null ? 0 : r.getFileStatus().getFileId(),
+          e == null ? null : e.getClass().getName(),
+          e == null ? null : e.getMessage()));
+    }
+    final BatchNamespaceOpsResultOp op =
+        BatchNamespaceOpsResultOp.getInstance();
+    op.results = opResults;
+    logRpcIds(op, toLogRpcIds);
+    logEdit(op);
+  }
+
   /**
    * Get all the journals this edit log is currently operating on.
    */
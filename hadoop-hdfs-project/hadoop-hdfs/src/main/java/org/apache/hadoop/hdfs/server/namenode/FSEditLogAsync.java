@@ -0,0 +1,376 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.OpInstanceCache;
+import org.apache.hadoop.ipc.Server;
+import org.apache.hadoop.util.ExitUtil;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An edit log which decouples the RPC handlers from the journals.
+ *
+ * Handlers only enqueue their ops. A single sync thread assigns transaction
+ * ids, writes the ops into the double buffer, and syncs whenever the queue
+ * runs dry or the buffer asks for it, so that all the edits which arrived
+ * during one journal flush are made durable by the next one.
+ * {@link #logSync()} waits until the last op enqueued by the calling thread
+ * is durable. RPC handlers do not wait at all: they postpone the response
+ * of their call instead, which is sent once the edit is durable, and go
+ * on serving other calls.
+ *
+ * Segment boundaries are logged while holding the edit log monitor, which
+ * the sync thread needs as well. Such edits are written inline, once the
+ * queue is drained, so that transaction ids stay in enqueue order.
+ */
+class FSEditLogAsync extends FSEditLog implements Runnable {
+  static final Log LOG = LogFactory.getLog(FSEditLogAsync.class);
+
+  // the last edit enqueued by the current thread.
+  private static final ThreadLocal<Edit> THREAD_EDIT = new ThreadLocal<Edit>();
+
+  // requires concurrent access from caller threads and syncing thread.
+  private final BlockingQueue<Edit> editPendingQ;
+
+  // only accessed by syncing thread so no synchronization required.
+  // queue is unbounded because it's effectively limited by the size
+  // of the edit log buffer - ie. a sync will eventually be forced.
+  private final ArrayDeque<Edit> syncWaitQ = new ArrayDeque<Edit>();
+
+  // edits are numbered in queue order, so that a caller can wait for the
+  // edits enqueued ahead of it without waiting for the ones behind it.
+  private final Object enqueueLock = new Object();
+  private volatile long lastEnqueuedSeq = 0;
+  // only updated by the syncing thread, while holding the monitor.
+  private volatile long lastWrittenSeq = 0;
+
+  private Thread syncThread;
+
+  FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
+    super(conf, storage, editsDirs);
+    int size = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE_DEFAULT);
+    Preconditions.checkArgument(size > 0,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_PENDING_QUEUE_SIZE
+            + " must be positive");
+    editPendingQ = new ArrayBlockingQueue<Edit>(size);
+  }
+
+  @Override
+  OpInstanceCache newOpInstanceCache() {
+    // ops are handed to the sync thread, so they cannot be reused.
+    return new OpInstanceCache(false);
+  }
+
+  private boolean isSyncThread() {
+    return syncThread == Thread.currentThread();
+  }
+
+  private synchronized void startSyncThread() {
+    if (syncThread == null) {
+      syncThread = new Thread(this, getClass().getSimpleName());
+      syncThread.setDaemon(true);
+      syncThread.start();
+    }
+  }
+
+  private void stopSyncThread() {
+    Thread t;
+    synchronized (this) {
+      t = syncThread;
+      syncThread = null;
+    }
+    if (t != null) {
+      t.interrupt();
+      try {
+        t.join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  void openForWrite() throws IOException {
+    startSyncThread();
+    try {
+      super.openForWrite();
+    } catch (IOException ioe) {
+      stopSyncThread();
+      throw ioe;
+    }
+  }
+
+  @Override
+  void close() {
+    super.close();
+    stopSyncThread();
+  }
+
+  @Override
+  void logEdit(final FSEditLogOp op) {
+    if (Thread.holdsLock(this) || isSyncThread()) {
+      synchronized (this) {
+        waitForPendingEdits();
+        THREAD_EDIT.remove();
+        super.logEdit(op);
+      }
+      return;
+    }
+    Edit edit = newEdit(op);
+    THREAD_EDIT.set(edit);
+    enqueueEdit(edit);
+  }
+
+  private static Edit newEdit(FSEditLogOp op) {
+    Server.Call rpcCall = Server.getCurCall().get();
+    return rpcCall != null ? new RpcEdit(op, rpcCall) : new Edit(op);
+  }
+
+  @Override
+  public void logSync() {
+    Edit edit = THREAD_EDIT.get();
+    try {
+      // an edit left behind by an earlier call of an RPC handler says
+      // nothing about the edits of the current call.
+      if (edit == null || !edit.isOfCurrentCall()) {
+        edit = null;
+        super.logSync();
+      }
+    } finally {
+      THREAD_EDIT.remove();
+    }
+    if (edit != null) {
+      edit.logSyncWait();
+    }
+  }
+
+  @Override
+  void logSyncAll() {
+    if (Thread.holdsLock(this) || isSyncThread()) {
+      synchronized (this) {
+        waitForPendingEdits();
+      }
+    } else {
+      // doesn't log anything, only waits for the edits ahead of it.
+      Edit edit = new Edit(null);
+      enqueueEdit(edit);
+      edit.logSyncWait();
+    }
+    super.logSyncAll();
+  }
+
+  /**
+   * Wait until the sync thread has written the edits enqueued so far into
+   * the buffer. Edits enqueued meanwhile are not waited for, so that a
+   * steady stream of edits cannot hold up the caller. Waiting on the
+   * monitor releases it for the sync thread.
+   */
+  private void waitForPendingEdits() {
+    assert Thread.holdsLock(this);
+    final long seq = lastEnqueuedSeq;
+    boolean interrupted = false;
+    while (lastWrittenSeq < seq && syncThread != null && !isSyncThread()) {
+      try {
+        wait(1000);
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void enqueueEdit(Edit edit) {
+    try {
+      // numbering and enqueueing together keeps the numbers in queue order.
+      synchronized (enqueueLock) {
+        edit.seq = lastEnqueuedSeq + 1;
+        if (!editPendingQ.offer(edit)) {
+          while (!editPendingQ.offer(edit, 1, TimeUnit.SECONDS)) {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Edit log pending queue is full, waiting for "
+                  + syncThread);
+            }
+          }
+        }
+        lastEnqueuedSeq = edit.seq;
+      }
+    } catch (Throwable t) {
+      ExitUtil.terminate(1, t);
+    }
+  }
+
+  private Edit dequeueEdit() throws InterruptedException {
+    // only block for the next edit if there are no pending syncs.
+    return syncWaitQ.isEmpty() ? editPendingQ.take() : editPendingQ.poll();
+  }
+
+  /** Write the edit, signalling the callers waiting for it. */
+  private synchronized boolean writeEdit(Edit edit) {
+    try {
+      return edit.op != null && doEditTransaction(edit.op);
+    } finally {
+      lastWrittenSeq = edit.seq;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (true) {
+        boolean doSync;
+        Edit edit = dequeueEdit();
+        if (edit != null) {
+          // sync if requested by the edit log stream.
+          doSync = writeEdit(edit);
+          syncWaitQ.add(edit);
+        } else {
+          // sync when the queue runs dry, but edits are waiting for a sync.
+          doSync = !syncWaitQ.isEmpty();
+        }
+        if (doSync) {
+          // normally edit log exceptions cause the NN to terminate, but tests
+          // relying on ExitUtil.terminate need to see the exception.
+          RuntimeException syncEx = null;
+          try {
+            logSync(getLastWrittenTxId());
+          } catch (RuntimeException ex) {
+            syncEx = ex;
+          }
+          while ((edit = syncWaitQ.poll()) != null) {
+            edit.logSyncNotify(syncEx);
+          }
+        }
+      }
+    } catch (InterruptedException ie) {
+      LOG.info(Thread.currentThread().getName() + " was interrupted, exiting");
+    } catch (Throwable t) {
+      ExitUtil.terminate(1, t);
+    }
+  }
+
+  /** An op waiting to be written and synced by the sync thread. */
+  private static class Edit {
+    final FSEditLogOp op;
+    // position in the pending queue, set when enqueued.
+    long seq;
+    private boolean synced;
+    private RuntimeException syncEx;
+
+    Edit(FSEditLogOp op) {
+      this.op = op;
+    }
+
+    /** @return true if the edit belongs to the call of the current thread. */
+    boolean isOfCurrentCall() {
+      return true;
+    }
+
+    synchronized void logSyncNotify(RuntimeException ex) {
+      synced = true;
+      syncEx = ex;
+      notifyAll();
+    }
+
+    synchronized void logSyncWait() {
+      boolean interrupted = false;
+      while (!synced) {
+        try {
+          wait(1000);
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      // only needed by tests that rely on ExitUtil.terminate() since
+      // normally exceptions terminate the NN.
+      if (syncEx != null) {
+        syncEx.fillInStackTrace();
+        throw syncEx;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "[" + (op == null ? "sync" : op.opCode) + "]";
+    }
+  }
+
+  /**
+   * An op logged by an RPC handler. The response of the call is postponed
+   * until the op is durable, so the handler does not wait for the sync.
+   */
+  private static class RpcEdit extends Edit {
+    private final Server.Call call;
+
+    RpcEdit(FSEditLogOp op, Server.Call call) {
+      super(op);
+      this.call = call;
+      call.postponeResponse();
+    }
+
+    @Override
+    boolean isOfCurrentCall() {
+      return call == Server.getCurCall().get();
+    }
+
+    @Override
+    void logSyncWait() {
+      // the response is sent by logSyncNotify, free up the handler.
+    }
+
+    @Override
+    void logSyncNotify(RuntimeException ex) {
+      try {
+        if (ex == null) {
+          call.sendResponse();
+        } else {
+          call.abortResponse(ex);
+        }
+      } catch (Exception e) {
+        // the client will time out or retry.
+        LOG.warn("Failed to send the response of " + call, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return super.toString() + " for " + call;
+    }
+  }
+}
@@ -21,9 +21,11 @@
 import static org.apache.hadoop.hdfs.server.namenode.FSImageFormat.renameReservedPathsOnUpgrade;
 import static org.apache.hadoop.util.Time.monotonicNow;
 
+import java.io.FileNotFoundException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.EnumSet;
@@ -37,6 +39,7 @@
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -56,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AllocateBlockIdOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AllowSnapshotOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.AppendOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.BatchNamespaceOpsResultOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.BlockListUpdatingOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.CancelDelegationTokenOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.ClearNSQuotaOp;
@@ -100,6 +104,7 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.util.Holder;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.util.ChunkedArrayList;
 
 import com.google.common.base.Joiner;
@@ -919,12 +924,58 @@ fsDir, renameReservedPathsOnUpgrade(timesOp.path, logVersion),
           setStoragePolicyOp.policyId);
       break;
     }
+    case OP_BATCH_NAMESPACE_OPS_RESULT: {
+      BatchNamespaceOpsResultOp batchResultOp = (BatchNamespaceOpsResultOp) op;
+      // The edits of the batch itself have already been applied.
+      if (toAddRetryCache) {
+        fsNamesys.addCacheEntryWithPayload(batchResultOp.rpcClientId,
+            batchResultOp.rpcCallId,
+            getBatchNamespaceOpsResults(fsDir, batchResultOp.results));
+      }
+      break;
+    }
     default:
       throw new IOException("Invalid operation read " + op.opCode);
     }
     return inodeId;
   }
   
+  /**
+   * Rebuild the results a batchNamespaceOps call returned from its edit. The
+   * status of a created file is taken from the file as the batch left it.
+   */
+  private static List<BatchedNamespaceOpResult> getBatchNamespaceOpsResults(
+      FSDirectory fsDir, List<BatchNamespaceOpsResultOp.OpResult> opResults)
+      throws IOException {
+    final List<BatchedNamespaceOpResult> results =
+        new ArrayList<BatchedNamespaceOpResult>(opResults.size());
+    for (BatchNamespaceOpsResultOp.OpResult r : opResults) {
+      if (!r.isSuccess()) {
+        results.add(BatchedNamespaceOpResult.failure(new RemoteException(
+            r.exceptionClassName, r.exceptionMessage)
+            .unwrapRemoteException()));
+        continue;
+      }
+      HdfsFileStatus stat = null;
+      if (r.fileId != 0) {
+        final INode inode = fsDir.getInode(r.fileId);
+        if (inode == null || !inode.isFile()) {
+          results.add(BatchedNamespaceOpResult.failure(
+              new FileNotFoundException("File with id " + r.fileId
+                  + " created by the batch no longer exists")));
+          continue;
+        }
+        final INodesInPath iip = INodesInPath.fromINode(inode);
+        stat = FSDirStatAndListingOp.createFileStatus(fsDir, iip.getPath(),
+            HdfsFileStatus.EMPTY_NAME, inode,
+            BlockStoragePolicySuite.ID_UNSPECIFIED, Snapshot.CURRENT_STATE_ID,
+            false, iip);
+      }
+      results.add(BatchedNamespaceOpResult.success(r.result, stat));
+    }
+    return results;
+  }
+
   private static String formatEditLogReplayError(EditLogInputStream in,
       long recentOpcodeOffsets[], long txid) {
     StringBuilder sb = new StringBuilder();
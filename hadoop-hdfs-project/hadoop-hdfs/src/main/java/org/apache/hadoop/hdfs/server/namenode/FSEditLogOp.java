@@ -24,6 +24,7 @@
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_ADD_CACHE_POOL;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_ALLOCATE_BLOCK_ID;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_ALLOW_SNAPSHOT;
+import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_BATCH_NAMESPACE_OPS_RESULT;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_CANCEL_DELEGATION_TOKEN;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_CLEAR_NS_QUOTA;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_CLOSE;
@@ -159,66 +160,134 @@ final void reset() {
   final public static class OpInstanceCache {
     private final EnumMap<FSEditLogOpCodes, FSEditLogOp> inst =
         new EnumMap<FSEditLogOpCodes, FSEditLogOp>(FSEditLogOpCodes.class);
-    
+    private final boolean useCache;
+
     public OpInstanceCache() {
-      inst.put(OP_ADD, new AddOp());
-      inst.put(OP_CLOSE, new CloseOp());
-      inst.put(OP_SET_REPLICATION, new SetReplicationOp());
-      inst.put(OP_CONCAT_DELETE, new ConcatDeleteOp());
-      inst.put(OP_RENAME_OLD, new RenameOldOp());
-      inst.put(OP_DELETE, new DeleteOp());
-      inst.put(OP_MKDIR, new MkdirOp());
-      inst.put(OP_SET_GENSTAMP_V1, new SetGenstampV1Op());
-      inst.put(OP_SET_PERMISSIONS, new SetPermissionsOp());
-      inst.put(OP_SET_OWNER, new SetOwnerOp());
-      inst.put(OP_SET_NS_QUOTA, new SetNSQuotaOp());
-      inst.put(OP_CLEAR_NS_QUOTA, new ClearNSQuotaOp());
-      inst.put(OP_SET_QUOTA, new SetQuotaOp());
-      inst.put(OP_TIMES, new TimesOp());
-      inst.put(OP_SYMLINK, new SymlinkOp());
-      inst.put(OP_RENAME, new RenameOp());
-      inst.put(OP_REASSIGN_LEASE, new ReassignLeaseOp());
-      inst.put(OP_GET_DELEGATION_TOKEN, new GetDelegationTokenOp());
-      inst.put(OP_RENEW_DELEGATION_TOKEN, new RenewDelegationTokenOp());
-      inst.put(OP_CANCEL_DELEGATION_TOKEN, new CancelDelegationTokenOp());
-      inst.put(OP_UPDATE_MASTER_KEY, new UpdateMasterKeyOp());
-      inst.put(OP_START_LOG_SEGMENT, new LogSegmentOp(OP_START_LOG_SEGMENT));
-      inst.put(OP_END_LOG_SEGMENT, new LogSegmentOp(OP_END_LOG_SEGMENT));
-      inst.put(OP_UPDATE_BLOCKS, new UpdateBlocksOp());
-      inst.put(OP_TRUNCATE, new TruncateOp());
-
-      inst.put(OP_ALLOW_SNAPSHOT, new AllowSnapshotOp());
-      inst.put(OP_DISALLOW_SNAPSHOT, new DisallowSnapshotOp());
-      inst.put(OP_CREATE_SNAPSHOT, new CreateSnapshotOp());
-      inst.put(OP_DELETE_SNAPSHOT, new DeleteSnapshotOp());
-      inst.put(OP_RENAME_SNAPSHOT, new RenameSnapshotOp());
-      inst.put(OP_SET_GENSTAMP_V2, new SetGenstampV2Op());
-      inst.put(OP_ALLOCATE_BLOCK_ID, new AllocateBlockIdOp());
-      inst.put(OP_ADD_BLOCK, new AddBlockOp());
-      inst.put(OP_ADD_CACHE_DIRECTIVE,
-          new AddCacheDirectiveInfoOp());
-      inst.put(OP_MODIFY_CACHE_DIRECTIVE,
-          new ModifyCacheDirectiveInfoOp());
-      inst.put(OP_REMOVE_CACHE_DIRECTIVE,
-          new RemoveCacheDirectiveInfoOp());
-      inst.put(OP_ADD_CACHE_POOL, new AddCachePoolOp());
-      inst.put(OP_MODIFY_CACHE_POOL, new ModifyCachePoolOp());
-      inst.put(OP_REMOVE_CACHE_POOL, new RemoveCachePoolOp());
-
-      inst.put(OP_SET_ACL, new SetAclOp());
-      inst.put(OP_ROLLING_UPGRADE_START, new RollingUpgradeOp(
-          OP_ROLLING_UPGRADE_START, "start"));
-      inst.put(OP_ROLLING_UPGRADE_FINALIZE, new RollingUpgradeOp(
-          OP_ROLLING_UPGRADE_FINALIZE, "finalize"));
-      inst.put(OP_SET_XATTR, new SetXAttrOp());
-      inst.put(OP_REMOVE_XATTR, new RemoveXAttrOp());
-      inst.put(OP_SET_STORAGE_POLICY, new SetStoragePolicyOp());
-      inst.put(OP_APPEND, new AppendOp());
-      inst.put(OP_SET_QUOTA_BY_STORAGETYPE, new SetQuotaByStorageTypeOp());
+      this(true);
+    }
+
+    /**
+     * @param useCache if false, every call to {@link #get} returns a new
+     *        instance, so that ops can be handed to another thread before
+     *        they are written.
+     */
+    public OpInstanceCache(boolean useCache) {
+      this.useCache = useCache;
+      if (useCache) {
+        for (FSEditLogOpCodes opcode : FSEditLogOpCodes.values()) {
+          FSEditLogOp op = newInstance(opcode);
+          if (op != null) {
+            inst.put(opcode, op);
+          }
+        }
+      }
     }
     
     public FSEditLogOp get(FSEditLogOpCodes opcode) {
-      return inst.get(opcode);
+      return useCache ? inst.get(opcode) : newInstance(opcode);
+    }
+
+    private static FSEditLogOp newInstance(FSEditLogOpCodes opcode) {
+      switch (opcode) {
+      case OP_ADD:
+        return new AddOp();
+      case OP_CLOSE:
+        return new CloseOp();
+      case OP_SET_REPLICATION:
+        return new SetReplicationOp();
+      case OP_CONCAT_DELETE:
+        return new ConcatDeleteOp();
+      case OP_RENAME_OLD:
+        return new RenameOldOp();
+      case OP_DELETE:
+        return new DeleteOp();
+      case OP_MKDIR:
+        return new MkdirOp();
+      case OP_SET_GENSTAMP_V1:
+        return new SetGenstampV1Op();
+      case OP_SET_PERMISSIONS:
+        return new SetPermissionsOp();
+      case OP_SET_OWNER:
+        return new SetOwnerOp();
+      case OP_SET_NS_QUOTA:
+        return new SetNSQuotaOp();
+      case OP_CLEAR_NS_QUOTA:
+        return new ClearNSQuotaOp();
+      case OP_SET_QUOTA:
+        return new SetQuotaOp();
+      case OP_TIMES:
+        return new TimesOp();
+      case OP_SYMLINK:
+        return new SymlinkOp();
+      case OP_RENAME:
+        return new RenameOp();
+      case OP_REASSIGN_LEASE:
+        return new ReassignLeaseOp();
+      case OP_GET_DELEGATION_TOKEN:
+        return new GetDelegationTokenOp();
+      case OP_RENEW_DELEGATION_TOKEN:
+        return new RenewDelegationTokenOp();
+      case OP_CANCEL_DELEGATION_TOKEN:
+        return new CancelDelegationTokenOp();
+      case OP_UPDATE_MASTER_KEY:
+        return new UpdateMasterKeyOp();
+      case OP_START_LOG_SEGMENT:
+        return new LogSegmentOp(OP_START_LOG_SEGMENT);
+      case OP_END_LOG_SEGMENT:
+        return new LogSegmentOp(OP_END_LOG_SEGMENT);
+      case OP_UPDATE_BLOCKS:
+        return new UpdateBlocksOp();
+      case OP_TRUNCATE:
+        return new TruncateOp();
+      case OP_ALLOW_SNAPSHOT:
+        return new AllowSnapshotOp();
+      case OP_DISALLOW_SNAPSHOT:
+        return new DisallowSnapshotOp();
+      case OP_CREATE_SNAPSHOT:
+        return new CreateSnapshotOp();
+      case OP_DELETE_SNAPSHOT:
+        return new DeleteSnapshotOp();
+      case OP_RENAME_SNAPSHOT:
+        return new RenameSnapshotOp();
+      case OP_SET_GENSTAMP_V2:
+        return new SetGenstampV2Op();
+      case OP_ALLOCATE_BLOCK_ID:
+        return new AllocateBlockIdOp();
+      case OP_ADD_BLOCK:
+        return new AddBlockOp();
+      case OP_ADD_CACHE_DIRECTIVE:
+        return new AddCacheDirectiveInfoOp();
+      case OP_MODIFY_CACHE_DIRECTIVE:
+        return new ModifyCacheDirectiveInfoOp();
+      case OP_REMOVE_CACHE_DIRECTIVE:
+        return new RemoveCacheDirectiveInfoOp();
+      case OP_ADD_CACHE_POOL:
+        return new AddCachePoolOp();
+      case OP_MODIFY_CACHE_POOL:
+        return new ModifyCachePoolOp();
+      case OP_REMOVE_CACHE_POOL:
+        return new RemoveCachePoolOp();
+      case OP_SET_ACL:
+        return new SetAclOp();
+      case OP_ROLLING_UPGRADE_START:
+        return new RollingUpgradeOp(OP_ROLLING_UPGRADE_START, "start");
+      case OP_ROLLING_UPGRADE_FINALIZE:
+        return new RollingUpgradeOp(OP_ROLLING_UPGRADE_FINALIZE, "finalize");
+      case OP_SET_XATTR:
+        return new SetXAttrOp();
+      case OP_REMOVE_XATTR:
+        return new RemoveXAttrOp();
+      case OP_SET_STORAGE_POLICY:
+        return new SetStoragePolicyOp();
+      case OP_APPEND:
+        return new AppendOp();
+      case OP_SET_QUOTA_BY_STORAGETYPE:
+        return new SetQuotaByStorageTypeOp();
+      case OP_BATCH_NAMESPACE_OPS_RESULT:
+        return new BatchNamespaceOpsResultOp();
+      default:
+        return null;
+      }
     }
   }
 
@@ -4478,6 +4547,134 @@ void fromXml(Stanza st) throws InvalidXmlException {
     }
   }  
 
+  /**
+   * Records the results of a batchNamespaceOps call, so that a NameNode
+   * replaying the edits of the batch can answer a retry of the call with
+   * the results the client was given. The edits of the operations in the
+   * batch are logged before it, without RPC ids.
+   */
+  static class BatchNamespaceOpsResultOp extends FSEditLogOp {
+    /** The outcome of one operation of the batch. */
+    static class OpResult {
+      final boolean result;
+      /** The id of the file created by a CREATE, otherwise 0. */
+      final long fileId;
+      /** The exception class of a failed operation, otherwise null. */
+      final String exceptionClassName;
+      final String exceptionMessage;
+
+      OpResult(boolean result, long fileId, String exceptionClassName,
+          String exceptionMessage) {
+        this.result = result;
+        this.fileId = fileId;
+        this.exceptionClassName = exceptionClassName;
+        this.exceptionMessage = exceptionMessage;
+      }
+
+      boolean isSuccess() {
+        return exceptionClassName == null;
+      }
+    }
+
+    List<OpResult> results;
+
+    private BatchNamespaceOpsResultOp() {
+      super(OP_BATCH_NAMESPACE_OPS_RESULT);
+    }
+
+    static BatchNamespaceOpsResultOp getInstance() {
+      return new BatchNamespaceOpsResultOp();
+    }
+
+    @Override
+    void resetSubFields() {
+      results = null;
+    }
+
+    @Override
+    public void writeFields(DataOutputStream out) throws IOException {
+      FSImageSerialization.writeInt(results.size(), out);
+      for (OpResult r : results) {
+        FSImageSerialization.writeBoolean(r.result, out);
+        FSImageSerialization.writeLong(r.fileId, out);
+        // An empty class name marks a successful operation.
+        FSImageSerialization.writeString(
+            r.isSuccess() ? "" : r.exceptionClassName, out);
+        FSImageSerialization.writeString(
+            r.exceptionMessage == null ? "" : r.exceptionMessage, out);
+      }
+      writeRpcIds(rpcClientId, rpcCallId, out);
+    }
+
+    @Override
+    void readFields(DataInputStream in, int logVersion) throws IOException {
+      final int size = FSImageSerialization.readInt(in);
+      if (size < 0) {
+        throw new IOException("Invalid number of batch results: " + size);
+      }
+      results = new ArrayList<OpResult>(size);
+      for (int i = 0; i < size; i++) {
+        final boolean result = FSImageSerialization.readBoolean(in);
+        final long fileId = FSImageSerialization.readLong(in);
+        final String className = FSImageSerialization.readString(in);
+        final String message = FSImageSerialization.readString(in);
+        results.add(new OpResult(result, fileId,
+            className.isEmpty() ? null : className,
+            message.isEmpty() ? null : message));
+      }
+      readRpcIds(in, logVersion);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("BatchNamespaceOpsResultOp [results=");
+      builder.append(results == null ? 0 : results.size());
+      appendRpcIdsToString(builder, rpcClientId, rpcCallId);
+      builder.append(", opCode=");
+      builder.append(opCode);
+      builder.append(", txid=");
+      builder.append(txid);
+      builder.append("]");
+      return builder.toString();
+    }
+
+    @Override
+    protected void toXml(ContentHandler contentHandler) throws SAXException {
+      for (OpResult r : results) {
+        contentHandler.startElement("", "", "RESULT", new AttributesImpl());
+        XMLUtils.addSaxString(contentHandler, "VALUE",
+            Boolean.toString(r.result));
+        XMLUtils.addSaxString(contentHandler, "FILEID",
+            Long.toString(r.fileId));
+        if (!r.isSuccess()) {
+          XMLUtils.addSaxString(contentHandler, "EXCEPTION",
+              r.exceptionClassName);
+        }
+        if (r.exceptionMessage != null) {
+          XMLUtils.addSaxString(contentHandler, "MESSAGE",
+              r.exceptionMessage);
+        }
+        contentHandler.endElement("", "", "RESULT");
+      }
+      appendRpcIdsToXml(contentHandler, rpcClientId, rpcCallId);
+    }
+
+    @Override
+    void fromXml(Stanza st) throws InvalidXmlException {
+      results = new ArrayList<OpResult>();
+      if (st.hasChildren("RESULT")) {
+        for (Stanza r : st.getChildren("RESULT")) {
+          results.add(new OpResult(
+              Boolean.parseBoolean(r.getValue("VALUE")),
+              Long.parseLong(r.getValue("FILEID")),
+              r.getValueOrNull("EXCEPTION"), r.getValueOrNull("MESSAGE")));
+        }
+      }
+      readRpcIdsFromXml(st);
+    }
+  }
+
   /**
    * Class for writing editlog ops
    */
@@ -143,7 +143,7 @@ protected FSImage(Configuration conf,
       storage.setRestoreFailedStorage(true);
     }
 
-    this.editLog = new FSEditLog(conf, storage, editsDirs);
+    this.editLog = FSEditLog.newInstance(conf, storage, editsDirs);
     
     archivalManager = new NNStorageRetentionManager(conf, storage, editLog);
   }
@@ -877,6 +877,8 @@ static void updateCountForQuota(BlockStoragePolicySuite bsps,
 
   private static void updateCountForQuotaRecursively(BlockStoragePolicySuite bsps,
       byte blockStoragePolicyId, INodeDirectory dir, QuotaCounts counts) {
+    final QuotaCounts parentCounts =
+        new QuotaCounts.Builder().quotaCount(counts).build();
     final long parentNamespace = counts.getNameSpace();
     final long parentStoragespace = counts.getStorageSpace();
     final EnumCounters<StorageType> parentTypeSpaces = counts.getTypeSpaces();
@@ -927,8 +929,10 @@ private static void updateCountForQuotaRecursively(BlockStoragePolicySuite bsps,
         }
       }
 
-      dir.getDirectoryWithQuotaFeature().setSpaceConsumed(namespace, ssConsumed,
-          typeSpaces);
+      final QuotaCounts consumed =
+          new QuotaCounts.Builder().quotaCount(counts).build();
+      consumed.subtract(parentCounts);
+      dir.getDirectoryWithQuotaFeature().setSpaceConsumed(consumed);
     }
   }
 
@@ -987,7 +991,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(
+        context, conf, dstType != NameNodeFile.IMAGE_ROLLBACK);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
@@ -1467,6 +1472,15 @@ public long getLastAppliedOrWrittenTxId() {
         editLog != null ? editLog.getLastWrittenTxId() : 0);
   }
 
+  /**
+   * Like {@link #getLastAppliedOrWrittenTxId()}, but without taking any
+   * lock; the result may be slightly out of date.
+   */
+  long getLastAppliedOrWrittenTxIdWithoutLock() {
+    return Math.max(lastAppliedTxId,
+        editLog != null ? editLog.getLastWrittenTxIdWithoutLock() : 0);
+  }
+
   public void updateLastAppliedTxIdFromWritten() {
     this.lastAppliedTxId = editLog.getLastWrittenTxId();
   }
@@ -18,13 +18,21 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,6 +55,7 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
 import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.LoaderContext;
 import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SaverContext;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FilesUnderConstructionSection.FileUnderConstructionEntry;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDirectorySection;
@@ -95,7 +104,39 @@ public final class FSImageFormatPBINode {
 
   private static final XAttr.NameSpace[] XATTR_NAMESPACE_VALUES =
       XAttr.NameSpace.values();
-  
+
+  /**
+   * Wait for all the tasks loading or saving sub-sections.
+   * @return the results of the tasks, in order.
+   * @throws IOException the first failure of the tasks.
+   */
+  private static <T> List<T> waitFor(List<Future<T>> futures)
+      throws IOException {
+    final List<T> results = new ArrayList<T>(futures.size());
+    IOException failure = null;
+    for (Future<T> f : futures) {
+      try {
+        results.add(f.get());
+      } catch (InterruptedException e) {
+        for (Future<T> g : futures) {
+          g.cancel(true);
+        }
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while waiting for the image sub-sections")
+            .initCause(e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof IOException ?
+              (IOException) e.getCause() : new IOException(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return results;
+  }
+
 
   public final static class Loader {
     public static PermissionStatus loadPermission(long id,
@@ -217,6 +258,12 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       }
     }
 
+    /**
+     * The number of inodes a sub-section loader adds to the shared maps of
+     * the namesystem at once.
+     */
+    private static final int LOADER_BATCH_SIZE = 1000;
+
     private final FSDirectory dir;
     private final FSNamesystem fsn;
     private final FSImageFormatProtobuf.Loader parent;
@@ -227,9 +274,15 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       this.parent = parent;
     }
 
+    /**
+     * Load the INodeDirectory section, or one of its sub-sections. The
+     * sub-sections may be loaded concurrently, as each directory has a
+     * single entry.
+     */
     void loadINodeDirectorySection(InputStream in) throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      final ArrayList<INode> added = new ArrayList<INode>(LOADER_BATCH_SIZE);
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -240,20 +293,51 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
         INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
         for (long id : e.getChildrenList()) {
           INode child = dir.getInode(id);
-          addToParent(p, child);
+          if (addToParent(p, child)) {
+            added.add(child);
+          }
         }
         for (int refId : e.getRefChildrenList()) {
           INodeReference ref = refList.get(refId);
-          addToParent(p, ref);
+          if (addToParent(p, ref)) {
+            added.add(ref);
+          }
         }
+        if (added.size() >= LOADER_BATCH_SIZE) {
+          addToCacheAndBlockMap(added);
+          added.clear();
+        }
+      }
+      addToCacheAndBlockMap(added);
+    }
+
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final FileSummary.Section s : sections) {
+        futures.add(service.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            InputStream in = parent.getInputStreamForSection(s,
+                compressionCodec);
+            try {
+              loadINodeDirectorySection(in);
+            } finally {
+              in.close();
+            }
+            return null;
+          }
+        }));
       }
+      waitFor(futures);
     }
 
     void loadINodeSection(InputStream in) throws IOException {
-      INodeSection s = INodeSection.parseDelimitedFrom(in);
-      fsn.dir.resetLastInodeId(s.getLastInodeId());
-      LOG.info("Loading " + s.getNumInodes() + " INodes.");
-      for (int i = 0; i < s.getNumInodes(); ++i) {
+      final long numInodes = loadINodeSectionHeader(in);
+      for (long i = 0; i < numInodes; ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
         if (p.getId() == INodeId.ROOT_INODE_ID) {
           loadRootINode(p);
@@ -264,6 +348,102 @@ void loadINodeSection(InputStream in) throws IOException {
       }
     }
 
+    /** @return the number of inodes in the INode section. */
+    private long loadINodeSectionHeader(InputStream in) throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.dir.resetLastInodeId(s.getLastInodeId());
+      LOG.info("Loading " + s.getNumInodes() + " INodes.");
+      return s.getNumInodes();
+    }
+
+    /**
+     * Load the inodes of an INode sub-section, after its header if it is
+     * the first one.
+     * @return the number of inodes loaded.
+     */
+    private int loadINodesInSubSection(InputStream in) throws IOException {
+      final ArrayList<INode> loaded = new ArrayList<INode>(LOADER_BATCH_SIZE);
+      int count = 0;
+      while (true) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (p == null) {
+          break;
+        }
+        if (p.getId() == INodeId.ROOT_INODE_ID) {
+          synchronized (this) {
+            loadRootINode(p);
+          }
+        } else {
+          loaded.add(loadINode(p));
+          if (loaded.size() >= LOADER_BATCH_SIZE) {
+            addToInodeMap(loaded);
+            loaded.clear();
+          }
+        }
+        count++;
+      }
+      addToInodeMap(loaded);
+      return count;
+    }
+
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, final String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      // the header of the section is at the start of the first sub-section.
+      final InputStream first = parent.getInputStreamForSection(
+          sections.get(0), compressionCodec);
+      final long numInodes;
+      try {
+        numInodes = loadINodeSectionHeader(first);
+      } catch (IOException e) {
+        first.close();
+        throw e;
+      }
+      final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < sections.size(); i++) {
+        final FileSummary.Section s = sections.get(i);
+        final boolean isFirst = i == 0;
+        futures.add(service.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            InputStream in = isFirst ? first :
+                parent.getInputStreamForSection(s, compressionCodec);
+            try {
+              return loadINodesInSubSection(in);
+            } finally {
+              in.close();
+            }
+          }
+        }));
+      }
+      long loaded = 0;
+      for (int n : waitFor(futures)) {
+        loaded += n;
+      }
+      if (loaded != numInodes) {
+        throw new IOException("Expected to load " + numInodes
+            + " INodes, but loaded " + loaded + ". The image may be corrupt.");
+      }
+    }
+
+    private synchronized void addToInodeMap(List<INode> inodes) {
+      for (INode n : inodes) {
+        dir.addToInodeMap(n);
+      }
+    }
+
+    /** Update the name cache and the blocks map for the added children. */
+    private synchronized void addToCacheAndBlockMap(List<INode> children) {
+      for (INode child : children) {
+        dir.cacheName(child);
+        if (child.isFile()) {
+          updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        }
+      }
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -282,7 +462,8 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
       }
     }
 
-    private void addToParent(INodeDirectory parent, INode child) {
+    /** @return whether the child was added to the parent. */
+    private boolean addToParent(INodeDirectory parent, INode child) {
       if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
         throw new HadoopIllegalArgumentException("File name \""
             + child.getLocalName() + "\" is reserved. Please "
@@ -290,14 +471,7 @@ private void addToParent(INodeDirectory parent, INode child) {
             + "name before upgrading to this release.");
       }
       // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
-        return;
-      }
-      dir.cacheName(child);
-
-      if (child.isFile()) {
-        updateBlocksMap(child.asFile(), fsn.getBlockManager());
-      }
+      return parent.addChild(child);
     }
 
     private INode loadINode(INodeSection.INode n) {
@@ -506,11 +680,123 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
       return b;
     }
 
+    /**
+     * The number of inodes serialized by a task when the sub-sections are
+     * saved in parallel. A sub-section is made of one or more such chunks.
+     */
+    private static final int SAVER_CHUNK_SIZE = 16 * 1024;
+
     private final FSNamesystem fsn;
     private final FileSummary.Builder summary;
     private final SaveNamespaceContext context;
     private final FSImageFormatProtobuf.Saver parent;
 
+    /**
+     * Writes the inodes of the INode or the INodeDirectory section, and
+     * commits a sub-section whenever the inodes written since the last one
+     * weigh {@link FSImageFormatProtobuf.Saver#getInodesPerSubSection()}.
+     * With a parallel executor, chunks of inodes are serialized by its
+     * threads, and written to the image in order.
+     */
+    private abstract class SubSectionWriter {
+      private final OutputStream out;
+      private final SectionName subSectionName;
+      private final ExecutorService executor = parent.getParallelExecutor();
+      private final int maxPending;
+      private final ArrayDeque<Future<ByteArrayOutputStream>> pending =
+          new ArrayDeque<Future<ByteArrayOutputStream>>();
+      /** The weight of each chunk in {@link #pending}. */
+      private final ArrayDeque<Long> pendingWeights = new ArrayDeque<Long>();
+      private final int chunkSize;
+      private List<INodeWithAdditionalFields> chunk;
+      private long chunkWeight = 0;
+      private long subSectionWeight = 0;
+
+      SubSectionWriter(OutputStream out, SectionName subSectionName) {
+        this.out = out;
+        this.subSectionName = subSectionName;
+        this.chunkSize = Math.min(SAVER_CHUNK_SIZE,
+            parent.getInodesPerSubSection());
+        this.maxPending = 4 * parent.getParallelThreads();
+        this.chunk = new ArrayList<INodeWithAdditionalFields>(
+            executor == null ? 0 : chunkSize);
+      }
+
+      /**
+       * @return the weight of the inode in its section, i.e. how much it
+       *         counts toward the size of a sub-section. An inode with no
+       *         weight is not written.
+       */
+      abstract int weight(INodeWithAdditionalFields n);
+
+      abstract void write(OutputStream out, INodeWithAdditionalFields n)
+          throws IOException;
+
+      void add(INodeWithAdditionalFields n) throws IOException {
+        final int w = weight(n);
+        if (w == 0) {
+          return;
+        }
+        if (executor == null) {
+          write(out, n);
+          subSectionWeight += w;
+          if (subSectionWeight >= parent.getInodesPerSubSection()) {
+            parent.commitSubSection(summary, subSectionName);
+            subSectionWeight = 0;
+          }
+          return;
+        }
+        chunk.add(n);
+        chunkWeight += w;
+        if (chunkWeight >= chunkSize) {
+          submitChunk();
+        }
+      }
+
+      private void submitChunk() throws IOException {
+        if (chunk.isEmpty()) {
+          return;
+        }
+        final List<INodeWithAdditionalFields> inodes = chunk;
+        pending.add(executor.submit(new Callable<ByteArrayOutputStream>() {
+          @Override
+          public ByteArrayOutputStream call() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (INodeWithAdditionalFields n : inodes) {
+              write(bytes, n);
+            }
+            return bytes;
+          }
+        }));
+        pendingWeights.add(chunkWeight);
+        chunk = new ArrayList<INodeWithAdditionalFields>(chunkSize);
+        chunkWeight = 0;
+        while (pending.size() > maxPending) {
+          writeFirstPending();
+        }
+      }
+
+      private void writeFirstPending() throws IOException {
+        final Future<ByteArrayOutputStream> f = pending.remove();
+        waitFor(Collections.singletonList(f)).get(0).writeTo(out);
+        subSectionWeight += pendingWeights.remove();
+        if (subSectionWeight >= parent.getInodesPerSubSection()) {
+          parent.commitSubSection(summary, subSectionName);
+          subSectionWeight = 0;
+        }
+      }
+
+      /** Write the remaining inodes. */
+      void finish() throws IOException {
+        if (executor != null) {
+          submitChunk();
+          while (!pending.isEmpty()) {
+            writeFirstPending();
+          }
+        }
+      }
+    }
+
     Saver(FSImageFormatProtobuf.Saver parent, FileSummary.Builder summary) {
       this.parent = parent;
       this.summary = summary;
@@ -521,39 +807,63 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
     void serializeINodeDirectorySection(OutputStream out) throws IOException {
       Iterator<INodeWithAdditionalFields> iter = fsn.getFSDirectory()
           .getINodeMap().getMapIterator();
-      final ArrayList<INodeReference> refList = parent.getSaverContext()
-          .getRefList();
+      // the sub-sections are sized by the number of children of their
+      // directories, which is the work needed to load them.
+      final SubSectionWriter writer = new SubSectionWriter(out,
+          SectionName.INODE_DIR_SUB) {
+        @Override
+        int weight(INodeWithAdditionalFields n) {
+          return n.isDirectory() ? n.asDirectory().getChildrenList(
+              Snapshot.CURRENT_STATE_ID).size() : 0;
+        }
+
+        @Override
+        void write(OutputStream out, INodeWithAdditionalFields n)
+            throws IOException {
+          writeDirEntry(out, n.asDirectory());
+        }
+      };
       int i = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
           continue;
         }
+        writer.add(n);
+
+        ++i;
+        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
+          context.checkCancelled();
+        }
+      }
+      writer.finish();
+      parent.commitSectionAndSubSection(summary, SectionName.INODE_DIR,
+          SectionName.INODE_DIR_SUB);
+    }
 
-        ReadOnlyList<INode> children = n.asDirectory().getChildrenList(
-            Snapshot.CURRENT_STATE_ID);
-        if (children.size() > 0) {
-          INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
-              DirEntry.newBuilder().setParent(n.getId());
-          for (INode inode : children) {
-            if (!inode.isReference()) {
-              b.addChildren(inode.getId());
-            } else {
+    private void writeDirEntry(OutputStream out, INodeDirectory n)
+        throws IOException {
+      final ArrayList<INodeReference> refList = parent.getSaverContext()
+          .getRefList();
+      ReadOnlyList<INode> children = n.getChildrenList(
+          Snapshot.CURRENT_STATE_ID);
+      if (children.size() > 0) {
+        INodeDirectorySection.DirEntry.Builder b = INodeDirectorySection.
+            DirEntry.newBuilder().setParent(n.getId());
+        for (INode inode : children) {
+          if (!inode.isReference()) {
+            b.addChildren(inode.getId());
+          } else {
+            // the entries may be built concurrently.
+            synchronized (refList) {
               refList.add(inode.asReference());
               b.addRefChildren(refList.size() - 1);
             }
           }
-          INodeDirectorySection.DirEntry e = b.build();
-          e.writeDelimitedTo(out);
-        }
-
-        ++i;
-        if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
-          context.checkCancelled();
         }
+        INodeDirectorySection.DirEntry e = b.build();
+        e.writeDelimitedTo(out);
       }
-      parent.commitSection(summary,
-          FSImageFormatProtobuf.SectionName.INODE_DIR);
     }
 
     void serializeINodeSection(OutputStream out) throws IOException {
@@ -564,17 +874,32 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
+      final SubSectionWriter writer = new SubSectionWriter(out,
+          SectionName.INODE_SUB) {
+        @Override
+        int weight(INodeWithAdditionalFields n) {
+          return 1;
+        }
+
+        @Override
+        void write(OutputStream out, INodeWithAdditionalFields n)
+            throws IOException {
+          save(out, n);
+        }
+      };
       int i = 0;
       Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
-        save(out, n);
+        writer.add(n);
         ++i;
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
       }
-      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+      writer.finish();
+      parent.commitSectionAndSubSection(summary, SectionName.INODE,
+          SectionName.INODE_SUB);
     }
 
     void serializeFilesUCSection(OutputStream out) throws IOException {
@@ -34,14 +34,18 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -66,6 +70,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -97,7 +102,7 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -110,7 +115,7 @@ int getId(E value) {
         return v;
       }
 
-      int size() {
+      synchronized int size() {
         return map.size();
       }
 
@@ -147,6 +152,10 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** The image file being loaded. */
+    private File file;
+    /** Loads the sub-sections of the image, if there are any. */
+    private ExecutorService parallelExecutor;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -172,6 +181,7 @@ public LoaderContext getLoaderContext() {
 
     void load(File file) throws IOException {
       long start = Time.monotonicNow();
+      this.file = file;
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
@@ -182,7 +192,41 @@ void load(File file) throws IOException {
       } finally {
         fin.close();
         raFile.close();
+        if (parallelExecutor != null) {
+          parallelExecutor.shutdownNow();
+          parallelExecutor = null;
+        }
+      }
+    }
+
+    /**
+     * @return a new stream over the given section of the image, which the
+     *         caller must close.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(file);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+
+    private static ArrayList<FileSummary.Section> getSubSections(
+        List<FileSummary.Section> sections, SectionName subSectionName) {
+      ArrayList<FileSummary.Section> subSections = Lists.newArrayList();
+      for (FileSummary.Section s : sections) {
+        if (SectionName.fromString(s.getName()) == subSectionName) {
+          subSections.add(s);
+        }
       }
+      return subSections;
     }
 
     private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
@@ -222,6 +266,23 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         }
       });
 
+      // the sort above is stable, so the sub-sections stay in file order.
+      final ArrayList<FileSummary.Section> inodeSubSections = getSubSections(
+          sections, SectionName.INODE_SUB);
+      final ArrayList<FileSummary.Section> dirSubSections = getSubSections(
+          sections, SectionName.INODE_DIR_SUB);
+      if ((inodeSubSections.size() > 1 || dirSubSections.size() > 1)
+          && conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+              DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        LOG.info("Loading the image sub-sections with " + threads
+            + " threads");
+        parallelExecutor = Executors.newFixedThreadPool(Math.max(1, threads),
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImage loader #%d").build());
+      }
+
       StartupProgress prog = NameNode.getStartupProgress();
       /**
        * beginStep() and the endStep() calls do not match the boundary of the
@@ -250,14 +311,28 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
+          if (parallelExecutor != null && inodeSubSections.size() > 1) {
+            inodeLoader.loadINodeSectionInParallel(parallelExecutor,
+                inodeSubSections, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeSection(in);
+          }
         }
           break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
         case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+          if (parallelExecutor != null && dirSubSections.size() > 1) {
+            inodeLoader.loadINodeDirectorySectionInParallel(parallelExecutor,
+                dirSubSections, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+          break;
+        case INODE_SUB:
+        case INODE_DIR_SUB:
+          // loaded as part of their parent section
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -354,8 +429,18 @@ public static final class Saver {
 
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
+    private final Configuration conf;
+    /** False if the image must stay readable by older NameNodes. */
+    private final boolean subSectionsAllowed;
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
+    private long subSectionOffset = currentOffset;
     private MD5Hash savedDigest;
+    /** Whether the INODE and INODE_DIR sections are split in sub-sections. */
+    private boolean writeSubSections = false;
+    private int inodesPerSubSection = Integer.MAX_VALUE;
+    /** Serializes the sub-sections, if they are saved in parallel. */
+    private ExecutorService parallelExecutor;
+    private int parallelThreads = 0;
 
     private FileChannel fileChannel;
     // OutputStream for the section data
@@ -363,9 +448,22 @@ public static final class Saver {
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
-    Saver(SaveNamespaceContext context) {
+    Saver(SaveNamespaceContext context, Configuration conf) {
+      this(context, conf, true);
+    }
+
+    /**
+     * @param subSectionsAllowed whether the INODE and INODE_DIR sections may
+     *        be split in sub-sections. NameNodes which do not know the
+     *        sub-sections cannot load an image which has them, so a rollback
+     *        image must be saved without.
+     */
+    Saver(SaveNamespaceContext context, Configuration conf,
+        boolean subSectionsAllowed) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.conf = conf;
+      this.subSectionsAllowed = subSectionsAllowed;
     }
 
     public MD5Hash getSavedDigest() {
@@ -380,6 +478,54 @@ public SaverContext getSaverContext() {
       return saverContext;
     }
 
+    boolean writeSubSections() {
+      return writeSubSections;
+    }
+
+    int getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
+    /** @return the executor serializing sub-sections, or null. */
+    ExecutorService getParallelExecutor() {
+      return parallelExecutor;
+    }
+
+    int getParallelThreads() {
+      return parallelThreads;
+    }
+
+    /**
+     * Commit the data written since the last (sub-)section as a sub-section
+     * of the section being written, so that it can be loaded on its own.
+     */
+    public void commitSubSection(FileSummary.Builder summary,
+        SectionName name) throws IOException {
+      if (!writeSubSections) {
+        return;
+      }
+      flushSectionOutputStream();
+      if (codec != null) {
+        sectionOutputStream = codec.createOutputStream(underlyingOutputStream);
+      } else {
+        sectionOutputStream = underlyingOutputStream;
+      }
+      long length = fileChannel.position() - subSectionOffset;
+      if (length == 0) {
+        return;
+      }
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
+    }
+
+    /** Commit the last sub-section, then the section enclosing it. */
+    public void commitSectionAndSubSection(FileSummary.Builder summary,
+        SectionName name, SectionName subSectionName) throws IOException {
+      commitSubSection(summary, subSectionName);
+      commitSection(summary, name);
+    }
+
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
@@ -394,6 +540,7 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -410,7 +557,54 @@ void save(File file, FSImageCompression compression) throws IOException {
         saveInternal(fout, compression, file.getAbsolutePath());
       } finally {
         fout.close();
+        if (parallelExecutor != null) {
+          parallelExecutor.shutdownNow();
+          parallelExecutor = null;
+        }
+      }
+    }
+
+    private void initSubSections() {
+      if (!conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT)) {
+        return;
+      }
+      if (codec != null) {
+        LOG.warn("Not writing image sub-sections, as they are not supported "
+            + "with " + DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY);
+        return;
+      }
+      if (!subSectionsAllowed
+          || context.getSourceNamesystem().isRollingUpgrade()) {
+        // The image may have to be loaded by the NameNode version the
+        // rolling upgrade started from, which does not know sub-sections.
+        LOG.info("Not writing image sub-sections during a rolling upgrade");
+        return;
+      }
+      final int numInodes = context.getSourceNamesystem().dir
+          .getInodeMapSize();
+      final int threshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      if (numInodes < threshold) {
+        return;
+      }
+      final int targetSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      writeSubSections = true;
+      inodesPerSubSection = Math.max(1, numInodes / targetSections);
+      if (conf.getBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_DEFAULT)) {
+        parallelThreads = Math.max(1, conf.getInt(
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT));
+        parallelExecutor = Executors.newFixedThreadPool(parallelThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImage saver #%d").build());
       }
+      LOG.info("Writing image sub-sections of " + inodesPerSubSection
+          + " inodes" + (parallelExecutor != null ? " in parallel" : ""));
     }
 
     private static void saveFileSummary(OutputStream out, FileSummary summary)
@@ -462,6 +656,7 @@ private void saveInternal(FileOutputStream fout,
       } else {
         sectionOutputStream = underlyingOutputStream;
       }
+      initSubSections();
 
       saveNameSystemSection(b);
       // Check for cancellation right after serializing the name system section.
@@ -584,7 +779,11 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    // Sub-sections of the INODE and INODE_DIR sections. They are loaded with
+    // their parent section, so their position in the loading order is moot.
+    INODE_SUB("INODE_SUB"),
+    INODE_DIR_SUB("INODE_DIR_SUB");
 
     private static final SectionName[] values = SectionName.values();
 
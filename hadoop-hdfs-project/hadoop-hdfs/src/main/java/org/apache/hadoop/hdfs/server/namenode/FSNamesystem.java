@@ -39,6 +39,18 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_CHECKPOINT_TXNS_DEFAULT;
@@ -113,6 +125,7 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -121,6 +134,7 @@
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
@@ -175,6 +189,8 @@
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.XAttrHelper;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -242,6 +258,8 @@
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Status;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.hdfs.server.namenode.AuditEventDispatcher.AuditEvent;
+import org.apache.hadoop.hdfs.server.namenode.AuditEventDispatcher.OverflowPolicy;
 import org.apache.hadoop.hdfs.server.namenode.top.TopAuditLogger;
 import org.apache.hadoop.hdfs.server.namenode.top.TopConf;
 import org.apache.hadoop.hdfs.server.namenode.top.metrics.TopMetrics;
@@ -346,6 +364,19 @@ private void logAuditEvent(boolean succeeded, String cmd, String src,
   private void logAuditEvent(boolean succeeded,
       UserGroupInformation ugi, InetAddress addr, String cmd, String src,
       String dst, HdfsFileStatus stat) {
+    final boolean webHdfs = NamenodeWebHdfsMethods.isWebHdfsInvocation();
+    if (auditEventDispatcher != null) {
+      auditEventDispatcher.dispatch(new AuditEvent(succeeded, ugi, addr, cmd,
+          src, dst, stat, webHdfs));
+    } else {
+      logAuditEventToLoggers(succeeded, ugi, addr, cmd, src, dst, stat,
+          webHdfs);
+    }
+  }
+
+  private void logAuditEventToLoggers(boolean succeeded,
+      UserGroupInformation ugi, InetAddress addr, String cmd, String src,
+      String dst, HdfsFileStatus stat, boolean webHdfs) {
     FileStatus status = null;
     if (stat != null) {
       Path symlink = stat.isSymlink() ? new Path(stat.getSymlink()) : null;
@@ -356,7 +387,11 @@ private void logAuditEvent(boolean succeeded,
           stat.getGroup(), symlink, path);
     }
     for (AuditLogger logger : auditLoggers) {
-      if (logger instanceof HdfsAuditLogger) {
+      if (logger instanceof DefaultAuditLogger) {
+        ((DefaultAuditLogger) logger).logAuditEvent(succeeded,
+            ugi.getUserName(), addr, cmd, src, dst, status, ugi,
+            dtSecretManager, webHdfs);
+      } else if (logger instanceof HdfsAuditLogger) {
         HdfsAuditLogger hdfsLogger = (HdfsAuditLogger) logger;
         hdfsLogger.logAuditEvent(succeeded, ugi.getUserName(), addr, cmd, src, dst,
             status, ugi, dtSecretManager);
@@ -404,6 +439,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  // Calls the audit loggers off the RPC handler threads, if enabled.
+  private final AuditEventDispatcher auditEventDispatcher;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -473,12 +510,15 @@ private void logAuditEvent(boolean succeeded,
 
   private final long minBlockSize;         // minimum block size
   private final long maxBlocksPerFile;     // maximum # of blocks per file
+  private final int maxBatchNamespaceOps;  // maximum # of ops in a batch
 
   // precision of access times.
   private final long accessTimePrecision;
 
   /** Lock to protect FSNamesystem. */
   private final FSNamesystemLock fsLock;
+  /** Whether hot read operations first run without the namesystem lock. */
+  private final boolean optimisticReadEnabled;
 
   /** 
    * Checkpoint lock to protect FSNamesystem modification on standby NNs.
@@ -722,9 +762,18 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       LOG.info("Enabling async auditlog");
       enableAsyncAuditLog();
     }
-    boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
-    LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    boolean fair = conf.getBoolean(DFS_NAMENODE_FSLOCK_FAIR_KEY,
+        DFS_NAMENODE_FSLOCK_FAIR_DEFAULT);
+    boolean detailedLockMetrics = conf.getBoolean(
+        DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY,
+        DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT);
+    LOG.info("fsLock is fair:" + fair + ", detailed lock metrics enabled:"
+        + detailedLockMetrics);
+    fsLock = new FSNamesystemLock(fair, detailedLockMetrics);
+    optimisticReadEnabled = conf.getBoolean(
+        DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY,
+        DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_DEFAULT);
+    LOG.info("Optimistic reads enabled: " + optimisticReadEnabled);
     cond = fsLock.writeLock().newCondition();
     cpLock = new ReentrantLock();
 
@@ -790,6 +839,9 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
           DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_DEFAULT);
       this.maxBlocksPerFile = conf.getLong(DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_KEY,
           DFSConfigKeys.DFS_NAMENODE_MAX_BLOCKS_PER_FILE_DEFAULT);
+      this.maxBatchNamespaceOps = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_KEY,
+          DFSConfigKeys.DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_DEFAULT);
       this.accessTimePrecision = conf.getLong(DFS_NAMENODE_ACCESSTIME_PRECISION_KEY,
           DFS_NAMENODE_ACCESSTIME_PRECISION_DEFAULT);
       this.supportAppends = conf.getBoolean(DFS_SUPPORT_APPEND_KEY, DFS_SUPPORT_APPEND_DEFAULT);
@@ -835,6 +887,7 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       this.auditLoggers = initAuditLoggers(conf);
       this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
         auditLoggers.get(0) instanceof DefaultAuditLogger;
+      this.auditEventDispatcher = initAuditEventDispatcher(conf);
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
       Class<? extends INodeAttributeProvider> klass = conf.getClass(
           DFS_NAMENODE_INODE_ATTRIBUTES_PROVIDER_KEY,
@@ -957,6 +1010,32 @@ private List<AuditLogger> initAuditLoggers(Configuration conf) {
     return Collections.unmodifiableList(auditLoggers);
   }
 
+  private AuditEventDispatcher initAuditEventDispatcher(Configuration conf) {
+    if (!conf.getBoolean(DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_KEY,
+        DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_DEFAULT)) {
+      return null;
+    }
+    int bufferSize = conf.getInt(
+        DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_KEY,
+        DFS_NAMENODE_AUDIT_LOG_DISPATCHER_BUFFER_SIZE_DEFAULT);
+    OverflowPolicy policy = OverflowPolicy.valueOf(StringUtils.toUpperCase(
+        conf.getTrimmed(DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_KEY,
+            DFS_NAMENODE_AUDIT_LOG_DISPATCHER_OVERFLOW_POLICY_DEFAULT)));
+    AuditEventDispatcher dispatcher = new AuditEventDispatcher(bufferSize,
+        policy, new AuditEventDispatcher.Sink() {
+          @Override
+          public void logAuditEvent(AuditEvent e) {
+            logAuditEventToLoggers(e.succeeded, e.ugi, e.addr, e.cmd, e.src,
+                e.dst, e.stat, e.webHdfs);
+          }
+        });
+    dispatcher.start();
+    LOG.info("Audit events are logged by a dispatcher thread, buffering up " +
+        "to " + dispatcher.getCapacity() + " events; overflow policy is " +
+        policy);
+    return dispatcher;
+  }
+
   private void loadFSImage(StartupOption startOpt) throws IOException {
     final FSImage fsImage = getFSImage();
 
@@ -1474,23 +1553,37 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
 
   @Override
   public void readLock() {
-    this.fsLock.readLock().lock();
+    this.fsLock.acquireReadLock();
   }
   @Override
   public void readUnlock() {
-    this.fsLock.readLock().unlock();
+    this.fsLock.releaseReadLock(null);
+  }
+  /**
+   * Release read lock, accounting the hold time to the given operation
+   * when detailed lock metrics are enabled.
+   */
+  public void readUnlock(String opName) {
+    this.fsLock.releaseReadLock(opName);
   }
   @Override
   public void writeLock() {
-    this.fsLock.writeLock().lock();
+    this.fsLock.acquireWriteLock();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
-    this.fsLock.writeLock().lockInterruptibly();
+    this.fsLock.acquireWriteLockInterruptibly();
   }
   @Override
   public void writeUnlock() {
-    this.fsLock.writeLock().unlock();
+    this.fsLock.releaseWriteLock(null);
+  }
+  /**
+   * Release write lock, accounting the hold time to the given operation
+   * when detailed lock metrics are enabled.
+   */
+  public void writeUnlock(String opName) {
+    this.fsLock.releaseWriteLock(opName);
   }
   @Override
   public boolean hasWriteLock() {
@@ -1501,6 +1594,87 @@ public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  @Override
+  public boolean isReadingOptimistically() {
+    return this.fsLock.isOptimisticReadByCurrentThread();
+  }
+
+  /** A read operation on the namespace. */
+  interface NamesystemReader<T> {
+    T read() throws IOException;
+  }
+
+  /**
+   * Run a read operation, first optimistically without the namesystem
+   * lock if enabled. The result of the optimistic run is discarded, and the
+   * operation is run again under the read lock, if the write lock was
+   * acquired meanwhile. The operation must not modify any state. While
+   * racing a writer it may observe inconsistent state, which may make it
+   * fail with one of the exceptions accepted by {@link #isRaceFailure};
+   * any other unchecked exception is propagated as is.
+   *
+   * @param opName the operation name for the lock metrics
+   * @param reader the operation
+   * @return the result of the operation
+   */
+  <T> T readOptimistically(String opName, NamesystemReader<T> reader)
+      throws IOException {
+    if (optimisticReadEnabled && !hasReadLock()) {
+      final long stamp = fsLock.tryOptimisticRead();
+      if (stamp != 0) {
+        T result = null;
+        IOException ioe = null;
+        RuntimeException raced = null;
+        boolean valid = false;
+        try {
+          checkOperation(OperationCategory.READ);
+          result = reader.read();
+        } catch (IOException e) {
+          ioe = e;
+        } catch (RuntimeException e) {
+          if (!isRaceFailure(e)) {
+            throw e;
+          }
+          raced = e;
+        } finally {
+          valid = fsLock.validate(stamp);
+        }
+        final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (metrics != null) {
+          metrics.incrOptimisticReads(valid);
+        }
+        if (valid) {
+          if (ioe != null) {
+            throw ioe;
+          } else if (raced != null) {
+            // nothing was modified meanwhile, so this is a genuine failure.
+            throw raced;
+          }
+          return result;
+        }
+      }
+    }
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      return reader.read();
+    } finally {
+      readUnlock(opName);
+    }
+  }
+
+  /**
+   * @return true if the exception may have been caused by reading the
+   *         namespace while a writer modified it, without holding the lock.
+   */
+  private static boolean isRaceFailure(RuntimeException e) {
+    return e instanceof NullPointerException
+        || e instanceof IndexOutOfBoundsException
+        || e instanceof ConcurrentModificationException
+        || e instanceof NoSuchElementException
+        || e instanceof ClassCastException;
+  }
+
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
@@ -1562,6 +1736,7 @@ void close() {
       } finally {
         IOUtils.cleanup(LOG, dir);
         IOUtils.cleanup(LOG, fsImage);
+        IOUtils.cleanup(LOG, auditEventDispatcher);
       }
     }
   }
@@ -1701,20 +1876,22 @@ private GetBlockLocationsResult(
    * Get block locations within the specified range.
    * @see ClientProtocol#getBlockLocations(String, long, long)
    */
-  LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
-      long offset, long length) throws IOException {
+  LocatedBlocks getBlockLocations(String clientMachine, final String srcArg,
+      final long offset, final long length) throws IOException {
     checkOperation(OperationCategory.READ);
     GetBlockLocationsResult res = null;
-    FSPermissionChecker pc = getPermissionChecker();
-    readLock();
+    final FSPermissionChecker pc = getPermissionChecker();
     try {
-      checkOperation(OperationCategory.READ);
-      res = getBlockLocations(pc, srcArg, offset, length, true, true);
+      res = readOptimistically("open",
+          new NamesystemReader<GetBlockLocationsResult>() {
+            @Override
+            public GetBlockLocationsResult read() throws IOException {
+              return getBlockLocations(pc, srcArg, offset, length, true, true);
+            }
+          });
     } catch (AccessControlException e) {
       logAuditEvent(false, "open", srcArg);
       throw e;
-    } finally {
-      readUnlock();
     }
 
     logAuditEvent(true, "open", srcArg);
@@ -1760,7 +1937,7 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
       } catch (Throwable e) {
         LOG.warn("Failed to update the access time of " + src, e);
       } finally {
-        writeUnlock();
+        writeUnlock("open");
       }
     }
 
@@ -2370,19 +2547,11 @@ private HdfsFileStatus startFileInt(final String srcArg,
       }
       NameNode.stateChangeLog.debug(builder.toString());
     }
-    if (!DFSUtil.isValidName(src)) {
-      throw new InvalidPathException(src);
-    }
-    blockManager.verifyReplication(src, replication, clientMachine);
+    verifyCreateArguments(src, replication, blockSize, clientMachine);
 
     boolean skipSync = false;
     HdfsFileStatus stat = null;
     FSPermissionChecker pc = getPermissionChecker();
-    if (blockSize < minBlockSize) {
-      throw new IOException("Specified block size is less than configured" +
-          " minimum value (" + DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY
-          + "): " + blockSize + " < " + minBlockSize);
-    }
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
     boolean create = flag.contains(CreateFlag.CREATE);
     boolean overwrite = flag.contains(CreateFlag.OVERWRITE);
@@ -2426,7 +2595,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
           Preconditions.checkNotNull(ezKeyName);
         }
       } finally {
-        readUnlock();
+        readUnlock("create");
       }
 
       Preconditions.checkState(
@@ -2465,7 +2634,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
       skipSync = true;
       throw se;
     } finally {
-      writeUnlock();
+      writeUnlock("create");
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
@@ -2481,6 +2650,19 @@ private HdfsFileStatus startFileInt(final String srcArg,
     return stat;
   }
 
+  private void verifyCreateArguments(String src, short replication,
+      long blockSize, String clientMachine) throws IOException {
+    if (!DFSUtil.isValidName(src)) {
+      throw new InvalidPathException(src);
+    }
+    blockManager.verifyReplication(src, replication, clientMachine);
+    if (blockSize < minBlockSize) {
+      throw new IOException("Specified block size is less than configured" +
+          " minimum value (" + DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY
+          + "): " + blockSize + " < " + minBlockSize);
+    }
+  }
+
   /**
    * Create a new file or overwrite an existing file<br>
    * 
@@ -2789,6 +2971,7 @@ private QuotaCounts computeQuotaDeltaForUCBlock(INodeFile file) {
       final long diff = file.getPreferredBlockSize() - lastBlock.getNumBytes();
       final short repl = file.getBlockReplication();
       delta.addStorageSpace(diff * repl);
+      delta.addLength(diff);
       final BlockStoragePolicy policy = dir.getBlockStoragePolicySuite()
           .getPolicy(file.getStoragePolicyID());
       List<StorageType> types = policy.chooseStorageTypes(repl);
@@ -3099,7 +3282,7 @@ DatanodeStorageInfo[] getNewBlockTargets(String src, long fileId,
       replication = pendingFile.getFileReplication();
       storagePolicyID = pendingFile.getStoragePolicyID();
     } finally {
-      readUnlock();
+      readUnlock("addBlock");
     }
 
     if (clientNode == null) {
@@ -3162,7 +3345,7 @@ LocatedBlock storeAllocatedBlock(String src, long fileId, String clientName,
       persistNewBlock(src, pendingFile);
       offset = pendingFile.computeFileSize();
     } finally {
-      writeUnlock();
+      writeUnlock("addBlock");
     }
     getEditLog().logSync();
 
@@ -3490,7 +3673,7 @@ boolean completeFile(final String srcArg, String holder,
       success = completeFileInternal(src, holder,
         ExtendedBlock.getLocalBlock(last), fileId);
     } finally {
-      writeUnlock();
+      writeUnlock("completeFile");
     }
     getEditLog().logSync();
     if (success) {
@@ -3657,7 +3840,7 @@ boolean renameTo(String src, String dst, boolean logRetryCache)
       logAuditEvent(false, "rename", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
     boolean success = ret != null && ret.success;
     if (success) {
@@ -3682,7 +3865,7 @@ void renameTo(final String src, final String dst,
           ")", src, dst, null);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("rename");
     }
 
     getEditLog().logSync();
@@ -3720,7 +3903,7 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
       logAuditEvent(false, "delete", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("delete");
     }
     getEditLog().logSync();
     if (toRemovedBlocks != null) {
@@ -3754,7 +3937,7 @@ void removeBlocks(BlocksMapUpdateInfo blocks) {
           blockManager.removeBlock(iter.next());
         }
       } finally {
-        writeUnlock();
+        writeUnlock("removeBlocks");
       }
     }
   }
@@ -3849,19 +4032,21 @@ private boolean isSafeModeTrackingBlocks() {
    *         or null if file not found
    * @throws StandbyException
    */
-  HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
+  HdfsFileStatus getFileInfo(final String src, final boolean resolveLink)
     throws IOException {
     checkOperation(OperationCategory.READ);
     HdfsFileStatus stat = null;
-    readLock();
     try {
-      checkOperation(OperationCategory.READ);
-      stat = FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
+      stat = readOptimistically("getfileinfo",
+          new NamesystemReader<HdfsFileStatus>() {
+            @Override
+            public HdfsFileStatus read() throws IOException {
+              return FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
+            }
+          });
     } catch (AccessControlException e) {
       logAuditEvent(false, "getfileinfo", src);
       throw e;
-    } finally {
-      readUnlock();
     }
     logAuditEvent(true, "getfileinfo", src);
     return stat;
@@ -3900,13 +4085,154 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, "mkdirs", src);
       throw e;
     } finally {
-      writeUnlock();
+      writeUnlock("mkdirs");
     }
     getEditLog().logSync();
     logAuditEvent(true, "mkdirs", src, null, auditStat);
     return true;
   }
 
+  /**
+   * Apply a batch of namespace operations. The whole batch is applied under
+   * one acquisition of the write lock and the edit log is synced once for
+   * all of its operations. The edits of the operations are logged without
+   * RPC ids and followed by one edit which records the results of the batch
+   * with the RPC ids of the call, so that a NameNode which replays them
+   * answers a retry of the call with the same results.
+   *
+   * @see ClientProtocol#batchNamespaceOps(String, List)
+   */
+  List<BatchedNamespaceOpResult> batchNamespaceOps(
+      List<BatchedNamespaceOp> ops, String user, String holder,
+      String clientMachine, boolean logRetryCache) throws IOException {
+    if (ops.size() > maxBatchNamespaceOps) {
+      throw new IOException("The batch has " + ops.size()
+          + " operations, more than the limit of " + maxBatchNamespaceOps
+          + " set by " + DFSConfigKeys.DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_KEY);
+    }
+    waitForLoadingFSImage();
+    final List<BatchedNamespaceOpResult> results =
+        new ArrayList<BatchedNamespaceOpResult>(ops.size());
+    final HdfsFileStatus[] auditStats = new HdfsFileStatus[ops.size()];
+    final List<BlocksMapUpdateInfo> toRemoveBlocks =
+        new ArrayList<BlocksMapUpdateInfo>();
+    checkOperation(OperationCategory.WRITE);
+    writeLock();
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot apply a batch of namespace operations");
+      for (int i = 0; i < ops.size(); i++) {
+        final BatchedNamespaceOp op = ops.get(i);
+        try {
+          results.add(applyBatchedOp(op, user, holder, clientMachine,
+              toRemoveBlocks, auditStats, i));
+        } catch (IOException e) {
+          if (e instanceof AccessControlException) {
+            logAuditEvent(false, getAuditCmd(op), op.getSrc(), op.getDst(),
+                null);
+          }
+          results.add(BatchedNamespaceOpResult.failure(e));
+        }
+      }
+      if (logRetryCache) {
+        getEditLog().logBatchNamespaceOpsResult(results, true);
+      }
+    } finally {
+      writeUnlock("batchNamespaceOps");
+    }
+    getEditLog().logSync();
+    for (BlocksMapUpdateInfo blocks : toRemoveBlocks) {
+      removeBlocks(blocks);
+    }
+    for (int i = 0; i < ops.size(); i++) {
+      if (results.get(i).isSuccess()) {
+        final BatchedNamespaceOp op = ops.get(i);
+        logAuditEvent(true, getAuditCmd(op), op.getSrc(), op.getDst(),
+            auditStats[i]);
+      }
+    }
+    return results;
+  }
+
+  private BatchedNamespaceOpResult applyBatchedOp(BatchedNamespaceOp op,
+      String user, String holder, String clientMachine,
+      List<BlocksMapUpdateInfo> toRemoveBlocks, HdfsFileStatus[] auditStats,
+      int index) throws IOException {
+    assert hasWriteLock();
+    final String src = op.getSrc();
+    switch (op.getType()) {
+    case MKDIRS:
+      auditStats[index] = FSDirMkdirOp.mkdirs(this, src,
+          new PermissionStatus(user, null, op.getPermission()),
+          op.isCreateParent());
+      return BatchedNamespaceOpResult.success(true, null);
+    case CREATE: {
+      verifyCreateArguments(src, op.getReplication(), op.getBlockSize(),
+          clientMachine);
+      final FSPermissionChecker pc = getPermissionChecker();
+      final byte[][] pathComponents =
+          FSDirectory.getPathComponentsForReservedPath(src);
+      final HdfsFileStatus stat;
+      dir.writeLock();
+      try {
+        final String path = dir.resolvePath(pc, src, pathComponents);
+        final INodesInPath iip = dir.getINodesInPath4Write(path);
+        // no EDEK is generated for a batch, a create inside an encryption
+        // zone fails with RetryStartFileException.
+        final BlocksMapUpdateInfo blocks = startFileInternal(pc, iip,
+            new PermissionStatus(user, null, op.getPermission()), holder,
+            clientMachine, true, op.isOverwrite(), op.isCreateParent(),
+            op.getReplication(), op.getBlockSize(), false, null, null, null,
+            false);
+        if (blocks != null) {
+          toRemoveBlocks.add(blocks);
+        }
+        stat = FSDirStatAndListingOp.getFileInfo(
+            dir, path, false, FSDirectory.isReservedRawName(src), true);
+      } finally {
+        dir.writeUnlock();
+      }
+      auditStats[index] = stat;
+      return BatchedNamespaceOpResult.success(true, stat);
+    }
+    case DELETE: {
+      final BlocksMapUpdateInfo blocks = FSDirDeleteOp.delete(
+          this, src, op.isRecursive(), false);
+      if (blocks != null) {
+        toRemoveBlocks.add(blocks);
+      }
+      return BatchedNamespaceOpResult.success(blocks != null, null);
+    }
+    case RENAME: {
+      final Map.Entry<BlocksMapUpdateInfo, HdfsFileStatus> res =
+          FSDirRenameOp.renameToInt(dir, src, op.getDst(), false,
+              op.isOverwrite() ? Options.Rename.OVERWRITE
+                  : Options.Rename.NONE);
+      if (!res.getKey().getToDeleteList().isEmpty()) {
+        toRemoveBlocks.add(res.getKey());
+      }
+      auditStats[index] = res.getValue();
+      return BatchedNamespaceOpResult.success(true, null);
+    }
+    default:
+      throw new IOException("Unsupported operation " + op);
+    }
+  }
+
+  private static String getAuditCmd(BatchedNamespaceOp op) {
+    switch (op.getType()) {
+    case MKDIRS:
+      return "mkdirs";
+    case CREATE:
+      return "create";
+    case DELETE:
+      return "delete";
+    default:
+      return "rename (options=[" + (op.isOverwrite() ? Options.Rename.OVERWRITE
+          : Options.Rename.NONE) + "])";
+    }
+  }
+
   /**
    * Get the content summary for a specific file/dir.
    *
@@ -3934,7 +4260,7 @@ ContentSummary getContentSummary(final String src) throws IOException {
       logAuditEvent(success, "contentSummary", src);
       throw ace;
     } finally {
-      readUnlock();
+      readUnlock("contentSummary");
     }
     logAuditEvent(success, "contentSummary", src);
     return cs;
@@ -4497,7 +4823,7 @@ DirectoryListing getListing(String src, byte[] startAfter,
       logAuditEvent(false, "listStatus", src);
       throw e;
     } finally {
-      readUnlock();
+      readUnlock("listStatus");
     }
     logAuditEvent(true, "listStatus", src);
     return dl;
@@ -4819,6 +5145,26 @@ public long getMissingReplOneBlocksCount() {
     return blockManager.getMissingReplOneBlocksCount();
   }
   
+  @VisibleForTesting
+  AuditEventDispatcher getAuditEventDispatcher() {
+    return auditEventDispatcher;
+  }
+
+  @Metric({"AuditEventQueueSize",
+      "Number of audit events waiting for the dispatcher thread"})
+  public int getAuditEventQueueSize() {
+    AuditEventDispatcher dispatcher = auditEventDispatcher;
+    return dispatcher == null ? 0 : dispatcher.getQueueSize();
+  }
+
+  @Metric(value={"AuditEventsDropped",
+      "Number of audit events dropped because the dispatcher queue was full"},
+      type=Metric.Type.COUNTER)
+  public long getAuditEventsDropped() {
+    AuditEventDispatcher dispatcher = auditEventDispatcher;
+    return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+  }
+
   @Metric({"ExpiredHeartbeats", "Number of expired heartbeats"})
   public int getExpiredHeartbeats() {
     return datanodeStatistics.getExpiredHeartbeats();
@@ -5887,6 +6233,21 @@ public void processIncrementalBlockReport(final DatanodeID nodeID,
       writeUnlock();
     }
   }
+
+  /**
+   * Process the incremental block reports of all storages of a DataNode
+   * taking the write lock only once.
+   */
+  public void processIncrementalBlockReport(final DatanodeID nodeID,
+      final StorageReceivedDeletedBlocks[] srdbs)
+      throws IOException {
+    writeLock();
+    try {
+      blockManager.processIncrementalBlockReport(nodeID, srdbs);
+    } finally {
+      writeUnlock();
+    }
+  }
   
   void endCheckpoint(NamenodeRegistration registration,
                             CheckpointSignature sig) throws IOException {
@@ -8287,6 +8648,18 @@ public void logAuditEvent(boolean succeeded, String userName,
         InetAddress addr, String cmd, String src, String dst,
         FileStatus status, UserGroupInformation ugi,
         DelegationTokenSecretManager dtSecretManager) {
+      logAuditEvent(succeeded, userName, addr, cmd, src, dst, status, ugi,
+          dtSecretManager, NamenodeWebHdfsMethods.isWebHdfsInvocation());
+    }
+
+    /**
+     * @param webHdfs whether the event comes from a WebHDFS call; it is
+     *          passed in since the event may be logged by another thread.
+     */
+    void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus status, UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager, boolean webHdfs) {
       if (auditLog.isInfoEnabled()) {
         final StringBuilder sb = auditBuffer.get();
         sb.setLength(0);
@@ -8321,7 +8694,7 @@ public void logAuditEvent(boolean succeeded, String userName,
           sb.append(trackingId);
         }
         sb.append("\t").append("proto=");
-        sb.append(NamenodeWebHdfsMethods.isWebHdfsInvocation() ? "webhdfs" : "rpc");
+        sb.append(webHdfs ? "webhdfs" : "rpc");
         logAuditMessage(sb.toString());
       }
     }
@@ -19,23 +19,176 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+
 import com.google.common.annotations.VisibleForTesting;
 
 /**
  * Mimics a ReentrantReadWriteLock so more sophisticated locking capabilities
  * are possible.
+ *
+ * When detailed metrics are enabled, the time between the outermost
+ * acquisition and the outermost release of the lock is recorded per
+ * operation in {@link NameNodeMetrics}, so that the operations which
+ * monopolize the namespace can be identified.
+ *
+ * The lock also supports optimistic reads: the outermost acquisition and
+ * the outermost release of the write lock each advance a version, which is
+ * odd while the write lock is held. A reader may run without the lock
+ * between {@link #tryOptimisticRead()} and {@link #validate(long)}, and
+ * its result is only valid if no writer held the lock in between.
  */
 class FSNamesystemLock implements ReadWriteLock {
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
-  
+
+  private final boolean detailedMetrics;
+
+  /** Version of the namespace, odd while the write lock is held. */
+  private final AtomicLong writeVersion = new AtomicLong(2);
+
+  /** Whether the current thread runs an optimistic read. */
+  private final ThreadLocal<Boolean> optimisticRead =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return false;
+        }
+      };
+
+  /**
+   * Time at which the write lock was acquired by its current holder.
+   * Only read and written by the thread holding the write lock.
+   */
+  private long writeLockHeldTimeStampNanos;
+
+  /** Time at which the read lock was acquired by the current thread. */
+  private final ThreadLocal<Long> readLockHeldTimeStampNanos =
+      new ThreadLocal<Long>() {
+        @Override
+        protected Long initialValue() {
+          return Long.MAX_VALUE;
+        }
+      };
+
   FSNamesystemLock(boolean fair) {
+    this(fair, false);
+  }
+
+  FSNamesystemLock(boolean fair, boolean detailedMetrics) {
     this.coarseLock = new ReentrantReadWriteLock(fair);
+    this.detailedMetrics = detailedMetrics;
+  }
+
+  boolean isDetailedMetricsEnabled() {
+    return detailedMetrics;
+  }
+
+  void acquireReadLock() {
+    coarseLock.readLock().lock();
+    if (detailedMetrics && coarseLock.getReadHoldCount() == 1) {
+      readLockHeldTimeStampNanos.set(System.nanoTime());
+    }
+  }
+
+  void acquireWriteLock() {
+    coarseLock.writeLock().lock();
+    writeLockAcquired();
+  }
+
+  void acquireWriteLockInterruptibly() throws InterruptedException {
+    coarseLock.writeLock().lockInterruptibly();
+    writeLockAcquired();
+  }
+
+  private void writeLockAcquired() {
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeVersion.incrementAndGet();
+      if (detailedMetrics) {
+        writeLockHeldTimeStampNanos = System.nanoTime();
+      }
+    }
+  }
+
+  /**
+   * Release the read lock, attributing the hold time to the given operation
+   * if this is the outermost hold of the current thread.
+   * @param opName name of the operation which held the lock, may be null
+   */
+  void releaseReadLock(String opName) {
+    if (!detailedMetrics || coarseLock.getReadHoldCount() != 1) {
+      coarseLock.readLock().unlock();
+      return;
+    }
+    final long heldSince = readLockHeldTimeStampNanos.get();
+    readLockHeldTimeStampNanos.remove();
+    coarseLock.readLock().unlock();
+    addLockHoldTime(opName, false, System.nanoTime() - heldSince);
+  }
+
+  /**
+   * Release the write lock, attributing the hold time to the given operation
+   * if this is the outermost hold of the current thread.
+   * @param opName name of the operation which held the lock, may be null
+   */
+  void releaseWriteLock(String opName) {
+    final boolean outermost = coarseLock.getWriteHoldCount() == 1;
+    final long heldSince = writeLockHeldTimeStampNanos;
+    if (outermost) {
+      writeVersion.incrementAndGet();
+    }
+    coarseLock.writeLock().unlock();
+    if (outermost && detailedMetrics) {
+      addLockHoldTime(opName, true, System.nanoTime() - heldSince);
+    }
+  }
+
+  /**
+   * Start an optimistic read of the current thread.
+   * @return a stamp to validate the read against, or 0 if the write lock is
+   *         held, in which case the read must take the read lock instead.
+   */
+  long tryOptimisticRead() {
+    final long stamp = writeVersion.get();
+    if ((stamp & 1) != 0) {
+      return 0;
+    }
+    optimisticRead.set(true);
+    return stamp;
+  }
+
+  /**
+   * End the optimistic read of the current thread.
+   * @param stamp as returned by {@link #tryOptimisticRead()}
+   * @return true if the write lock was not acquired since the stamp was
+   *         issued, i.e. everything read in between is consistent.
+   */
+  boolean validate(long stamp) {
+    optimisticRead.set(false);
+    // A successful compare-and-set is a volatile write, which orders the
+    // reads before it ahead of a subsequent acquisition of the write lock.
+    return stamp != 0 && writeVersion.compareAndSet(stamp, stamp);
+  }
+
+  /** @return true if the current thread runs an optimistic read. */
+  boolean isOptimisticReadByCurrentThread() {
+    return optimisticRead.get();
+  }
+
+  private static void addLockHoldTime(String opName, boolean write,
+      long elapsedNanos) {
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addFSNamesystemLockHold(opName, write,
+          TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
   }
   
   @Override
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.protocolPB.ClientNamenodeProtocolPB;
+import org.apache.hadoop.hdfs.server.namenode.ha.ReadOnly;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The server side {@link AlignmentContext} of the NameNode. The state of the
+ * NameNode is the id of the last transaction it has written, or applied when
+ * in standby state. {@link ReadOnly} calls of {@link ClientProtocol} are held
+ * back until the NameNode has reached the state the client has seen.
+ */
+@InterfaceAudience.Private
+class GlobalStateIdContext implements AlignmentContext {
+  private static final String CLIENT_PROTOCOL_NAME =
+      RPC.getProtocolName(ClientNamenodeProtocolPB.class);
+
+  private final FSImage fsImage;
+  private final long maxStateWaitMs;
+  private final Set<String> coordinatedMethods = new HashSet<String>();
+
+  GlobalStateIdContext(FSImage fsImage, long maxStateWaitMs) {
+    this.fsImage = fsImage;
+    this.maxStateWaitMs = maxStateWaitMs;
+    for (Method method : ClientProtocol.class.getMethods()) {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        coordinatedMethods.add(method.getName());
+      }
+    }
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    // client side only
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    // client side only
+  }
+
+  @Override
+  public long receiveRequestState(RpcRequestHeaderProto header) {
+    return header.getStateId();
+  }
+
+  @Override
+  public long getLastSeenStateId() {
+    return fsImage.getLastAppliedOrWrittenTxIdWithoutLock();
+  }
+
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    return CLIENT_PROTOCOL_NAME.equals(protocolName)
+        && coordinatedMethods.contains(methodName);
+  }
+
+  @Override
+  public long getMaxStateWaitMs() {
+    return maxStateWaitMs;
+  }
+}
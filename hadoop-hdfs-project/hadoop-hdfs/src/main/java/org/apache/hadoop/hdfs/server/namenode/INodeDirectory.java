@@ -587,6 +587,7 @@ public QuotaCounts computeQuotaUsage(BlockStoragePolicySuite bsps,
             lastSnapshotId);
       }
       counts.addNameSpace(1);
+      counts.addDirectoryCount(1);
       return counts;
     }
     
@@ -619,6 +620,7 @@ private QuotaCounts computeDirectoryQuotaUsage(BlockStoragePolicySuite bsps,
   public QuotaCounts computeQuotaUsage4CurrentDirectory(
       BlockStoragePolicySuite bsps, byte storagePolicyId, QuotaCounts counts) {
     counts.addNameSpace(1);
+    counts.addDirectoryCount(1);
     // include the diff list
     DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     if (sf != null) {
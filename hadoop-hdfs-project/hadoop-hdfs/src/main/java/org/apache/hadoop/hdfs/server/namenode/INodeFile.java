@@ -583,6 +583,7 @@ public final QuotaCounts computeQuotaUsage(
     }
     counts.addNameSpace(nsDelta);
     counts.addStorageSpace(ssDeltaNoReplication * replication);
+    counts.addLength(ssDeltaNoReplication);
 
     if (blockStoragePolicyId != ID_UNSPECIFIED){
       BlockStoragePolicy bsp = bsps.getPolicy(blockStoragePolicyId);
@@ -1780,7 +1780,9 @@ public void checkOperation(final OperationCategory op)
     
     @Override
     public boolean allowStaleReads() {
-      return allowStaleStandbyReads;
+      // Coordinated calls have already waited for the namespace to catch up
+      // with the state their client has seen, so they are not stale.
+      return allowStaleStandbyReads || Server.getClientStateId() >= 0;
     }
 
   }
@@ -72,7 +72,9 @@ public static enum Feature implements LayoutFeature {
     BLOCK_STORAGE_POLICY(-60, "Block Storage policy"),
     TRUNCATE(-61, "Truncate"),
     APPEND_NEW_BLOCK(-62, "Support appending to new block"),
-    QUOTA_BY_STORAGE_TYPE(-63, "Support quota for specific storage types");
+    QUOTA_BY_STORAGE_TYPE(-63, "Support quota for specific storage types"),
+    BATCH_NAMESPACE_OPS(-64, "Record the results of batched namespace " +
+      "operations");
 
     private final FeatureInfo info;
 
@@ -74,6 +74,8 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -117,6 +119,7 @@
 import org.apache.hadoop.hdfs.security.token.block.ExportedBlockKeys;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManager.BlockReportLookup;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
 import org.apache.hadoop.hdfs.server.common.IncorrectVersionException;
 import org.apache.hadoop.hdfs.server.namenode.NameNode.OperationCategory;
@@ -410,6 +413,14 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         FSLimitException.PathComponentTooLongException.class,
         FSLimitException.MaxDirectoryItemsExceededException.class,
         UnresolvedPathException.class);
+
+    if (conf.getBoolean(DFSConfigKeys.DFS_HA_OBSERVER_READS_ENABLED_KEY,
+        DFSConfigKeys.DFS_HA_OBSERVER_READS_ENABLED_DEFAULT)) {
+      clientRpcServer.setAlignmentContext(new GlobalStateIdContext(
+          namesystem.getFSImage(), conf.getLong(
+              DFSConfigKeys.DFS_HA_OBSERVER_READS_MAX_WAIT_MS_KEY,
+              DFSConfigKeys.DFS_HA_OBSERVER_READS_MAX_WAIT_MS_DEFAULT)));
+    }
  }
 
   /** Allow access to the client RPC server for testing */
@@ -585,8 +596,20 @@ public LocatedBlocks getBlockLocations(String src,
       throws IOException {
     checkNNStartup();
     metrics.incrGetBlockLocations();
-    return namesystem.getBlockLocations(getClientMachine(), 
+    LocatedBlocks blocks = namesystem.getBlockLocations(getClientMachine(),
                                         src, offset, length);
+    if (blocks != null && Server.getClientStateId() >= 0
+        && namesystem.isInStandbyState()) {
+      // The datanodes may not have reported recently written blocks to the
+      // standby yet; let the client ask the active instead.
+      for (LocatedBlock block : blocks.getLocatedBlocks()) {
+        if (block.getLocations().length == 0) {
+          throw new RetriableException("Block locations of " + src
+              + " are not known to the standby yet");
+        }
+      }
+    }
+    return blocks;
   }
   
   @Override // ClientProtocol
@@ -986,6 +1009,71 @@ public boolean mkdirs(String src, FsPermission masked, boolean createParent)
             null, masked), createParent);
   }
 
+  @Override // ClientProtocol
+  public List<BatchedNamespaceOpResult> batchNamespaceOps(String clientName,
+      List<BatchedNamespaceOp> ops) throws IOException {
+    checkNNStartup();
+    String clientMachine = getClientMachine();
+    if (stateChangeLog.isDebugEnabled()) {
+      stateChangeLog.debug("*DIR* NameNode.batchNamespaceOps: " + ops.size()
+          + " operations for " + clientName + " at " + clientMachine);
+    }
+    for (BatchedNamespaceOp op : ops) {
+      if (!checkPathLength(op.getSrc())
+          || (op.getDst() != null && !checkPathLength(op.getDst()))) {
+        throw new IOException("batchNamespaceOps: Pathname too long.  Limit "
+            + MAX_PATH_LENGTH + " characters, " + MAX_PATH_DEPTH + " levels.");
+      }
+    }
+    namesystem.checkOperation(OperationCategory.WRITE);
+    CacheEntryWithPayload cacheEntry =
+        RetryCache.waitForCompletion(retryCache, null);
+    if (cacheEntry != null && cacheEntry.isSuccess()) {
+      if (!(cacheEntry.getPayload() instanceof List)) {
+        // Never guess the results of a batch which was already applied.
+        throw new IOException("The batch of namespace operations was applied,"
+            + " but its results are not known to this NameNode");
+      }
+      @SuppressWarnings("unchecked")
+      List<BatchedNamespaceOpResult> previous =
+          (List<BatchedNamespaceOpResult>) cacheEntry.getPayload();
+      return previous; // Return previous response
+    }
+
+    List<BatchedNamespaceOpResult> results = null;
+    try {
+      results = namesystem.batchNamespaceOps(ops,
+          getRemoteUser().getShortUserName(), clientName, clientMachine,
+          cacheEntry != null);
+    } finally {
+      RetryCache.setState(cacheEntry, results != null, results);
+    }
+
+    metrics.incrBatchNamespaceOps(ops.size());
+    for (int i = 0; i < ops.size(); i++) {
+      if (!results.get(i).isSuccess()) {
+        continue;
+      }
+      switch (ops.get(i).getType()) {
+      case CREATE:
+        metrics.incrFilesCreated();
+        metrics.incrCreateFileOps();
+        break;
+      case DELETE:
+        if (results.get(i).getResult()) {
+          metrics.incrDeleteFileOps();
+        }
+        break;
+      case RENAME:
+        metrics.incrFilesRenamed();
+        break;
+      default:
+        break;
+      }
+    }
+    return results;
+  }
+
   @Override // ClientProtocol
   public void renewLease(String clientName) throws IOException {
     checkNNStartup();
@@ -1312,8 +1400,14 @@ public DatanodeCommand blockReport(final DatanodeRegistration nodeReg,
     }
     final BlockManager bm = namesystem.getBlockManager(); 
     boolean noStaleStorages = false;
+    final BlockListAsLongs[] blocks = new BlockListAsLongs[reports.length];
+    for (int r = 0; r < reports.length; r++) {
+      blocks[r] = reports[r].getBlocks();
+    }
+    // in startup safe mode, look up the reported replicas of all storages
+    // in parallel, outside of the write lock taken to process them.
+    final BlockReportLookup[] lookups = bm.lookupStoredBlocks(blocks);
     for (int r = 0; r < reports.length; r++) {
-      final BlockListAsLongs blocks = reports[r].getBlocks();
       //
       // BlockManager.processReport accumulates information of prior calls
       // for the same node and storage, so the value returned by the last
@@ -1324,9 +1418,12 @@ public DatanodeCommand blockReport(final DatanodeRegistration nodeReg,
         @Override
         public Boolean call() throws IOException {
           return bm.processReport(nodeReg, reports[index].getStorage(),
-              blocks, context, (index == reports.length - 1));
+              blocks[index], context, (index == reports.length - 1),
+              lookups[index]);
         }
       });
+      // drop the lookup as soon as it was used.
+      lookups[r] = null;
       metrics.incrStorageBlockReportOps();
     }
 
@@ -1366,22 +1463,23 @@ public void blockReceivedAndDeleted(final DatanodeRegistration nodeReg,
           +" blocks.");
     }
     final BlockManager bm = namesystem.getBlockManager();
-    for (final StorageReceivedDeletedBlocks r : receivedAndDeletedBlocks) {
-      bm.enqueueBlockOp(new Runnable() {
-        @Override
-        public void run() {
-          try {
-            namesystem.processIncrementalBlockReport(nodeReg, r);
-          } catch (Exception ex) {
-            // usually because the node is unregistered/dead.  next heartbeat
-            // will correct the problem
-            blockStateChangeLog.error(
-                "*BLOCK* NameNode.blockReceivedAndDeleted: "
-                    + "failed from " + nodeReg + ": " + ex.getMessage());
-          }
+    // Queue the reports of all storages as one operation so that they are
+    // processed together under the write lock.
+    bm.enqueueBlockOp(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          namesystem.processIncrementalBlockReport(nodeReg,
+              receivedAndDeletedBlocks);
+        } catch (Exception ex) {
+          // usually because the node is unregistered/dead.  next heartbeat
+          // will correct the problem
+          blockStateChangeLog.error(
+              "*BLOCK* NameNode.blockReceivedAndDeleted: "
+                  + "failed from " + nodeReg + ": " + ex.getMessage());
         }
-      });
-    }
+      }
+    });
   }
   
   @Override // DatanodeProtocol
@@ -46,4 +46,10 @@ public interface Namesystem extends RwLock, SafeMode {
   public void checkOperation(OperationCategory read) throws StandbyException;
 
   public boolean isInSnapshot(BlockInfoContiguousUnderConstruction blockUC);
+
+  /**
+   * @return true if the current thread reads the namespace without the lock,
+   *         and validates what it has read afterwards.
+   */
+  public boolean isReadingOptimistically();
 }
\ No newline at end of file
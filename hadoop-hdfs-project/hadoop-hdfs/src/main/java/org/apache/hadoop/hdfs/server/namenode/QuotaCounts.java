@@ -23,6 +23,12 @@
 
 /**
  * Counters for namespace, storage space and storage type space quota and usage.
+ *
+ * The usage also counts the directories and the length of the files, which
+ * are not subject to any quota, so that a directory with quota can report
+ * its content summary without traversing its subtree. The length of a file
+ * is counted as the storage space without replication, i.e. the last block
+ * of a file under construction counts with the preferred block size.
  */
 public class QuotaCounts {
   // Name space and storage space counts (HDFS-7775 refactors the original disk
@@ -30,10 +36,16 @@ public class QuotaCounts {
   private EnumCounters<Quota> nsSsCounts;
   // Storage type space counts
   private EnumCounters<StorageType> tsCounts;
+  // Number of directories, included in the name space count
+  private long directoryCount;
+  // Length of the files, i.e. the storage space without replication
+  private long length;
 
   public static class Builder {
     private EnumCounters<Quota> nsSsCounts;
     private EnumCounters<StorageType> tsCounts;
+    private long directoryCount;
+    private long length;
 
     public Builder() {
       this.nsSsCounts = new EnumCounters<Quota>(Quota.class);
@@ -62,9 +74,21 @@ public Builder typeSpaces(long val) {
       return this;
     }
 
+    public Builder directoryCount(long val) {
+      this.directoryCount = val;
+      return this;
+    }
+
+    public Builder length(long val) {
+      this.length = val;
+      return this;
+    }
+
     public Builder quotaCount(QuotaCounts that) {
       this.nsSsCounts.set(that.nsSsCounts);
       this.tsCounts.set(that.tsCounts);
+      this.directoryCount = that.directoryCount;
+      this.length = that.length;
       return this;
     }
 
@@ -76,16 +100,22 @@ public QuotaCounts build() {
   private QuotaCounts(Builder builder) {
     this.nsSsCounts = builder.nsSsCounts;
     this.tsCounts = builder.tsCounts;
+    this.directoryCount = builder.directoryCount;
+    this.length = builder.length;
   }
 
   public void add(QuotaCounts that) {
     this.nsSsCounts.add(that.nsSsCounts);
     this.tsCounts.add(that.tsCounts);
+    this.directoryCount += that.directoryCount;
+    this.length += that.length;
   }
 
   public void subtract(QuotaCounts that) {
     this.nsSsCounts.subtract(that.nsSsCounts);
     this.tsCounts.subtract(that.tsCounts);
+    this.directoryCount -= that.directoryCount;
+    this.length -= that.length;
   }
 
   /**
@@ -97,6 +127,8 @@ public QuotaCounts negation() {
     QuotaCounts ret = new QuotaCounts.Builder().quotaCount(this).build();
     ret.nsSsCounts.negation();
     ret.tsCounts.negation();
+    ret.directoryCount = -ret.directoryCount;
+    ret.length = -ret.length;
     return ret;
   }
 
@@ -149,6 +181,22 @@ public void addTypeSpace(StorageType type, long delta) {
     this.tsCounts.add(type, delta);
   }
 
+  public long getDirectoryCount() {
+    return directoryCount;
+  }
+
+  public void addDirectoryCount(long delta) {
+    this.directoryCount += delta;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public void addLength(long delta) {
+    this.length += delta;
+  }
+
   public boolean anyNsSsCountGreaterOrEqual(long val) {
     return nsSsCounts.anyGreaterOrEqual(val);
   }
@@ -166,7 +214,9 @@ public boolean equals(Object obj) {
     }
     final QuotaCounts that = (QuotaCounts)obj;
     return this.nsSsCounts.equals(that.nsSsCounts)
-        && this.tsCounts.equals(that.tsCounts);
+        && this.tsCounts.equals(that.tsCounts)
+        && this.directoryCount == that.directoryCount
+        && this.length == that.length;
   }
 
   @Override
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hdfs.server.namenode.ha;
 
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_KEYTAB_FILE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_KERBEROS_PRINCIPAL_KEY;
 
@@ -299,7 +300,11 @@ private int downloadImage(NNStorage storage, NamenodeProtocol proxy)
     // (including shared edits)
     final long imageTxId = proxy.getMostRecentCheckpointTxId();
     final long curTxId = proxy.getTransactionID();
-    FSImage image = new FSImage(conf);
+    // The check below needs every edit up to curTxId, not only those still
+    // held in the JournalNodes' in-memory caches.
+    Configuration imageConf = new Configuration(conf);
+    imageConf.setBoolean(DFS_HA_TAILEDITS_INPROGRESS_KEY, false);
+    FSImage image = new FSImage(imageConf);
     try {
       image.getStorage().setStorageInfo(storage);
       image.initEditLog(StartupOption.REGULAR);
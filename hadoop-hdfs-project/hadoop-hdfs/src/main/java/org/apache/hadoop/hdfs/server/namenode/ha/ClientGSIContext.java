@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * The client side {@link AlignmentContext}. It remembers the newest
+ * transaction id any NameNode has reported to the client and sends it with
+ * every call, so that a standby serving a read has caught up with every
+ * change the client has made or seen.
+ */
+@InterfaceAudience.Private
+class ClientGSIContext implements AlignmentContext {
+  private final AtomicLong lastSeenStateId = new AtomicLong(0);
+
+  @Override
+  public long getLastSeenStateId() {
+    return lastSeenStateId.get();
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    header.setStateId(lastSeenStateId.get());
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    if (!header.hasStateId()) {
+      return;
+    }
+    final long stateId = header.getStateId();
+    long last = lastSeenStateId.get();
+    while (stateId > last && !lastSeenStateId.compareAndSet(last, stateId)) {
+      last = lastSeenStateId.get();
+    }
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    // server side only
+  }
+
+  @Override
+  public long receiveRequestState(RpcRequestHeaderProto header) {
+    // server side only
+    return -1;
+  }
+
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    // server side only
+    return false;
+  }
+
+  @Override
+  public long getMaxStateWaitMs() {
+    // server side only
+    return 0;
+  }
+}
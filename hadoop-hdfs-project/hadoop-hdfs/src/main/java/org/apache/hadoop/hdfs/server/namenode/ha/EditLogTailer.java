@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -98,6 +99,12 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether the Standby should also read edits from the in-progress segment,
+   * rather than only from finalized segments.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -121,13 +128,32 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = getTailPeriodMs(conf);
+
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
-        " sleepTime=" + sleepTimeMs);
+        " sleepTime=" + sleepTimeMs + " inProgressOk=" + inProgressOk);
   }
   
+  /**
+   * A plain number is taken to be in seconds, as it always has been, but a
+   * time unit suffix such as "500ms" may be given for sub-second tailing.
+   */
+  private static long getTailPeriodMs(Configuration conf) {
+    String period = conf.getTrimmed(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY);
+    if (period == null || period.isEmpty() ||
+        Character.isDigit(period.charAt(period.length() - 1))) {
+      return conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+          DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000L;
+    }
+    return conf.getTimeDuration(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT * 1000L,
+        TimeUnit.MILLISECONDS);
+  }
+
   private InetSocketAddress getActiveNodeAddress() {
     Configuration activeConf = HAUtil.getConfForOtherNode(conf);
     return NameNode.getServiceAddress(activeConf, true);
@@ -211,7 +237,8 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
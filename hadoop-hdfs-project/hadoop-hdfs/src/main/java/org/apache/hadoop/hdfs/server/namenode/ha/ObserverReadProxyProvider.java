@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A FailoverProxyProvider implementation which sends the {@link ReadOnly}
+ * calls of {@link org.apache.hadoop.hdfs.protocol.ClientProtocol} to the
+ * standby NameNodes, and all other calls to the NameNode believed to be
+ * active, failing over like {@link ConfiguredFailoverProxyProvider}.
+ *
+ * All proxies share the transaction id last seen by the client, so that a
+ * standby only serves a read once it has caught up with the client; see
+ * dfs.ha.observer.reads.enabled. A read which a standby rejects, because it
+ * does not serve reads or has not caught up in time, is sent to the active
+ * NameNode instead.
+ */
+public class ObserverReadProxyProvider<T> extends
+    ConfiguredFailoverProxyProvider<T> {
+
+  private static final Log LOG =
+      LogFactory.getLog(ObserverReadProxyProvider.class);
+
+  /** Creates proxies whose calls are aligned through the given context. */
+  static class AlignedProxyFactory<T> implements ProxyFactory<T> {
+    private final AlignmentContext alignmentContext;
+
+    AlignedProxyFactory(AlignmentContext alignmentContext) {
+      this.alignmentContext = alignmentContext;
+    }
+
+    @Override
+    public T createProxy(Configuration conf, InetSocketAddress nnAddr,
+        Class<T> xface, UserGroupInformation ugi, boolean withRetries,
+        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+      return NameNodeProxies.createNonHAProxy(conf, nnAddr, xface, ugi,
+          false, fallbackToSimpleAuth, alignmentContext).getProxy();
+    }
+  }
+
+  class ObserverReadInvocationHandler implements InvocationHandler {
+    private final ProxyInfo<T> activeProxy;
+    private final List<ProxyInfo<T>> standbyProxies;
+
+    ObserverReadInvocationHandler(ProxyInfo<T> activeProxy,
+        List<ProxyInfo<T>> standbyProxies) {
+      this.activeProxy = activeProxy;
+      this.standbyProxies = standbyProxies;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      if (method.isAnnotationPresent(ReadOnly.class)) {
+        for (ProxyInfo<T> standby : standbyProxies) {
+          try {
+            Object retVal = method.invoke(standby.proxy, args);
+            standbyReads.incrementAndGet();
+            return retVal;
+          } catch (InvocationTargetException e) {
+            if (!shouldTryNext(e.getCause())) {
+              throw e.getCause();
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Invocation of " + method.getName() + " on ["
+                  + standby.proxyInfo + "] failed, trying the next NameNode: "
+                  + e.getCause());
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(activeProxy.proxy, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  private final AlignmentContext alignmentContext;
+  private ProxyInfo<T> wrappedProxy = null;
+  private final AtomicLong standbyReads = new AtomicLong();
+
+  public ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    this(conf, uri, xface, new ClientGSIContext());
+  }
+
+  private ObserverReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface, AlignmentContext alignmentContext) {
+    super(conf, uri, xface, new AlignedProxyFactory<T>(alignmentContext));
+    this.alignmentContext = alignmentContext;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    if (wrappedProxy != null) {
+      return wrappedProxy;
+    }
+    // The current proxy is the presumed active, the others are standbys.
+    ProxyInfo<T> active = super.getProxy();
+    List<ProxyInfo<T>> standbys = new ArrayList<ProxyInfo<T>>();
+    for (int i = 1; i < proxies.size(); i++) {
+      incrementProxyIndex();
+      standbys.add(super.getProxy());
+    }
+    incrementProxyIndex();
+    T proxy = (T) Proxy.newProxyInstance(
+        ObserverReadInvocationHandler.class.getClassLoader(),
+        new Class<?>[]{xface},
+        new ObserverReadInvocationHandler(active, standbys));
+    wrappedProxy = new ProxyInfo<T>(proxy, active.proxyInfo);
+    return wrappedProxy;
+  }
+
+  @Override
+  public synchronized void performFailover(T currentProxy) {
+    super.performFailover(currentProxy);
+    wrappedProxy = null;
+  }
+
+  /**
+   * A read which a standby failed with an exception other than these was
+   * served authoritatively, and its outcome is the outcome of the call.
+   */
+  private static boolean shouldTryNext(Throwable t) {
+    if (t instanceof RemoteException) {
+      IOException e = ((RemoteException) t).unwrapRemoteException();
+      return e instanceof StandbyException || e instanceof RetriableException;
+    }
+    // a local failure such as a connection problem
+    return t instanceof IOException;
+  }
+
+  /** @return the last transaction id the client has seen. */
+  @VisibleForTesting
+  long getLastSeenStateId() {
+    return alignmentContext.getLastSeenStateId();
+  }
+
+  /** @return the number of reads served by standby NameNodes. */
+  @VisibleForTesting
+  long getStandbyReads() {
+    return standbyReads.get();
+  }
+}
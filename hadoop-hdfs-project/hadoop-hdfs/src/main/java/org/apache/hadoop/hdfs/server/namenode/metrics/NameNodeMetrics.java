@@ -20,6 +20,10 @@
 import static org.apache.hadoop.metrics2.impl.MsInfo.ProcessName;
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.NamenodeRole;
@@ -56,6 +60,10 @@ public class NameNodeMetrics {
   @Metric MutableCounterLong addBlockOps;
   @Metric MutableCounterLong getAdditionalDatanodeOps;
   @Metric MutableCounterLong createSymlinkOps;
+  @Metric("Number of batchNamespaceOps calls")
+  MutableCounterLong batchNamespaceOps;
+  @Metric("Number of operations applied by batchNamespaceOps calls")
+  MutableCounterLong batchedNamespaceOps;
   @Metric MutableCounterLong getLinkTargetOps;
   @Metric MutableCounterLong filesInGetListingOps;
   @Metric("Number of allowSnapshot operations")
@@ -76,6 +84,10 @@ public class NameNodeMetrics {
   MutableCounterLong blockReceivedAndDeletedOps;
   @Metric("Number of blockReports from individual storages")
   MutableCounterLong storageBlockReportOps;
+  @Metric("Number of incremental block reports from individual storages")
+  MutableCounterLong storageIncrementalBlockReportOps;
+  @Metric("Number of replicas in incremental block reports")
+  MutableCounterLong incrementalBlockReportBlocks;
   @Metric("Number of blockReports and blockReceivedAndDeleted queued")
   MutableGaugeInt blockOpsQueued;
   @Metric("Number of blockReports and blockReceivedAndDeleted batch processed")
@@ -113,7 +125,26 @@ public long totalFileOps(){
   MutableCounterLong transactionsBatchedInSync;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
+  @Metric("Block report lookup outside the namesystem lock")
+  MutableRate blockReportLookup;
+  final MutableQuantiles[] blockReportLookupQuantiles;
+  @Metric("Number of block report lookups discarded because the blocks " +
+      "map changed before the report was processed")
+  MutableCounterLong blockReportLookupsDiscarded;
+  @Metric("Number of read operations which ran without the namesystem lock")
+  MutableCounterLong optimisticReads;
+  @Metric("Number of read operations which ran again under the namesystem " +
+      "lock because the namespace was modified while they ran without it")
+  MutableCounterLong optimisticReadsFailed;
   @Metric("Cache report") MutableRate cacheReport;
+  @Metric("Duration of the replication monitor iterations")
+  MutableRate replicationMonitorIteration;
+  @Metric("Time choosing the replication targets in an iteration of the " +
+      "replication monitor")
+  MutableRate replicationChooseTargets;
+  @Metric("Number of blocks the last replication monitor iteration tried " +
+      "to schedule for replication")
+  MutableGaugeInt replicationWorkQueued;
   final MutableQuantiles[] cacheReportQuantiles;
 
   @Metric("Duration in SafeMode at startup in msec")
@@ -129,15 +160,44 @@ public long totalFileOps(){
   MutableRate putImage;
 
   JvmMetrics jvmMetrics = null;
+
+  private final int[] intervals;
+
+  /**
+   * Namesystem lock hold time metrics, keyed by metric name. These are
+   * registered on first use since the set of operations is open ended.
+   */
+  private final ConcurrentMap<String, LockHoldMetrics> fsLockHoldMetrics =
+      new ConcurrentHashMap<String, LockHoldMetrics>();
+
+  /** Hold time rate and percentiles for one lock mode of one operation. */
+  private static class LockHoldMetrics {
+    private final MutableRate rate;
+    private final MutableQuantiles[] quantiles;
+
+    LockHoldMetrics(MutableRate rate, MutableQuantiles[] quantiles) {
+      this.rate = rate;
+      this.quantiles = quantiles;
+    }
+
+    void add(long value) {
+      rate.add(value);
+      for (MutableQuantiles q : quantiles) {
+        q.add(value);
+      }
+    }
+  }
   
   NameNodeMetrics(String processName, String sessionId, int[] intervals,
       final JvmMetrics jvmMetrics) {
     this.jvmMetrics = jvmMetrics;
+    this.intervals = intervals;
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    blockReportLookupQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
@@ -148,6 +208,9 @@ public long totalFileOps(){
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      blockReportLookupQuantiles[i] = registry.newQuantiles(
+          "blockReportLookup" + interval + "s",
+          "Block report lookup", "ops", "latency", interval);
       cacheReportQuantiles[i] = registry.newQuantiles(
           "cacheReport" + interval + "s",
           "Cache report", "ops", "latency", interval);
@@ -203,6 +266,11 @@ public void incrFilesRenamed() {
     filesRenamed.incr();
   }
 
+  public void incrBatchNamespaceOps(int numOps) {
+    batchNamespaceOps.incr();
+    batchedNamespaceOps.incr(numOps);
+  }
+
   public void incrFilesTruncated() {
     filesTruncated.incr();
   }
@@ -271,6 +339,11 @@ public void incrStorageBlockReportOps() {
     storageBlockReportOps.incr();
   }
 
+  public void incrStorageIncrementalBlockReportOps(int numBlocks) {
+    storageIncrementalBlockReportOps.incr();
+    incrementalBlockReportBlocks.incr(numBlocks);
+  }
+
   public void setBlockOpsQueued(int size) {
     blockOpsQueued.set(size);
   }
@@ -305,6 +378,34 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportLookup(long latency) {
+    blockReportLookup.add(latency);
+    for (MutableQuantiles q : blockReportLookupQuantiles) {
+      q.add(latency);
+    }
+  }
+
+  public void incrBlockReportLookupsDiscarded() {
+    blockReportLookupsDiscarded.incr();
+  }
+
+  public void incrOptimisticReads(boolean succeeded) {
+    if (succeeded) {
+      optimisticReads.incr();
+    } else {
+      optimisticReadsFailed.incr();
+    }
+  }
+
+  public void addReplicationMonitorIteration(long latency) {
+    replicationMonitorIteration.add(latency);
+  }
+
+  public void addReplicationChooseTargets(long latency, int numBlocks) {
+    replicationChooseTargets.add(latency);
+    replicationWorkQueued.set(numBlocks);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -327,4 +428,39 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  /**
+   * Record how long an operation held the namesystem lock.
+   * @param opName name of the operation, null if unknown
+   * @param write whether the write lock was held
+   * @param elapsedMicros hold time in microseconds
+   */
+  public void addFSNamesystemLockHold(String opName, boolean write,
+      long elapsedMicros) {
+    final String name = "FSN" + (write ? "Write" : "Read") + "Lock"
+        + StringUtils.capitalize(opName == null ? "other" : opName);
+    LockHoldMetrics m = fsLockHoldMetrics.get(name);
+    if (m == null) {
+      m = newLockHoldMetrics(name, write);
+    }
+    m.add(elapsedMicros);
+  }
+
+  private synchronized LockHoldMetrics newLockHoldMetrics(String name,
+      boolean write) {
+    LockHoldMetrics m = fsLockHoldMetrics.get(name);
+    if (m != null) {
+      return m;
+    }
+    final String desc = "Time in microseconds the namesystem "
+        + (write ? "write" : "read") + " lock was held";
+    final MutableQuantiles[] quantiles = new MutableQuantiles[intervals.length];
+    for (int i = 0; i < intervals.length; i++) {
+      quantiles[i] = registry.newQuantiles(name + intervals[i] + "s", desc,
+          "ops", "latency", intervals[i]);
+    }
+    m = new LockHoldMetrics(registry.newRate(name, desc, false), quantiles);
+    fsLockHoldMetrics.put(name, m);
+    return m;
+  }
 }
@@ -145,6 +145,7 @@ public QuotaCounts updateQuotaAndCollectBlocks(BlockStoragePolicySuite bsps, INo
       FileDiff removed, BlocksMapUpdateInfo collectedBlocks,
       final List<INode> removedINodes) {
     long oldStoragespace = file.storagespaceConsumed();
+    long oldLength = file.storagespaceConsumedNoReplication();
 
     byte storagePolicyID = file.getStoragePolicyID();
     BlockStoragePolicy bsp = null;
@@ -198,9 +199,11 @@ public QuotaCounts updateQuotaAndCollectBlocks(BlockStoragePolicySuite bsps, INo
         bsps, file, removed, collectedBlocks, removedINodes);
 
     long ssDelta = oldStoragespace - file.storagespaceConsumed();
+    long lengthDelta = oldLength - file.storagespaceConsumedNoReplication();
     return new QuotaCounts.Builder().
         storageSpace(ssDelta).
         typeSpaces(typeSpaces).
+        length(lengthDelta).
         build();
   }
 
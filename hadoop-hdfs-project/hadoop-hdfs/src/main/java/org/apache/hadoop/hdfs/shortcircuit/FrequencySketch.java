@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.shortcircuit;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Estimates how often each key has been accessed recently, for a
+ * TinyLFU-style admission policy.
+ *
+ * This is a count-min sketch of small saturating counters. Once the number
+ * of recorded accesses reaches ten times the number of entries the sketch
+ * was sized for, every counter is halved, so that keys which are no longer
+ * accessed lose their weight over time.
+ *
+ * This class is not thread-safe.
+ */
+class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = new int[] {
+      0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+  private final byte[][] table;
+  private final int mask;
+  private final int sampleSize;
+  private int additions = 0;
+
+  /**
+   * @param maxEntries the number of entries whose frequencies should be
+   *                   told apart.
+   */
+  FrequencySketch(int maxEntries) {
+    // Four counters per entry, rounded up to a power of two.
+    int width = Integer.highestOneBit(Math.max(16, maxEntries) - 1) << 3;
+    this.table = new byte[DEPTH][width];
+    this.mask = width - 1;
+    this.sampleSize = 10 * Math.max(16, maxEntries);
+  }
+
+  private int indexOf(Object key, int row) {
+    int h = key.hashCode() * SEEDS[row];
+    h ^= h >>> 16;
+    return h & mask;
+  }
+
+  /** Record an access to the given key. */
+  void increment(Object key) {
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      int idx = indexOf(key, i);
+      if (table[i][idx] < MAX_COUNT) {
+        table[i][idx]++;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /** @return the estimated number of recent accesses to the given key. */
+  int frequency(Object key) {
+    int freq = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      freq = Math.min(freq, table[i][indexOf(key, i)]);
+    }
+    return freq;
+  }
+
+  /** Halve all the counters. */
+  @VisibleForTesting
+  void reset() {
+    for (byte[] row : table) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = (byte) (row[i] >>> 1);
+      }
+    }
+    additions /= 2;
+  }
+}
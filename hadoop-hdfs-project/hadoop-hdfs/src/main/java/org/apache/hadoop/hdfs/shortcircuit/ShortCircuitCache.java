@@ -106,7 +106,7 @@ public void run() {
           LOG.debug(this + ": cache cleaner running at " + curMs);
         }
 
-        int numDemoted = demoteOldEvictableMmaped(curMs);
+        int numDemoted = demoteOldEvictableMmaped(curMs, null);
         int numPurged = 0;
         Long evictionTimeNs = Long.valueOf(0);
         while (true) {
@@ -123,6 +123,7 @@ public void run() {
                   StringUtils.getStackTrace(Thread.currentThread()));
           }
           purge(replica);
+          metrics.incEvictions();
           numPurged++;
         }
 
@@ -338,6 +339,15 @@ public interface ShortCircuitReplicaCreator {
    */
   private final DfsClientShmManager shmManager;
 
+  /**
+   * Recent access frequencies of the replicas, or null if replicas are
+   * evicted in LRU order only.
+   */
+  private final FrequencySketch frequencySketch;
+
+  private final ShortCircuitCacheMetrics metrics =
+      new ShortCircuitCacheMetrics();
+
   /**
    * Create a {@link ShortCircuitCache} object from a {@link Configuration}
    */
@@ -356,12 +366,30 @@ public static ShortCircuitCache fromConf(Configuration conf) {
         conf.getLong(DFSConfigKeys.DFS_CLIENT_SHORT_CIRCUIT_REPLICA_STALE_THRESHOLD_MS,
             DFSConfigKeys.DFS_CLIENT_SHORT_CIRCUIT_REPLICA_STALE_THRESHOLD_MS_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_SHORT_CIRCUIT_SHARED_MEMORY_WATCHER_INTERRUPT_CHECK_MS,
-            DFSConfigKeys.DFS_SHORT_CIRCUIT_SHARED_MEMORY_WATCHER_INTERRUPT_CHECK_MS_DEFAULT));
+            DFSConfigKeys.DFS_SHORT_CIRCUIT_SHARED_MEMORY_WATCHER_INTERRUPT_CHECK_MS_DEFAULT),
+        conf.getBoolean(DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_KEY,
+            DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_FREQUENCY_ADMISSION_DEFAULT));
   }
 
   public ShortCircuitCache(int maxTotalSize, long maxNonMmappedEvictableLifespanMs,
       int maxEvictableMmapedSize, long maxEvictableMmapedLifespanMs,
       long mmapRetryTimeoutMs, long staleThresholdMs, int shmInterruptCheckMs) {
+    this(maxTotalSize, maxNonMmappedEvictableLifespanMs,
+        maxEvictableMmapedSize, maxEvictableMmapedLifespanMs,
+        mmapRetryTimeoutMs, staleThresholdMs, shmInterruptCheckMs, false);
+  }
+
+  /**
+   * @param frequencyAdmission  If true, a replica which is released while
+   *                            the cache is full is only kept in favor of
+   *                            the least recently used one if it has been
+   *                            accessed more often recently.  Otherwise it
+   *                            is the one evicted.
+   */
+  public ShortCircuitCache(int maxTotalSize, long maxNonMmappedEvictableLifespanMs,
+      int maxEvictableMmapedSize, long maxEvictableMmapedLifespanMs,
+      long mmapRetryTimeoutMs, long staleThresholdMs, int shmInterruptCheckMs,
+      boolean frequencyAdmission) {
     Preconditions.checkArgument(maxTotalSize >= 0);
     this.maxTotalSize = maxTotalSize;
     Preconditions.checkArgument(maxNonMmappedEvictableLifespanMs >= 0);
@@ -382,6 +410,8 @@ public ShortCircuitCache(int maxTotalSize, long maxNonMmappedEvictableLifespanMs
       }
     }
     this.shmManager = shmManager;
+    this.frequencySketch = frequencyAdmission ?
+        new FrequencySketch(maxTotalSize) : null;
   }
 
   public long getStaleThresholdMs() {
@@ -487,7 +517,7 @@ void unref(ShortCircuitReplica replica) {
             StringUtils.getStackTrace(Thread.currentThread()));
       }
       if (shouldTrimEvictionMaps) {
-        trimEvictionMaps();
+        trimEvictionMaps(replica);
       }
     } finally {
       lock.unlock();
@@ -499,10 +529,14 @@ void unref(ShortCircuitReplica replica) {
    *
    * You must hold the cache lock while calling this function.
    *
-   * @param now   Current time in monotonic milliseconds.
-   * @return      Number of replicas demoted.
+   * @param now         Current time in monotonic milliseconds.
+   * @param candidate   The replica which was just made evictable, or null.
+   *                    If there are too many mmaps, it is demoted instead
+   *                    of the oldest one unless it was accessed more often.
+   * @return            Number of replicas demoted.
    */
-  private int demoteOldEvictableMmaped(long now) {
+  private int demoteOldEvictableMmaped(long now,
+      ShortCircuitReplica candidate) {
     int numDemoted = 0;
     boolean needMoreSpace = false;
     Long evictionTimeNs = Long.valueOf(0);
@@ -521,6 +555,15 @@ private int demoteOldEvictableMmaped(long now) {
         needMoreSpace = true;
       }
       ShortCircuitReplica replica = entry.getValue();
+      if (needMoreSpace && candidate != null) {
+        if (candidate != replica && candidate.hasMmap() &&
+            candidate.getEvictableTimeNs() != null &&
+            !admit(candidate, replica)) {
+          replica = candidate;
+          evictionTimeNs = candidate.getEvictableTimeNs();
+        }
+        candidate = null;
+      }
       if (LOG.isTraceEnabled()) {
         String rationale = needMoreSpace ? "because we need more space" : 
             "because it's too old";
@@ -538,10 +581,15 @@ private int demoteOldEvictableMmaped(long now) {
 
   /**
    * Trim the eviction lists.
+   *
+   * @param candidate   The replica which was just made evictable.  If the
+   *                    cache is full, it is evicted instead of the least
+   *                    recently used replica unless it was accessed more
+   *                    often.  If null, replicas are evicted in LRU order.
    */
-  private void trimEvictionMaps() {
+  private void trimEvictionMaps(ShortCircuitReplica candidate) {
     long now = Time.monotonicNow();
-    demoteOldEvictableMmaped(now);
+    demoteOldEvictableMmaped(now, candidate);
 
     while (true) {
       long evictableSize = evictable.size();
@@ -555,14 +603,42 @@ private void trimEvictionMaps() {
       } else {
        replica = evictable.firstEntry().getValue();
       }
+      if (candidate != null) {
+        if (candidate != replica && !candidate.purged &&
+            candidate.getEvictableTimeNs() != null &&
+            !admit(candidate, replica)) {
+          replica = candidate;
+          metrics.incAdmissionRejections();
+        }
+        candidate = null;
+      }
       if (LOG.isTraceEnabled()) {
         LOG.trace(this + ": trimEvictionMaps is purging " + replica +
           StringUtils.getStackTrace(Thread.currentThread()));
       }
       purge(replica);
+      metrics.incEvictions();
     }
   }
 
+  /**
+   * Decide whether a replica which was just made evictable should be kept
+   * in favor of the given victim.  Without frequency admission, the least
+   * recently used replica is always the one to go.
+   *
+   * You must hold the cache lock while calling this function.
+   *
+   * @return true if the candidate should be kept.
+   */
+  private boolean admit(ShortCircuitReplica candidate,
+      ShortCircuitReplica victim) {
+    if (frequencySketch == null) {
+      return true;
+    }
+    return frequencySketch.frequency(candidate.key) >
+        frequencySketch.frequency(victim.key);
+  }
+
   /**
    * Munmap a replica, updating outstandingMmapCount.
    *
@@ -685,6 +761,9 @@ public ShortCircuitReplicaInfo fetchOrCreate(ExtendedBlockId key,
     Waitable<ShortCircuitReplicaInfo> newWaitable = null;
     lock.lock();
     try {
+      if (frequencySketch != null) {
+        frequencySketch.increment(key);
+      }
       ShortCircuitReplicaInfo info = null;
       do {
         if (closed) {
@@ -706,8 +785,14 @@ public ShortCircuitReplicaInfo fetchOrCreate(ExtendedBlockId key,
           }
         }
       } while (false);
-      if (info != null) return info;
+      if (info != null) {
+        if (info.getReplica() != null) {
+          metrics.incHits();
+        }
+        return info;
+      }
       // We need to load the replica ourselves.
+      metrics.incMisses();
       newWaitable = new Waitable<ShortCircuitReplicaInfo>(lock.newCondition());
       replicaInfoMap.put(key, newWaitable);
     } finally {
@@ -829,6 +914,63 @@ private void startCacheCleanerThreadIfNeeded() {
     }
   }
 
+  /**
+   * @return true if the cache has, or is loading, a replica for the given
+   *         key.
+   */
+  public boolean containsReplica(ExtendedBlockId key) {
+    lock.lock();
+    try {
+      return replicaInfoMap.containsKey(key);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add a replica whose file descriptors were received along with those of
+   * another replica, before anyone asked for it.  The replica becomes
+   * evictable right away, and bypasses frequency admission.  If the cache
+   * already has a replica for the same key, or is closed, the new replica is
+   * closed instead.
+   *
+   * @param replica   A new replica, whose reference is handed to the cache.
+   */
+  public void addBatchedReplica(ShortCircuitReplica replica) {
+    lock.lock();
+    try {
+      if (closed || replicaInfoMap.containsKey(replica.key)) {
+        if (LOG.isTraceEnabled()) {
+          LOG.trace(this + ": not adding batched replica " + replica);
+        }
+        // Drop both the cache's and the requester's reference.
+        replica.purged = true;
+        unref(replica);
+        unref(replica);
+        return;
+      }
+      Waitable<ShortCircuitReplicaInfo> waitable =
+          new Waitable<ShortCircuitReplicaInfo>(lock.newCondition());
+      waitable.provide(new ShortCircuitReplicaInfo(replica));
+      replicaInfoMap.put(replica.key, waitable);
+      metrics.incBatchedReplicas();
+      startCacheCleanerThreadIfNeeded();
+      // Drop the requester's reference, making the replica evictable.  It
+      // has not been read yet, so it has no access frequency to speak of.
+      // Rather than being turned away by frequency admission, it makes room
+      // for itself by evicting the least recently used replica.
+      --replica.refCount;
+      insertEvictable(System.nanoTime(), replica, evictable);
+      trimEvictionMaps(null);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public ShortCircuitCacheMetrics getMetrics() {
+    return metrics;
+  }
+
   ClientMmap getOrCreateClientMmap(ShortCircuitReplica replica,
       boolean anchored) {
     Condition newCond;
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.shortcircuit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * The client-side metrics of a {@link ShortCircuitCache}.
+ * Like the hedged read metrics, these are publicly accessible, so that
+ * clients such as HBase can grab them.
+ */
+@InterfaceAudience.Private
+public class ShortCircuitCacheMetrics {
+  public final AtomicLong hits = new AtomicLong();
+  public final AtomicLong misses = new AtomicLong();
+  public final AtomicLong evictions = new AtomicLong();
+  public final AtomicLong admissionRejections = new AtomicLong();
+  public final AtomicLong batchedReplicas = new AtomicLong();
+
+  public void incHits() {
+    hits.incrementAndGet();
+  }
+
+  public void incMisses() {
+    misses.incrementAndGet();
+  }
+
+  public void incEvictions() {
+    evictions.incrementAndGet();
+  }
+
+  public void incAdmissionRejections() {
+    admissionRejections.incrementAndGet();
+  }
+
+  public void incBatchedReplicas() {
+    batchedReplicas.incrementAndGet();
+  }
+
+  /** @return the number of lookups which found a cached replica. */
+  public long getHits() {
+    return hits.longValue();
+  }
+
+  /**
+   * @return the number of lookups which had to request the file descriptors
+   *         of the replica from the DataNode.
+   */
+  public long getMisses() {
+    return misses.longValue();
+  }
+
+  /**
+   * @return the number of unreferenced replicas closed to keep the cache
+   *         within its size and age limits.
+   */
+  public long getEvictions() {
+    return evictions.longValue();
+  }
+
+  /**
+   * @return the number of evictions of a replica just released, in favor
+   *         of a replica which had been accessed more often.
+   */
+  public long getAdmissionRejections() {
+    return admissionRejections.longValue();
+  }
+
+  /**
+   * @return the number of replicas whose file descriptors were received
+   *         along with those of another replica, in a single request.
+   */
+  public long getBatchedReplicas() {
+    return batchedReplicas.longValue();
+  }
+}
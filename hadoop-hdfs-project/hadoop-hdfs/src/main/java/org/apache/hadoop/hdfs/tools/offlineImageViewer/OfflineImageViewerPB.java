@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.tools.offlineImageViewer;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
@@ -84,6 +85,9 @@ public class OfflineImageViewerPB {
       + "-t,--temp <arg>        Use temporary dir to cache intermediate result to generate\n"
       + "                       Delimited outputs. If not set, Delimited processor constructs\n"
       + "                       the namespace in memory before outputting text.\n"
+      + "-threads <arg>         Number of threads to generate Delimited outputs with.\n"
+      + "                       If greater than 1, OUTPUTFILE is a directory and each\n"
+      + "                       thread writes its own part-NNNNN file in it. (1 by default)\n"
       + "-h,--help              Display usage information and exit\n";
 
   /**
@@ -107,6 +111,7 @@ private static Options buildOptions() {
     options.addOption("addr", true, "");
     options.addOption("delimiter", true, "");
     options.addOption("t", "temp", true, "");
+    options.addOption("threads", true, "");
 
     return options;
   }
@@ -154,6 +159,24 @@ public static int run(String[] args) throws Exception {
     String delimiter = cmd.getOptionValue("delimiter",
         PBImageDelimitedTextWriter.DEFAULT_DELIMITER);
     String tempPath = cmd.getOptionValue("t", "");
+    int threads = Integer.parseInt(cmd.getOptionValue("threads", "1"));
+
+    if (processor.equals("Delimited") && threads > 1) {
+      if (outputFile.equals("-")) {
+        System.err.println("An output directory is required with -threads");
+        return -1;
+      }
+      try (PBImageDelimitedTextWriter writer = new PBImageDelimitedTextWriter(
+          new File(outputFile), threads, delimiter, tempPath)) {
+        writer.visit(new RandomAccessFile(inputFile, "r"));
+        return 0;
+      } catch (EOFException e) {
+        System.err.println("Input file ended unexpectedly. Exiting");
+      } catch (IOException e) {
+        System.err.println("Encountered exception.  Exiting: " + e.getMessage());
+      }
+      return -1;
+    }
 
     Configuration conf = new Configuration();
     try (PrintStream out = outputFile.equals("-") ?
@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INodeFile;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.INodeSymlink;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
@@ -42,12 +43,20 @@
  * The default delimiter is tab, as this is an unlikely value to be included in
  * an inode path or other text metadata. The delimiter value can be via the
  * constructor.
+ *
+ * Entries may be generated by several output threads at once, see
+ * {@link PBImageTextWriter}.
  */
 public class PBImageDelimitedTextWriter extends PBImageTextWriter {
   static final String DEFAULT_DELIMITER = "\t";
   private static final String DATE_FORMAT="yyyy-MM-dd HH:mm";
-  private final SimpleDateFormat dateFormatter =
-      new SimpleDateFormat(DATE_FORMAT);
+  private final ThreadLocal<SimpleDateFormat> dateFormatter =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          return new SimpleDateFormat(DATE_FORMAT);
+        }
+      };
 
   private final String delimiter;
 
@@ -57,8 +66,14 @@ public class PBImageDelimitedTextWriter extends PBImageTextWriter {
     this.delimiter = delimiter;
   }
 
+  PBImageDelimitedTextWriter(File outputDir, int numThreads, String delimiter,
+      String tempPath) throws IOException {
+    super(outputDir, numThreads, tempPath);
+    this.delimiter = delimiter;
+  }
+
   private String formatDate(long date) {
-    return dateFormatter.format(new Date(date));
+    return dateFormatter.get().format(new Date(date));
   }
 
   private void append(StringBuffer buffer, int field) {
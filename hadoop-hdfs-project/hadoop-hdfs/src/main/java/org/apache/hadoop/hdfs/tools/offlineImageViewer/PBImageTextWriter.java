@@ -19,6 +19,7 @@
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.protobuf.CodedInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
@@ -44,6 +45,7 @@
 
 import java.io.BufferedInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -52,6 +54,7 @@
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -59,6 +62,10 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class reads the protobuf-based fsimage and generates text output
@@ -82,6 +89,15 @@
  * stores all metadata in memory (O(n) memory) while
  * {@link LevelDBMetadataMap} stores metadata in LevelDB on disk (O(1) memory).
  * User can choose between them based on the time/space tradeoffs.
+ *
+ * When more than one output thread is requested, the second phase runs on
+ * worker threads, which parse the inodes, look up their parent paths and
+ * format them. If the image records INODE_SUB sub-sections of the INode
+ * section, each worker reads whole sub-sections on its own. Otherwise the
+ * serialized inodes are read on the calling thread and handed out in
+ * batches to the workers. Each worker writes to its own partition file in
+ * the output directory, so the sub-class must make {@link getEntry()}
+ * thread-safe.
  */
 abstract class PBImageTextWriter implements Closeable {
   private static final Logger LOG =
@@ -195,7 +211,8 @@ public void putDir(INode p) {
       dirMap.put(p.getId(), dir);
     }
 
-    public String getParentPath(long inode) throws IOException {
+    @Override
+    public synchronized String getParentPath(long inode) throws IOException {
       if (inode == INodeId.ROOT_INODE_ID) {
         return "";
       }
@@ -287,7 +304,14 @@ protected boolean removeEldestEntry(Map.Entry<Long, String> entry) {
     private LevelDBStore dirChildMap = null;
     /** Directory entry map */
     private LevelDBStore dirMap = null;
-    private DirPathCache dirPathCache = new DirPathCache();
+    /** Each output thread caches the paths it has resolved. */
+    private final ThreadLocal<DirPathCache> dirPathCache =
+        new ThreadLocal<DirPathCache>() {
+          @Override
+          protected DirPathCache initialValue() {
+            return new DirPathCache();
+          }
+        };
 
     LevelDBMetadataMap(String baseDir) throws IOException {
       File dbDir = new File(baseDir);
@@ -357,7 +381,8 @@ public String getParentPath(long inode) throws IOException {
           "Can not find parent directory for inode %s, "
               + "fsimage might be corrupted", inode);
       long parent = toLong(bytes);
-      if (!dirPathCache.containsKey(parent)) {
+      DirPathCache cache = dirPathCache.get();
+      if (!cache.containsKey(parent)) {
         bytes = dirMap.get(toBytes(parent));
         if (parent != INodeId.ROOT_INODE_ID) {
           Preconditions.checkState(bytes != null,
@@ -368,9 +393,9 @@ public String getParentPath(long inode) throws IOException {
         String parentPath =
             new Path(getParentPath(parent),
                 parentName.isEmpty()? "/" : parentName).toString();
-        dirPathCache.put(parent, parentPath);
+        cache.put(parent, parentPath);
       }
-      return dirPathCache.get(parent);
+      return cache.get(parent);
     }
 
     @Override
@@ -380,8 +405,15 @@ public void sync() throws IOException {
     }
   }
 
+  /** Number of inodes handed to an output worker at a time. */
+  private static final int OUTPUT_BATCH_SIZE = 1024;
+  /** Number of batches queued per output worker. */
+  private static final int OUTPUT_QUEUE_DEPTH = 4;
+
   private String[] stringTable;
   private PrintStream out;
+  private final File outputDir;
+  private final int numThreads;
   private MetadataMap metadataMap = null;
 
   /**
@@ -391,7 +423,30 @@ public void sync() throws IOException {
    *                 in memory instead.
    */
   PBImageTextWriter(PrintStream out, String tempPath) throws IOException {
+    this(out, null, 1, tempPath);
+  }
+
+  /**
+   * Construct a PB FsImage writer to generate partitioned text files, one
+   * per output thread.
+   * @param outputDir the directory to write the partitions into. It is
+   *                  created if it does not exist.
+   * @param numThreads the number of threads to format the inodes with.
+   * @param tempPath the path to store metadata. If it is empty, store metadata
+   *                 in memory instead.
+   */
+  PBImageTextWriter(File outputDir, int numThreads, String tempPath)
+      throws IOException {
+    this(null, outputDir, numThreads, tempPath);
+  }
+
+  private PBImageTextWriter(PrintStream out, File outputDir, int numThreads,
+      String tempPath) throws IOException {
+    Preconditions.checkArgument(numThreads > 0,
+        "Invalid number of output threads: %s", numThreads);
     this.out = out;
+    this.outputDir = outputDir;
+    this.numThreads = numThreads;
     if (tempPath.isEmpty()) {
       metadataMap = new InMemoryMetadataDB();
     } else {
@@ -468,19 +523,63 @@ private void output(Configuration conf, FileSummary summary,
       throws IOException {
     InputStream is;
     long startTime = Time.monotonicNow();
+    PrintStream[] partitions = null;
+    // the sort of the sections is stable, so the sub-sections stay in order.
+    List<FileSummary.Section> subSections = new ArrayList<>();
     for (FileSummary.Section section : sections) {
-      if (SectionName.fromString(section.getName()) == SectionName.INODE) {
+      if (SectionName.fromString(section.getName()) == SectionName.INODE_SUB) {
+        subSections.add(section);
+      }
+    }
+    try {
+      if (outputDir != null) {
+        partitions = openPartitions();
+      }
+      for (FileSummary.Section section : sections) {
+        if (SectionName.fromString(section.getName()) != SectionName.INODE) {
+          continue;
+        }
+        if (partitions != null && subSections.size() > 1) {
+          outputINodeSubSections(conf, summary, fin.getChannel(), subSections,
+              partitions);
+          continue;
+        }
         fin.getChannel().position(section.getOffset());
         is = FSImageUtil.wrapInputStreamForCompression(conf,
             summary.getCodec(), new BufferedInputStream(new LimitInputStream(
                 fin, section.getLength())));
-        outputINodes(is);
+        if (partitions == null) {
+          outputINodes(is);
+        } else {
+          outputINodesInParallel(is, partitions);
+        }
+      }
+    } finally {
+      if (partitions != null) {
+        IOUtils.cleanup(null, partitions);
       }
     }
     long timeTaken = Time.monotonicNow() - startTime;
     LOG.debug("Time to output inodes: {}ms", timeTaken);
   }
 
+  private PrintStream[] openPartitions() throws IOException {
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Failed to mkdir on " + outputDir);
+    }
+    PrintStream[] partitions = new PrintStream[numThreads];
+    try {
+      for (int i = 0; i < numThreads; i++) {
+        File f = new File(outputDir, String.format("part-%05d", i));
+        partitions[i] = new PrintStream(f, "UTF-8");
+      }
+    } catch (IOException e) {
+      IOUtils.cleanup(null, partitions);
+      throw e;
+    }
+    return partitions;
+  }
+
   protected PermissionStatus getPermission(long perm) {
     return FSImageFormatPBINode.Loader.loadPermission(perm, stringTable);
   }
@@ -586,4 +685,270 @@ private void outputINodes(InputStream in) throws IOException {
     }
     LOG.info("Outputted {} INodes.", s.getNumInodes());
   }
+
+  /**
+   * Output the inodes of an INode section with one worker per partition.
+   * The inodes are only split into delimited records on this thread; the
+   * workers parse and format them. The queue between them is bounded, so
+   * at most a few batches of inodes are held in memory per worker.
+   */
+  private void outputINodesInParallel(InputStream in, PrintStream[] partitions)
+      throws IOException {
+    INodeSection s = INodeSection.parseDelimitedFrom(in);
+    LOG.info("Found {} INodes in the INode section, outputting them with {} " +
+        "threads", s.getNumInodes(), partitions.length);
+    BlockingQueue<List<byte[]>> queue = new ArrayBlockingQueue<>(
+        partitions.length * OUTPUT_QUEUE_DEPTH);
+    OutputWorker[] workers = new OutputWorker[partitions.length];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new BatchOutputWorker(i, queue, partitions[i]);
+      workers[i].start();
+    }
+    boolean success = false;
+    try {
+      List<byte[]> batch = new ArrayList<>(OUTPUT_BATCH_SIZE);
+      for (long i = 0; i < s.getNumInodes(); ++i) {
+        batch.add(readDelimitedBytes(in));
+        if (batch.size() == OUTPUT_BATCH_SIZE) {
+          enqueue(queue, batch, workers);
+          batch = new ArrayList<>(OUTPUT_BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        enqueue(queue, batch, workers);
+      }
+      // An empty batch tells a worker there is nothing more to output.
+      for (int i = 0; i < workers.length; i++) {
+        enqueue(queue, new ArrayList<byte[]>(0), workers);
+      }
+      long count = joinWorkers(workers);
+      success = true;
+      LOG.info("Outputted {} INodes.", count);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while outputting INodes", e);
+    } finally {
+      if (!success) {
+        for (OutputWorker worker : workers) {
+          worker.interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Output the inodes of the INode section from its sub-sections, with one
+   * worker per partition. Each worker reads whole sub-sections from the
+   * image by itself, so the section is read in parallel too.
+   */
+  private void outputINodeSubSections(final Configuration conf,
+      final FileSummary summary, final FileChannel channel,
+      final List<FileSummary.Section> subSections, PrintStream[] partitions)
+      throws IOException {
+    // the header of the section is at the start of the first sub-section.
+    final long numInodes;
+    try (InputStream in = openSection(conf, summary, channel,
+        subSections.get(0))) {
+      numInodes = INodeSection.parseDelimitedFrom(in).getNumInodes();
+    }
+    LOG.info("Found {} INodes in {} sub-sections of the INode section, " +
+        "outputting them with {} threads", numInodes, subSections.size(),
+        partitions.length);
+    final AtomicInteger nextSubSection = new AtomicInteger();
+    OutputWorker[] workers = new OutputWorker[partitions.length];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new OutputWorker(i, partitions[i]) {
+        @Override
+        void output() throws IOException {
+          int next;
+          while ((next = nextSubSection.getAndIncrement())
+              < subSections.size()) {
+            try (InputStream in = openSection(conf, summary, channel,
+                subSections.get(next))) {
+              if (next == 0) {
+                INodeSection.parseDelimitedFrom(in);
+              }
+              INode p;
+              while ((p = INode.parseDelimitedFrom(in)) != null) {
+                outputINode(p);
+              }
+            }
+          }
+        }
+      };
+      workers[i].start();
+    }
+    boolean success = false;
+    try {
+      long count = joinWorkers(workers);
+      if (count != numInodes) {
+        throw new IOException("Expected to output " + numInodes + " INodes, "
+            + "but outputted " + count + ". The image may be corrupt.");
+      }
+      success = true;
+      LOG.info("Outputted {} INodes.", count);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while outputting INodes", e);
+    } finally {
+      if (!success) {
+        for (OutputWorker worker : workers) {
+          worker.interrupt();
+        }
+      }
+    }
+  }
+
+  /** @return the number of inodes the workers outputted. */
+  private static long joinWorkers(OutputWorker[] workers)
+      throws IOException, InterruptedException {
+    long count = 0;
+    for (OutputWorker worker : workers) {
+      worker.join();
+      worker.checkError();
+      count += worker.count;
+    }
+    return count;
+  }
+
+  /**
+   * Open a section of the image. The section is read with positional reads,
+   * so several sections can be read from the channel at the same time.
+   */
+  private static InputStream openSection(Configuration conf,
+      FileSummary summary, FileChannel channel, FileSummary.Section section)
+      throws IOException {
+    return FSImageUtil.wrapInputStreamForCompression(conf, summary.getCodec(),
+        new BufferedInputStream(new PositionedChannelInputStream(channel,
+            section.getOffset(), section.getLength())));
+  }
+
+  /** Reads a range of a file channel without moving its position. */
+  private static class PositionedChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    PositionedChannelInputStream(FileChannel channel, long offset,
+        long length) {
+      this.channel = channel;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int n = (int) Math.min(len, end - position);
+      if (n <= 0) {
+        return -1;
+      }
+      n = channel.read(ByteBuffer.wrap(b, off, n), position);
+      if (n > 0) {
+        position += n;
+      }
+      return n;
+    }
+  }
+
+  private static void enqueue(BlockingQueue<List<byte[]>> queue,
+      List<byte[]> batch, OutputWorker[] workers)
+      throws IOException, InterruptedException {
+    while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+      // Do not wait forever on workers that have given up.
+      for (OutputWorker worker : workers) {
+        worker.checkError();
+      }
+    }
+  }
+
+  /** Read the next length-delimited message without parsing it. */
+  private static byte[] readDelimitedBytes(InputStream in) throws IOException {
+    int firstByte = in.read();
+    if (firstByte == -1) {
+      throw new EOFException("Unexpected end of the INode section");
+    }
+    int size = CodedInputStream.readRawVarint32(firstByte, in);
+    byte[] bytes = new byte[size];
+    IOUtils.readFully(in, bytes, 0, size);
+    return bytes;
+  }
+
+  /**
+   * Resolves and formats inodes, writing them to its own partition.
+   */
+  private abstract class OutputWorker extends Thread {
+    private final PrintStream partition;
+    private volatile Throwable error = null;
+    private long count = 0;
+
+    OutputWorker(int id, PrintStream partition) {
+      super("OIV output worker " + id);
+      setDaemon(true);
+      this.partition = partition;
+    }
+
+    /** Output the inodes of this worker. */
+    abstract void output() throws IOException, InterruptedException;
+
+    void outputINode(INode p) throws IOException {
+      String parentPath = metadataMap.getParentPath(p.getId());
+      partition.println(getEntry(parentPath, p));
+      count++;
+    }
+
+    @Override
+    public void run() {
+      try {
+        output();
+        if (partition.checkError()) {
+          throw new IOException("Failed to write to partition of " + getName());
+        }
+      } catch (InterruptedException e) {
+        error = e;
+      } catch (Throwable t) {
+        LOG.error("{} failed", getName(), t);
+        error = t;
+      }
+    }
+
+    void checkError() throws IOException {
+      Throwable t = error;
+      if (t != null) {
+        throw new IOException(getName() + " failed", t);
+      }
+    }
+  }
+
+  /** Parses the batches of serialized inodes taken from a queue. */
+  private class BatchOutputWorker extends OutputWorker {
+    private final BlockingQueue<List<byte[]>> queue;
+
+    BatchOutputWorker(int id, BlockingQueue<List<byte[]>> queue,
+        PrintStream partition) {
+      super(id, partition);
+      this.queue = queue;
+    }
+
+    @Override
+    void output() throws IOException, InterruptedException {
+      while (true) {
+        List<byte[]> batch = queue.take();
+        if (batch.isEmpty()) {
+          break;
+        }
+        for (byte[] bytes : batch) {
+          outputINode(INode.parseFrom(bytes));
+        }
+      }
+    }
+  }
 }
@@ -21,6 +21,7 @@
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -160,6 +161,9 @@ static class FixedLengthManager {
      * 
      * The byte array allocated by this method must be returned for recycling
      * via the {@link FixedLengthManager#recycle(byte[])} method.
+     *
+     * @return a recycled byte array, or null if there is no free array, in
+     *         which case the caller must create a new one.
      */
     synchronized byte[] allocate() throws InterruptedException {
       if (LOG.isDebugEnabled()) {
@@ -183,7 +187,7 @@ synchronized byte[] allocate() throws InterruptedException {
       if (LOG.isDebugEnabled()) {
         debugMessage.get().append(", recycled? ").append(array != null);
       }
-      return array != null? array : new byte[byteArrayLength];
+      return array;
     }
 
     /**
@@ -272,6 +276,19 @@ public Conf(int countThreshold, int countLimit, long countResetTimePeriodMs) {
     }
   }
 
+  final AtomicLong numHits = new AtomicLong();
+  final AtomicLong numMisses = new AtomicLong();
+
+  /** @return the number of arrays served by recycling a released array. */
+  public long getNumHits() {
+    return numHits.get();
+  }
+
+  /** @return the number of arrays served by creating a new array. */
+  public long getNumMisses() {
+    return numMisses.get();
+  }
+
   /**
    * Create a byte array for the given length, where the length of
    * the returned array is larger than or equal to the given length.
@@ -305,6 +322,7 @@ public static ByteArrayManager newInstance(Conf conf) {
   static class NewByteArrayWithoutLimit extends ByteArrayManager {
     @Override
     public byte[] newByteArray(int size) throws InterruptedException {
+      numMisses.incrementAndGet();
       return new byte[size];
     }
     
@@ -367,7 +385,14 @@ public byte[] newByteArray(final int arrayLength) throws InterruptedException {
           debugMessage.get().append(": count=").append(count)
               .append(aboveThreshold? ", aboveThreshold": ", belowThreshold");
         }
-        array = manager != null? manager.allocate(): new byte[powerOfTwo];
+        final byte[] recycled = manager != null? manager.allocate(): null;
+        if (recycled != null) {
+          numHits.incrementAndGet();
+          array = recycled;
+        } else {
+          numMisses.incrementAndGet();
+          array = new byte[powerOfTwo];
+        }
       }
   
       if (LOG.isDebugEnabled()) {
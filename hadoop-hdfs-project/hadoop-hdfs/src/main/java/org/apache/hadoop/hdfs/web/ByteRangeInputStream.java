@@ -247,6 +247,15 @@ public boolean seekToNewSource(long targetPos) throws IOException {
     return false;
   }
 
+  /**
+   * Every positional read opens a new HTTP connection, so a vectored read
+   * reads through much larger gaps than it would on a local file.
+   */
+  @Override
+  protected int minSeekForVectorReads() {
+    return 64 * 1024;
+  }
+
   @Override
   public void close() throws IOException {
     if (in != null) {
@@ -1349,6 +1349,9 @@ public static void runOperations(MiniDFSCluster cluster,
         new byte[]{0x37, 0x38, 0x39});
     // OP_REMOVE_XATTR
     filesystem.removeXAttr(pathConcatTarget, "user.a2");
+    // OP_BATCH_NAMESPACE_OPS_RESULT
+    filesystem.batchNamespaceOps(Arrays.asList(
+        BatchedNamespaceOp.mkdirs("/batch_mkdir", null, false)));
   }
 
   public static void abortStream(DFSOutputStream out) throws IOException {
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test {@link DistributedFileSystem#batchNamespaceOps(List)}.
+ */
+public class TestBatchedNamespaceOps {
+  private static final String NN_METRICS = "NameNodeActivity";
+  private static final long BLOCK_SIZE = 1024 * 1024;
+  private static final int MAX_BATCH = 10;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_KEY,
+        MAX_BATCH);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  @Test
+  public void testBatchedNamespaceOps() throws Exception {
+    final Path existing = new Path("/a/existing");
+    DFSTestUtil.createFile(fs, existing, BLOCK_SIZE, (short) 1, 0L);
+    final List<BatchedNamespaceOp> ops = Arrays.asList(
+        BatchedNamespaceOp.mkdirs("/b/c", null, true),
+        BatchedNamespaceOp.create("/b/c/f1", new FsPermission((short) 0777),
+            false, false, (short) 1, BLOCK_SIZE),
+        BatchedNamespaceOp.create("/a/existing", null, false, false,
+            (short) 1, BLOCK_SIZE),
+        BatchedNamespaceOp.rename("/a/existing", "/b/existing", false),
+        BatchedNamespaceOp.delete("/nonexistent", false),
+        BatchedNamespaceOp.delete("/a", true),
+        BatchedNamespaceOp.rename("/nonexistent", "/x", false));
+
+    final long syncs = getLongCounter("SyncsNumOps", getMetrics(NN_METRICS));
+    final List<BatchedNamespaceOpResult> results = fs.batchNamespaceOps(ops);
+    // the edits of the whole batch are synced once.
+    assertEquals(syncs + 1,
+        getLongCounter("SyncsNumOps", getMetrics(NN_METRICS)));
+    assertCounter("BatchNamespaceOps", 1L, getMetrics(NN_METRICS));
+    assertCounter("BatchedNamespaceOps", (long) ops.size(),
+        getMetrics(NN_METRICS));
+
+    assertEquals(ops.size(), results.size());
+    assertTrue(results.get(0).getResult());
+    assertTrue(fs.getFileStatus(new Path("/b/c")).isDirectory());
+
+    // the created file is open for write through the returned stream.
+    final BatchedNamespaceOpResult created = results.get(1);
+    assertTrue(created.isSuccess());
+    assertNotNull(created.getFileStatus());
+    final FSDataOutputStream out = created.getOutputStream();
+    assertNotNull(out);
+    out.write(new byte[100]);
+    out.close();
+    assertEquals(100, fs.getFileStatus(new Path("/b/c/f1")).getLen());
+    // the permission is masked with the default umask 022.
+    assertEquals(0755,
+        fs.getFileStatus(new Path("/b/c/f1")).getPermission().toShort());
+
+    assertFalse(results.get(2).isSuccess());
+    assertTrue(results.get(2).getException()
+        instanceof FileAlreadyExistsException);
+    assertNull(results.get(2).getOutputStream());
+
+    assertTrue(results.get(3).isSuccess());
+    assertEquals(BLOCK_SIZE, fs.getFileStatus(new Path("/b/existing"))
+        .getLen());
+
+    assertTrue(results.get(4).isSuccess());
+    assertFalse(results.get(4).getResult());
+
+    assertTrue(results.get(5).getResult());
+    assertFalse(fs.exists(new Path("/a")));
+
+    assertFalse(results.get(6).isSuccess());
+    assertTrue(results.get(6).getException()
+        instanceof FileNotFoundException);
+
+    // the batch survives a restart from the edit log.
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertEquals(100, fs.getFileStatus(new Path("/b/c/f1")).getLen());
+    assertTrue(fs.exists(new Path("/b/existing")));
+    assertFalse(fs.exists(new Path("/a")));
+  }
+
+  @Test
+  public void testBatchTooLarge() throws Exception {
+    final List<BatchedNamespaceOp> ops = new ArrayList<BatchedNamespaceOp>();
+    for (int i = 0; i <= MAX_BATCH; i++) {
+      ops.add(BatchedNamespaceOp.mkdirs("/dir" + i, null, true));
+    }
+    try {
+      fs.batchNamespaceOps(ops);
+      fail("A batch larger than the limit should be rejected");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains(
+          DFSConfigKeys.DFS_NAMENODE_MAX_BATCH_NAMESPACE_OPS_KEY, e);
+    }
+    assertFalse(fs.exists(new Path("/dir0")));
+
+    fs.batchNamespaceOps(ops.subList(0, MAX_BATCH));
+    for (int i = 0; i < MAX_BATCH; i++) {
+      assertTrue(fs.exists(new Path("/dir" + i)));
+    }
+  }
+}
@@ -27,6 +27,8 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 
 import java.io.InputStream;
 
@@ -38,6 +40,7 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.junit.After;
@@ -118,6 +121,40 @@ public void testDatanodeRespectsKeepAliveTimeout() throws Exception {
     assertEquals(-1, peer.getInputStream().read());
   }
 
+  /**
+   * Check that a kept-alive connection waits for its next operation on the
+   * datanode's selector rather than on an xceiver thread, and that it is
+   * served again once the next operation arrives.
+   */
+  @Test(timeout=30000)
+  public void testKeptAliveConnectionHoldsNoThread() throws Exception {
+    Configuration clientConf = new Configuration(conf);
+    clientConf.setLong(DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY, 60000L);
+    clientConf.set(DFS_CLIENT_CONTEXT, "testKeptAliveConnectionHoldsNoThread");
+    DistributedFileSystem fs =
+        (DistributedFileSystem)FileSystem.get(cluster.getURI(),
+            clientConf);
+    PeerCache peerCache = ClientContext.getFromConf(clientConf).getPeerCache();
+
+    DFSTestUtil.createFile(fs, TEST_FILE, 1L, (short)1, 0L);
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    assertXceiverCount(1);
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return countServingThreads() == 0;
+      }
+    }, 50, 10000);
+
+    // The second read reuses the parked connection.
+    DFSTestUtil.readFile(fs, TEST_FILE);
+    assertEquals(1, peerCache.size());
+    assertXceiverCount(1);
+    MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+    assertTrue(getLongCounter("XceiverQueueNanosReadBlockNumOps", rb) >= 2);
+  }
+
   /**
    * Test that the client respects its keepalive timeout.
    */
@@ -240,6 +277,17 @@ public void testManyClosedSocketsInCache() throws Exception {
     DFSTestUtil.readFile(fs, TEST_FILE);
   }
 
+  /** Count the threads currently serving a DataTransferProtocol client. */
+  private static int countServingThreads() {
+    int count = 0;
+    for (Thread t : Thread.getAllStackTraces().keySet()) {
+      if (t.getName().startsWith("DataXceiver for client")) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   private void assertXceiverCount(int expected) {
     int count = getXceiverCountWithoutServer();
     if (count != expected) {
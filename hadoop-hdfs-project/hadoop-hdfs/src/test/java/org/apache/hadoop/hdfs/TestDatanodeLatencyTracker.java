@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.junit.Test;
+
+public class TestDatanodeLatencyTracker {
+  private static final DatanodeID FAST =
+      new DatanodeID("127.0.0.1", "localhost", "fast", 50010, 50075, 50475,
+          50020);
+  private static final DatanodeID SLOW =
+      new DatanodeID("127.0.0.2", "localhost", "slow", 50010, 50075, 50475,
+          50020);
+  private static final long READ_SIZE = 64 * 1024;
+
+  @Test
+  public void testBuckets() {
+    assertEquals(0, DatanodeLatencyTracker.getBucket(0));
+    assertEquals(0, DatanodeLatencyTracker.getBucket(9));
+    for (long micros : new long[] {10, 11, 99, 1000, 12345, 987654}) {
+      int bucket = DatanodeLatencyTracker.getBucket(micros);
+      assertTrue(micros + " above its bucket",
+          micros <= DatanodeLatencyTracker.getBucketUpperBound(bucket));
+      assertTrue(micros + " below its bucket",
+          micros >= DatanodeLatencyTracker.getBucketUpperBound(bucket - 1));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker(60000);
+    for (int i = 0; i < 100; i++) {
+      tracker.addLatency(FAST, READ_SIZE, 1000);
+      // One slow read in ten.
+      tracker.addLatency(SLOW, READ_SIZE, i % 10 == 0 ? 100000 : 2000);
+    }
+    assertWithin(1000, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    assertWithin(1000, tracker.getPercentileMicros(FAST, READ_SIZE, 99));
+    assertWithin(2000, tracker.getPercentileMicros(SLOW, READ_SIZE, 50));
+    assertWithin(100000, tracker.getPercentileMicros(SLOW, READ_SIZE, 95));
+
+    Map<String, Long> medians = tracker.getPercentilesMicros(READ_SIZE, 50);
+    assertEquals(2, medians.size());
+    assertWithin(1000, medians.get(FAST.getXferAddr()));
+  }
+
+  @Test
+  public void testSizeClasses() {
+    assertEquals(0, DatanodeLatencyTracker.getSizeClass(1));
+    assertEquals(0, DatanodeLatencyTracker.getSizeClass(4096));
+    assertEquals(1, DatanodeLatencyTracker.getSizeClass(4097));
+    assertEquals(1, DatanodeLatencyTracker.getSizeClass(16384));
+    assertEquals(DatanodeLatencyTracker.getSizeClass(1L << 30),
+        DatanodeLatencyTracker.getSizeClass(1L << 40));
+
+    // Large reads from a DataNode do not make its small reads look slow.
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker(60000);
+    for (int i = 0; i < 100; i++) {
+      tracker.addLatency(FAST, 4096, 1000);
+      tracker.addLatency(FAST, 4L << 20, 100000);
+    }
+    assertWithin(1000, tracker.getPercentileMicros(FAST, 4000, 95));
+    assertWithin(100000, tracker.getPercentileMicros(FAST, 4L << 20, 50));
+    assertEquals(-1, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    assertEquals(1, tracker.getPercentilesMicros(4096, 50).size());
+    assertTrue(tracker.getPercentilesMicros(READ_SIZE, 50).isEmpty());
+  }
+
+  @Test
+  public void testTooFewSamples() {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker(60000);
+    assertEquals(-1, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    for (int i = 0; i < DatanodeLatencyTracker.MIN_SAMPLES - 1; i++) {
+      tracker.addLatency(FAST, READ_SIZE, 1000);
+    }
+    assertEquals(-1, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    tracker.addLatency(FAST, READ_SIZE, 1000);
+    assertWithin(1000, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+  }
+
+  @Test
+  public void testDecay() throws Exception {
+    DatanodeLatencyTracker tracker = new DatanodeLatencyTracker(100);
+    for (int i = 0; i < 64; i++) {
+      tracker.addLatency(FAST, READ_SIZE, 1000);
+    }
+    assertWithin(1000, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    // After several half-lives the old samples no longer count.
+    Thread.sleep(500);
+    assertEquals(-1, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+    // New samples outweigh the decayed ones.
+    for (int i = 0; i < 64; i++) {
+      tracker.addLatency(FAST, READ_SIZE, 50000);
+    }
+    assertWithin(50000, tracker.getPercentileMicros(FAST, READ_SIZE, 50));
+  }
+
+  /** Check that an estimate is within the histogram's resolution. */
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected about " + expected + " but got " + actual,
+        actual >= expected && actual <= expected * 1.2);
+  }
+}
@@ -21,25 +21,32 @@
 import static org.junit.Assert.assertTrue;
 
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
 import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Time;
 import org.apache.log4j.Level;
 import org.junit.Before;
 import org.junit.Test;
@@ -197,6 +204,51 @@ private void pReadFile(FileSystem fileSys, Path name) throws IOException {
     stm.close();
   }
     
+  // test vectored reads of ranges within and across block boundaries
+  private void vectoredReadFile(FileSystem fileSys, Path name)
+      throws IOException {
+    FSDataInputStream stm = fileSys.open(name);
+    byte[] expected = new byte[12 * blockSize];
+    Random rand = new Random(seed);
+    rand.nextBytes(expected);
+    // Unsorted ranges: ranges close enough to be combined, ranges spanning
+    // one and several block boundaries, an empty range and the file's end.
+    List<FileRange> ranges = Arrays.asList(
+        new FileRange(5 * blockSize + 100, 2 * blockSize),
+        new FileRange(0, 100),
+        new FileRange(200, 300),
+        new FileRange(blockSize - 10, 20),
+        new FileRange(3 * blockSize, 0),
+        new FileRange(11 * blockSize, blockSize));
+    stm.seek(17);
+    stm.readVectored(ranges);
+    assertEquals("Vectored read moved the stream", 17, stm.getPos());
+    for (FileRange range : ranges) {
+      ByteBuffer data = range.getData();
+      assertEquals(range.toString(), range.getLength(), data.remaining());
+      byte[] actual = new byte[data.remaining()];
+      data.get(actual);
+      checkAndEraseData(actual, (int) range.getOffset(), expected,
+          "Vectored read of " + range);
+    }
+
+    try {
+      stm.readVectored(Arrays.asList(
+          new FileRange(12 * blockSize - 10, 20)));
+      assertTrue("Vectored read past the end of the file succeeded", false);
+    } catch (EOFException e) {
+      // expected
+    }
+    try {
+      stm.readVectored(Arrays.asList(
+          new FileRange(0, 100), new FileRange(50, 100)));
+      assertTrue("Vectored read of overlapping ranges succeeded", false);
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    stm.close();
+  }
+
   // test pread can survive datanode restarts
   private void datanodeRestartTest(MiniDFSCluster cluster, FileSystem fileSys,
       Path name) throws IOException {
@@ -433,6 +485,69 @@ public Void answer(InvocationOnMock invocation) throws Throwable {
     }
   }
 
+  /**
+   * Tests that a read taking far longer than the recent reads from its
+   * DataNode is hedged long before the fixed hedged read threshold.
+   */
+  @Test(timeout=120000)
+  public void testAdaptiveHedgedReadDelay() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE, 5);
+    conf.setLong(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
+        60000);
+    conf.setDouble(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE,
+        95);
+    final AtomicBoolean slowOnce = new AtomicBoolean(false);
+    // Not a mock: Mockito serializes the answers of a stubbed method, which
+    // would hold the hedged read behind the slow one.
+    DFSClientFaultInjector.instance = new DFSClientFaultInjector() {
+      @Override
+      public void readFromDatanodeDelay() {
+        if (slowOnce.compareAndSet(true, false)) {
+          try {
+            Thread.sleep(10000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3)
+        .format(true).build();
+    DistributedFileSystem fileSys = cluster.getFileSystem();
+    DFSHedgedReadMetrics metrics = fileSys.getClient().getHedgedReadMetrics();
+    try {
+      Path file1 = new Path("adaptiveHedgedRead.dat");
+      DFSTestUtil.createFile(fileSys, file1, blockSize, blockSize, blockSize,
+          (short) 3, seed);
+      byte[] buf = new byte[100];
+      FSDataInputStream in = fileSys.open(file1);
+      // Learn how fast the DataNodes are.
+      for (int i = 0; i < 64; i++) {
+        in.readFully(i, buf);
+      }
+      assertTrue("No DataNode latency statistics", !fileSys.getClient()
+          .getDatanodeLatencyTracker().getPercentilesMicros(buf.length, 95)
+          .isEmpty());
+      long hedgedReadOps = metrics.getHedgedReadOps();
+      long hedgedReadWins = metrics.getHedgedReadWins();
+
+      slowOnce.set(true);
+      long start = Time.monotonicNow();
+      in.readFully(0, buf);
+      long elapsed = Time.monotonicNow() - start;
+      assertTrue("Read took " + elapsed + "ms", elapsed < 5000);
+      assertTrue(metrics.getHedgedReadOps() > hedgedReadOps);
+      assertTrue(metrics.getHedgedReadWins() > hedgedReadWins);
+      in.close();
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+      DFSClientFaultInjector.instance = new DFSClientFaultInjector();
+    }
+  }
+
   private void dfsPreadTest(Configuration conf, boolean disableTransferTo, boolean verifyChecksum)
       throws IOException {
     conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 4096);
@@ -483,6 +598,38 @@ public void testPreadLocalFS() throws IOException {
     }
   }
 
+  @Test
+  public void testVectoredReadDFS() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MIN_SEEK_KEY, 256);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(3).build();
+    FileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("vectoredtest.dat");
+      writeFile(fileSys, file1);
+      vectoredReadFile(fileSys, file1);
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testVectoredReadLocalFS() throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    FileSystem fileSys = FileSystem.getLocal(conf);
+    try {
+      Path file1 = new Path("build/test/data", "vectoredtest.dat");
+      writeFile(fileSys, file1);
+      vectoredReadFile(fileSys, file1);
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
@@ -21,6 +21,7 @@
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.security.PrivilegedExceptionAction;
 
@@ -32,6 +33,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
+import org.apache.hadoop.hdfs.server.namenode.FSDirectory;
 import org.apache.hadoop.hdfs.tools.DFSAdmin;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.io.IOUtils;
@@ -921,4 +923,80 @@ public void testMultipleFilesSmallerThanOneBlock() throws Exception {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Test that the content summary of a directory with quota, which is taken
+   * from its usage counters, matches the one computed by traversing the
+   * subtree, as the namespace changes and after a restart.
+   */
+  @Test
+  public void testContentSummaryFromQuotaUsage() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    final int BLOCK_SIZE = 1024;
+    conf.setInt(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_QUOTA_USAGE_ENABLED_KEY, true);
+    // a traversal would yield the lock for every inode.
+    conf.setInt(DFSConfigKeys.DFS_CONTENT_SUMMARY_LIMIT_KEY, 1);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    try {
+      cluster.waitActive();
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      final Path dir = new Path("/counted");
+      final Path sub = new Path(dir, "sub");
+      assertTrue(dfs.mkdirs(sub));
+      dfs.setQuota(dir, Long.MAX_VALUE - 1, HdfsConstants.QUOTA_DONT_SET);
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+
+      final Path a = new Path(dir, "a");
+      DFSTestUtil.createFile(dfs, a, 3 * BLOCK_SIZE + 100, (short) 2, 0L);
+      DFSTestUtil.createFile(dfs, new Path(sub, "b"), 1500, (short) 3, 0L);
+      DFSTestUtil.createFile(dfs, new Path("/other"), 2500, (short) 1, 0L);
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+
+      DFSTestUtil.appendFile(dfs, a, 700);
+      dfs.setReplication(new Path(sub, "b"), (short) 1);
+      dfs.rename(new Path("/other"), new Path(sub, "c"));
+      assertTrue(dfs.mkdirs(new Path(sub, "d/e")));
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+
+      final Path[] srcs = new Path[3];
+      for (int i = 0; i < srcs.length; i++) {
+        srcs[i] = new Path(sub, "src" + i);
+        DFSTestUtil.createFile(dfs, srcs[i], 2 * BLOCK_SIZE, (short) 2, 0L);
+      }
+      final Path target = new Path(sub, "target");
+      DFSTestUtil.createFile(dfs, target, 2 * BLOCK_SIZE, (short) 2, 0L);
+      dfs.concat(target, srcs);
+      // truncate on a block boundary, which needs no block recovery.
+      assertTrue(dfs.truncate(a, 2 * BLOCK_SIZE));
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+
+      assertTrue(dfs.delete(new Path(sub, "d"), true));
+      assertTrue(dfs.rename(new Path(sub, "c"), new Path("/c")));
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+      checkContentSummaryFromQuotaUsage(cluster, new Path("/"));
+
+      // the usage is recomputed from the image and the edits on restart.
+      cluster.restartNameNode();
+      checkContentSummaryFromQuotaUsage(cluster, dir);
+      checkContentSummaryFromQuotaUsage(cluster, new Path("/"));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private static void checkContentSummaryFromQuotaUsage(
+      MiniDFSCluster cluster, Path path) throws IOException {
+    final FSDirectory fsd = cluster.getNamesystem().getFSDirectory();
+    final long yieldCount = fsd.getYieldCount();
+    final ContentSummary fromUsage =
+        cluster.getFileSystem().getContentSummary(path);
+    assertEquals("The subtree was traversed", yieldCount,
+        fsd.getYieldCount());
+    final ContentSummary computed = fsd.getINode(path.toString())
+        .computeContentSummary(fsd.getBlockStoragePolicySuite());
+    checkContentSummary(computed, fromUsage);
+  }
 }
@@ -20,6 +20,7 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import org.junit.Assert;
 
@@ -28,6 +29,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSTestUtil.ShortCircuitTestContext;
+import org.apache.hadoop.io.IOUtils;
 import org.junit.Test;
 
 public class TestRead {
@@ -82,6 +84,140 @@ public void testEOFWithRemoteBlockReader() throws Exception {
     cluster.shutdown();
   }
 
+  /**
+   * Tests reads when the DataNode cannot use transferTo and sends the data
+   * from direct buffers instead.
+   */
+  @Test(timeout=60000)
+  public void testReadWithoutTransferTo() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_KEY, false);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testReadWithoutTransferTo");
+      final int blockSize = 64 * BLOCK_SIZE;
+      final int fileLength = 5 * blockSize + 100;
+      DFSTestUtil.createFile(fs, path, BLOCK_SIZE, fileLength, blockSize,
+          (short)1, 0xBEEFBEEF);
+      byte[] expected =
+          DFSTestUtil.calculateFileContentsFromSeed(0xBEEFBEEF, fileLength);
+      byte[] actual = new byte[fileLength];
+
+      FSDataInputStream in = fs.open(path);
+      IOUtils.readFully(in, actual, 0, fileLength);
+      Assert.assertArrayEquals(expected, actual);
+      // A positional read which starts and ends in the middle of chunks.
+      final int pos = blockSize + 77;
+      final int len = 2 * blockSize;
+      in.readFully(pos, actual, 0, len);
+      Assert.assertArrayEquals(Arrays.copyOfRange(expected, pos, pos + len),
+          Arrays.copyOfRange(actual, 0, len));
+      in.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that a sequential read switches to the prefetched next block at
+   * each block boundary, and that seeks do not see stale prefetched data.
+   */
+  @Test(timeout=60000)
+  public void testSequentialPrefetch() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_KEY,
+        BLOCK_SIZE / 4);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testSequentialPrefetch");
+      final int numBlocks = 10;
+      final int fileLength = numBlocks * BLOCK_SIZE + 100;
+      DFSTestUtil.createFile(fs, path, BLOCK_SIZE, fileLength, BLOCK_SIZE,
+          (short)1, 0xBEEFBEEF);
+      byte[] expected =
+          DFSTestUtil.calculateFileContentsFromSeed(0xBEEFBEEF, fileLength);
+
+      FSDataInputStream in = fs.open(path);
+      DFSInputStream dfsIn = (DFSInputStream) in.getWrappedStream();
+      byte[] actual = new byte[fileLength];
+      // An odd read size, so that reads straddle the block boundaries.
+      byte[] buf = new byte[77];
+      int off = 0;
+      int n;
+      while ((n = in.read(buf, 0, buf.length)) > 0) {
+        System.arraycopy(buf, 0, actual, off, n);
+        off += n;
+      }
+      Assert.assertEquals(fileLength, off);
+      Assert.assertArrayEquals(expected, actual);
+      Assert.assertEquals(numBlocks, dfsIn.getPrefetchedBlocksForTesting());
+      // The prefetches reuse the buffers of the ones already consumed.
+      Assert.assertTrue(dfsIn.getPrefetchBuffersForTesting() <= 2);
+
+      // Seek back into the middle of a block after its successor has been
+      // prefetched, then jump past the prefetched block.
+      in.seek(3 * BLOCK_SIZE + 10);
+      IOUtils.readFully(in, actual, 0, BLOCK_SIZE);
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(expected, 3 * BLOCK_SIZE + 10, 4 * BLOCK_SIZE + 10),
+          Arrays.copyOfRange(actual, 0, BLOCK_SIZE));
+      in.seek(6 * BLOCK_SIZE + 1);
+      IOUtils.readFully(in, actual, 0, BLOCK_SIZE);
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(expected, 6 * BLOCK_SIZE + 1, 7 * BLOCK_SIZE + 1),
+          Arrays.copyOfRange(actual, 0, BLOCK_SIZE));
+      in.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Tests that a seek within the current block restarts the count of bytes
+   * read sequentially, so that it does not trigger a prefetch by itself.
+   */
+  @Test(timeout=60000)
+  public void testSequentialPrefetchAfterSeek() throws Exception {
+    final Configuration conf = new Configuration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_SEQUENTIAL_PREFETCH_SIZE_KEY,
+        BLOCK_SIZE / 4);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testSequentialPrefetchAfterSeek");
+      final int fileLength = 2 * BLOCK_SIZE;
+      DFSTestUtil.createFile(fs, path, BLOCK_SIZE, fileLength, BLOCK_SIZE,
+          (short)1, 0xBEEFBEEF);
+      byte[] expected =
+          DFSTestUtil.calculateFileContentsFromSeed(0xBEEFBEEF, fileLength);
+
+      FSDataInputStream in = fs.open(path);
+      DFSInputStream dfsIn = (DFSInputStream) in.getWrappedStream();
+      byte[] actual = new byte[40];
+      IOUtils.readFully(in, actual, 0, 10);
+      // Skip to the end of the block, then read across the boundary.  Only
+      // the bytes read since the seek count towards the prefetch threshold.
+      in.seek(BLOCK_SIZE - 20);
+      IOUtils.readFully(in, actual, 0, actual.length);
+      Assert.assertArrayEquals(
+          Arrays.copyOfRange(expected, BLOCK_SIZE - 20, BLOCK_SIZE + 20),
+          actual);
+      Assert.assertEquals(0, dfsIn.getPrefetchedBlocksForTesting());
+      in.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   /**
    * Regression test for HDFS-7045.
    * If deadlock happen, the test will time out.
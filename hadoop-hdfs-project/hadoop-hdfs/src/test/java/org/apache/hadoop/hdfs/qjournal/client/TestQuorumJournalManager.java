@@ -45,6 +45,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.qjournal.MiniJournalCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -209,6 +210,50 @@ public void testReaderWhileAnotherWrites() throws Exception {
     }
   }
   
+  @Test
+  public void testSelectInProgressStreamsViaRpc() throws Exception {
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    QuorumJournalManager readerQjm = createSpyingQJM();
+    List<EditLogInputStream> streams = Lists.newArrayList();
+    readerQjm.selectInputStreams(streams, 1, true);
+    assertEquals(0, streams.size());
+
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+    try {
+      // Both the finalized and the in-progress segment come from the
+      // JournalNodes' caches, as a single stream
+      readerQjm.selectInputStreams(streams, 1, true);
+      assertEquals(1, streams.size());
+      verifyEdits(streams, 1, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    try {
+      readerQjm.selectInputStreams(streams, 5, true);
+      verifyEdits(streams, 5, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    readerQjm.selectInputStreams(streams, 7, true);
+    assertEquals(0, streams.size());
+
+    writeTxns(stm, 7, 2);
+    try {
+      readerQjm.selectInputStreams(streams, 7, true);
+      verifyEdits(streams, 7, 8);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+    stm.close();
+    qjm.finalizeLogSegment(4, 8);
+  }
+
   /**
    * Regression test for HDFS-3725. One of the journal nodes is down
    * during the writing of one segment, then comes back up later to
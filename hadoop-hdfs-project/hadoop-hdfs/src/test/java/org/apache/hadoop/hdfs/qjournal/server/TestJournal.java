@@ -19,6 +19,7 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -30,6 +31,7 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProtoOrBuilder;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.SegmentStateProto;
@@ -38,6 +40,8 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.common.Storage.StorageDirectory;
 import org.apache.hadoop.hdfs.server.common.StorageErrorReporter;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.io.IOUtils;
@@ -417,4 +421,40 @@ public void testNamespaceVerification() throws Exception {
     }
   }
 
+  @Test (timeout = 10000)
+  public void testGetJournaledEdits() throws Exception {
+    journal.newEpoch(FAKE_NSINFO, 1);
+    journal.startLogSegment(makeRI(1), 1,
+        NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION);
+    journal.journal(makeRI(2), 1, 1, 3, QJMTestUtil.createTxnData(1, 3));
+    journal.journal(makeRI(3), 1, 4, 2, QJMTestUtil.createTxnData(4, 2));
+
+    // Whole batches are returned, starting with the one holding txid 2
+    GetJournaledEditsResponseProto resp = journal.getJournaledEdits(2, 10);
+    assertEquals(4, resp.getTxnCount());
+    EditLogInputStream elis = EditLogFileInputStream.fromByteString(
+        resp.getEditLog(), 2, 5, true);
+    try {
+      elis.skipUntil(2);
+      for (long txid = 2; txid <= 5; txid++) {
+        assertEquals(txid, elis.readOp().getTransactionId());
+      }
+      assertNull(elis.readOp());
+    } finally {
+      IOUtils.closeStream(elis);
+    }
+
+    // Nothing past the highest written txid
+    assertEquals(0, journal.getJournaledEdits(6, 10).getTxnCount());
+
+    // Cached edits are dropped once a new writer comes along
+    journal.newEpoch(FAKE_NSINFO, 2);
+    try {
+      journal.getJournaledEdits(1, 10);
+      fail("Did not fail to read edits cached under a previous epoch");
+    } catch (IOException ioe) {
+      GenericTestUtils.assertExceptionContains(
+          "not in the journaled edits cache", ioe);
+    }
+  }
 }
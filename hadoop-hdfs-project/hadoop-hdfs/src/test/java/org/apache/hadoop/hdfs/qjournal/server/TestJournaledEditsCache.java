@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.qjournal.QJMTestUtil;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestJournaledEditsCache {
+  private static final int LV = NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION;
+
+  /** Store a batch of numTxns transactions and return its size. */
+  private static int store(JournaledEditsCache cache, int firstTxnId,
+      int numTxns, int layoutVersion) throws Exception {
+    byte[] data = QJMTestUtil.createTxnData(firstTxnId, numTxns);
+    cache.storeEdits(data, firstTxnId, firstTxnId + numTxns - 1,
+        layoutVersion);
+    return data.length;
+  }
+
+  /**
+   * Retrieve edits from sinceTxnId, check that they decode to exactly the
+   * expected range of transactions, and return the count.
+   */
+  private static int retrieveAndVerify(JournaledEditsCache cache,
+      long sinceTxnId, int maxTxns, long expectedLastTxnId) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int count = cache.retrieveEdits(sinceTxnId, maxTxns, out);
+    assertEquals(expectedLastTxnId - sinceTxnId + 1, count);
+    EditLogInputStream elis = EditLogFileInputStream.fromByteString(
+        ByteString.copyFrom(out.toByteArray()), sinceTxnId,
+        expectedLastTxnId, true);
+    try {
+      elis.skipUntil(sinceTxnId);
+      for (long txid = sinceTxnId; txid <= expectedLastTxnId; txid++) {
+        assertEquals(txid, elis.readOp().getTransactionId());
+      }
+      assertNull(elis.readOp());
+    } finally {
+      IOUtils.closeStream(elis);
+    }
+    return count;
+  }
+
+  private static void assertCacheMiss(JournaledEditsCache cache,
+      long sinceTxnId) throws IOException {
+    try {
+      cache.retrieveEdits(sinceTxnId, 100, new ByteArrayOutputStream());
+      fail("Expected a cache miss for txid " + sinceTxnId);
+    } catch (JournaledEditsCache.CacheMissException cme) {
+      GenericTestUtils.assertExceptionContains(
+          "not in the journaled edits cache", cme);
+    }
+  }
+
+  @Test
+  public void testRetrieveBatches() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    assertCacheMiss(cache, 1);
+
+    store(cache, 1, 5, LV);
+    store(cache, 6, 5, LV);
+    store(cache, 11, 5, LV);
+
+    retrieveAndVerify(cache, 1, 100, 15);
+    // Starting in the middle of a batch
+    retrieveAndVerify(cache, 8, 100, 15);
+    // Whole batches are added until maxTxns is reached
+    retrieveAndVerify(cache, 1, 5, 5);
+    retrieveAndVerify(cache, 1, 6, 10);
+    retrieveAndVerify(cache, 3, 3, 5);
+    assertCacheMiss(cache, 16);
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    // Batches of two-digit txids all serialize to the same size
+    int batchSize = QJMTestUtil.createTxnData(21, 10).length;
+    JournaledEditsCache cache = new JournaledEditsCache(batchSize * 3);
+    for (int txid = 1; txid <= 41; txid += 10) {
+      store(cache, txid, 10, LV);
+    }
+    // Only the three most recent batches fit
+    assertCacheMiss(cache, 1);
+    assertCacheMiss(cache, 20);
+    retrieveAndVerify(cache, 21, 100, 50);
+    assertEquals(batchSize * 3, cache.getSize());
+
+    // A batch larger than the whole cache empties it, but later batches
+    // are still accepted
+    store(cache, 51, 40, LV);
+    assertEquals(0, cache.getSize());
+    assertCacheMiss(cache, 51);
+    store(cache, 91, 10, LV);
+    retrieveAndVerify(cache, 91, 100, 100);
+    assertCacheMiss(cache, 90);
+  }
+
+  @Test
+  public void testGapOrLayoutChangeClearsCache() throws Exception {
+    JournaledEditsCache cache = new JournaledEditsCache(1024 * 1024);
+    store(cache, 1, 5, LV);
+    store(cache, 6, 5, LV);
+
+    // Transactions must follow on from the ones already cached
+    store(cache, 20, 5, LV);
+    assertCacheMiss(cache, 1);
+    retrieveAndVerify(cache, 20, 100, 24);
+
+    // A new layout version starts afresh
+    store(cache, 25, 5, LV - 1);
+    assertCacheMiss(cache, 20);
+
+    cache.clear();
+    assertCacheMiss(cache, 25);
+    assertEquals(0, cache.getSize());
+  }
+}
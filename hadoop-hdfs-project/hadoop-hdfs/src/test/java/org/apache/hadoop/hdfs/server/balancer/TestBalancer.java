@@ -27,6 +27,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.URI;
@@ -39,7 +40,13 @@
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
@@ -64,14 +71,23 @@
 import org.apache.hadoop.hdfs.server.balancer.Balancer.Cli;
 import org.apache.hadoop.hdfs.server.balancer.Balancer.Parameters;
 import org.apache.hadoop.hdfs.server.balancer.Balancer.Result;
+import org.apache.hadoop.hdfs.server.balancer.Dispatcher.DDatanode.StorageGroup;
+import org.apache.hadoop.hdfs.server.balancer.Dispatcher.Source;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.util.Time;
 import org.apache.hadoop.util.Tool;
 import org.apache.log4j.Level;
 import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.base.Supplier;
 
 /**
  * This class tests if a balancer schedules tasks correctly.
@@ -1454,6 +1470,193 @@ public void testManyBalancerSimultaneously() throws Exception {
     }
   }
 
+  /**
+   * Start a cluster with a datanode holding all the blocks and an empty
+   * datanode on the same rack, with the balancer fetching one block at a
+   * time.
+   *
+   * @return a connector to the namenode of the cluster.
+   */
+  private NameNodeConnector startClusterForBlockListFetches(
+      Configuration conf) throws Exception {
+    initConf(conf);
+    conf.setLong(DFS_BALANCER_GETBLOCKS_SIZE_KEY, 1L);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+        .racks(new String[] { RACK0 })
+        .simulatedCapacities(new long[] { CAPACITY }).build();
+    cluster.waitActive();
+    client = NameNodeProxies.createProxy(conf,
+        cluster.getFileSystem(0).getUri(), ClientProtocol.class).getProxy();
+    final long totalUsedSpace = CAPACITY * 3 / 10;
+    createFile(cluster, filePath, totalUsedSpace, (short) 1, 0);
+    cluster.startDataNodes(conf, 1, true, null, new String[] { RACK0 },
+        new long[] { CAPACITY });
+    waitForHeartBeat(totalUsedSpace, 2 * CAPACITY, client, cluster);
+
+    Collection<URI> namenodes = DFSUtil.getNsServiceRpcUris(conf);
+    return NameNodeConnector.newNameNodeConnectors(namenodes,
+        Balancer.class.getSimpleName(), Balancer.BALANCER_ID_PATH, conf,
+        Balancer.Parameters.DEFAULT.maxIdleIteration).get(0);
+  }
+
+  private static void waitForBlockListFetchersToExit()
+      throws TimeoutException, InterruptedException {
+    GenericTestUtils.waitForThreadTermination(
+        "Balancer block list fetcher #\\d+", 100, 10000);
+  }
+
+  /**
+   * Test that the block lists of a source are fetched in the background,
+   * and that the blocks they contain are moved.
+   */
+  @Test(timeout=100000)
+  public void testBalancerPrefetchesBlockLists() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final NameNodeConnector nnc = startClusterForBlockListFetches(conf);
+    try {
+      final List<String> fetchers =
+          Collections.synchronizedList(new ArrayList<String>());
+      final NameNodeConnector spy = Mockito.spy(nnc);
+      Mockito.doAnswer(new Answer<BlocksWithLocations>() {
+        @Override
+        public BlocksWithLocations answer(InvocationOnMock invocation)
+            throws Throwable {
+          fetchers.add(Thread.currentThread().getName());
+          return (BlocksWithLocations) invocation.callRealMethod();
+        }
+      }).when(spy).getBlocks(Mockito.any(DatanodeInfo.class),
+          Mockito.anyLong());
+
+      final Balancer b = new Balancer(spy, Parameters.DEFAULT, conf);
+      final Dispatcher dispatcher =
+          (Dispatcher) Whitebox.getInternalState(b, "dispatcher");
+      final Result r = b.runOneIteration();
+      assertEquals(ExitStatus.IN_PROGRESS, r.exitStatus);
+
+      // Each fetch returns a single block, so moving more than one block
+      // takes several fetches.  None of them ran on a dispatcher thread.
+      assertTrue(r.bytesAlreadyMoved > DEFAULT_BLOCK_SIZE);
+      assertTrue(fetchers.size() > 1);
+      for (String fetcher : fetchers) {
+        assertTrue(fetcher, fetcher.startsWith("Balancer block list fetcher"));
+      }
+
+      // The per-source counters add up to what the iteration moved.
+      long bytesMovedFromSources = 0;
+      for (StorageGroup g : dispatcher.getStorageGroupMap().values()) {
+        if (g instanceof Source) {
+          bytesMovedFromSources += g.getBytesMoved();
+        }
+      }
+      assertEquals(r.bytesAlreadyMoved, bytesMovedFromSources);
+      waitForBlockListFetchersToExit();
+    } finally {
+      IOUtils.cleanup(LOG, nnc);
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a failed background fetch ends the dispatching of its source
+   * without holding up the iteration.
+   */
+  @Test(timeout=100000)
+  public void testBalancerBlockListFetchFailure() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final NameNodeConnector nnc = startClusterForBlockListFetches(conf);
+    try {
+      final AtomicInteger calls = new AtomicInteger();
+      final NameNodeConnector spy = Mockito.spy(nnc);
+      Mockito.doAnswer(new Answer<BlocksWithLocations>() {
+        @Override
+        public BlocksWithLocations answer(InvocationOnMock invocation)
+            throws Throwable {
+          if (calls.getAndIncrement() == 0) {
+            return (BlocksWithLocations) invocation.callRealMethod();
+          }
+          throw new IOException("injected getBlocks failure");
+        }
+      }).when(spy).getBlocks(Mockito.any(DatanodeInfo.class),
+          Mockito.anyLong());
+
+      final Result r = new Balancer(spy, Parameters.DEFAULT, conf)
+          .runOneIteration();
+      // Only the block of the first fetch was moved.
+      assertEquals(ExitStatus.IN_PROGRESS, r.exitStatus);
+      assertEquals(DEFAULT_BLOCK_SIZE, r.bytesAlreadyMoved);
+      assertTrue(calls.get() > 1);
+      waitForBlockListFetchersToExit();
+    } finally {
+      IOUtils.cleanup(LOG, nnc);
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that shutting the dispatcher down while its source waits for a
+   * background fetch cancels the fetch and ends the iteration.
+   */
+  @Test(timeout=100000)
+  public void testBalancerBlockListFetchCancel() throws Exception {
+    final Configuration conf = new HdfsConfiguration();
+    final NameNodeConnector nnc = startClusterForBlockListFetches(conf);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final AtomicInteger calls = new AtomicInteger();
+      final CountDownLatch fetchBlocked = new CountDownLatch(1);
+      final CountDownLatch fetchInterrupted = new CountDownLatch(1);
+      final NameNodeConnector spy = Mockito.spy(nnc);
+      Mockito.doAnswer(new Answer<BlocksWithLocations>() {
+        @Override
+        public BlocksWithLocations answer(InvocationOnMock invocation)
+            throws Throwable {
+          if (calls.getAndIncrement() == 0) {
+            return (BlocksWithLocations) invocation.callRealMethod();
+          }
+          // Block until cancelled.
+          fetchBlocked.countDown();
+          try {
+            new CountDownLatch(1).await();
+          } catch (InterruptedException e) {
+            fetchInterrupted.countDown();
+          }
+          throw new InterruptedIOException("getBlocks interrupted");
+        }
+      }).when(spy).getBlocks(Mockito.any(DatanodeInfo.class),
+          Mockito.anyLong());
+
+      final Balancer b = new Balancer(spy, Parameters.DEFAULT, conf);
+      final Dispatcher dispatcher =
+          (Dispatcher) Whitebox.getInternalState(b, "dispatcher");
+      final Future<Result> iteration = executor.submit(new Callable<Result>() {
+        @Override
+        public Result call() {
+          return b.runOneIteration();
+        }
+      });
+
+      // Wait for the block of the first fetch to be moved, so that the
+      // source has nothing left but to wait for the blocked fetch.
+      fetchBlocked.await();
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return nnc.getBytesMoved().get() > 0;
+        }
+      }, 100, 10000);
+      dispatcher.shutdownNow();
+
+      final Result r = iteration.get();
+      fetchInterrupted.await();
+      assertEquals(DEFAULT_BLOCK_SIZE, r.bytesAlreadyMoved);
+      waitForBlockListFetchersToExit();
+    } finally {
+      executor.shutdownNow();
+      IOUtils.cleanup(LOG, nnc);
+      cluster.shutdown();
+    }
+  }
+
   /**
    * @param args
    */
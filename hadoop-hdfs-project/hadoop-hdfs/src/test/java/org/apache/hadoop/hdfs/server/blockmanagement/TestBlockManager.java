@@ -46,6 +46,7 @@
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
@@ -89,6 +90,8 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -548,6 +551,43 @@ private DatanodeStorageInfo[] scheduleSingleReplication(Block block) {
     return pipeline;
   }
 
+  /**
+   * Test that when the targets of many blocks are chosen by several threads,
+   * all of the blocks are scheduled for replication.
+   */
+  @Test
+  public void testParallelReplicationWork() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY, "need to set a dummy value here so it assumes a multi-rack cluster");
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_KEY, 10000);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY, 10000);
+    bm = new BlockManager(fsn, conf);
+    addNodes(nodes);
+
+    final int numBlocks = 2000;
+    List<Block> blocks = new ArrayList<Block>();
+    for (int i = 0; i < numBlocks; i++) {
+      blocks.add(addBlockOnNodes(i, getNodes(0, 3)));
+    }
+    List<List<Block>> list_all = new ArrayList<List<Block>>();
+    list_all.add(new ArrayList<Block>()); // for priority 0
+    list_all.add(blocks); // for priority 1
+
+    assertEquals(numBlocks, bm.computeReplicationWorkForBlocks(list_all));
+    for (Block block : blocks) {
+      assertEquals(1, bm.pendingReplications.getNumReplicas(block));
+    }
+    // no work is left counted as pending without targets
+    int toBeReplicated = 0;
+    for (DatanodeDescriptor dn : nodes) {
+      toBeReplicated += dn.getNumberOfBlocksToBeReplicated();
+    }
+    assertEquals(numBlocks, toBeReplicated);
+    bm.close();
+  }
+
   private LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> getAllPendingReplications() {
     LinkedListMultimap<DatanodeStorageInfo, BlockTargetPair> repls =
       LinkedListMultimap.create();
@@ -811,6 +851,119 @@ public void testSafeModeIBRBeforeFirstFullBR() throws Exception {
         (ds) >= 0);
   }
 
+  /**
+   * Test full block reports processed with the replicas looked up ahead of
+   * time, and that a lookup is not used once the blocks map changed.
+   */
+  @Test
+  public void testProcessReportWithLookup() throws Exception {
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =  new DatanodeRegistration(node, null, null, "");
+
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+    assertEquals(0, ds.getBlockReportCount());
+
+    // blk_42 is known to the NN, blk_43 is not.
+    BlockInfoContiguous storedBlock = addBlockToBM(42);
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    builder.add(new FinalizedReplica(storedBlock, null, null));
+    builder.add(new FinalizedReplica(new Block(43), null, null));
+    BlockListAsLongs report = builder.build();
+
+    // no lookups outside of startup safe mode.
+    BlockManager.BlockReportLookup[] lookups = bm.lookupStoredBlocks(
+        new BlockListAsLongs[] { report });
+    assertNull(lookups[0]);
+
+    // the block is deleted after the lookup, so it must not be added.
+    doReturn(true).when(fsn).isInStartupSafeMode();
+    lookups = bm.lookupStoredBlocks(
+        new BlockListAsLongs[] { report, BlockListAsLongs.EMPTY });
+    assertNotNull(lookups[0]);
+    assertNull(lookups[1]);
+    bm.blocksMap.removeBlock(storedBlock);
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        report, null, false, lookups[0]);
+    assertEquals(1, ds.getBlockReportCount());
+    assertEquals(0, ds.numBlocks());
+
+    // the block is back, and the lookup is current.
+    storedBlock = addBlockToBM(42);
+    lookups = bm.lookupStoredBlocks(new BlockListAsLongs[] { report });
+    assertNotNull(lookups[0]);
+    // a second report is only processed after startup safe mode.
+    doReturn(false).when(fsn).isInStartupSafeMode();
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        report, null, false, lookups[0]);
+    assertEquals(2, ds.getBlockReportCount());
+    assertTrue(storedBlock.findStorageInfo(ds) >= 0);
+    assertEquals(1, ds.numBlocks());
+  }
+
+  /**
+   * Test that a first block report is processed in batches, releasing the
+   * write lock in between, and that its lookup is dropped once the blocks
+   * map changed while the lock was released.
+   */
+  @Test
+  public void testFirstBlockReportInBatches() throws Exception {
+    doReturn(true).when(fsn).isInStartupSafeMode();
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =  new DatanodeRegistration(node, null, null, "");
+
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+    bm.setFirstBlockReportBatchSize(1);
+
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    final BlockInfoContiguous[] storedBlocks = new BlockInfoContiguous[3];
+    for (int i = 0; i < storedBlocks.length; i++) {
+      storedBlocks[i] = addBlockToBM(42 + i);
+      builder.add(new FinalizedReplica(storedBlocks[i], null, null));
+    }
+    BlockListAsLongs report = builder.build();
+    BlockManager.BlockReportLookup[] lookups = bm.lookupStoredBlocks(
+        new BlockListAsLongs[] { report });
+    assertNotNull(lookups[0]);
+
+    // the last block is deleted while the lock is released after the first
+    // replica, so the lookup must not be used to add it.
+    final AtomicInteger writeLocks = new AtomicInteger();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        if (writeLocks.incrementAndGet() == 2) {
+          bm.blocksMap.removeBlock(storedBlocks[2]);
+        }
+        return null;
+      }
+    }).when(fsn).writeLock();
+    final AtomicInteger writeUnlocks = new AtomicInteger();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        writeUnlocks.incrementAndGet();
+        return null;
+      }
+    }).when(fsn).writeUnlock();
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        report, null, false, lookups[0]);
+
+    // the lock was taken once up front and once after each replica.
+    assertEquals(3, writeLocks.get());
+    assertEquals(3, writeUnlocks.get());
+    assertEquals(1, ds.getBlockReportCount());
+    assertTrue(storedBlocks[0].findStorageInfo(ds) >= 0);
+    assertTrue(storedBlocks[1].findStorageInfo(ds) >= 0);
+    assertEquals(-1, storedBlocks[2].findStorageInfo(ds));
+    assertEquals(2, ds.numBlocks());
+  }
+
   private BlockInfoContiguous addBlockToBM(long blkId) {
     Block block = new Block(blkId);
     BlockInfoContiguous blockInfo =
@@ -46,6 +46,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsBlocksMetadata;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
@@ -1328,5 +1329,22 @@ public boolean getPinning(ExtendedBlock b) throws IOException {
   public boolean isDeletingBlock(String bpid, long blockId) {
     throw new UnsupportedOperationException();
   }
+
+  @Override
+  public AutoCloseableLock acquireDatasetLock() {
+    return NO_LOCK;
+  }
+
+  @Override
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    return NO_LOCK;
+  }
+
+  /** The methods of this dataset are synchronized, no other lock is needed. */
+  private static final AutoCloseableLock NO_LOCK = new AutoCloseableLock() {
+    @Override
+    public void close() {
+    }
+  };
 }
 
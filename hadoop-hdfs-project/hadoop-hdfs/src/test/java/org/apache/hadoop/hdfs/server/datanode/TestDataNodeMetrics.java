@@ -147,6 +147,36 @@ public void testReceivePacketMetrics() throws Exception {
     }
   }
 
+  /**
+   * Tests that the packet buffer of a finished block is reused by the
+   * next block written to the datanode.
+   */
+  @Test(timeout=60000)
+  public void testPacketBufferPoolMetrics() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    // Pool buffers of every size from the first allocation.
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_WRITE_BYTE_ARRAY_MANAGER_COUNT_THRESHOLD_KEY,
+        0);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      final int numFiles = 4;
+      for (int i = 0; i < numFiles; i++) {
+        DFSTestUtil.createFile(fs, new Path("/pool" + i), 1L, (short)1, 1L);
+      }
+      DataNode datanode = cluster.getDataNodes().get(0);
+      MetricsRecordBuilder dnMetrics = getMetrics(datanode.getMetrics().name());
+      // Each block is finalized before the next file is written, so only
+      // the first block allocates a buffer.
+      assertCounter("PacketBufferPoolMisses", 1L, dnMetrics);
+      assertCounter("PacketBufferPoolHits", numFiles - 1L, dnMetrics);
+    } finally {
+      if (cluster != null) {cluster.shutdown();}
+    }
+  }
+
   /**
    * Tests that round-trip acks in a datanode write pipeline are correctly 
    * measured. 
@@ -508,6 +508,71 @@ public void runTest(int parallelism) throws Exception {
     }
   }
 
+  @Test (timeout=300000)
+  public void testIncrementalScan() throws Exception {
+    cluster = new MiniDFSCluster.Builder(CONF).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      client = cluster.getFileSystem().getClient();
+      Configuration conf = new HdfsConfiguration(CONF);
+      conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+          true);
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_FULL_SCAN_INTERVAL_KEY, 3);
+      conf.setLong(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_IOPS_KEY,
+          100000);
+      scanner = new DirectoryScanner(cluster.getDataNodes().get(0), fds, conf);
+      scanner.setRetainDiffs(true);
+
+      createFile(GenericTestUtils.getMethodName(), BLOCK_LENGTH * 10, false);
+      final long modificationTime = System.currentTimeMillis() - 60000;
+      setDirModificationTimes(modificationTime);
+      scan(10, 0, 0, 0, 0, 0);
+
+      // A block file disappears without the modification time of its
+      // directory changing, so the next scan reuses the stale listing.
+      long blockId = deleteBlockFile();
+      setDirModificationTimes(modificationTime);
+      scan(10, 0, 0, 0, 0, 0);
+
+      // The third scan lists all the directories again.
+      scan(10, 1, 0, 1, 0, 0);
+      verifyDeletion(blockId);
+      scan(9, 0, 0, 0, 0, 0);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+        scanner = null;
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /** Set the modification time of every finalized directory. */
+  private void setDirModificationTimes(long time) {
+    for (FsVolumeSpi vol : fds.getVolumes()) {
+      try {
+        setDirModificationTimes(vol.getFinalizedDir(bpid), time);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  private static void setDirModificationTimes(File dir, long time) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          setDirModificationTimes(child, time);
+        }
+      }
+    }
+    assertTrue(dir.setLastModified(time));
+  }
+
   private void verifyAddition(long blockId, long genStamp, long size) {
     final ReplicaInfo replicainfo;
     replicainfo = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
@@ -17,7 +17,11 @@
  */
 package org.apache.hadoop.hdfs.server.datanode;
 
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.atLeastOnce;
@@ -37,10 +41,15 @@
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo.BlockStatus;
 
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import com.google.common.base.Supplier;
+
 /**
  * Verify that incremental block reports are generated in response to
  * block additions/deletions.
@@ -64,7 +73,11 @@ public class TestIncrementalBlockReports {
 
   @Before
   public void startCluster() throws IOException {
-    conf = new HdfsConfiguration();
+    startCluster(new HdfsConfiguration());
+  }
+
+  private void startCluster(Configuration conf) throws IOException {
+    this.conf = conf;
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(DN_COUNT).build();
     fs = cluster.getFileSystem();
     singletonNn = cluster.getNameNode();
@@ -75,15 +88,23 @@ public void startCluster() throws IOException {
   }
 
   private static Block getDummyBlock() {
-    return new Block(DUMMY_BLOCK_ID, DUMMY_BLOCK_LENGTH, DUMMY_BLOCK_GENSTAMP);
+    return getDummyBlock(DUMMY_BLOCK_ID);
+  }
+
+  private static Block getDummyBlock(long blockId) {
+    return new Block(blockId, DUMMY_BLOCK_LENGTH, DUMMY_BLOCK_GENSTAMP);
   }
 
   /**
    * Inject a fake 'received' block into the BPServiceActor state.
    */
   private void injectBlockReceived() {
+    injectBlockReceived(DUMMY_BLOCK_ID);
+  }
+
+  private void injectBlockReceived(long blockId) {
     ReceivedDeletedBlockInfo rdbi = new ReceivedDeletedBlockInfo(
-        getDummyBlock(), BlockStatus.RECEIVED_BLOCK, null);
+        getDummyBlock(blockId), BlockStatus.RECEIVED_BLOCK, null);
     actor.notifyNamenodeBlock(rdbi, storageUuid, true);
   }
 
@@ -91,11 +112,24 @@ private void injectBlockReceived() {
    * Inject a fake 'deleted' block into the BPServiceActor state.
    */
   private void injectBlockDeleted() {
+    injectBlockDeleted(DUMMY_BLOCK_ID);
+  }
+
+  private void injectBlockDeleted(long blockId) {
     ReceivedDeletedBlockInfo rdbi = new ReceivedDeletedBlockInfo(
-        getDummyBlock(), BlockStatus.DELETED_BLOCK, null);
+        getDummyBlock(blockId), BlockStatus.DELETED_BLOCK, null);
     actor.notifyNamenodeDeletedBlock(rdbi, storageUuid);
   }
 
+  private void waitForNoPendingIBR() throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return !actor.hasPendingIBR();
+      }
+    }, 100, 30000);
+  }
+
   /**
    * Spy on calls from the DN to the NN.
    * @return spy object that can be used for Mockito verification.
@@ -209,4 +243,62 @@ public void testReplaceReceivedBlock() throws InterruptedException, IOException
       cluster = null;
     }
   }
+
+  /**
+   * With a batching interval configured, blocks received and deleted
+   * shortly after an IBR are held back and sent together in the next one,
+   * with only the latest state of each block.
+   */
+  @Test (timeout=60000)
+  public void testBatchedReports() throws Exception {
+    cluster.shutdown();
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCKREPORT_INCREMENTAL_INTERVAL_MSEC_KEY,
+        5000);
+    startCluster(conf);
+    try {
+      DatanodeProtocolClientSideTranslatorPB nnSpy = spyOnDnCallsToNn();
+      injectBlockReceived(DUMMY_BLOCK_ID);
+      waitForNoPendingIBR();
+      Mockito.verify(nnSpy, Mockito.timeout(10000).times(1))
+          .blockReceivedAndDeleted(any(DatanodeRegistration.class),
+              anyString(), any(StorageReceivedDeletedBlocks[].class));
+
+      // These changes arrive within the batching interval.
+      injectBlockReceived(DUMMY_BLOCK_ID + 1);
+      injectBlockReceived(DUMMY_BLOCK_ID + 2);
+      injectBlockDeleted(DUMMY_BLOCK_ID + 1);
+      Thread.sleep(1000);
+      assertTrue(actor.hasPendingIBR());
+      Mockito.verify(nnSpy, times(1)).blockReceivedAndDeleted(
+          any(DatanodeRegistration.class),
+          anyString(),
+          any(StorageReceivedDeletedBlocks[].class));
+
+      waitForNoPendingIBR();
+      ArgumentCaptor<StorageReceivedDeletedBlocks[]> captor =
+          ArgumentCaptor.forClass(StorageReceivedDeletedBlocks[].class);
+      Mockito.verify(nnSpy, Mockito.timeout(10000).times(2))
+          .blockReceivedAndDeleted(any(DatanodeRegistration.class),
+              anyString(), captor.capture());
+      StorageReceivedDeletedBlocks[] reports = captor.getValue();
+      assertEquals(1, reports.length);
+      assertEquals(2, reports[0].getBlocks().length);
+      for (ReceivedDeletedBlockInfo rdbi : reports[0].getBlocks()) {
+        if (rdbi.getBlock().getBlockId() == DUMMY_BLOCK_ID + 1) {
+          assertEquals(BlockStatus.DELETED_BLOCK, rdbi.getStatus());
+        } else {
+          assertEquals(DUMMY_BLOCK_ID + 2, rdbi.getBlock().getBlockId());
+          assertEquals(BlockStatus.RECEIVED_BLOCK, rdbi.getStatus());
+        }
+      }
+
+      MetricsRecordBuilder rb = getMetrics(singletonDn.getMetrics().name());
+      assertTrue(getLongCounter("IncrementalBlockReportCoalesced", rb) >= 1);
+      assertTrue(getLongCounter("IncrementalBlockReportBlocks", rb) >= 3);
+    } finally {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
 }
@@ -30,6 +30,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsBlocksMetadata;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.*;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
@@ -433,4 +434,14 @@ public boolean getPinning(ExtendedBlock block) throws IOException {
   public boolean isDeletingBlock(String bpid, long blockId) {
     return false;
   }
+
+  @Override
+  public AutoCloseableLock acquireDatasetLock() {
+    return null;
+  }
+
+  @Override
+  public AutoCloseableLock acquireReplicaLock(String bpid, long blockId) {
+    return null;
+  }
 }
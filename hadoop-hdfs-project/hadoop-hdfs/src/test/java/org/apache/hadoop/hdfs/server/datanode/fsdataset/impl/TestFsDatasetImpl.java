@@ -17,12 +17,16 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystemTestHelper;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -46,13 +50,18 @@
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry;
 import org.apache.hadoop.hdfs.server.datanode.StorageLocation;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.AutoCloseableLock;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.RoundRobinVolumeChoosingPolicy;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -69,6 +78,8 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DATANODE_SCAN_PERIOD_HOURS_KEY;
 import static org.junit.Assert.assertEquals;
@@ -92,6 +103,7 @@
 import static org.mockito.Mockito.when;
 
 public class TestFsDatasetImpl {
+  private static final Log LOG = LogFactory.getLog(TestFsDatasetImpl.class);
   private static final String BASE_DIR =
       new FileSystemTestHelper().getTestRootDir();
   private static final int NUM_INIT_VOLUMES = 2;
@@ -503,4 +515,155 @@ public void testCleanShutdownOfVolume() throws Exception {
     cluster.shutdown();
     }
   }
+
+  /**
+   * Writers on different blocks must not serialize on a single dataset lock:
+   * each writer holds the replica lock of its first block until all the
+   * others hold theirs too, which only happens if they can overlap.
+   */
+  @Test(timeout = 60000)
+  public void testConcurrentReplicaWrites() throws Exception {
+    try {
+      final long firstBlockId = 10000;
+      final int numThreads = 8;
+      final int blocksPerThread = 20;
+      final String bpid = BLOCK_POOL_IDS[0];
+      final List<Throwable> errors =
+          Collections.synchronizedList(new ArrayList<Throwable>());
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch holders = new CountDownLatch(numThreads);
+      List<Thread> writers = new ArrayList<Thread>();
+      for (int t = 0; t < numThreads; t++) {
+        final long firstId = firstBlockId + t * blocksPerThread;
+        Thread writer = new Thread() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+              for (long id = firstId; id < firstId + blocksPerThread; id++) {
+                writeAndFinalize(new ExtendedBlock(bpid, id, 0, id),
+                    id == firstId ? holders : null);
+              }
+            } catch (Throwable e) {
+              errors.add(e);
+            }
+          }
+        };
+        writer.start();
+        writers.add(writer);
+      }
+      long begin = Time.monotonicNow();
+      start.countDown();
+      for (Thread writer : writers) {
+        writer.join();
+      }
+      long elapsed = Time.monotonicNow() - begin;
+      assertTrue("Writers failed: " + errors, errors.isEmpty());
+
+      final int numBlocks = numThreads * blocksPerThread;
+      LOG.info("Finalized " + numBlocks + " replicas on "
+          + dataset.getVolumes().size() + " volumes in " + elapsed + " ms ("
+          + (numBlocks * 1000L / Math.max(1, elapsed)) + " replicas/s)");
+      assertEquals(numBlocks, dataset.getFinalizedBlocks(bpid).size());
+      Set<FsVolumeSpi> usedVolumes = new HashSet<FsVolumeSpi>();
+      for (long id = firstBlockId; id < firstBlockId + numBlocks; id++) {
+        ExtendedBlock eb = new ExtendedBlock(bpid, id, 0, id);
+        assertEquals(HdfsServerConstants.ReplicaState.FINALIZED,
+            dataset.getReplicaInfo(eb).getState());
+        usedVolumes.add(dataset.getVolume(eb));
+      }
+      assertEquals(NUM_INIT_VOLUMES, usedVolumes.size());
+    } finally {
+      // Do not leave replicas behind for the next setUp to load.
+      FileUtil.fullyDelete(new File(BASE_DIR));
+    }
+  }
+
+  /**
+   * A replica lock held by a stalled operation only blocks operations on
+   * blocks sharing its stripe, while the dataset lock blocks all of them.
+   */
+  @Test(timeout = 30000)
+  public void testReplicaLockIsolation() throws Exception {
+    try {
+      final String bpid = BLOCK_POOL_IDS[0];
+      final ExtendedBlock stalled = new ExtendedBlock(bpid, 10001, 0, 1001);
+      final ExtendedBlock other = new ExtendedBlock(bpid, 10002, 0, 1002);
+      final ExtendedBlock blocked = new ExtendedBlock(bpid, 10003, 0, 1003);
+
+      try (AutoCloseableLock lock = dataset.acquireReplicaLock(
+          bpid, stalled.getBlockId())) {
+        assertTrue(dataset.getLockManager()
+            .isReplicaLockedByCurrentThread(bpid, stalled.getBlockId()));
+        // Another writer proceeds while the stalled replica holds its lock.
+        Thread writer = createAndFinalize(other);
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertEquals(HdfsServerConstants.ReplicaState.FINALIZED,
+            dataset.getReplicaInfo(other).getState());
+      }
+      // The stalled replica is usable again once its lock is released.
+      Thread stalledWriter = createAndFinalize(stalled);
+      stalledWriter.join(10000);
+      assertFalse(stalledWriter.isAlive());
+
+      final Thread writer;
+      try (AutoCloseableLock lock = dataset.acquireDatasetLock()) {
+        writer = createAndFinalize(blocked);
+        // The writer parks on the dataset lock before creating its replica.
+        GenericTestUtils.waitFor(new Supplier<Boolean>() {
+          @Override
+          public Boolean get() {
+            return writer.getState() == Thread.State.WAITING;
+          }
+        }, 10, 10000);
+        assertNull(dataset.volumeMap.get(bpid, blocked.getBlockId()));
+      }
+      writer.join(10000);
+      assertFalse(writer.isAlive());
+      assertEquals(HdfsServerConstants.ReplicaState.FINALIZED,
+          dataset.getReplicaInfo(blocked).getState());
+    } finally {
+      // Do not leave replicas behind for the next setUp to load.
+      FileUtil.fullyDelete(new File(BASE_DIR));
+    }
+  }
+
+  private Thread createAndFinalize(final ExtendedBlock eb) {
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          writeAndFinalize(eb, null);
+        } catch (Exception e) {
+          LOG.error("Failed to write " + eb, e);
+        }
+      }
+    };
+    writer.start();
+    return writer;
+  }
+
+  /**
+   * Create a replica and finalize it.  If holders is not null, count it down
+   * while holding the replica lock, and keep the lock until it reaches zero.
+   */
+  private void writeAndFinalize(ExtendedBlock eb, CountDownLatch holders)
+      throws IOException, InterruptedException {
+    try (ReplicaHandler replica =
+        dataset.createRbw(StorageType.DEFAULT, eb, false)) {
+      ReplicaOutputStreams streams = replica.getReplica().createStreams(true,
+          DataChecksum.newDataChecksum(DataChecksum.Type.CRC32, 512));
+      streams.close();
+      if (holders != null) {
+        try (AutoCloseableLock lock = dataset.acquireReplicaLock(
+            eb.getBlockPoolId(), eb.getBlockId())) {
+          holders.countDown();
+          assertTrue("Replica writers were serialized",
+              holders.await(30, TimeUnit.SECONDS));
+        }
+      }
+      dataset.finalizeBlock(eb);
+    }
+  }
 }
@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.server.namenode.AuditEventDispatcher.AuditEvent;
+import org.apache.hadoop.hdfs.server.namenode.AuditEventDispatcher.OverflowPolicy;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AuditEventDispatcher}.
+ */
+public class TestAuditEventDispatcher {
+
+  /** Records the src of every event it is given. */
+  private static class RecordingSink implements AuditEventDispatcher.Sink {
+    final List<String> srcs =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void logAuditEvent(AuditEvent event) {
+      srcs.add(event.src);
+    }
+  }
+
+  /** Blocks the dispatcher thread until released. */
+  private static class BlockingSink extends RecordingSink {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void logAuditEvent(AuditEvent event) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.logAuditEvent(event);
+    }
+  }
+
+  private static AuditEvent event(String src) {
+    return new AuditEvent(true, null, null, "open", src, null, null, false);
+  }
+
+  @Test
+  public void testCapacityRoundedToPowerOfTwo() throws Exception {
+    AuditEventDispatcher d = new AuditEventDispatcher(1000,
+        OverflowPolicy.BLOCK, new RecordingSink());
+    assertEquals(1024, d.getCapacity());
+    d.close();
+    d = new AuditEventDispatcher(1, OverflowPolicy.BLOCK, new RecordingSink());
+    assertEquals(1, d.getCapacity());
+    d.close();
+  }
+
+  @Test(timeout=60000)
+  public void testEventsDeliveredInOrderPerProducer() throws Exception {
+    final RecordingSink sink = new RecordingSink();
+    final AuditEventDispatcher d =
+        new AuditEventDispatcher(16, OverflowPolicy.BLOCK, sink);
+    d.start();
+    final int producers = 4;
+    final int perProducer = 5000;
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int id = p;
+      threads[p] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            d.dispatch(event(id + ":" + i));
+          }
+        }
+      };
+      threads[p].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    d.close();
+
+    assertEquals(producers * perProducer, sink.srcs.size());
+    assertEquals(0, d.getDroppedCount());
+    assertEquals(0, d.getQueueSize());
+    int[] next = new int[producers];
+    for (String src : sink.srcs) {
+      String[] parts = src.split(":");
+      int id = Integer.parseInt(parts[0]);
+      assertEquals(next[id]++, Integer.parseInt(parts[1]));
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testDropPolicyCountsDroppedEvents() throws Exception {
+    BlockingSink sink = new BlockingSink();
+    AuditEventDispatcher d =
+        new AuditEventDispatcher(4, OverflowPolicy.DROP, sink);
+    d.start();
+    // The dispatcher takes the first event and blocks in the sink.
+    d.dispatch(event("first"));
+    assertTrue(sink.entered.await(30, TimeUnit.SECONDS));
+    for (int i = 0; i < 10; i++) {
+      d.dispatch(event("e" + i));
+    }
+    assertEquals(4, d.getQueueSize());
+    assertEquals(6, d.getDroppedCount());
+
+    sink.release.countDown();
+    d.close();
+    assertEquals(5, sink.srcs.size());
+    assertEquals("first", sink.srcs.get(0));
+    assertEquals("e3", sink.srcs.get(4));
+  }
+
+  @Test(timeout=60000)
+  public void testBlockPolicyWaitsForSpace() throws Exception {
+    final BlockingSink sink = new BlockingSink();
+    final AuditEventDispatcher d =
+        new AuditEventDispatcher(2, OverflowPolicy.BLOCK, sink);
+    d.start();
+    d.dispatch(event("first"));
+    assertTrue(sink.entered.await(30, TimeUnit.SECONDS));
+    Thread producer = new Thread() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 10; i++) {
+          d.dispatch(event("e" + i));
+        }
+      }
+    };
+    producer.start();
+    // The producer can fill the buffer but not get past it.
+    producer.join(500);
+    assertTrue(producer.isAlive());
+    assertEquals(2, d.getQueueSize());
+
+    sink.release.countDown();
+    producer.join();
+    d.close();
+    assertEquals(11, sink.srcs.size());
+    assertEquals(0, d.getDroppedCount());
+  }
+
+  /**
+   * Events of producers which race with close() must not be lost, whether
+   * they are queued just before the dispatcher stops or logged inline.
+   */
+  @Test(timeout=60000)
+  public void testNoEventLostWhileClosing() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final RecordingSink sink = new RecordingSink();
+      final AuditEventDispatcher d =
+          new AuditEventDispatcher(64, OverflowPolicy.BLOCK, sink);
+      d.start();
+      final int producers = 4;
+      final int perProducer = 2000;
+      final CountDownLatch started = new CountDownLatch(producers);
+      Thread[] threads = new Thread[producers];
+      for (int p = 0; p < producers; p++) {
+        final int id = p;
+        threads[p] = new Thread() {
+          @Override
+          public void run() {
+            started.countDown();
+            for (int i = 0; i < perProducer; i++) {
+              d.dispatch(event(id + ":" + i));
+            }
+          }
+        };
+        threads[p].start();
+      }
+      started.await();
+      d.close();
+      for (Thread t : threads) {
+        t.join();
+      }
+      assertEquals(producers * perProducer, sink.srcs.size());
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testEventsLoggedInlineAfterClose() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    AuditEventDispatcher d =
+        new AuditEventDispatcher(8, OverflowPolicy.DROP, sink);
+    d.start();
+    d.close();
+    d.dispatch(event("late"));
+    assertEquals(1, sink.srcs.size());
+    assertEquals("late", sink.srcs.get(0));
+  }
+}
@@ -25,6 +25,7 @@
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -69,17 +70,20 @@
 public class TestAuditLogs {
   static final String auditLogFile = PathUtils.getTestDirName(TestAuditLogs.class) + "/TestAuditLogs-audit.log";
   final boolean useAsyncLog;
+  final boolean useDispatcher;
   
   @Parameters
   public static Collection<Object[]> data() {
     Collection<Object[]> params = new ArrayList<Object[]>();
-    params.add(new Object[]{new Boolean(false)});
-    params.add(new Object[]{new Boolean(true)});
+    params.add(new Object[]{new Boolean(false), new Boolean(false)});
+    params.add(new Object[]{new Boolean(true), new Boolean(false)});
+    params.add(new Object[]{new Boolean(false), new Boolean(true)});
     return params;
   }
   
-  public TestAuditLogs(boolean useAsyncLog) {
+  public TestAuditLogs(boolean useAsyncLog, boolean useDispatcher) {
     this.useAsyncLog = useAsyncLog;
+    this.useDispatcher = useDispatcher;
   }
 
   // Pattern for: 
@@ -94,6 +98,8 @@ public TestAuditLogs(boolean useAsyncLog) {
       ".*allowed=true.*");
   static final Pattern webOpenPattern = Pattern.compile(
       ".*cmd=open.*proto=webhdfs.*");
+  static final Pattern webStatPattern = Pattern.compile(
+      ".*cmd=getfileinfo.*proto=webhdfs.*");
 
   static final String username = "bob";
   static final String[] groups = { "group1" };
@@ -117,6 +123,9 @@ public void setupCluster() throws Exception {
     conf.setLong(DFSConfigKeys.DFS_BLOCKREPORT_INTERVAL_MSEC_KEY, 10000L);
     conf.setBoolean(DFSConfigKeys.DFS_WEBHDFS_ENABLED_KEY, true);
     conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY, useAsyncLog);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_DISPATCHER_ENABLED_KEY,
+        useDispatcher);
     util = new DFSTestUtil.Builder().setName("TestAuditAllowed").
         setNumFiles(20).build();
     cluster = new MiniDFSCluster.Builder(conf).numDataNodes(4).build();
@@ -129,6 +138,8 @@ public void setupCluster() throws Exception {
     List<Appender> appenders = Collections.list(logger.getAllAppenders());
     assertEquals(1, appenders.size());
     assertEquals(useAsyncLog, appenders.get(0) instanceof AsyncAppender);
+    assertEquals(useDispatcher,
+        cluster.getNamesystem().getAuditEventDispatcher() != null);
     
     fnames = util.getFileNames(fileName);
     util.waitReplication(fs, fileName, (short)3);
@@ -224,6 +235,19 @@ public void testAuditWebHdfsStat() throws Exception {
     assertTrue("failed to stat file", st != null && st.isFile());
   }
 
+  /** test that stat via webhdfs is logged with the webhdfs protocol */
+  @Test
+  public void testAuditWebHdfsStatProtocol() throws Exception {
+    final Path file = new Path(fnames[0]);
+
+    setupAuditLogs();
+
+    WebHdfsFileSystem webfs = WebHdfsTestUtil.getWebHdfsFileSystemAs(userGroupInfo, conf, WebHdfsFileSystem.SCHEME);
+    webfs.getFileStatus(file);
+
+    verifyAuditLogsCheckPattern(true, 1, webStatPattern);
+  }
+
   /** test that access via Hftp puts proper entry in audit log */
   @Test
   public void testAuditHftp() throws Exception {
@@ -286,11 +310,25 @@ public void testAuditWebHdfsOpen() throws Exception {
 
   /** Sets up log4j logger for auditlogs */
   private void setupAuditLogs() throws IOException {
+    waitForAuditEvents();
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     // enable logging now that the test is ready to run
     logger.setLevel(Level.INFO);
   }
   
+  /** Wait for the events buffered by the audit event dispatcher, if any */
+  private void waitForAuditEvents() throws IOException {
+    AuditEventDispatcher dispatcher =
+        cluster.getNamesystem().getAuditEventDispatcher();
+    if (dispatcher != null) {
+      try {
+        dispatcher.waitForDelivery();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
   private void configureAuditLogs() throws IOException {
     // Shutdown the LogManager to release all logger open file handles.
     // Unfortunately, Apache commons logging library does not provide
@@ -318,6 +356,7 @@ private void verifyAuditLogs(boolean expectSuccess) throws IOException {
   // Ensure audit log has exactly N entries
   private void verifyAuditLogsRepeat(boolean expectSuccess, int ndupe)
       throws IOException {
+    waitForAuditEvents();
     // Turn off the logs
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     logger.setLevel(Level.OFF);
@@ -351,6 +390,7 @@ private void verifyAuditLogsRepeat(boolean expectSuccess, int ndupe)
   // Ensure audit log has exactly N entries
   private void verifyAuditLogsCheckPattern(boolean expectSuccess, int ndupe, Pattern pattern)
       throws IOException {
+    waitForAuditEvents();
     // Turn off the logs
     Logger logger = ((Log4JLogger) FSNamesystem.auditLog).getLogger();
     logger.setLevel(Level.OFF);
@@ -20,6 +20,7 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.spy;
 
@@ -173,8 +174,23 @@ private void stopTransactionWorkers() {
    */
   @Test
   public void testEditLogRolling() throws Exception {
+    testEditLogRolling(false);
+  }
+
+  /**
+   * Tests rolling edit logs while transactions are queued for the
+   * edit log sync thread.
+   */
+  @Test
+  public void testEditLogRollingAsync() throws Exception {
+    testEditLogRolling(true);
+  }
+
+  private void testEditLogRolling(boolean useAsyncEditLog) throws Exception {
     // start a cluster 
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        useAsyncEditLog);
     MiniDFSCluster cluster = null;
     FileSystem fileSys = null;
 
@@ -186,6 +202,8 @@ public void testEditLogRolling() throws Exception {
       fileSys = cluster.getFileSystem();
       final NamenodeProtocols nn = cluster.getNameNode().getRpcServer();
       FSImage fsimage = cluster.getNamesystem().getFSImage();
+      assertEquals(useAsyncEditLog,
+          fsimage.getEditLog() instanceof FSEditLogAsync);
       StorageDirectory sd = fsimage.getStorage().getStorageDir(0);
 
       startTransactionWorkers(nn, caughtErr);
@@ -255,8 +273,23 @@ private long verifyEditLogs(FSNamesystem namesystem, FSImage fsimage,
    */
   @Test
   public void testSaveNamespace() throws Exception {
+    testSaveNamespace(false);
+  }
+
+  /**
+   * Tests saving fs image while transactions are queued for the
+   * edit log sync thread.
+   */
+  @Test
+  public void testSaveNamespaceAsync() throws Exception {
+    testSaveNamespace(true);
+  }
+
+  private void testSaveNamespace(boolean useAsyncEditLog) throws Exception {
     // start a cluster 
     Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        useAsyncEditLog);
     MiniDFSCluster cluster = null;
     FileSystem fileSys = null;
 
@@ -497,7 +530,7 @@ public Void answer(InvocationOnMock invocation) throws Throwable {
           return null;
         }
       };
-      doAnswer(blockingSync).when(editLog).logSync();
+      doAnswer(blockingSync).when(editLog).logSync(anyLong());
       
       doAnEditThread.start();
       LOG.info("Main thread: waiting to just before logSync...");
@@ -21,13 +21,16 @@
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
@@ -38,11 +41,15 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream.SyncFlag;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
+import org.apache.hadoop.hdfs.server.namenode.NNStorage.NameNodeFile;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.PathUtils;
@@ -118,6 +125,157 @@ private void testPersistHelper(Configuration conf) throws IOException {
     }
   }
 
+  /**
+   * Save the namespace with sub-sections, load it in parallel, and load it
+   * again serially.
+   */
+  @Test(timeout=120000)
+  public void testParallelSaveAndLoad() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_SAVE_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 10);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        Path dir = new Path("/dir" + i);
+        for (int j = 0; j < 5; j++) {
+          FSDataOutputStream out = fs.create(new Path(dir, "file" + j));
+          out.writeBytes("file" + i + j);
+          out.close();
+        }
+      }
+      fs.createSymlink(new Path("/dir0/file0"), new Path("/link"), false);
+      // a renamed file of a snapshot is saved as a reference
+      fs.allowSnapshot(new Path("/dir1"));
+      fs.createSnapshot(new Path("/dir1"), "s1");
+      fs.rename(new Path("/dir1/file0"), new Path("/dir2/renamed"));
+      final String expected = listRecursively(fs, new Path("/"));
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      assertTrue(countSections(fsimage, SectionName.INODE_SUB) > 1);
+      assertTrue(countSections(fsimage, SectionName.INODE_DIR_SUB) > 1);
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      assertEquals(expected, listRecursively(fs, new Path("/")));
+      assertTrue(fs.exists(new Path("/dir1/.snapshot/s1/file0")));
+
+      // the sub-sections are ignored when loading serially
+      cluster.getConfiguration(0).setBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, false);
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      assertEquals(expected, listRecursively(fs, new Path("/")));
+      assertTrue(fs.exists(new Path("/dir1/.snapshot/s1/file0")));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Images which may be loaded by the NameNode version a rolling upgrade
+   * started from must not have sub-sections.
+   */
+  @Test(timeout=120000)
+  public void testNoSubSectionsDuringRollingUpgrade() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 10);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 20; i++) {
+        fs.mkdirs(new Path("/dir" + i));
+      }
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+
+      // the rollback image
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.rollingUpgrade(RollingUpgradeAction.PREPARE);
+      File[] rollbackImages = currentDir.listFiles(new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+          return name.startsWith(NameNodeFile.IMAGE_ROLLBACK.getName())
+              && !name.endsWith(MD5FileUtils.MD5_SUFFIX);
+        }
+      });
+      assertEquals(1, rollbackImages.length);
+      assertEquals(0, countSections(rollbackImages[0], SectionName.INODE_SUB));
+
+      // an image saved during the rolling upgrade
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      assertEquals(0, countSections(fsimage, SectionName.INODE_SUB));
+      assertEquals(0, countSections(fsimage, SectionName.INODE_DIR_SUB));
+
+      // an image saved after the rolling upgrade was finalized
+      fs.rollingUpgrade(RollingUpgradeAction.FINALIZE);
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+      assertTrue(countSections(fsimage, SectionName.INODE_SUB) > 1);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static int countSections(File fsimage, SectionName name)
+      throws IOException {
+    RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+    int count = 0;
+    try {
+      for (FileSummary.Section s :
+          FSImageUtil.loadSummary(raFile).getSectionsList()) {
+        if (SectionName.fromString(s.getName()) == name) {
+          count++;
+        }
+      }
+    } finally {
+      raFile.close();
+    }
+    return count;
+  }
+
+  private static String listRecursively(FileSystem fs, Path dir)
+      throws IOException {
+    StringBuilder b = new StringBuilder();
+    for (FileStatus st : fs.listStatus(dir)) {
+      b.append(st.getPath().toUri().getPath()).append(' ')
+          .append(st.getLen()).append('\n');
+      if (st.isDirectory()) {
+        b.append(listRecursively(fs, st.getPath()));
+      }
+    }
+    return b.toString();
+  }
+
   /**
    * Ensure that the digest written by the saver equals to the digest of the
    * file.
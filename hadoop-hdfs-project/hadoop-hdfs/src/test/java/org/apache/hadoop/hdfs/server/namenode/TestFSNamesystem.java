@@ -200,6 +200,36 @@ public void testFSNamesystemLockCompatibility() {
     assertEquals(0, rwLock.getWriteHoldCount());
   }
 
+  @Test
+  public void testFSNamesystemLockOptimisticRead() {
+    FSNamesystemLock rwLock = new FSNamesystemLock(true);
+
+    long stamp = rwLock.tryOptimisticRead();
+    assertTrue(stamp != 0);
+    assertTrue(rwLock.isOptimisticReadByCurrentThread());
+    // readers do not invalidate each other.
+    rwLock.acquireReadLock();
+    rwLock.releaseReadLock(null);
+    assertTrue(rwLock.validate(stamp));
+    assertFalse(rwLock.isOptimisticReadByCurrentThread());
+
+    stamp = rwLock.tryOptimisticRead();
+    rwLock.acquireWriteLock();
+    rwLock.releaseWriteLock(null);
+    assertFalse(rwLock.validate(stamp));
+
+    // no optimistic read while the write lock is held, even reentrantly.
+    rwLock.acquireWriteLock();
+    rwLock.acquireWriteLock();
+    rwLock.releaseWriteLock(null);
+    assertEquals(0, rwLock.tryOptimisticRead());
+    assertFalse(rwLock.validate(0));
+    rwLock.releaseWriteLock(null);
+    stamp = rwLock.tryOptimisticRead();
+    assertTrue(stamp != 0);
+    assertTrue(rwLock.validate(stamp));
+  }
+
   @Test
   public void testReset() throws Exception {
     Configuration conf = new Configuration();
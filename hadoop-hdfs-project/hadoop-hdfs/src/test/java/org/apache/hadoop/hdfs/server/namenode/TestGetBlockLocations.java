@@ -18,10 +18,12 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import org.apache.commons.io.Charsets;
+import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Test;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -31,7 +33,14 @@
 
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SIZE_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY;
 import static org.apache.hadoop.util.Time.now;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doAnswer;
@@ -39,6 +48,7 @@
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -109,8 +119,80 @@ public Void answer(InvocationOnMock invocation) throws Throwable {
     fsn.close();
   }
 
-  private static FSNamesystem setupFileSystem() throws IOException {
+  @Test(timeout = 30000)
+  public void testOptimisticReadRacingWithWriter() throws IOException {
     Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY, true);
+    FSNamesystem fsn = spy(setupFileSystem(conf));
+    final FSNamesystem namesystem = fsn;
+    final boolean[] raced = new boolean[1];
+
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        if (!raced[0]) {
+          // the first, optimistic, lookup runs while the namespace is
+          // being modified by another thread.
+          assertFalse(namesystem.hasReadLock());
+          assertTrue(namesystem.isReadingOptimistically());
+          raced[0] = true;
+          Thread writer = new Thread() {
+            @Override
+            public void run() {
+              namesystem.writeLock();
+              namesystem.writeUnlock();
+            }
+          };
+          writer.start();
+          try {
+            writer.join();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          // the lookup trips over the state left behind by the writer.
+          throw new NullPointerException();
+        }
+        assertTrue(namesystem.getReadHoldCount() > 0);
+        assertFalse(namesystem.isReadingOptimistically());
+        return invocation.callRealMethod();
+      }
+    }).when(fsn).getBlockLocations(any(FSPermissionChecker.class),
+        anyString(), anyLong(), anyLong(), anyBoolean(), anyBoolean());
+
+    assertEquals(0, fsn.getBlockLocations("dummy", FILE_PATH, 0, 1024)
+        .locatedBlockCount());
+    // the optimistic lookup was discarded and run again under the lock.
+    verify(fsn, times(2)).getBlockLocations(any(FSPermissionChecker.class),
+        anyString(), anyLong(), anyLong(), anyBoolean(), anyBoolean());
+    assertFalse(fsn.isReadingOptimistically());
+    fsn.close();
+  }
+
+  @Test(timeout = 30000)
+  public void testOptimisticReadFailure() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_OPTIMISTIC_READ_ENABLED_KEY, true);
+    FSNamesystem fsn = spy(setupFileSystem(conf));
+
+    // a failure which is not caused by a race is not retried under the lock.
+    try {
+      fsn.getBlockLocations("dummy", FILE_PATH, -1, 1024);
+      fail("Expected an exception for a negative offset");
+    } catch (HadoopIllegalArgumentException e) {
+      GenericTestUtils.assertExceptionContains("Negative offset", e);
+    }
+    verify(fsn, times(1)).getBlockLocations(any(FSPermissionChecker.class),
+        anyString(), anyLong(), anyLong(), anyBoolean(), anyBoolean());
+    assertFalse(fsn.isReadingOptimistically());
+    fsn.close();
+  }
+
+  private static FSNamesystem setupFileSystem() throws IOException {
+    return setupFileSystem(new Configuration());
+  }
+
+  private static FSNamesystem setupFileSystem(Configuration conf)
+      throws IOException {
     conf.setLong(DFS_NAMENODE_ACCESSTIME_PRECISION_KEY, 1L);
     FSEditLog editlog = mock(FSEditLog.class);
     FSImage image = mock(FSImage.class);
@@ -33,6 +33,7 @@
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.NNStorage;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
@@ -104,6 +105,47 @@ public void testTailer() throws IOException, InterruptedException,
     }
   }
   
+  @Test
+  public void testTailerInProgressFromJournalNodes() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    // Never roll, so the edits are only ever in an in-progress segment
+    conf.setInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY, -1);
+    HAUtil.setAllowStandbyReads(conf, true);
+
+    MiniQJMHACluster qjmhaCluster = new MiniQJMHACluster.Builder(conf).build();
+    MiniDFSCluster cluster = qjmhaCluster.getDfsCluster();
+    try {
+      cluster.transitionToActive(0);
+      NameNode nn1 = cluster.getNameNode(0);
+      final NameNode nn2 = cluster.getNameNode(1);
+      for (int i = 0; i < DIRS_TO_MAKE; i++) {
+        NameNodeAdapter.mkdirs(nn1, getDirPath(i),
+            new PermissionStatus("test","test", new FsPermission((short)00755)),
+            true);
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          try {
+            for (int i = 0; i < DIRS_TO_MAKE; i++) {
+              if (NameNodeAdapter.getFileInfo(nn2, getDirPath(i),
+                  false) == null) {
+                return false;
+              }
+            }
+            return true;
+          } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+          }
+        }
+      }, 100, (int) NN_LAG_TIMEOUT);
+    } finally {
+      qjmhaCluster.shutdown();
+    }
+  }
+
   @Test
   public void testNN0TriggersLogRolls() throws Exception {
     testStandbyTriggersLogRolls(0);
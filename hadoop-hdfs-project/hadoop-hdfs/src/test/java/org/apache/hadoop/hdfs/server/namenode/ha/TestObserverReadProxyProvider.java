@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.NameNodeProxies;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that {@link ObserverReadProxyProvider} reads from the standby
+ * NameNode only once it has caught up with the client.
+ */
+public class TestObserverReadProxyProvider {
+  private static final long MAX_WAIT_MS = 5000;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private NameNode active;
+  private NameNode standby;
+  private ObserverReadProxyProvider<ClientProtocol> provider;
+
+  @Before
+  public void setup() throws Exception {
+    conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_OBSERVER_READS_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_HA_OBSERVER_READS_MAX_WAIT_MS_KEY,
+        MAX_WAIT_MS);
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    cluster.waitActive();
+    cluster.transitionToActive(0);
+    active = cluster.getNameNode(0);
+    standby = cluster.getNameNode(1);
+
+    HATestUtil.setFailoverConfigurations(cluster, conf);
+    provider = new ObserverReadProxyProvider<ClientProtocol>(conf,
+        new URI("hdfs://" + HATestUtil.getLogicalHostname(cluster)),
+        ClientProtocol.class);
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    if (provider != null) {
+      provider.close();
+    }
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private ClientProtocol getClient() {
+    return provider.getProxy().proxy;
+  }
+
+  private void mkdir(String path) throws IOException {
+    getClient().mkdirs(path, FsPermission.getDefault(), true);
+  }
+
+  @Test(timeout=60000)
+  public void testReadsAfterStandbyCaughtUp() throws Exception {
+    mkdir("/a");
+    long txid = provider.getLastSeenStateId();
+    assertTrue("client did not learn the state of the active", txid > 0);
+
+    HATestUtil.waitForStandbyToCatchUp(active, standby);
+    assertNotNull(getClient().getFileInfo("/a"));
+    assertNotNull(getClient().getListing("/", new byte[0], false));
+    assertEquals(2, provider.getStandbyReads());
+  }
+
+  @Test(timeout=60000)
+  public void testReadWaitsForStandby() throws Exception {
+    mkdir("/b");
+    // let the standby load the new edits while the read is held back
+    Thread roller = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(500);
+          HATestUtil.waitForStandbyToCatchUp(active, standby);
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    roller.start();
+    assertNotNull(getClient().getFileInfo("/b"));
+    roller.join();
+    assertEquals(1, provider.getStandbyReads());
+  }
+
+  @Test(timeout=60000)
+  public void testReadFallsBackToActive() throws Exception {
+    mkdir("/c");
+    // the standby only tails finalized segments and never catches up here
+    assertNotNull(getClient().getFileInfo("/c"));
+    assertEquals(0, provider.getStandbyReads());
+  }
+
+  @Test(timeout=60000)
+  public void testUncoordinatedReadsRejectedByStandby() throws Exception {
+    ClientProtocol standbyClient = NameNodeProxies.createNonHAProxy(conf,
+        standby.getNameNodeAddress(), ClientProtocol.class,
+        UserGroupInformation.getCurrentUser(), false).getProxy();
+    try {
+      standbyClient.getFileInfo("/");
+      fail("the standby served a read without a client state");
+    } catch (RemoteException e) {
+      assertTrue(e.unwrapRemoteException() instanceof StandbyException);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testFailover() throws Exception {
+    mkdir("/d");
+    cluster.transitionToStandby(0);
+    cluster.transitionToActive(1);
+    try {
+      mkdir("/e");
+      fail("the write went to the standby");
+    } catch (RemoteException e) {
+      assertTrue(e.unwrapRemoteException() instanceof StandbyException);
+    }
+    provider.performFailover(getClient());
+    mkdir("/e");
+    assertNotNull(getClient().getFileInfo("/d"));
+  }
+}
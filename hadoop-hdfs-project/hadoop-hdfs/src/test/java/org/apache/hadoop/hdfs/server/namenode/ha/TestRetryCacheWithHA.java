@@ -27,10 +27,12 @@
 import java.lang.reflect.Proxy;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
@@ -69,6 +71,8 @@
 import org.apache.hadoop.hdfs.protocol.LastBlockWithStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOp;
+import org.apache.hadoop.hdfs.protocol.BatchedNamespaceOpResult;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguousUnderConstruction;
@@ -163,7 +167,7 @@ public void testRetryCacheOnStandbyNN() throws Exception {
     FSNamesystem fsn0 = cluster.getNamesystem(0);
     LightWeightCache<CacheEntry, CacheEntry> cacheSet = 
         (LightWeightCache<CacheEntry, CacheEntry>) fsn0.getRetryCache().getCacheSet();
-    assertEquals(25, cacheSet.size());
+    assertEquals(26, cacheSet.size());
     
     Map<CacheEntry, CacheEntry> oldEntries = 
         new HashMap<CacheEntry, CacheEntry>();
@@ -184,7 +188,7 @@ public void testRetryCacheOnStandbyNN() throws Exception {
     FSNamesystem fsn1 = cluster.getNamesystem(1);
     cacheSet = (LightWeightCache<CacheEntry, CacheEntry>) fsn1
         .getRetryCache().getCacheSet();
-    assertEquals(25, cacheSet.size());
+    assertEquals(26, cacheSet.size());
     iter = cacheSet.iterator();
     while (iter.hasNext()) {
       CacheEntry entry = iter.next();
@@ -1127,6 +1131,57 @@ Object getResult() {
     }
   }
 
+  /** batchNamespaceOps */
+  class BatchNamespaceOpsOp extends AtMostOnceOp {
+    private final String dir;
+    private List<BatchedNamespaceOpResult> results;
+
+    BatchNamespaceOpsOp(DFSClient client, String dir) {
+      super("batchNamespaceOps", client);
+      this.dir = dir;
+    }
+
+    @Override
+    void prepare() throws Exception {
+      DFSTestUtil.createFile(dfs, new Path(dir, "todelete"), BlockSize,
+          DataNodes, 0);
+      DFSTestUtil.createFile(dfs, new Path(dir, "torename"), BlockSize,
+          DataNodes, 0);
+    }
+
+    @Override
+    void invoke() throws Exception {
+      results = client.batchNamespaceOps(Arrays.asList(
+          BatchedNamespaceOp.mkdirs(dir + "/newdir", null, false),
+          BatchedNamespaceOp.create(dir + "/created", null, false, false,
+              DataNodes, BlockSize),
+          BatchedNamespaceOp.delete(dir + "/todelete", false),
+          BatchedNamespaceOp.rename(dir + "/torename", dir + "/renamed",
+              false),
+          BatchedNamespaceOp.delete(dir + "/nonexistent", false)), null);
+    }
+
+    @Override
+    boolean checkNamenodeBeforeReturn() throws Exception {
+      Path renamed = new Path(dir, "renamed");
+      boolean applied = dfs.exists(renamed);
+      for (int i = 0; i < CHECKTIMES && !applied; i++) {
+        Thread.sleep(1000);
+        applied = dfs.exists(renamed);
+      }
+      return applied;
+    }
+
+    @Override
+    Object getResult() {
+      StringBuilder b = new StringBuilder();
+      for (BatchedNamespaceOpResult r : results) {
+        b.append(r.isSuccess() && r.getResult()).append(' ');
+      }
+      return b.toString().trim();
+    }
+  }
+
   @Test (timeout=60000)
   public void testCreateSnapshot() throws Exception {
     final DFSClient client = genClientWithDummyHandler();
@@ -1270,6 +1325,22 @@ public void testRemoveXAttr() throws Exception {
     testClientRetryWithFailover(op);
   }
 
+  /**
+   * A batch retried against the new active NameNode gets the results of the
+   * original call: otherwise the create would fail, the first delete would
+   * return false and the rename would fail, while the delete of a path which
+   * never existed must still return false.
+   */
+  @Test (timeout=60000)
+  public void testBatchNamespaceOps() throws Exception {
+    DFSClient client = genClientWithDummyHandler();
+    BatchNamespaceOpsOp op = new BatchNamespaceOpsOp(client, "/batch");
+    testClientRetryWithFailover(op);
+    assertEquals("true true true true false", op.getResult());
+    assertTrue(dfs.exists(new Path("/batch/created")));
+    assertTrue(dfs.exists(new Path("/batch/newdir")));
+  }
+
   /**
    * When NN failover happens, if the client did not receive the response and
    * send a retry request to the other NN, the same response should be recieved
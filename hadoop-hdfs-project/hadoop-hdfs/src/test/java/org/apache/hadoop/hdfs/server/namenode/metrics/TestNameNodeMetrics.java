@@ -88,6 +88,7 @@ public class TestNameNodeMetrics {
         "" + PERCENTILES_INTERVAL);
     // Enable stale DataNodes checking
     CONF.setBoolean(DFSConfigKeys.DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_READ_KEY, true);
+    CONF.setBoolean(DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY, true);
     ((Log4JLogger)LogFactory.getLog(MetricsAsserts.class))
       .getLogger().setLevel(Level.DEBUG);
   }
@@ -484,4 +485,20 @@ public void testReadWriteOps() throws Exception {
     assertTrue(MetricsAsserts.getLongCounter("TransactionsNumOps", rbNew) >
         startWriteCounter);
   }
+
+  /**
+   * Test that the namesystem lock hold time is recorded per operation.
+   */
+  @Test
+  public void testFSNamesystemLockHoldMetrics() throws Exception {
+    Path dir = getTestPath("lockHold");
+    fs.mkdirs(dir);
+    fs.getFileStatus(dir);
+    MetricsRecordBuilder rb = getMetrics(NN_METRICS);
+    assertCounter("FSNWriteLockMkdirsNumOps", 1L, rb);
+    assertTrue(MetricsAsserts.getLongCounter("FSNReadLockGetfileinfoNumOps",
+        rb) >= 1L);
+    assertQuantileGauges("FSNWriteLockMkdirs" + PERCENTILES_INTERVAL + "s",
+        rb);
+  }
 }
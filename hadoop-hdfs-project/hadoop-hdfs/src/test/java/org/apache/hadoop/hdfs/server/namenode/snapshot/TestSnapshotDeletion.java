@@ -210,6 +210,10 @@ private void checkQuotaUsageComputation(final Path dirPath,
         counts.getNameSpace());
     assertEquals(dirNode.dumpTreeRecursively().toString(), expectedDs,
         counts.getStorageSpace());
+    assertEquals(dirNode.dumpTreeRecursively().toString(),
+        counts.getDirectoryCount(), q.getDirectoryCount());
+    assertEquals(dirNode.dumpTreeRecursively().toString(),
+        counts.getLength(), q.getLength());
   }
   
   /**
@@ -20,6 +20,7 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCK_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_CONTEXT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_DOMAIN_SOCKET_DATA_TRAFFIC;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_DOMAIN_SOCKET_PATH_KEY;
@@ -308,7 +309,129 @@ public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
     }
     cache.close();
   }
-  
+
+  @Test(timeout=60000)
+  public void testFrequencyAdmission() throws Exception {
+    final ShortCircuitCache cache =
+        new ShortCircuitCache(2, 10000000, 1, 10000000, 1, 10000, 0, true);
+    final TestFileDescriptorPair pairs[] = new TestFileDescriptorPair[] {
+      new TestFileDescriptorPair(),
+      new TestFileDescriptorPair(),
+      new TestFileDescriptorPair(),
+    };
+    // Read the first two blocks a few times.
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < 2; i++) {
+        ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+            new ExtendedBlockId(i, "test_bp1"),
+              new SimpleReplicaCreator(i, cache, pairs[i]));
+        Preconditions.checkNotNull(info.getReplica());
+        info.getReplica().unref();
+      }
+    }
+    // Read the third block once.  Although the first block is the least
+    // recently used one, the third block should be the one evicted.
+    ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+        new ExtendedBlockId(2, "test_bp1"),
+          new SimpleReplicaCreator(2, cache, pairs[2]));
+    Preconditions.checkNotNull(info.getReplica());
+    info.getReplica().unref();
+    for (int i = 0; i < 2; i++) {
+      final Integer iVal = new Integer(i);
+      info = cache.fetchOrCreate(new ExtendedBlockId(i, "test_bp1"),
+          new ShortCircuitReplicaCreator() {
+        @Override
+        public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+          Assert.fail("expected to use existing entry for " + iVal);
+          return null;
+        }
+      });
+      Preconditions.checkNotNull(info.getReplica());
+      info.getReplica().unref();
+    }
+    Assert.assertFalse(cache.containsReplica(new ExtendedBlockId(2, "test_bp1")));
+    ShortCircuitCacheMetrics metrics = cache.getMetrics();
+    Assert.assertEquals(3, metrics.getMisses());
+    Assert.assertEquals(6, metrics.getHits());
+    Assert.assertEquals(1, metrics.getEvictions());
+    Assert.assertEquals(1, metrics.getAdmissionRejections());
+    for (int i = 0; i < pairs.length; i++) {
+      pairs[i].close();
+    }
+    cache.close();
+  }
+
+  @Test(timeout=60000)
+  public void testAddBatchedReplica() throws Exception {
+    final ShortCircuitCache cache =
+        new ShortCircuitCache(10, 10000000, 10, 10000000, 1, 10000, 0);
+    final TestFileDescriptorPair pair = new TestFileDescriptorPair();
+    final TestFileDescriptorPair pair2 = new TestFileDescriptorPair();
+    final ExtendedBlockId key = new ExtendedBlockId(123, "test_bp1");
+    ShortCircuitReplica replica =
+        new SimpleReplicaCreator(123, cache, pair).
+            createShortCircuitReplicaInfo().getReplica();
+    cache.addBatchedReplica(replica);
+    Assert.assertTrue(cache.containsReplica(key));
+    Assert.assertEquals(1, cache.getMetrics().getBatchedReplicas());
+    // A second replica for the same block is closed rather than cached.
+    ShortCircuitReplica duplicate =
+        new SimpleReplicaCreator(123, cache, pair2).
+            createShortCircuitReplicaInfo().getReplica();
+    cache.addBatchedReplica(duplicate);
+    Assert.assertEquals(1, cache.getMetrics().getBatchedReplicas());
+    Assert.assertFalse(duplicate.getDataStream().getFD().valid());
+    // The batched replica is served without creating a new one.
+    ShortCircuitReplicaInfo info = cache.fetchOrCreate(key,
+        new ShortCircuitReplicaCreator() {
+      @Override
+      public ShortCircuitReplicaInfo createShortCircuitReplicaInfo() {
+        Assert.fail("expected to use the batched replica");
+        return null;
+      }
+    });
+    Assert.assertSame(replica, info.getReplica());
+    Assert.assertEquals(1, cache.getMetrics().getHits());
+    Assert.assertEquals(0, cache.getMetrics().getMisses());
+    info.getReplica().unref();
+    pair.close();
+    pair2.close();
+    cache.close();
+  }
+
+  @Test(timeout=60000)
+  public void testBatchedReplicaBypassesAdmission() throws Exception {
+    final ShortCircuitCache cache =
+        new ShortCircuitCache(1, 10000000, 1, 10000000, 1, 10000, 0, true);
+    final TestFileDescriptorPair pair = new TestFileDescriptorPair();
+    final TestFileDescriptorPair pair2 = new TestFileDescriptorPair();
+    // Read the first block a few times, so that it is frequently accessed.
+    for (int i = 0; i < 3; i++) {
+      ShortCircuitReplicaInfo info = cache.fetchOrCreate(
+          new ExtendedBlockId(0, "test_bp1"),
+            new SimpleReplicaCreator(0, cache, pair));
+      Preconditions.checkNotNull(info.getReplica());
+      info.getReplica().unref();
+    }
+    // A batched replica has never been read, but it should still displace
+    // the least recently used replica rather than be rejected.
+    ShortCircuitReplica replica =
+        new SimpleReplicaCreator(1, cache, pair2).
+            createShortCircuitReplicaInfo().getReplica();
+    cache.addBatchedReplica(replica);
+    Assert.assertTrue(
+        cache.containsReplica(new ExtendedBlockId(1, "test_bp1")));
+    Assert.assertFalse(
+        cache.containsReplica(new ExtendedBlockId(0, "test_bp1")));
+    ShortCircuitCacheMetrics metrics = cache.getMetrics();
+    Assert.assertEquals(1, metrics.getBatchedReplicas());
+    Assert.assertEquals(1, metrics.getEvictions());
+    Assert.assertEquals(0, metrics.getAdmissionRejections());
+    pair.close();
+    pair2.close();
+    cache.close();
+  }
+
   @Test(timeout=60000)
   public void testTimeBasedStaleness() throws Exception {
     // Set up the cache with a short staleness time.
@@ -788,4 +911,92 @@ public void accept(HashMap<ShmId, RegisteredShm> segments,
     cluster.shutdown();
     sockDir.close();
   }
+
+  @Test(timeout=60000)
+  public void testBatchedShortCircuitFds() throws Exception {
+    BlockReaderTestUtil.enableShortCircuitShmTracing();
+    TemporarySocketDirectory sockDir = new TemporarySocketDirectory();
+    Configuration conf = createShortCircuitConf(
+        "testBatchedShortCircuitFds", sockDir);
+    conf.setLong(DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY,
+        1000000000L);
+    conf.setInt(DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_KEY, 4);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    final Path TEST_PATH = new Path("/test_file");
+    final int TEST_FILE_LEN = 4 * 4096;
+    final int SEED = 0xFADE3;
+    DFSTestUtil.createFile(fs, TEST_PATH, TEST_FILE_LEN, (short)1, SEED);
+    byte contents[] = DFSTestUtil.readFileBuffer(fs, TEST_PATH);
+    Assert.assertArrayEquals(
+        DFSTestUtil.calculateFileContentsFromSeed(SEED, TEST_FILE_LEN),
+        contents);
+
+    // The file descriptors of the last three blocks should have come along
+    // with those of the first block, and been served from the cache.
+    ShortCircuitCacheMetrics metrics =
+        fs.getClient().getShortCircuitCacheMetrics();
+    Assert.assertEquals(3, metrics.getBatchedReplicas());
+    Assert.assertEquals(1, metrics.getMisses());
+    Assert.assertEquals(3, metrics.getHits());
+    checkNumberOfSegmentsAndSlots(1, 4,
+        cluster.getDataNodes().get(0).getShortCircuitRegistry());
+    cluster.shutdown();
+    sockDir.close();
+  }
+
+  @Test(timeout=60000)
+  public void testBatchedShortCircuitFdsFallback() throws Exception {
+    BlockReaderTestUtil.enableShortCircuitShmTracing();
+    TemporarySocketDirectory sockDir = new TemporarySocketDirectory();
+    Configuration conf = createShortCircuitConf(
+        "testBatchedShortCircuitFdsFallback", sockDir);
+    conf.setLong(DFS_CLIENT_READ_SHORTCIRCUIT_STREAMS_CACHE_EXPIRY_MS_KEY,
+        1000000000L);
+    conf.setInt(DFS_CLIENT_READ_SHORTCIRCUIT_FDS_BATCH_SIZE_KEY, 4);
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    final Path TEST_PATH = new Path("/test_file");
+    final int TEST_FILE_LEN = 4 * 4096;
+    final int SEED = 0xFADE4;
+    DFSTestUtil.createFile(fs, TEST_PATH, TEST_FILE_LEN, (short)1, SEED);
+
+    // Make the DataNode drop batched requests, like a DataNode which does
+    // not know the op would.
+    DataNodeFaultInjector failureInjector =
+        Mockito.mock(DataNodeFaultInjector.class);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        throw new IOException(
+            "injected error into requestShortCircuitFdsBatch");
+      }
+    }).when(failureInjector).requestShortCircuitFdsBatch();
+    DataNodeFaultInjector prevInjector = DataNodeFaultInjector.instance;
+    DataNodeFaultInjector.instance = failureInjector;
+    try {
+      // TCP reads are disabled, so the read only succeeds if the client
+      // falls back to requesting the blocks one at a time.
+      byte contents[] = DFSTestUtil.readFileBuffer(fs, TEST_PATH);
+      Assert.assertArrayEquals(
+          DFSTestUtil.calculateFileContentsFromSeed(SEED, TEST_FILE_LEN),
+          contents);
+    } finally {
+      DataNodeFaultInjector.instance = prevInjector;
+    }
+
+    ShortCircuitCacheMetrics metrics =
+        fs.getClient().getShortCircuitCacheMetrics();
+    Assert.assertEquals(0, metrics.getBatchedReplicas());
+    Assert.assertEquals(4, metrics.getMisses());
+    // The slots allocated for the batch were freed, leaving one per block.
+    checkNumberOfSegmentsAndSlots(1, 4,
+        cluster.getDataNodes().get(0).getShortCircuitRegistry());
+    cluster.shutdown();
+    sockDir.close();
+  }
 }
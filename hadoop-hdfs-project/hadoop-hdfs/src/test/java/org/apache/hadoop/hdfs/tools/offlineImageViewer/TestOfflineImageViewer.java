@@ -27,6 +27,7 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
@@ -34,11 +35,13 @@
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -61,7 +64,10 @@
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
 import org.apache.hadoop.hdfs.server.namenode.FSImageTestUtil;
+import org.apache.hadoop.hdfs.server.namenode.FSImageUtil;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.web.WebHdfsFileSystem;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.net.NetUtils;
@@ -379,6 +385,100 @@ private void testPBDelimitedWriter(String db)
     assertEquals(writtenFiles.keySet(), fileNames);
   }
 
+  @Test
+  public void testPBDelimitedWriterInParallel() throws Exception {
+    testPBDelimitedWriterInParallel(originalFsimage, "");
+    testPBDelimitedWriterInParallel(originalFsimage,
+        new FileSystemTestHelper().getTestRootDir() + "/parallel.db");
+  }
+
+  /**
+   * Test that the workers read the INode section of an image with
+   * sub-sections by sub-section.
+   */
+  @Test
+  public void testPBDelimitedWriterWithSubSections() throws Exception {
+    MiniDFSCluster cluster = null;
+    File fsimage;
+    try {
+      Configuration conf = new Configuration();
+      conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+      conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 10);
+      conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 5);
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      DistributedFileSystem hdfs = cluster.getFileSystem();
+      for (int i = 0; i < NUM_DIRS; i++) {
+        for (int j = 0; j < FILES_PER_DIR; j++) {
+          hdfs.create(new Path("/dir" + i, "file" + j)).close();
+        }
+      }
+      hdfs.setSafeMode(SafeModeAction.SAFEMODE_ENTER, false);
+      hdfs.saveNamespace();
+      fsimage = FSImageTestUtil.findLatestImageFile(FSImageTestUtil
+          .getFSImage(cluster.getNameNode()).getStorage().getStorageDir(0));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+
+    int subSections = 0;
+    try (RandomAccessFile file = new RandomAccessFile(fsimage, "r")) {
+      for (FileSummary.Section s :
+          FSImageUtil.loadSummary(file).getSectionsList()) {
+        if (SectionName.fromString(s.getName()) == SectionName.INODE_SUB) {
+          subSections++;
+        }
+      }
+    }
+    assertTrue(subSections > 3);
+    testPBDelimitedWriterInParallel(fsimage, "");
+  }
+
+  private void testPBDelimitedWriterInParallel(File fsimage, String db)
+      throws Exception {
+    final String DELIMITER = "\t";
+    final int threads = 3;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (PrintStream o = new PrintStream(output);
+        PBImageDelimitedTextWriter v =
+            new PBImageDelimitedTextWriter(o, DELIMITER, db)) {
+      v.visit(new RandomAccessFile(fsimage, "r"));
+    }
+    List<String> expected = readLines(
+        new ByteArrayInputStream(output.toByteArray()));
+
+    File outputDir = folder.newFolder();
+    try (PBImageDelimitedTextWriter v = new PBImageDelimitedTextWriter(
+        outputDir, threads, DELIMITER, db)) {
+      v.visit(new RandomAccessFile(fsimage, "r"));
+    }
+    List<String> actual = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      File part = new File(outputDir, String.format("part-%05d", i));
+      assertTrue(part + " is missing", part.isFile());
+      try (FileInputStream in = new FileInputStream(part)) {
+        actual.addAll(readLines(in));
+      }
+    }
+
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertEquals(expected, actual);
+  }
+
+  private static List<String> readLines(InputStream in)
+      throws IOException {
+    List<String> lines = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line);
+    }
+    return lines;
+  }
+
   private static void compareFile(FileStatus expected, FileStatus status) {
     assertEquals(expected.getAccessTime(), status.getAccessTime());
     assertEquals(expected.getBlockSize(), status.getBlockSize());
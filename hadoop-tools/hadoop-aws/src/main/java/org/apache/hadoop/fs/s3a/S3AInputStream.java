@@ -22,9 +22,13 @@
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.apache.hadoop.fs.CombinedFileRange;
 import org.apache.hadoop.fs.FSExceptionMessages;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.io.IOUtils;
 
 import org.slf4j.Logger;
 
@@ -32,6 +36,8 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 public class S3AInputStream extends FSInputStream {
   private long pos;
@@ -44,6 +50,12 @@ public class S3AInputStream extends FSInputStream {
   private long contentLength;
   public static final Logger LOG = S3AFileSystem.LOG;
   public static final long CLOSE_THRESHOLD = 4096;
+  /**
+   * Every range of a vectored read costs a GET request, so gaps far larger
+   * than for a local file are cheaper to read through than to skip.
+   */
+  public static final int VECTORED_READ_MIN_SEEK = 128 * 1024;
+  public static final int VECTORED_READ_MAX_SIZE = 2 * 1024 * 1024;
 
   public S3AInputStream(String bucket, String key, long contentLength, AmazonS3Client client,
                         FileSystem.Statistics stats) {
@@ -179,6 +191,43 @@ public synchronized int read(byte[] buf, int off, int len) throws IOException {
     return byteRead;
   }
 
+  /**
+   * Read each group of nearby ranges with its own ranged GET request. Unlike
+   * a positional read, this leaves the open stream and its position alone.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    checkNotClosed();
+    List<FileRange> sorted =
+        VectoredReadUtils.validateAndSortRanges(ranges, contentLength);
+    for (CombinedFileRange combined : VectoredReadUtils.mergeSortedRanges(
+        sorted, VECTORED_READ_MIN_SEEK, VECTORED_READ_MAX_SIZE)) {
+      byte[] buf = new byte[combined.getLength()];
+      if (buf.length > 0) {
+        readRange(combined.getOffset(), buf);
+      }
+      combined.setData(ByteBuffer.wrap(buf));
+    }
+  }
+
+  private void readRange(long offset, byte[] buf) throws IOException {
+    LOG.debug("Reading range [" + offset + "," + (offset + buf.length) +
+        ") of " + key);
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(offset, offset + buf.length - 1);
+    S3ObjectInputStream in = client.getObject(request).getObjectContent();
+    try {
+      IOUtils.readFully(in, buf, 0, buf.length);
+    } finally {
+      // The range has been read fully, so the connection can be reused.
+      in.close();
+    }
+    if (stats != null) {
+      stats.incrementBytesRead(buf.length);
+    }
+  }
+
   private void checkNotClosed() throws IOException {
     if (closed) {
       throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);